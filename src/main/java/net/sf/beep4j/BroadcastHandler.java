@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+/**
+ * Callback interface used to notify the application about the outcome
+ * of a broadcast. A broadcast sends one message to many channels, see
+ * {@link net.sf.beep4j.ext.ChannelBroadcaster}. The handler is notified
+ * separately for every target channel, the channel is passed to each 
+ * callback method.
+ * 
+ * @author Simon Raess
+ */
+public interface BroadcastHandler {
+	
+	/**
+	 * Invoked when the message could not be sent on the given channel,
+	 * for instance because the channel has already been closed. No 
+	 * other method is invoked for that channel.
+	 * 
+	 * @param channel the target channel
+	 * @param cause the exception thrown while sending the message
+	 */
+	void sendFailed(Channel channel, RuntimeException cause);
+	
+	/**
+	 * Invoked when an ANS response is received from the given channel.
+	 * 
+	 * @param channel the target channel
+	 * @param message the received message
+	 * @see ReplyHandler#receivedANS(Message)
+	 */
+	void receivedANS(Channel channel, Message message);
+	
+	/**
+	 * Invoked when a NUL response is received from the given channel.
+	 * This completes the broadcast for that channel.
+	 * 
+	 * @param channel the target channel
+	 * @see ReplyHandler#receivedNUL()
+	 */
+	void receivedNUL(Channel channel);
+	
+	/**
+	 * Invoked when an ERR response is received from the given channel.
+	 * This completes the broadcast for that channel.
+	 * 
+	 * @param channel the target channel
+	 * @param message the received message
+	 * @see ReplyHandler#receivedERR(Message)
+	 */
+	void receivedERR(Channel channel, Message message);
+	
+	/**
+	 * Invoked when a RPY response is received from the given channel.
+	 * This completes the broadcast for that channel.
+	 * 
+	 * @param channel the target channel
+	 * @param message the received message
+	 * @see ReplyHandler#receivedRPY(Message)
+	 */
+	void receivedRPY(Channel channel, Message message);
+	
+}
@@ -50,13 +50,34 @@ public interface Channel {
 	 * Sends a message on this channel to the remote peer. This
 	 * method returns fairly quickly. That is, it does not wait for
 	 * the answer to arrive. Instead, the reply is received through
-	 * the reply listener.
-	 * 
+	 * the reply listener. If the message is sent later on the event
+	 * loop of the channel, failures are passed to a
+	 * {@link FailureAwareReplyHandler}.
+	 *
 	 * @param message the message to be sent
 	 * @param replyHandler the listener receiving the reply
+	 * @throws IllegalStateException if the channel is not alive
 	 */
 	void sendMessage(Message message, ReplyHandler replyHandler);
-	
+
+	/**
+	 * Opens a message on this channel whose content is streamed to the
+	 * remote peer. The MIME headers and any content already written
+	 * to the passed in builder are sent first. Everything written to
+	 * the returned stream is sent in intermediate frames. The message
+	 * is completed when the stream is closed.
+	 *
+	 * <p>Other messages sent on this channel while the stream is open
+	 * are queued and sent after the stream has been closed. Only one
+	 * stream can be open per channel. Note that streamed messages
+	 * are not passed through the filter chain of the channel.</p>
+	 *
+	 * @param builder the builder containing the MIME headers
+	 * @param replyHandler the listener receiving the reply
+	 * @return the stream to which the content is written
+	 */
+	MessageOutputStream openMessage(MessageBuilder builder, ReplyHandler replyHandler);
+
 	/**
 	 * Closes the channel. The channel is 
 	 * closed as soon as the conditions specified by section 2.3.1.3 of the
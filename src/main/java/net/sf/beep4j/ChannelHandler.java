@@ -39,7 +39,8 @@ public interface ChannelHandler {
 	
 	/**
 	 * Invoked by the framework when the other peer sent a message
-	 * to this peer on this channel. 
+	 * to this peer on this channel. The message is released after
+	 * this method returns, see {@link ReferenceCounted}.
 	 * 
 	 * @param c the channel on which the message was received
 	 * @param message the received message
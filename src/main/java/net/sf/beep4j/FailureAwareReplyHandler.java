@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+/**
+ * ReplyHandler that is notified when its message could not be sent.
+ * On a channel confined to an event loop, a message sent from another
+ * thread is passed to the event loop and sent later. The state of the
+ * channel is checked before the call returns, but sending can still
+ * fail on the event loop, for instance because the channel has been 
+ * closed in the meantime. Such failures are passed to 
+ * {@link #sendFailed(RuntimeException)}. Other ReplyHandlers are not 
+ * notified, the failure is only logged by the event loop.
+ * 
+ * @author Simon Raess
+ */
+public interface FailureAwareReplyHandler extends ReplyHandler {
+	
+	/**
+	 * Invoked when the message could not be sent. No other method is
+	 * invoked on this handler afterwards.
+	 * 
+	 * @param cause the exception thrown while sending the message
+	 */
+	void sendFailed(RuntimeException cause);
+	
+}
@@ -18,6 +18,7 @@ package net.sf.beep4j;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A MessageBuilder allows to easily create Message objects. It has methods
@@ -69,6 +70,17 @@ public interface MessageBuilder {
 	 * @param value the value
 	 */
 	void addHeader(String name, String value);
+	
+	/**
+	 * Enables or disables compact MIME headers. In compact mode, header
+	 * lines that only restate the defaults defined by RFC 3080 (a
+	 * Content-Type of application/octet-stream and a binary
+	 * Content-Transfer-Encoding) are not written on the wire. Compact
+	 * mode is disabled by default.
+	 * 
+	 * @param compact true to omit default header lines
+	 */
+	void setCompactHeaders(boolean compact);
 		
 	/**
 	 * Gets the underlying OutputStream that can be used to write
@@ -95,6 +107,19 @@ public interface MessageBuilder {
 	 */
 	ByteBuffer getContentBuffer(int size);
 	
+	/**
+	 * Uses a region of a file as the content of the message. The content
+	 * is not loaded into memory. Instead, it is read from the file while 
+	 * the message is sent, so that the memory usage is independent of the
+	 * size of the file. The file channel must stay open until the message
+	 * has been sent.
+	 * 
+	 * @param channel the channel of the file
+	 * @param position the position of the first byte of the content
+	 * @param length the length of the content
+	 */
+	void setContent(FileChannel channel, long position, long length);
+	
 	/**
 	 * Retrieves the resulting message object.
 	 * 
@@ -102,4 +127,15 @@ public interface MessageBuilder {
 	 */
 	Message getMessage();
 	
+	/**
+	 * Retrieves the resulting message in an immutable, pre-encoded form.
+	 * Header and content of such a message are encoded exactly once
+	 * into a shared read-only buffer. Use this method for messages that 
+	 * are sent many times, possibly on several channels, such as status
+	 * or heartbeat messages.
+	 * 
+	 * @return the pre-encoded Message object
+	 */
+	Message getPreEncodedMessage();
+	
 }
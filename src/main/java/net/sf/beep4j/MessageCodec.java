@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts application objects of type T to and from the content of 
+ * BEEP messages. A profile that exchanges a single kind of object uses 
+ * a codec to send and receive those objects without building and parsing
+ * intermediate message content. Objects are encoded directly into the 
+ * buffer that is framed and decoded directly from the received payload.
+ * 
+ * @author Simon Raess
+ * @param <T> the type of the application objects
+ * @see net.sf.beep4j.ext.MessageCodecs
+ */
+public interface MessageCodec<T> {
+	
+	/**
+	 * Gets the content type of encoded objects, for instance
+	 * <code>application/x-protobuf</code>.
+	 * 
+	 * @return the content type in the form type/subtype
+	 */
+	String getContentType();
+	
+	/**
+	 * Gets the exact number of bytes that {@link #encode(Object, ByteBuffer)}
+	 * writes for the given object.
+	 * 
+	 * @param object the object to be encoded
+	 * @return the length of the encoded object
+	 */
+	int getEncodedLength(T object);
+	
+	/**
+	 * Writes the encoded object into the given buffer, which has exactly
+	 * {@link #getEncodedLength(Object)} bytes remaining.
+	 * 
+	 * @param object the object to be encoded
+	 * @param buffer the target buffer
+	 */
+	void encode(T object, ByteBuffer buffer);
+	
+	/**
+	 * Decodes an object from the content of a received message. The
+	 * buffer is only valid during this call.
+	 * 
+	 * @param content the content of the message
+	 * @return the decoded object
+	 */
+	T decode(ByteBuffer content);
+	
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the content of a message frame by frame, as it arrives from the 
+ * remote peer. MessageContentHandlers are returned by a 
+ * {@link StreamingChannelHandler} or a {@link StreamingReplyHandler} when 
+ * the MIME headers of a message have been received.
+ * 
+ * <p>The methods are invoked in the order in which the frames are 
+ * received and never concurrently. Exactly one of {@link #contentCompleted()}
+ * and {@link #contentAborted(Throwable)} is invoked at the end.</p>
+ * 
+ * @author Simon Raess
+ */
+public interface MessageContentHandler {
+	
+	/**
+	 * Invoked for each chunk of content that has been received. The 
+	 * buffer is only valid during the invocation of this method. 
+	 * Implementations must copy the content if they need it later on.
+	 * 
+	 * @param buffer the chunk of content
+	 */
+	void contentReceived(ByteBuffer buffer);
+	
+	/**
+	 * Invoked after the last chunk of the message has been received.
+	 */
+	void contentCompleted();
+	
+	/**
+	 * Invoked if the message will never be completed, because the 
+	 * channel or the session has been closed or a protocol error ended 
+	 * the message. The handler should release the resources it holds 
+	 * for the message.
+	 * 
+	 * @param cause the reason why the message has been aborted
+	 */
+	void contentAborted(Throwable cause);
+	
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * OutputStream used to stream the content of a MSG message to the remote
+ * peer. Streams are obtained from {@link Channel#openMessage(MessageBuilder, ReplyHandler)}.
+ * The written content is not buffered until the message is complete. 
+ * Instead, it is sent in intermediate frames as soon as enough data 
+ * has been written or {@link #flush()} is called. Closing the stream
+ * sends the final frame of the message.
+ * 
+ * <p>Writing blocks while the remote peer's window does not allow to 
+ * send further frames. Therefore, the memory needed to send a message
+ * is bounded by the window size and not by the size of the message.
+ * Never write to a stream from a thread that delivers events of the 
+ * same session, otherwise the window update might never be processed.</p>
+ * 
+ * <p>The stream can also be used as a {@link WritableByteChannel}.</p>
+ * 
+ * @author Simon Raess
+ */
+public abstract class MessageOutputStream extends OutputStream implements WritableByteChannel {
+	// no additional methods
+}
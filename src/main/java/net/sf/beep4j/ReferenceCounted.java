@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+/**
+ * Implemented by objects whose underlying buffers are freed explicitly
+ * rather than by the garbage collector. A reference counted object
+ * starts with a reference count of 1. Every call to {@link #retain()}
+ * must be balanced by a call to {@link #release()}. The buffers are
+ * freed when the count drops to 0. The object must not be used anymore
+ * after that.
+ * 
+ * <p>Received messages are released by the library after the
+ * ChannelHandler or ReplyHandler method that received them has returned.
+ * A handler that keeps a received message beyond that point (for
+ * instance to process it asynchronously) must retain the message 
+ * and release it once it is done with it.</p>
+ * 
+ * @author Simon Raess
+ */
+public interface ReferenceCounted {
+	
+	/**
+	 * Gets the current reference count.
+	 * 
+	 * @return the reference count
+	 */
+	int getReferenceCount();
+	
+	/**
+	 * Increments the reference count by 1.
+	 * 
+	 * @throws IllegalStateException if the object has already been freed
+	 */
+	void retain();
+	
+	/**
+	 * Decrements the reference count by 1. The underlying buffers are freed
+	 * if the count drops to 0.
+	 * 
+	 * @return true iff the object has been freed by this call
+	 * @throws IllegalStateException if the object has already been freed
+	 */
+	boolean release();
+	
+}
@@ -21,6 +21,9 @@ package net.sf.beep4j;
  * ({@link Channel#sendChannelManagementMessage(Message, ReplyListener)}) it
  * specifies a ReplyListener.
  * 
+ * <p>Received messages are released after the callback method returns,
+ * see {@link ReferenceCounted}.</p>
+ * 
  * @author Simon Raess
  */
 public interface ReplyHandler {
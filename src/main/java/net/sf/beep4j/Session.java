@@ -74,6 +74,39 @@ public interface Session {
 	 */
 	void startChannel(ProfileInfo[] profiles, ChannelHandlerFactory factory);
 	
+	/**
+	 * Starts a new channel and piggybacks the first request on the start
+	 * channel request. This saves the round trip that is otherwise needed
+	 * to send the first message after the channel has been established. 
+	 * The request is sent base64 encoded as the content of the profile
+	 * element and has message number 0 on the new channel. The remote
+	 * peer accepts it through 
+	 * {@link StartChannelRequest#selectProfileWithRequest(ProfileInfo, ChannelHandler)}.
+	 * 
+	 * <p>The reply is passed to the given ReplyHandler after 
+	 * {@link ChannelHandler#channelOpened(Channel)} returns. It is either
+	 * piggybacked on the response to the start channel request or sent
+	 * on the new channel. If the remote peer does not process the 
+	 * request, an error is received.</p>
+	 * 
+	 * @param profileUri the uri of the profile to be used on the channel
+	 * @param message the first request sent on the channel
+	 * @param handler the channel handler for the new channel
+	 * @param replyHandler the handler receiving the reply to the request
+	 */
+	void startChannel(String profileUri, Message message, ChannelHandler handler, ReplyHandler replyHandler);
+	
+	/**
+	 * Asks the remote peer to compress the whole byte stream of the session.
+	 * The request is sent on channel 0 like a request to start a tuning 
+	 * profile. If the remote peer accepts, both peers compress all the
+	 * data they send from then on. If the remote peer declines, the
+	 * session continues uncompressed.
+	 * 
+	 * @throws IllegalStateException if the transport does not support compression
+	 */
+	void startCompression();
+	
 	/**
 	 * Closes the session. Note that this method blocks until all outstanding
 	 * requests have been sent and all requests received up to the moment
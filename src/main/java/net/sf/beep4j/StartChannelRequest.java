@@ -60,11 +60,34 @@ public interface StartChannelRequest {
 	 * which is not in the list of profiles, this method will
 	 * throw an exception.
 	 * 
+	 * <p>If the profile carries a piggybacked request, the request is
+	 * not processed. It is answered with an error on the new channel 
+	 * and its content is not sent back to the remote peer.</p>
+	 * 
 	 * @param profile the selected profile for the channel
 	 * @param handler the channel handler for the new channel
 	 */
 	void selectProfile(ProfileInfo profile, ChannelHandler handler);
 	
+	/**
+	 * Selects one particular profile from the list of profiles and 
+	 * passes the request piggybacked on its profile element to the 
+	 * new channel handler. The request is received through
+	 * {@link ChannelHandler#messageReceived(Message, Reply)} right after
+	 * the channel has been opened. If the handler sends an RPY before
+	 * that method returns, the reply is piggybacked on the positive
+	 * response to the start channel request. Otherwise, the reply is 
+	 * sent on the new channel like any other reply, but not before the
+	 * response to the start channel request. 
+	 * See {@link Session#startChannel(String, Message, ChannelHandler, ReplyHandler)}.
+	 * 
+	 * @param profile the selected profile for the channel
+	 * @param handler the channel handler for the new channel
+	 * @throws IllegalArgumentException if the profile does not carry a
+	 *         piggybacked request
+	 */
+	void selectProfileWithRequest(ProfileInfo profile, ChannelHandler handler);
+	
 	/**
 	 * Cancels the request to start a new channel. An error element in a negative
 	 * reply is sent to the other peer and the channel won't
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+/**
+ * ChannelHandler that processes incoming messages while they are received,
+ * instead of waiting for the complete message. Channels whose handler
+ * implements this interface no longer assemble MSG messages. Instead, the 
+ * handler is notified as soon as the MIME headers have arrived and then 
+ * receives the content through the returned {@link MessageContentHandler}.
+ * The {@link #messageReceived(Message, Reply)} method is not invoked for
+ * messages on such a channel.
+ * 
+ * <p>Note that streamed messages are not passed through the filter chain 
+ * of the channel.</p>
+ * 
+ * @author Simon Raess
+ */
+public interface StreamingChannelHandler extends ChannelHandler {
+	
+	/**
+	 * Invoked by the framework when the MIME headers of a message have
+	 * been received. The passed in message contains only the headers, its
+	 * content is empty. The returned handler receives the content of the 
+	 * message.
+	 * 
+	 * @param header the headers of the message
+	 * @param reply the handler used to return a response
+	 * @return the handler for the content of the message, must not be null
+	 */
+	MessageContentHandler messageStarted(Message header, Reply reply);
+	
+}
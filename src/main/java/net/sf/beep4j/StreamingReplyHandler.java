@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j;
+
+/**
+ * ReplyHandler that processes an RPY reply while it is received. This
+ * is only supported on channels whose handler is a 
+ * {@link StreamingChannelHandler}. On other channels, and for ANS and
+ * ERR replies, the reply is assembled and passed to the ReplyHandler 
+ * methods as usual. The {@link #receivedRPY(Message)} method is not 
+ * invoked for streamed replies.
+ * 
+ * @author Simon Raess
+ */
+public interface StreamingReplyHandler extends ReplyHandler {
+	
+	/**
+	 * Invoked when the MIME headers of an RPY reply have been received.
+	 * The passed in message contains only the headers, its content is 
+	 * empty. The returned handler receives the content of the reply.
+	 * 
+	 * @param header the headers of the reply
+	 * @return the handler for the content of the reply, must not be null
+	 */
+	MessageContentHandler replyStarted(Message header);
+	
+}
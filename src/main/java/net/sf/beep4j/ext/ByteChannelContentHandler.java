@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import net.sf.beep4j.BeepException;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * MessageContentHandler that writes the content of a message into a
+ * {@link WritableByteChannel} as it arrives. Each chunk is written 
+ * directly from the buffer of the received frame, so the memory needed
+ * is bounded by the frame size and not by the size of the message.
+ * 
+ * @author Simon Raess
+ */
+public abstract class ByteChannelContentHandler implements MessageContentHandler {
+	
+	private final WritableByteChannel channel;
+	
+	private long length;
+	
+	protected ByteChannelContentHandler(WritableByteChannel channel) {
+		Assert.notNull("channel", channel);
+		this.channel = channel;
+	}
+	
+	/**
+	 * Gets the number of bytes written so far.
+	 * 
+	 * @return the number of written bytes
+	 */
+	protected long getLength() {
+		return length;
+	}
+	
+	public void contentReceived(ByteBuffer buffer) {
+		ByteBuffer content = buffer.duplicate();
+		try {
+			while (content.hasRemaining()) {
+				length += channel.write(content);
+			}
+		} catch (IOException e) {
+			throw new BeepException("cannot write message content", e);
+		}
+	}
+	
+	public void contentCompleted() {
+		contentWritten(length);
+	}
+	
+	/**
+	 * Closes the channel. Subclasses that hold further resources for the
+	 * message should override this method and invoke it.
+	 */
+	public void contentAborted(Throwable cause) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new BeepException("cannot close channel of aborted message", e);
+		}
+	}
+	
+	/**
+	 * Invoked after the complete content has been written to the channel.
+	 * 
+	 * @param length the total number of bytes written
+	 */
+	protected abstract void contentWritten(long length);
+	
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.util.Collection;
+
+import net.sf.beep4j.BroadcastHandler;
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.FailureAwareReplyHandler;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.internal.message.PreEncodedMessage;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * Sends one message to many channels. The channels may belong to 
+ * different sessions. The message is encoded exactly once into a shared
+ * read-only buffer, which is then queued by reference on every target
+ * channel. Each channel sends the message as its own send window allows,
+ * so a slow receiver does not hold back the others.
+ * 
+ * <p>The outcome is reported per target channel to a 
+ * {@link BroadcastHandler}. This includes failures of channels that
+ * send the message later on their event loop.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class ChannelBroadcaster {
+	
+	private ChannelBroadcaster() {
+		// no instances
+	}
+	
+	/**
+	 * Sends the given message on all the passed in channels. 
+	 * 
+	 * @param message the message to be sent
+	 * @param channels the target channels
+	 * @param handler the handler notified about the outcome per channel
+	 * @return the number of channels the message has been sent or queued on
+	 */
+	public static int broadcast(Message message, 
+			Collection<? extends Channel> channels, BroadcastHandler handler) {
+		Assert.notNull("message", message);
+		Assert.notNull("channels", channels);
+		Assert.notNull("handler", handler);
+		
+		Message encoded = PreEncodedMessage.valueOf(message);
+		int count = 0;
+		
+		for (Channel channel : channels) {
+			try {
+				channel.sendMessage(encoded, new BroadcastReplyHandler(channel, handler));
+				count++;
+			} catch (RuntimeException e) {
+				handler.sendFailed(channel, e);
+			}
+		}
+		
+		return count;
+	}
+	
+	private static class BroadcastReplyHandler implements FailureAwareReplyHandler {
+		private final Channel channel;
+		private final BroadcastHandler handler;
+		
+		private BroadcastReplyHandler(Channel channel, BroadcastHandler handler) {
+			this.channel = channel;
+			this.handler = handler;
+		}
+		
+		public void sendFailed(RuntimeException cause) {
+			handler.sendFailed(channel, cause);
+		}
+		
+		public void receivedANS(Message message) {
+			handler.receivedANS(channel, message);
+		}
+		
+		public void receivedERR(Message message) {
+			handler.receivedERR(channel, message);
+		}
+		
+		public void receivedNUL() {
+			handler.receivedNUL(channel);
+		}
+		
+		public void receivedRPY(Message message) {
+			handler.receivedRPY(channel, message);
+		}
+	}
+	
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageCodec;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.ReferenceCounting;
+
+/**
+ * Base class for ChannelHandlers of profiles that exchange application 
+ * objects encoded by a {@link MessageCodec}. Received messages are decoded
+ * and passed to {@link #objectReceived(Object, Reply)}.
+ * 
+ * @author Simon Raess
+ * @param <T> the type of the application objects
+ */
+public abstract class CodecChannelHandler<T> extends ChannelHandlerAdapter {
+	
+	private final MessageCodec<T> codec;
+	
+	protected CodecChannelHandler(MessageCodec<T> codec) {
+		Assert.notNull("codec", codec);
+		this.codec = codec;
+	}
+	
+	/**
+	 * Gets the codec of this handler.
+	 * 
+	 * @return the codec
+	 */
+	protected MessageCodec<T> getCodec() {
+		return codec;
+	}
+	
+	/**
+	 * Encodes the given object into a message. The message should be 
+	 * released after it has been sent, see
+	 * {@link MessageCodecs#encode(MessageCodec, Object)}.
+	 * 
+	 * @param object the object to be encoded
+	 * @return the message
+	 */
+	protected Message encode(T object) {
+		return MessageCodecs.encode(codec, object);
+	}
+	
+	/**
+	 * Sends the given object as a MSG on the channel of this handler.
+	 * 
+	 * @param object the object to be sent
+	 * @param replyHandler the handler receiving the reply
+	 */
+	protected void sendObject(T object, ReplyHandler replyHandler) {
+		Message message = encode(object);
+		try {
+			getChannel().sendMessage(message, replyHandler);
+		} finally {
+			ReferenceCounting.release(message);
+		}
+	}
+	
+	/**
+	 * Sends the given object as a RPY to a received message.
+	 * 
+	 * @param reply the reply for the received message
+	 * @param object the object to be sent
+	 */
+	protected void sendReply(Reply reply, T object) {
+		Message message = encode(object);
+		try {
+			reply.sendRPY(message);
+		} finally {
+			ReferenceCounting.release(message);
+		}
+	}
+	
+	/**
+	 * Decodes the message and passes the decoded object to
+	 * {@link #objectReceived(Object, Reply)}.
+	 * 
+	 * @param message the received message
+	 * @param reply the reply for the message
+	 */
+	@Override
+	public void messageReceived(Message message, Reply reply) {
+		objectReceived(MessageCodecs.decode(codec, message), reply);
+	}
+	
+	/**
+	 * Invoked when an object has been received.
+	 * 
+	 * @param object the decoded object
+	 * @param reply the reply for the message, use {@link #sendReply(Reply, Object)}
+	 *              to reply with an object
+	 */
+	protected abstract void objectReceived(T object, Reply reply);
+	
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageCodec;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * ReplyHandler that decodes RPY and ANS replies with a {@link MessageCodec}.
+ * Override {@link #replyReceived(Object)} or {@link #answerReceived(Object)}
+ * depending on the exchange style and the other methods you deem necessary.
+ * 
+ * @author Simon Raess
+ * @param <T> the type of the application objects
+ */
+public class CodecReplyHandler<T> extends ReplyHandlerAdapter {
+	
+	private final MessageCodec<T> codec;
+	
+	public CodecReplyHandler(MessageCodec<T> codec) {
+		Assert.notNull("codec", codec);
+		this.codec = codec;
+	}
+	
+	@Override
+	public void receivedRPY(Message message) {
+		replyReceived(MessageCodecs.decode(codec, message));
+	}
+	
+	@Override
+	public void receivedANS(Message message) {
+		answerReceived(MessageCodecs.decode(codec, message));
+	}
+	
+	/**
+	 * Invoked when a RPY has been received.
+	 * 
+	 * @param object the decoded object
+	 */
+	protected void replyReceived(T object) {
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * Invoked when an ANS has been received.
+	 * 
+	 * @param object the decoded object
+	 */
+	protected void answerReceived(T object) {
+		throw new UnsupportedOperationException();
+	}
+	
+}
@@ -0,0 +1,279 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.internal.message.DefaultMessage;
+import net.sf.beep4j.internal.message.MessageHeader;
+
+/**
+ * ChannelFilter that compresses the content of outgoing messages with
+ * the deflate algorithm and decompresses incoming messages. Compressed
+ * messages carry a <code>Content-Encoding: deflate</code> header field.
+ * Both peers must install the filter on the channel.
+ * 
+ * <p>Messages whose content is smaller than a threshold are sent 
+ * uncompressed, as are messages that would not get smaller. Profiles 
+ * whose messages share a lot of vocabulary (for instance XML element 
+ * names) benefit from a preset dictionary. Both peers must use the same 
+ * dictionary. A ChannelFilterChainBuilder can pick it depending on the
+ * profile of the channel.</p>
+ * 
+ * <p>The content of a received message is inflated to at most a 
+ * configurable number of bytes. A message exceeding that limit is 
+ * rejected with a ProtocolException, so that a small compressed message
+ * cannot exhaust the memory of the receiver.</p>
+ * 
+ * <p>Each filter instance keeps one Deflater and one Inflater, which 
+ * are reused for all messages. Use one instance per channel.</p>
+ * 
+ * @author Simon Raess
+ */
+public class DeflateFilter extends ChannelFilterAdapter {
+	
+	/**
+	 * The name of the header field marking compressed messages.
+	 */
+	public static final String CONTENT_ENCODING = "Content-Encoding";
+	
+	/**
+	 * The value of the Content-Encoding header field of compressed messages.
+	 */
+	public static final String DEFLATE = "deflate";
+	
+	/**
+	 * The default minimum content size of compressed messages.
+	 */
+	public static final int DEFAULT_THRESHOLD = 256;
+	
+	/**
+	 * The default maximum size of decompressed message content.
+	 */
+	public static final int DEFAULT_MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+	
+	private static final int CHUNK_SIZE = 4096;
+	
+	private final int threshold;
+	
+	private final byte[] dictionary;
+	
+	private final int maxInflatedSize;
+	
+	private final Deflater deflater = new Deflater();
+	
+	private final byte[] deflateChunk = new byte[CHUNK_SIZE];
+	
+	private final Inflater inflater = new Inflater();
+	
+	private final byte[] inflateChunk = new byte[CHUNK_SIZE];
+	
+	public DeflateFilter() {
+		this(DEFAULT_THRESHOLD, null);
+	}
+	
+	/**
+	 * Creates a new DeflateFilter.
+	 * 
+	 * @param threshold the minimum content size of compressed messages
+	 * @param dictionary the preset dictionary, may be null
+	 */
+	public DeflateFilter(int threshold, byte[] dictionary) {
+		this(threshold, dictionary, DEFAULT_MAX_INFLATED_SIZE);
+	}
+	
+	/**
+	 * Creates a new DeflateFilter.
+	 * 
+	 * @param threshold the minimum content size of compressed messages
+	 * @param dictionary the preset dictionary, may be null
+	 * @param maxInflatedSize the maximum content size of decompressed messages
+	 */
+	public DeflateFilter(int threshold, byte[] dictionary, int maxInflatedSize) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold must be >= 0");
+		}
+		if (maxInflatedSize < 0) {
+			throw new IllegalArgumentException("maxInflatedSize must be >= 0");
+		}
+		this.threshold = threshold;
+		this.dictionary = dictionary != null ? dictionary.clone() : null;
+		this.maxInflatedSize = maxInflatedSize;
+	}
+	
+	// --> filtering Channel methods <--
+	
+	@Override
+	public void filterSendMessage(NextFilter next, Message message, ReplyHandler replyHandler) {
+		next.filterSendMessage(compress(message), replyHandler);
+	}
+	
+	// --> filtering ChannelHandler methods <--
+	
+	@Override
+	public void filterMessageReceived(NextFilter next, Message message, Reply reply) {
+		next.filterMessageReceived(decompress(message), reply);
+	}
+	
+	// --> filtering ReplyHandler methods <--
+	
+	@Override
+	public void filterReceivedRPY(NextFilter next, Message message) {
+		next.filterReceivedRPY(decompress(message));
+	}
+	
+	@Override
+	public void filterReceivedERR(NextFilter next, Message message) {
+		next.filterReceivedERR(decompress(message));
+	}
+	
+	@Override
+	public void filterReceivedANS(NextFilter next, Message message) {
+		next.filterReceivedANS(decompress(message));
+	}
+	
+	// --> filtering Reply methods <--
+	
+	@Override
+	public void filterSendRPY(NextFilter next, Message message) {
+		next.filterSendRPY(compress(message));
+	}
+	
+	@Override
+	public void filterSendERR(NextFilter next, Message message) {
+		next.filterSendERR(compress(message));
+	}
+	
+	@Override
+	public void filterSendANS(NextFilter next, Message message) {
+		next.filterSendANS(compress(message));
+	}
+	
+	/**
+	 * Compresses the given message. The message is returned unchanged if
+	 * it is smaller than the threshold, already compressed, or does not
+	 * get smaller.
+	 * 
+	 * @param message the message to compress
+	 * @return the compressed message
+	 */
+	protected Message compress(Message message) {
+		ByteBuffer content = message.getContentBuffer();
+		if (content.remaining() < threshold || isCompressed(message)) {
+			return message;
+		}
+		
+		byte[] input = toByteArray(content);
+		byte[] output;
+		synchronized (deflater) {
+			deflater.reset();
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2);
+			while (!deflater.finished()) {
+				int count = deflater.deflate(deflateChunk);
+				out.write(deflateChunk, 0, count);
+			}
+			output = out.toByteArray();
+		}
+		
+		if (output.length >= input.length) {
+			return message;
+		}
+		
+		MessageHeader header = MessageHeader.valueOf(message).copy();
+		header.addHeader(CONTENT_ENCODING, DEFLATE);
+		return new DefaultMessage(header, ByteBuffer.wrap(output));
+	}
+	
+	/**
+	 * Decompresses the given message if it is compressed.
+	 * 
+	 * @param message the message to decompress
+	 * @return the decompressed message
+	 * @throws ProtocolException if the content cannot be decompressed or
+	 *         exceeds the maximum decompressed size
+	 */
+	protected Message decompress(Message message) {
+		if (!isCompressed(message)) {
+			return message;
+		}
+		
+		byte[] input = toByteArray(message.getContentBuffer());
+		byte[] output;
+		synchronized (inflater) {
+			inflater.reset();
+			inflater.setInput(input);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(int) Math.min(input.length * 4L, maxInflatedSize));
+			try {
+				while (!inflater.finished()) {
+					int count = inflater.inflate(inflateChunk);
+					if (count > maxInflatedSize - out.size()) {
+						throw new ProtocolException("decompressed message content exceeds " 
+								+ maxInflatedSize + " bytes");
+					} else if (count > 0) {
+						out.write(inflateChunk, 0, count);
+					} else if (inflater.needsDictionary()) {
+						if (dictionary == null) {
+							throw new ProtocolException("compressed message requires a preset dictionary");
+						}
+						inflater.setDictionary(dictionary);
+					} else if (inflater.needsInput()) {
+						throw new ProtocolException("compressed message content is truncated");
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new ProtocolException("invalid compressed message content", e);
+			}
+			output = out.toByteArray();
+		}
+		
+		MessageHeader header = MessageHeader.valueOf(message).copy();
+		header.removeHeader(CONTENT_ENCODING);
+		return new DefaultMessage(header, ByteBuffer.wrap(output));
+	}
+	
+	private static boolean isCompressed(Message message) {
+		Iterator<String> names = message.getHeaderNames();
+		while (names.hasNext()) {
+			String name = names.next();
+			if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+				return DEFLATE.equalsIgnoreCase(message.getHeader(name));
+			}
+		}
+		return false;
+	}
+	
+	private static byte[] toByteArray(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+	
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import net.sf.beep4j.BeepException;
+import net.sf.beep4j.ChannelHandler;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.StreamingChannelHandler;
+import net.sf.beep4j.internal.message.FileRegionMessage;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * MessageContentHandler that stores the content of a message in a file.
+ * The content is written starting at the current position of the file 
+ * channel. When the message is complete, a Message is created whose 
+ * content references the written region of the file. That message is
+ * not loaded into memory. It can even be sent again without copying
+ * its content into the heap.
+ * 
+ * <p>The file channel is passed on to the stored message, which closes
+ * it, see {@link FileRegionMessage#close()}. If the message is aborted,
+ * the handler closes the channel and deletes the file, if it is known.</p>
+ * 
+ * <p>The static factory methods create handlers that pass the stored
+ * message to a ChannelHandler or a ReplyHandler. Use them from 
+ * {@link StreamingChannelHandler#messageStarted(Message, Reply)} to 
+ * decide per message whether its content should go to disk.</p>
+ * 
+ * @author Simon Raess
+ */
+public abstract class FileContentHandler extends ByteChannelContentHandler {
+	
+	private final Message header;
+	
+	private final FileChannel channel;
+	
+	private final File file;
+	
+	private final long position;
+	
+	protected FileContentHandler(Message header, FileChannel channel) {
+		this(header, channel, null);
+	}
+	
+	/**
+	 * Creates a new FileContentHandler.
+	 * 
+	 * @param header the headers of the message
+	 * @param channel the channel into which the content is written
+	 * @param file the file of the channel, deleted if the message is 
+	 *             aborted, or null
+	 */
+	protected FileContentHandler(Message header, FileChannel channel, File file) {
+		super(channel);
+		Assert.notNull("header", header);
+		this.header = header;
+		this.channel = channel;
+		this.file = file;
+		try {
+			this.position = channel.position();
+		} catch (IOException e) {
+			throw new BeepException("cannot determine file position", e);
+		}
+	}
+	
+	@Override
+	protected final void contentWritten(long length) {
+		messageStored(FileRegionMessage.valueOf(header, channel, file, position, length));
+	}
+	
+	/**
+	 * Closes the channel and deletes the file, if it is known.
+	 */
+	@Override
+	public void contentAborted(Throwable cause) {
+		try {
+			super.contentAborted(cause);
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Invoked when the complete message has been stored. The content
+	 * of the passed in message is read from the file.
+	 * 
+	 * @param message the stored message
+	 */
+	protected abstract void messageStored(Message message);
+	
+	/**
+	 * Creates a handler that stores the content of a MSG message in the given
+	 * file and passes the stored message to the given ChannelHandler.
+	 * 
+	 * @param header the headers of the message
+	 * @param channel the channel into which the content is written
+	 * @param file the file of the channel or null
+	 * @param handler the ChannelHandler receiving the stored message
+	 * @param reply the reply for the message
+	 * @return the MessageContentHandler
+	 */
+	public static MessageContentHandler forMessage(Message header, FileChannel channel, File file, 
+			final ChannelHandler handler, final Reply reply) {
+		Assert.notNull("handler", handler);
+		return new FileContentHandler(header, channel, file) {
+			@Override
+			protected void messageStored(Message message) {
+				handler.messageReceived(message, reply);
+			}
+		};
+	}
+	
+	/**
+	 * Creates a handler that stores the content of a RPY message in the given
+	 * file and passes the stored message to the given ReplyHandler.
+	 * 
+	 * @param header the headers of the reply
+	 * @param channel the channel into which the content is written
+	 * @param file the file of the channel or null
+	 * @param handler the ReplyHandler receiving the stored reply
+	 * @return the MessageContentHandler
+	 */
+	public static MessageContentHandler forReply(Message header, FileChannel channel, File file, 
+			final ReplyHandler handler) {
+		Assert.notNull("handler", handler);
+		return new FileContentHandler(header, channel, file) {
+			@Override
+			protected void messageStored(Message message) {
+				handler.receivedRPY(message);
+			}
+		};
+	}
+	
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import net.sf.beep4j.BeepException;
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.ChannelHandler;
+import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.StreamingChannelHandler;
+import net.sf.beep4j.internal.message.FileRegionMessage;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * StreamingChannelHandler that stores the content of all incoming messages
+ * in files and passes messages referencing those files to a target 
+ * ChannelHandler. Use it for bulk-ingest profiles, where message content 
+ * should not go through the heap. 
+ * 
+ * <p>By default, each message is stored in a new temporary file in the 
+ * given directory. Override {@link #createFile(Message)} to change that.
+ * The stored messages are {@link FileRegionMessage}s, which own the open
+ * file. The application is responsible to close or delete them once the
+ * messages have been processed, see {@link FileRegionMessage#delete()}.
+ * If a message is aborted before it is complete, its file is closed and
+ * deleted by this handler.</p>
+ * 
+ * @author Simon Raess
+ */
+public class FileSinkChannelHandler implements StreamingChannelHandler {
+	
+	private final ChannelHandler target;
+	
+	private final File directory;
+	
+	/**
+	 * Creates a new FileSinkChannelHandler.
+	 * 
+	 * @param target the handler receiving the stored messages
+	 * @param directory the directory for the files, the default temporary 
+	 *                  directory is used if null
+	 */
+	public FileSinkChannelHandler(ChannelHandler target, File directory) {
+		Assert.notNull("target", target);
+		this.target = target;
+		this.directory = directory;
+	}
+	
+	/**
+	 * Creates the file in which the content of the message with the given
+	 * headers is stored. The content is appended to the file.
+	 * 
+	 * @param header the headers of the message
+	 * @return the file
+	 * @throws IOException if the file cannot be created
+	 */
+	protected File createFile(Message header) throws IOException {
+		return File.createTempFile("beep4j", ".msg", directory);
+	}
+	
+	public MessageContentHandler messageStarted(Message header, Reply reply) {
+		File file;
+		FileChannel channel;
+		try {
+			file = createFile(header);
+			RandomAccessFile content = new RandomAccessFile(file, "rw");
+			try {
+				content.seek(content.length());
+			} catch (IOException e) {
+				content.close();
+				throw e;
+			}
+			channel = content.getChannel();
+		} catch (IOException e) {
+			throw new BeepException("cannot create file for message content", e);
+		}
+		return FileContentHandler.forMessage(header, channel, file, target, reply);
+	}
+	
+	public void channelOpened(Channel c) {
+		target.channelOpened(c);
+	}
+	
+	public void messageReceived(Message message, Reply reply) {
+		target.messageReceived(message, reply);
+	}
+	
+	public void channelCloseRequested(CloseChannelRequest request) {
+		target.channelCloseRequested(request);
+	}
+	
+	public void channelClosed() {
+		target.channelClosed();
+	}
+	
+}
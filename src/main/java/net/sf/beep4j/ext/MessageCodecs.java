@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.nio.ByteBuffer;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageCodec;
+import net.sf.beep4j.internal.message.DefaultMessage;
+import net.sf.beep4j.internal.message.MessageHeader;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.BufferPool;
+
+/**
+ * Helper methods to encode and decode application objects with a
+ * {@link MessageCodec}.
+ * 
+ * @author Simon Raess
+ */
+public final class MessageCodecs {
+	
+	/**
+	 * The size of the pooled buffers. Messages with a larger encoded form
+	 * get a buffer of their own.
+	 */
+	private static final int POOLED_BUFFER_SIZE = 16384;
+	
+	private static final int MAX_POOLED_BUFFERS = 64;
+	
+	private static final BufferPool POOL = new BufferPool(POOLED_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+	
+	private MessageCodecs() {
+		// hidden constructor
+	}
+	
+	/**
+	 * Encodes an object into a new message. The MIME header and the encoded
+	 * object are written into a single pooled heap buffer, which is later
+	 * framed without being copied. The returned message is only a view of
+	 * that buffer. The buffer is returned to the pool when the message has
+	 * been released and its frames have been written, so the caller should
+	 * release the message after sending it. The message must not be used
+	 * after it has been released. A message that is never released is 
+	 * garbage collected as usual.
+	 * 
+	 * @param <T> the type of the object
+	 * @param codec the codec encoding the object
+	 * @param object the object to be encoded
+	 * @return the message containing the encoded object
+	 */
+	public static <T> Message encode(MessageCodec<T> codec, T object) {
+		return encode(codec, object, POOL);
+	}
+	
+	/*
+	 * Encodes an object into a buffer obtained from the given pool.
+	 * The buffer is returned to the pool if the codec fails.
+	 */
+	static <T> Message encode(MessageCodec<T> codec, T object, BufferPool pool) {
+		Assert.notNull("codec", codec);
+		MessageHeader header = createHeader(codec.getContentType());
+		ByteBuffer encodedHeader = header.asByteBuffer();
+		int length = codec.getEncodedLength(object);
+		
+		ByteBuffer buffer = pool.allocate(encodedHeader.remaining() + length);
+		Runnable deallocator = pool.deallocator(buffer);
+		buffer.put(encodedHeader);
+		
+		ByteBuffer content = buffer.slice();
+		try {
+			codec.encode(object, content);
+			if (content.position() != length) {
+				throw new IllegalStateException("codec wrote " + content.position() 
+						+ " bytes instead of " + length);
+			}
+		} catch (RuntimeException e) {
+			if (deallocator != null) {
+				deallocator.run();
+			}
+			throw e;
+		}
+		content.flip();
+		buffer.rewind();
+		
+		return new DefaultMessage(header, content.asReadOnlyBuffer(), 
+				buffer.asReadOnlyBuffer(), deallocator);
+	}
+	
+	/**
+	 * Decodes an object from the content of the given message.
+	 * 
+	 * @param <T> the type of the object
+	 * @param codec the codec decoding the object
+	 * @param message the received message
+	 * @return the decoded object
+	 */
+	public static <T> T decode(MessageCodec<T> codec, Message message) {
+		Assert.notNull("codec", codec);
+		return codec.decode(message.getContentBuffer());
+	}
+	
+	private static MessageHeader createHeader(String contentType) {
+		int index = contentType.indexOf('/');
+		if (index == -1) {
+			throw new IllegalArgumentException("content type must be of the form "
+					+ "type/subtype: " + contentType);
+		}
+		MessageHeader header = new MessageHeader();
+		header.setContentType(contentType.substring(0, index), contentType.substring(index + 1));
+		return header;
+	}
+	
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal;
+
+import net.sf.beep4j.internal.session.InternalChannel;
+import net.sf.beep4j.internal.stream.FrameHandler;
+import net.sf.beep4j.internal.tcp.ChannelController;
+
+/**
+ * Holds the state that the components of a session keep for one channel:
+ * the {@link ChannelController} of the transport mapping, the 
+ * {@link FrameHandler} that processes the received frames and the 
+ * {@link InternalChannel} of the session. A received frame looks up
+ * the slot of its channel once, which is then passed along the receive
+ * path.
+ * 
+ * <p>Each component sets and clears only its own part of the slot. The
+ * slot is removed from the {@link ChannelSlots} when all parts have
+ * been cleared.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class ChannelSlot {
+	
+	private final int channelNumber;
+	
+	private volatile ChannelController controller;
+	
+	private volatile FrameHandler frameHandler;
+	
+	private volatile InternalChannel channel;
+	
+	ChannelSlot(int channelNumber) {
+		this.channelNumber = channelNumber;
+	}
+	
+	public int getChannelNumber() {
+		return channelNumber;
+	}
+	
+	/**
+	 * Gets the ChannelController of the transport mapping.
+	 * 
+	 * @return the controller or null if the mapping does not know the channel
+	 */
+	public ChannelController getController() {
+		return controller;
+	}
+	
+	public void setController(ChannelController controller) {
+		this.controller = controller;
+	}
+	
+	/**
+	 * Gets the FrameHandler that processes the frames received on the channel.
+	 * 
+	 * @return the frame handler or null if frames are not handled
+	 */
+	public FrameHandler getFrameHandler() {
+		return frameHandler;
+	}
+	
+	public void setFrameHandler(FrameHandler frameHandler) {
+		this.frameHandler = frameHandler;
+	}
+	
+	/**
+	 * Gets the channel of the session.
+	 * 
+	 * @return the channel or null if the session does not know the channel
+	 */
+	public InternalChannel getChannel() {
+		return channel;
+	}
+	
+	public void setChannel(InternalChannel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * Determines whether all parts of the slot have been cleared.
+	 * 
+	 * @return true iff no component holds state in this slot
+	 */
+	boolean isEmpty() {
+		return controller == null && frameHandler == null && channel == null;
+	}
+	
+	@Override
+	public String toString() {
+		return "ChannelSlot[" + channelNumber + "]";
+	}
+	
+}
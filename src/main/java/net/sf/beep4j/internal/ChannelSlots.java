@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal;
+
+import java.util.List;
+
+import net.sf.beep4j.internal.util.ChannelTable;
+
+/**
+ * The {@link ChannelSlot}s of the open channels of one session. The
+ * transport mapping, the frame handler and the session share one
+ * instance, so that a received frame is resolved to the state of
+ * all three components with a single lookup.
+ * 
+ * <p>A component opens the slot of a channel when the channel is started
+ * and releases it after it has cleared its part when the channel is 
+ * closed. Lookups do not lock.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class ChannelSlots {
+	
+	private final ChannelTable<ChannelSlot> slots = new ChannelTable<ChannelSlot>();
+	
+	/**
+	 * Gets the slot of the given channel, creating it if it does not
+	 * exist yet.
+	 * 
+	 * @param channelNumber the channel number
+	 * @return the slot of that channel
+	 */
+	public synchronized ChannelSlot open(int channelNumber) {
+		ChannelSlot slot = slots.get(channelNumber);
+		if (slot == null) {
+			slot = new ChannelSlot(channelNumber);
+			slots.put(channelNumber, slot);
+		}
+		return slot;
+	}
+	
+	/**
+	 * Gets the slot of the given channel.
+	 * 
+	 * @param channelNumber the channel number
+	 * @return the slot or null if the channel is not open
+	 */
+	public ChannelSlot get(int channelNumber) {
+		return slots.get(channelNumber);
+	}
+	
+	/**
+	 * Removes the given slot if all its parts have been cleared.
+	 * 
+	 * @param slot the slot to release
+	 */
+	public synchronized void release(ChannelSlot slot) {
+		int channelNumber = slot.getChannelNumber();
+		if (slot.isEmpty() && slots.get(channelNumber) == slot) {
+			slots.remove(channelNumber);
+		}
+	}
+	
+	/**
+	 * Gets a snapshot of the slots.
+	 * 
+	 * @return the slots
+	 */
+	public List<ChannelSlot> values() {
+		return slots.values();
+	}
+	
+}
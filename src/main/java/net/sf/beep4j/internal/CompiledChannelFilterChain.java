@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.ChannelFilter;
+import net.sf.beep4j.ChannelHandler;
+import net.sf.beep4j.CloseChannelCallback;
+import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.internal.session.InternalChannelFilterChain;
+
+/**
+ * Immutable filter chain backed by an array of filters. The first filter 
+ * is the head filter, which is closest to the network, the last filter
+ * is the tail filter, which is closest to the application. Incoming 
+ * operations are passed from the head to the tail, outgoing operations
+ * from the tail to the head.
+ * 
+ * <p>Each filter is passed a {@link FilterInvocation} as its NextFilter.
+ * The invocation knows the position of the filter and the target of the
+ * operation. Operations without a target, i.e. those of the Channel,
+ * use invocations that are created together with the chain. For the
+ * other operations a new invocation is created per filter.</p>
+ * 
+ * @author Simon Raess
+ */
+final class CompiledChannelFilterChain implements InternalChannelFilterChain {
+	
+	private final ChannelFilter[] filters;
+	
+	/**
+	 * The invocations without target. The invocation at index i is passed
+	 * to the filter at index i.
+	 */
+	private final FilterInvocation[] invocations;
+	
+	CompiledChannelFilterChain(ChannelFilter[] filters) {
+		this.filters = filters;
+		this.invocations = new FilterInvocation[filters.length];
+		for (int i = 0; i < filters.length; i++) {
+			invocations[i] = new FilterInvocation(this, i, null);
+		}
+	}
+	
+	/**
+	 * Gets the filter at the given position.
+	 * 
+	 * @param index the position
+	 * @return the filter
+	 */
+	ChannelFilter getFilter(int index) {
+		return filters[index];
+	}
+	
+	/**
+	 * Gets the NextFilter passed to the filter at the given index.
+	 * 
+	 * @param index the position of the filter
+	 * @param target the target of the operation, may be null
+	 * @return the invocation
+	 */
+	FilterInvocation getInvocation(int index, Object target) {
+		if (target == null) {
+			return invocations[index];
+		}
+		return new FilterInvocation(this, index, target);
+	}
+	
+	public boolean isEmpty() {
+		return filters.length == 2;
+	}
+	
+	private int tail() {
+		return filters.length - 1;
+	}
+	
+	// --> start of InternalChannelFilterChain methods <--
+	
+	public void fireFilterSendMessage(Message message, ReplyHandler replyHandler) {
+		filters[tail()].filterSendMessage(getInvocation(tail(), replyHandler), message, replyHandler);
+	}
+	
+	public void fireFilterClose(CloseChannelCallback callback) {
+		filters[tail()].filterClose(invocations[tail()], callback);
+	}
+	
+	public void fireFilterChannelOpened(ChannelHandler target, Channel channel) {
+		filters[0].filterChannelOpened(getInvocation(0, target), channel);
+	}
+	
+	public void fireFilterMessageReceived(ChannelHandler target, Message message, Reply reply) {
+		filters[0].filterMessageReceived(getInvocation(0, target), message, reply);
+	}
+	
+	public void fireFilterChannelCloseRequested(ChannelHandler target, CloseChannelRequest request) {
+		filters[0].filterChannelCloseRequested(getInvocation(0, target), request);
+	}
+	
+	public void fireFilterChannelClosed(ChannelHandler target) {
+		filters[0].filterChannelClosed(getInvocation(0, target));
+	}
+	
+	public void fireFilterReceivedRPY(ReplyHandler target, Message message) {
+		filters[0].filterReceivedRPY(getInvocation(0, target), message);
+	}
+	
+	public void fireFilterReceivedERR(ReplyHandler target, Message message) {
+		filters[0].filterReceivedERR(getInvocation(0, target), message);
+	}
+	
+	public void fireFilterReceivedANS(ReplyHandler target, Message message) {
+		filters[0].filterReceivedANS(getInvocation(0, target), message);
+	}
+	
+	public void fireFilterReceivedNUL(ReplyHandler target) {
+		filters[0].filterReceivedNUL(getInvocation(0, target));
+	}
+	
+	public void fireFilterSendRPY(Reply target, Message message) {
+		filters[tail()].filterSendRPY(getInvocation(tail(), target), message);
+	}
+	
+	public void fireFilterSendERR(Reply target, Message message) {
+		filters[tail()].filterSendERR(getInvocation(tail(), target), message);
+	}
+	
+	public void fireFilterSendANS(Reply target, Message message) {
+		filters[tail()].filterSendANS(getInvocation(tail(), target), message);
+	}
+	
+	public void fireFilterSendNUL(Reply target) {
+		filters[tail()].filterSendNUL(getInvocation(tail(), target));
+	}
+	
+	// --> end of InternalChannelFilterChain methods <--
+	
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.ChannelFilter.NextFilter;
+import net.sf.beep4j.CloseChannelCallback;
+import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ReplyHandler;
+
+/**
+ * The NextFilter passed to a filter of a {@link CompiledChannelFilterChain}.
+ * It passes the operation on to the neighbouring filter, which is the 
+ * next filter towards the application for incoming operations and the
+ * next filter towards the network for outgoing operations. 
+ * 
+ * <p>The invocation carries the target of the operation, that is, the 
+ * Reply, ReplyHandler or ChannelHandler on which the head or tail filter
+ * finally invokes the operation. For a sent message, the target is the
+ * ReplyHandler originally passed to the chain, even if a filter replaces
+ * it. Invocations are immutable, so filters
+ * may keep them and continue the operation later on.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class FilterInvocation implements NextFilter {
+	
+	private final CompiledChannelFilterChain chain;
+	
+	private final int index;
+	
+	private final Object target;
+	
+	FilterInvocation(CompiledChannelFilterChain chain, int index, Object target) {
+		this.chain = chain;
+		this.index = index;
+		this.target = target;
+	}
+	
+	/**
+	 * Gets the target of the operation passed to the given filter.
+	 * 
+	 * @param <T> the type of the target
+	 * @param next the NextFilter passed to the filter
+	 * @param type the type of the target
+	 * @return the target
+	 * @throws IllegalArgumentException if next has not been created by a chain
+	 */
+	public static <T> T getTarget(NextFilter next, Class<T> type) {
+		if (!(next instanceof FilterInvocation)) {
+			throw new IllegalArgumentException("not a FilterInvocation: " + next);
+		}
+		return type.cast(((FilterInvocation) next).target);
+	}
+	
+	private FilterInvocation previous() {
+		return chain.getInvocation(index - 1, target);
+	}
+	
+	private FilterInvocation next() {
+		return chain.getInvocation(index + 1, target);
+	}
+	
+	// --> start of NextFilter methods <--
+	
+	public void filterSendMessage(Message message, ReplyHandler replyHandler) {
+		chain.getFilter(index - 1).filterSendMessage(previous(), message, replyHandler);
+	}
+	
+	public void filterClose(CloseChannelCallback callback) {
+		chain.getFilter(index - 1).filterClose(previous(), callback);
+	}
+	
+	public void filterChannelOpened(Channel channel) {
+		chain.getFilter(index + 1).filterChannelOpened(next(), channel);
+	}
+	
+	public void filterMessageReceived(Message message, Reply reply) {
+		chain.getFilter(index + 1).filterMessageReceived(next(), message, reply);
+	}
+	
+	public void filterChannelCloseRequested(CloseChannelRequest request) {
+		chain.getFilter(index + 1).filterChannelCloseRequested(next(), request);
+	}
+	
+	public void filterChannelClosed() {
+		chain.getFilter(index + 1).filterChannelClosed(next());
+	}
+	
+	public void filterReceivedRPY(Message message) {
+		chain.getFilter(index + 1).filterReceivedRPY(next(), message);
+	}
+	
+	public void filterReceivedERR(Message message) {
+		chain.getFilter(index + 1).filterReceivedERR(next(), message);
+	}
+	
+	public void filterReceivedANS(Message message) {
+		chain.getFilter(index + 1).filterReceivedANS(next(), message);
+	}
+	
+	public void filterReceivedNUL() {
+		chain.getFilter(index + 1).filterReceivedNUL(next());
+	}
+	
+	public void filterSendRPY(Message message) {
+		chain.getFilter(index - 1).filterSendRPY(previous(), message);
+	}
+	
+	public void filterSendERR(Message message) {
+		chain.getFilter(index - 1).filterSendERR(previous(), message);
+	}
+	
+	public void filterSendANS(Message message) {
+		chain.getFilter(index - 1).filterSendANS(previous(), message);
+	}
+	
+	public void filterSendNUL() {
+		chain.getFilter(index - 1).filterSendNUL(previous());
+	}
+	
+	// --> end of NextFilter methods <--
+	
+}
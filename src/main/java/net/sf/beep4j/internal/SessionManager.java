@@ -36,6 +36,15 @@ public interface SessionManager {
 	 */
 	StartChannelResponse channelStartRequested(int channelNumber, ProfileInfo[] profiles);
 	
+	/**
+	 * Notifies the manager that the positive response to a start channel
+	 * request has been queued. From now on, the remote peer knows the
+	 * channel.
+	 * 
+	 * @param channelNumber the channel number
+	 */
+	void channelStartAccepted(int channelNumber);
+	
 	/**
 	 * Requests to close the channel identified by the given channel number.
 	 * The callback can be used to either accept (resulting in a close channel) or
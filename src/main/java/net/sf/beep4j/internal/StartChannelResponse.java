@@ -41,6 +41,17 @@ public abstract class StartChannelResponse {
 	public ChannelHandler getChannelHandler() {
 		throw new IllegalStateException("StartChannelRequest is cancelled");
 	}
+	
+	/**
+	 * Determines whether the binary content of the selected profile is
+	 * a piggybacked request that has to be passed to the channel handler
+	 * as the first message on the channel.
+	 * 
+	 * @return true iff the profile content is a piggybacked request
+	 */
+	public boolean isPiggybacked() {
+		return false;
+	}
 
 	public static final StartChannelResponse createCancelledResponse(
 			final int code, final String message) {
@@ -62,6 +73,11 @@ public abstract class StartChannelResponse {
 	
 	public static final StartChannelResponse createSuccessResponse(
 			final ProfileInfo profile, final ChannelHandler channelHandler) {
+		return createSuccessResponse(profile, channelHandler, false);
+	}
+	
+	public static final StartChannelResponse createSuccessResponse(
+			final ProfileInfo profile, final ChannelHandler channelHandler, final boolean piggybacked) {
 		return new StartChannelResponse() {
 			@Override
 			public boolean isCancelled() {
@@ -75,6 +91,10 @@ public abstract class StartChannelResponse {
 			public ProfileInfo getProfile() {
 				return profile;
 			}
+			@Override
+			public boolean isPiggybacked() {
+				return piggybacked;
+			}
 		};
 	}
 	
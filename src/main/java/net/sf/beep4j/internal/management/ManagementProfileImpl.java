@@ -147,6 +147,7 @@ public class ManagementProfileImpl implements ManagementProfile {
 		} else {
 			reply.sendRPY(builder.createProfile(
 					createMessageBuilder(), response.getProfile()));
+			manager.channelStartAccepted(channelNumber);
 		}
 	}
 
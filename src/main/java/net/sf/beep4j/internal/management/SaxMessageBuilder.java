@@ -88,7 +88,12 @@ public final class SaxMessageBuilder implements ManagementMessageBuilder {
 
 	public Message createProfile(MessageBuilder builder, ProfileInfo profile) {
 		WriterHandler handler = new WriterHandler(builder.getWriter());
-		handler.startElement(E_PROFILE, Collections.singletonMap(A_URI, profile.getUri()));
+		Map<String,String> attributes = new HashMap<String,String>();
+		attributes.put(A_URI, profile.getUri());
+		if (profile.hasContent() && profile.isBase64Encoded()) {
+			attributes.put(A_ENCODING, ENCODING_BASE64);
+		}
+		handler.startElement(E_PROFILE, attributes);
 		if (profile.hasContent()) {
 			StringBuilder str = new StringBuilder();
 			profile.appendTo(str);
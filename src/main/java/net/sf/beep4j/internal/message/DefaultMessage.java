@@ -23,10 +23,13 @@ import java.nio.charset.Charset;
 import java.util.Iterator;
 
 import net.sf.beep4j.Message;
+import net.sf.beep4j.ReferenceCounted;
 import net.sf.beep4j.internal.util.ByteBufferInputStream;
 import net.sf.beep4j.internal.util.CharSequenceReader;
+import net.sf.beep4j.internal.util.LeakDetector;
+import net.sf.beep4j.internal.util.ReferenceCounter;
 
-public class DefaultMessage implements Message {
+public class DefaultMessage implements Message, ReferenceCounted {
 	
 	private final ByteBuffer content;
 	
@@ -34,11 +37,67 @@ public class DefaultMessage implements Message {
 	
 	private ByteBuffer buffer;
 	
+	private final ReferenceCounter counter;
+	
 	public DefaultMessage(MessageHeader header, ByteBuffer content) {
+		this(header, content, null);
+	}
+	
+	/**
+	 * Creates a new message whose encoded form is already known. The
+	 * encoded buffer must contain the encoded header followed by the
+	 * content. It is returned by {@link #asByteBuffer()} instead of
+	 * concatenating header and content again.
+	 * 
+	 * @param header the parsed header
+	 * @param content the content of the message
+	 * @param encoded the encoded message, may be null
+	 */
+	public DefaultMessage(MessageHeader header, ByteBuffer content, ByteBuffer encoded) {
+		this(header, content, encoded, null);
+	}
+	
+	/**
+	 * Creates a new message whose buffers are freed by the given
+	 * deallocator when the message is released.
+	 * 
+	 * @param header the parsed header
+	 * @param content the content of the message
+	 * @param encoded the encoded message, may be null
+	 * @param deallocator the action freeing the buffers, may be null
+	 */
+	public DefaultMessage(MessageHeader header, ByteBuffer content, ByteBuffer encoded, Runnable deallocator) {
 		this.header = header;
 		this.content = content;
+		this.buffer = encoded;
+		this.counter = new ReferenceCounter(deallocator);
 	}
 		
+	MessageHeader getMessageHeader() {
+		return header;
+	}
+	
+	/**
+	 * Registers this message with the shared LeakDetector. This is done
+	 * for messages assembled from received frames, which are released
+	 * by the session once they have been processed.
+	 */
+	public void trackLeaks() {
+		counter.track(this, LeakDetector.getInstance());
+	}
+	
+	public int getReferenceCount() {
+		return counter.getReferenceCount();
+	}
+	
+	public void retain() {
+		counter.retain();
+	}
+	
+	public boolean release() {
+		return counter.release();
+	}
+	
 	public String getContentType() {
 		return header.getContentType();
 	}
@@ -99,6 +158,10 @@ public class DefaultMessage implements Message {
 		return buffer.asReadOnlyBuffer();
 	}
 	
+	/**
+	 * Two messages are equal if they have equal headers and the same
+	 * content, regardless of how the header has been encoded.
+	 */
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj) {
@@ -107,10 +170,16 @@ public class DefaultMessage implements Message {
 			return false;
 		} else if (obj instanceof Message) {
 			Message m = (Message) obj;
-			return asByteBuffer().equals(m.asByteBuffer());
+			return header.equals(MessageHeader.valueOf(m))
+			    && content.equals(m.getContentBuffer());
 		} else {
 			return false;
 		}
 	}
 	
+	@Override
+	public int hashCode() {
+		return 31 * header.hashCode() + content.hashCode();
+	}
+	
 }
@@ -20,10 +20,14 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
 import net.sf.beep4j.Message;
 import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.ReferenceCounted;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.BufferAllocator;
 
 public class DefaultMessageBuilder implements MessageBuilder {
 	
@@ -33,9 +37,37 @@ public class DefaultMessageBuilder implements MessageBuilder {
 	
 	private ByteBuffer buffer;
 	
+	private FileChannel file;
+	
+	private long filePosition;
+	
+	private long fileLength;
+	
 	private String charset;
 	
+	private final BufferAllocator allocator;
+	
+	/**
+	 * Creates a new builder that allocates the content of the message
+	 * on the heap.
+	 */
 	public DefaultMessageBuilder() {
+		this(BufferAllocator.HEAP);
+	}
+	
+	/**
+	 * Creates a new builder that allocates the content of the message
+	 * from the given allocator. If the allocator is in direct mode, 
+	 * the message must be released once it is no longer used, see
+	 * {@link net.sf.beep4j.ReferenceCounted}. Such a message must not 
+	 * be sent, because the frames refer to its content until they have
+	 * been written.
+	 * 
+	 * @param allocator the allocator of the content buffer
+	 */
+	public DefaultMessageBuilder(BufferAllocator allocator) {
+		Assert.notNull("allocator", allocator);
+		this.allocator = allocator;
 		header = new MessageHeader();
 		target = new ByteArrayOutputStream();
 	}
@@ -44,6 +76,10 @@ public class DefaultMessageBuilder implements MessageBuilder {
 		header.addHeader(name, value);
 	}
 	
+	public void setCompactHeaders(boolean compact) {
+		header.setCompact(compact);
+	}
+	
 	public void setCharsetName(String charset) {
 		this.charset = charset;
 		header.setCharset(charset);
@@ -64,16 +100,49 @@ public class DefaultMessageBuilder implements MessageBuilder {
 	}
 	
 	public ByteBuffer getContentBuffer(int size) {
-		buffer = ByteBuffer.allocate(size);
+		buffer = allocator.allocate(size);
 		return buffer;
 	}
 	
+	public void setContent(FileChannel channel, long position, long length) {
+		Assert.notNull("channel", channel);
+		if (position < 0) {
+			throw new IllegalArgumentException("position must be >= 0");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("length must be >= 0");
+		}
+		this.file = channel;
+		this.filePosition = position;
+		this.fileLength = length;
+	}
+	
 	public Message getMessage() {
-		if (buffer == null) {
+		if (file != null) {
+			return new FileRegionMessage(header, file, filePosition, fileLength);
+		} else if (buffer == null && !allocator.isDirect()) {
 			return new DefaultMessage(header, ByteBuffer.wrap(target.toByteArray()));
+		} else if (buffer == null) {
+			ByteBuffer content = allocator.allocate(target.size());
+			content.put(target.toByteArray());
+			content.flip();
+			return new DefaultMessage(header, content.asReadOnlyBuffer(), null, 
+					allocator.deallocator(content));
 		} else {
 			buffer.flip();
-			return new DefaultMessage(header, buffer.asReadOnlyBuffer());
+			return new DefaultMessage(header, buffer.asReadOnlyBuffer(), null, 
+					allocator.deallocator(buffer));
+		}
+	}
+	
+	public Message getPreEncodedMessage() {
+		Message message = getMessage();
+		try {
+			return PreEncodedMessage.valueOf(message);
+		} finally {
+			if (message instanceof ReferenceCounted) {
+				((ReferenceCounted) message).release();
+			}
 		}
 	}
 
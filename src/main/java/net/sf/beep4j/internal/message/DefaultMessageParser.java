@@ -40,18 +40,40 @@ public class DefaultMessageParser implements MessageParser {
             fieldChars.set(i);
         }
     }
+    
+    private final MessageHeaderCache cache;
+    
+    public DefaultMessageParser() {
+    	this(null);
+    }
+    
+    /**
+     * Creates a new parser that reuses previously parsed headers from
+     * the given cache. Headers obtained from the cache are read-only.
+     * 
+     * @param cache the cache of parsed headers, may be null
+     */
+    public DefaultMessageParser(MessageHeaderCache cache) {
+    	this.cache = cache;
+    }
 
-	public Message parse(ByteBuffer buffer) {
-		buffer.mark();
-		int pos = 0;
+    /**
+     * Finds the start of the content in the given buffer, that is, the 
+     * first byte after the empty line terminating the MIME headers. The
+     * position of the buffer is not modified.
+     * 
+     * @param buffer the buffer containing the start of a message
+     * @return the offset of the content relative to the position of the
+     *         buffer or -1 if the headers are not terminated
+     */
+    public static int findContentOffset(ByteBuffer buffer) {
 		byte prev = 0;
 		boolean armed = true;
-		while (buffer.hasRemaining()) {
-			byte current = buffer.get();
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			byte current = buffer.get(i);
 			if (prev == (byte) '\r' && current == (byte) '\n') {
 				if (armed) {
-					pos = buffer.position();
-					break;
+					return i + 1 - buffer.position();
 				}
 				armed = true;
 			} else if (current != '\r') {
@@ -59,6 +81,36 @@ public class DefaultMessageParser implements MessageParser {
 			}
 			prev = current;
 		}
+		return -1;
+    }
+
+	public Message parse(ByteBuffer buffer) {
+		return parse(buffer, null);
+	}
+	
+	/**
+	 * Parses the message in the given buffer. The returned message runs
+	 * the deallocator when it is released. The message keeps a reference
+	 * to the parsed bytes and returns them from 
+	 * {@link Message#asByteBuffer()}, so that it can be forwarded without 
+	 * encoding it again.
+	 * 
+	 * @param buffer the buffer containing the message
+	 * @param deallocator the action freeing the buffer, may be null
+	 * @return the parsed message
+	 */
+	public Message parse(ByteBuffer buffer, Runnable deallocator) {
+		ByteBuffer encoded = buffer.asReadOnlyBuffer();
+		buffer.mark();
+		int pos = 0;
+		int offset = findContentOffset(buffer);
+		if (offset != -1) {
+			pos = buffer.position() + offset;
+			buffer.position(pos);
+		} else {
+			buffer.position(buffer.limit());
+			encoded = null;
+		}
 		
 		LOG.debug("message body starts at offset " + buffer.position());
 		
@@ -67,9 +119,15 @@ public class DefaultMessageParser implements MessageParser {
 		buffer.reset();
 		buffer.limit(pos);
 
-		MessageHeader header = parseHeader(buffer);
+		MessageHeader header = cache != null ? cache.get(buffer) : null;
+		if (header == null) {
+			header = parseHeader(buffer.duplicate());
+			if (cache != null) {
+				cache.put(buffer, header);
+			}
+		}
 		
-		return new DefaultMessage(header, content);
+		return new DefaultMessage(header, content, encoded, deallocator);
 	}
 	
     private MessageHeader parseHeader(ByteBuffer buffer) {
@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.message;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of encoded MIME header blocks shared by all {@link MessageHeader}
+ * objects. Headers with the same content share one immutable, read-only
+ * encoded block. The cache is split into stripes selected by the hash
+ * code of the header content, so that headers encoded concurrently 
+ * rarely contend for the same lock. Each stripe is bounded, its least 
+ * recently used entries are evicted once it is full.
+ *
+ * @author Simon Raess
+ */
+final class EncodedHeaderCache {
+
+	/**
+	 * The default maximum number of cached header blocks.
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+	
+	/**
+	 * The number of stripes, a power of two.
+	 */
+	private static final int STRIPES = 16;
+
+	private static final EncodedHeaderCache INSTANCE = new EncodedHeaderCache(DEFAULT_CAPACITY);
+
+	private final Stripe[] stripes;
+
+	EncodedHeaderCache(int capacity) {
+		int stripeCapacity = Math.max(1, capacity / STRIPES);
+		this.stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(stripeCapacity);
+		}
+	}
+
+	/**
+	 * Gets the process wide cache instance.
+	 *
+	 * @return the shared cache
+	 */
+	static EncodedHeaderCache getInstance() {
+		return INSTANCE;
+	}
+	
+	private Stripe stripe(Key key) {
+		int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Gets the cached block for the given key or null if there
+	 * is none.
+	 *
+	 * @param key the key identifying the header content
+	 * @return the read-only encoded header block or null
+	 */
+	ByteBuffer get(Key key) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			return stripe.get(key);
+		}
+	}
+
+	/**
+	 * Puts an encoded header block into the cache. If another block
+	 * with equal content has been cached in the meantime, that block
+	 * is returned instead so that all callers share the same one.
+	 * The cache stores a snapshot of the key.
+	 *
+	 * @param key the key identifying the header content
+	 * @param block the encoded header block
+	 * @return the block that is cached for the key
+	 */
+	ByteBuffer put(Key key, ByteBuffer block) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			ByteBuffer existing = stripe.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			ByteBuffer readOnly = block.asReadOnlyBuffer();
+			stripe.put(key.snapshot(), readOnly);
+			return readOnly;
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Bounded map in access order. Guarded by its own monitor.
+	 */
+	private static final class Stripe extends LinkedHashMap<Key,ByteBuffer> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int capacity;
+		
+		private Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key,ByteBuffer> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	/**
+	 * Content of a MessageHeader that determines its encoded form. A key
+	 * used for lookups refers to the header fields of the MessageHeader,
+	 * the cache stores an immutable {@link #snapshot()}.
+	 */
+	static final class Key {
+
+		private final String type;
+
+		private final String subtype;
+
+		private final String charset;
+
+		private final String transferEncoding;
+
+		private final boolean compact;
+
+		private final Map<String,String> header;
+
+		private final int hashCode;
+
+		Key(String type, String subtype, String charset, String transferEncoding,
+				boolean compact, Map<String,String> header) {
+			this.type = type;
+			this.subtype = subtype;
+			this.charset = charset;
+			this.transferEncoding = transferEncoding;
+			this.compact = compact;
+			this.header = header;
+			this.hashCode = computeHashCode();
+		}
+		
+		private Key(Key key, Map<String,String> header) {
+			this.type = key.type;
+			this.subtype = key.subtype;
+			this.charset = key.charset;
+			this.transferEncoding = key.transferEncoding;
+			this.compact = key.compact;
+			this.header = header;
+			this.hashCode = key.hashCode;
+		}
+		
+		/**
+		 * Creates a copy of this key that does not share the header 
+		 * fields with the MessageHeader.
+		 * 
+		 * @return the immutable copy
+		 */
+		Key snapshot() {
+			return new Key(this, header.isEmpty()
+					? Collections.<String,String>emptyMap()
+					: new HashMap<String,String>(header));
+		}
+
+		private int computeHashCode() {
+			int result = 17;
+			result = 37 * result + type.hashCode();
+			result = 37 * result + subtype.hashCode();
+			result = 37 * result + (charset != null ? charset.hashCode() : 0);
+			result = 37 * result + transferEncoding.hashCode();
+			result = 37 * result + (compact ? 1 : 0);
+			result = 37 * result + header.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (obj instanceof Key) {
+				Key key = (Key) obj;
+				return hashCode == key.hashCode
+				    && compact == key.compact
+				    && type.equals(key.type)
+				    && subtype.equals(key.subtype)
+				    && (charset == null ? key.charset == null : charset.equals(key.charset))
+				    && transferEncoding.equals(key.transferEncoding)
+				    && header.equals(key.header);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+	}
+
+}
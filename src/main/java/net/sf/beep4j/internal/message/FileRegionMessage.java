@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.message;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.stream.FileRegion;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.FileChannelInputStream;
+
+/**
+ * Message whose content is a region of a file. The content is never
+ * loaded into the heap as a whole, unless {@link #asByteBuffer()} is
+ * called. The channel controller sends such messages directly from
+ * the file, see {@link FileRegion}.
+ * 
+ * <p>The message owns the passed in file channel. Invoke {@link #close()}
+ * to close it, or {@link #delete()} to close it and delete the file, once
+ * the message is no longer needed.</p>
+ * 
+ * @author Simon Raess
+ */
+public class FileRegionMessage implements Message, Closeable {
+	
+	private final MessageHeader header;
+	
+	private final FileChannel channel;
+	
+	private final File file;
+	
+	private final long position;
+	
+	private final long length;
+	
+	public FileRegionMessage(MessageHeader header, FileChannel channel, long position, long length) {
+		this(header, channel, null, position, length);
+	}
+	
+	/**
+	 * Creates a new FileRegionMessage.
+	 * 
+	 * @param header the MIME headers of the message
+	 * @param channel the channel of the file
+	 * @param file the file the channel belongs to or null if unknown
+	 * @param position the position of the first byte of the content
+	 * @param length the length of the content
+	 */
+	public FileRegionMessage(MessageHeader header, FileChannel channel, File file, 
+			long position, long length) {
+		Assert.notNull("header", header);
+		Assert.notNull("channel", channel);
+		if (position < 0) {
+			throw new IllegalArgumentException("position must be >= 0");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("length must be >= 0");
+		}
+		this.header = header;
+		this.channel = channel;
+		this.file = file;
+		this.position = position;
+		this.length = length;
+	}
+	
+	/**
+	 * Creates a FileRegionMessage with the MIME headers of the given message.
+	 * The content of the given message is ignored.
+	 * 
+	 * @param message the message whose headers are used
+	 * @param channel the channel of the file
+	 * @param position the position of the first byte of the content
+	 * @param length the length of the content
+	 * @return the new FileRegionMessage
+	 */
+	public static FileRegionMessage valueOf(Message message, FileChannel channel, long position, long length) {
+		return valueOf(message, channel, null, position, length);
+	}
+	
+	/**
+	 * Creates a FileRegionMessage with the MIME headers of the given message.
+	 * The content of the given message is ignored.
+	 * 
+	 * @param message the message whose headers are used
+	 * @param channel the channel of the file
+	 * @param file the file the channel belongs to or null if unknown
+	 * @param position the position of the first byte of the content
+	 * @param length the length of the content
+	 * @return the new FileRegionMessage
+	 */
+	public static FileRegionMessage valueOf(Message message, FileChannel channel, File file, 
+			long position, long length) {
+		Assert.notNull("message", message);
+		return new FileRegionMessage(MessageHeader.valueOf(message), channel, file, position, length);
+	}
+	
+	MessageHeader getMessageHeader() {
+		return header;
+	}
+	
+	/**
+	 * Gets the encoded MIME header of this message.
+	 * 
+	 * @return the encoded header
+	 */
+	public ByteBuffer getEncodedHeader() {
+		return header.asByteBuffer();
+	}
+	
+	public FileChannel getFileChannel() {
+		return channel;
+	}
+	
+	/**
+	 * Gets the file containing the content of this message.
+	 * 
+	 * @return the file or null if it is not known
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Closes the file channel. The content cannot be read afterwards.
+	 * 
+	 * @throws IOException if the channel cannot be closed
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	/**
+	 * Closes the file channel and deletes the file.
+	 * 
+	 * @return true iff the file has been deleted, false if it could not
+	 *         be deleted or is not known
+	 * @throws IOException if the channel cannot be closed
+	 */
+	public boolean delete() throws IOException {
+		close();
+		return file != null && file.delete();
+	}
+	
+	public long getPosition() {
+		return position;
+	}
+	
+	public long getLength() {
+		return length;
+	}
+	
+	public String getContentType() {
+		return header.getContentType();
+	}
+	
+	public Iterator<String> getHeaderNames() {
+		return header.getHeaderNames();
+	}
+	
+	public String getHeader(String name) {
+		return header.getHeader(name);
+	}
+	
+	public InputStream getInputStream() {
+		return new FileChannelInputStream(channel, position, length);
+	}
+	
+	public Reader getReader() {
+		if (header.getCharset() == null) {
+			throw new IllegalStateException("no charset has been defined, "
+					+ "use method with charset parameter");
+		}
+		return getReader(header.getCharset());
+	}
+	
+	public Reader getReader(String charsetName) {
+		return new InputStreamReader(getInputStream(), Charset.forName(charsetName));
+	}
+	
+	/**
+	 * Maps the content of the file region into memory.
+	 * 
+	 * @return the read-only mapped content
+	 */
+	public ByteBuffer getContentBuffer() {
+		checkContentSize();
+		try {
+			return channel.map(MapMode.READ_ONLY, position, length);
+		} catch (IOException e) {
+			throw new InternalException("cannot map file region", e);
+		}
+	}
+	
+	/**
+	 * Reads the header and the complete content into a heap buffer. Avoid
+	 * this method for large files.
+	 * 
+	 * @return the encoded message
+	 */
+	public ByteBuffer asByteBuffer() {
+		checkContentSize();
+		ByteBuffer header = getEncodedHeader();
+		ByteBuffer buffer = ByteBuffer.allocate(header.remaining() + (int) length);
+		buffer.put(header);
+		new FileRegion(channel, position, (int) length).read(buffer);
+		buffer.flip();
+		return buffer.asReadOnlyBuffer();
+	}
+	
+	private void checkContentSize() {
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("file region too large for a buffer: " + length);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "FileRegionMessage[position=" + position + ",length=" + length + "]";
+	}
+	
+}
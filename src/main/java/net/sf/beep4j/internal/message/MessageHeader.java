@@ -44,11 +44,70 @@ public class MessageHeader {
 	
 	private String transferEncoding = "binary";
 	
+	private boolean compact;
+	
+	private volatile boolean frozen;
+	
 	public MessageHeader() {
 		this.header = new HashMap<String,String>();
 	}
 	
+	/**
+	 * Gets the MIME header of the given message. The returned header 
+	 * may be shared with the message and may be read-only, use 
+	 * {@link #copy()} to modify it.
+	 * 
+	 * @param message the message
+	 * @return the header of the message
+	 */
+	public static MessageHeader valueOf(Message message) {
+		if (message instanceof DefaultMessage) {
+			return ((DefaultMessage) message).getMessageHeader();
+		} else if (message instanceof FileRegionMessage) {
+			return ((FileRegionMessage) message).getMessageHeader();
+		} else {
+			DefaultMessage parsed = (DefaultMessage) new DefaultMessageParser().parse(message.asByteBuffer());
+			return parsed.getMessageHeader();
+		}
+	}
+	
+	/**
+	 * Creates a modifiable copy of this header.
+	 * 
+	 * @return the copy
+	 */
+	public MessageHeader copy() {
+		MessageHeader copy = new MessageHeader();
+		copy.header.putAll(header);
+		copy.type = type;
+		copy.subtype = subtype;
+		copy.charset = charset;
+		copy.transferEncoding = transferEncoding;
+		copy.compact = compact;
+		return copy;
+	}
+	
+	/**
+	 * Makes this header read-only. Any later attempt to modify the
+	 * header results in an IllegalStateException. Read-only headers
+	 * can safely be shared by several messages.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	private void checkModifiable() {
+		if (frozen) {
+			throw new IllegalStateException("message header is read-only");
+		}
+	}
+	
 	public void addHeader(String name, String value) {
+		checkModifiable();
 		if (Message.CONTENT_TYPE.equalsIgnoreCase(name)) {
 			parseContentType(value.trim());
 		} else if (Message.CONTENT_TRANSFER_ENCODING.equalsIgnoreCase(name)) {
@@ -56,11 +115,31 @@ public class MessageHeader {
 		} else {
 			header.put(name, value.trim());
 		}
+		buffer = null;
+	}
+	
+	/**
+	 * Removes the header field with the given name. The name is
+	 * compared case-insensitively.
+	 * 
+	 * @param name the name of the header field
+	 */
+	public void removeHeader(String name) {
+		checkModifiable();
+		Iterator<String> names = header.keySet().iterator();
+		while (names.hasNext()) {
+			if (names.next().equalsIgnoreCase(name)) {
+				names.remove();
+			}
+		}
+		buffer = null;
 	}
 	
 	public void setContentType(String type, String subtype) {
+		checkModifiable();
 		this.type = type.toLowerCase();
 		this.subtype = subtype.toLowerCase();
+		buffer = null;
 	}
 	
 	public String getContentType() {
@@ -68,7 +147,9 @@ public class MessageHeader {
 	}
 	
 	public void setCharset(String name) {
+		checkModifiable();
 		this.charset = name;
+		buffer = null;
 	}
 	
 	public String getCharset() {
@@ -76,7 +157,33 @@ public class MessageHeader {
 	}
 	
 	public void setTransferEncoding(String transferEncoding) {
+		checkModifiable();
 		this.transferEncoding = transferEncoding.toLowerCase();
+		buffer = null;
+	}
+	
+	/**
+	 * Enables or disables compact encoding. In compact mode, header
+	 * fields that only restate the defaults of RFC 3080 (a Content-Type
+	 * of application/octet-stream and a binary transfer encoding) are
+	 * omitted on the wire.
+	 * 
+	 * @param compact true to enable compact encoding
+	 */
+	public void setCompact(boolean compact) {
+		checkModifiable();
+		this.compact = compact;
+		buffer = null;
+	}
+	
+	public boolean isCompact() {
+		return compact;
+	}
+	
+	private boolean isDefaultContentType() {
+		return "application".equals(type) 
+		    && "octet-stream".equals(subtype)
+		    && "UTF-8".equals(charset);
 	}
 	
 	public String getTransferEncoding() {
@@ -125,8 +232,31 @@ public class MessageHeader {
 	
 	public synchronized ByteBuffer asByteBuffer() {
 		if (buffer == null) {
-			StringBuilder builder = new StringBuilder();
-			
+			EncodedHeaderCache cache = EncodedHeaderCache.getInstance();
+			EncodedHeaderCache.Key key = new EncodedHeaderCache.Key(
+					type, subtype, charset, transferEncoding, compact, header);
+			ByteBuffer block = cache.get(key);
+			if (block == null) {
+				block = cache.put(key, encode());
+			}
+			buffer = block;
+		}
+		return buffer.duplicate();
+	}
+	
+	/**
+	 * Gets the shared encoded block backing the buffers returned by
+	 * {@link #asByteBuffer()}.
+	 */
+	synchronized ByteBuffer getEncodedBlock() {
+		asByteBuffer();
+		return buffer;
+	}
+	
+	private ByteBuffer encode() {
+		StringBuilder builder = new StringBuilder();
+		
+		if (!compact || !isDefaultContentType()) {
 			builder.append("Content-Type: ");
 			builder.append(getContentType());
 			if (!"UTF-8".equals(charset)) {
@@ -134,29 +264,64 @@ public class MessageHeader {
 				builder.append(charset);
 			}
 			builder.append(EOL);
-			
-			if (!Message.BINARY_TRANSFER_ENCODING.equals(getTransferEncoding())) {
-				builder.append("Content-Transfer-Encoding: ");
-				builder.append(getTransferEncoding());
-				builder.append(EOL);
-			}
-			
-			Iterator<String> names = getHeaderNames();
-			while (names.hasNext()) {
-				String name = names.next();
-				String value = header.get(name);
-				builder.append(name);
-				builder.append(": ");
-				builder.append(value);
-				builder.append(EOL);
-			}
+		}
+		
+		if (!Message.BINARY_TRANSFER_ENCODING.equals(getTransferEncoding())) {
+			builder.append("Content-Transfer-Encoding: ");
+			builder.append(getTransferEncoding());
 			builder.append(EOL);
-			
-			CharBuffer chars = CharBuffer.wrap(builder);
-			buffer = Charset.forName("US-ASCII").encode(chars);
 		}
 		
-		return buffer.asReadOnlyBuffer();
+		Iterator<String> names = getHeaderNames();
+		while (names.hasNext()) {
+			String name = names.next();
+			String value = header.get(name);
+			builder.append(name);
+			builder.append(": ");
+			builder.append(value);
+			builder.append(EOL);
+		}
+		builder.append(EOL);
+		
+		CharBuffer chars = CharBuffer.wrap(builder);
+		return Charset.forName("US-ASCII").encode(chars);
+	}
+	
+	/*
+	 * A missing charset parameter is encoded like the default charset.
+	 */
+	private String getEffectiveCharset() {
+		return charset != null ? charset : "UTF-8";
+	}
+	
+	/**
+	 * Two headers are equal if they have the same content type, charset,
+	 * transfer encoding and header fields. Whether the header is encoded
+	 * in compact form is not considered.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (obj instanceof MessageHeader) {
+			MessageHeader other = (MessageHeader) obj;
+			return type.equals(other.type)
+			    && subtype.equals(other.subtype)
+			    && getEffectiveCharset().equals(other.getEffectiveCharset())
+			    && transferEncoding.equals(other.transferEncoding)
+			    && header.equals(other.header);
+		} else {
+			return false;
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = type.hashCode();
+		hash = 31 * hash + subtype.hashCode();
+		hash = 31 * hash + getEffectiveCharset().hashCode();
+		hash = 31 * hash + transferEncoding.hashCode();
+		return 31 * hash + header.hashCode();
 	}
 		
 }
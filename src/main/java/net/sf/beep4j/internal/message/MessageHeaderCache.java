@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small cache of parsed MIME header sections. Most messages received on
+ * a channel carry byte identical headers. The cache recognizes a header
+ * section that has been seen before by its hash code and a byte-by-byte
+ * comparison and returns the previously parsed, read-only
+ * {@link MessageHeader}.
+ *
+ * <p>The cache is direct mapped, that is, each header section can only
+ * be stored in the slot selected by its hash code. A new header section
+ * replaces whatever was stored in its slot before.</p>
+ *
+ * <p>This class is not thread-safe. It is meant to be used by a single
+ * channel, whose frames are processed sequentially.</p>
+ *
+ * @author Simon Raess
+ */
+public final class MessageHeaderCache {
+
+	/**
+	 * The default number of slots.
+	 */
+	private static final int DEFAULT_SIZE = 16;
+
+	/**
+	 * Header sections longer than this are never cached.
+	 */
+	private static final int MAX_HEADER_LENGTH = 1024;
+
+	private final Entry[] entries;
+
+	private final int mask;
+
+	public MessageHeaderCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Creates a new cache with the given number of slots, which is
+	 * rounded up to the next power of two.
+	 *
+	 * @param size the number of slots
+	 */
+	public MessageHeaderCache(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("size must be > 0");
+		}
+		int capacity = 1;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		this.entries = new Entry[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Gets the parsed header for the header section between the position
+	 * and the limit of the given buffer. The position of the buffer is
+	 * not modified.
+	 *
+	 * @param buffer the buffer containing the header section
+	 * @return the cached header or null
+	 */
+	public MessageHeader get(ByteBuffer buffer) {
+		int hash = hash(buffer);
+		Entry entry = entries[hash & mask];
+		if (entry != null && entry.matches(hash, buffer)) {
+			return entry.header;
+		}
+		return null;
+	}
+
+	/**
+	 * Caches the given parsed header for the header section between the
+	 * position and the limit of the passed in buffer. The header is made
+	 * read-only. The position of the buffer is not modified.
+	 *
+	 * @param buffer the buffer containing the header section
+	 * @param header the parsed header
+	 */
+	public void put(ByteBuffer buffer, MessageHeader header) {
+		if (buffer.remaining() > MAX_HEADER_LENGTH) {
+			return;
+		}
+		header.freeze();
+		int hash = hash(buffer);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		entries[hash & mask] = new Entry(hash, bytes, header);
+	}
+
+	private static int hash(ByteBuffer buffer) {
+		int hash = 1;
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static final class Entry {
+		private final int hash;
+		private final byte[] bytes;
+		private final MessageHeader header;
+
+		private Entry(int hash, byte[] bytes, MessageHeader header) {
+			this.hash = hash;
+			this.bytes = bytes;
+			this.header = header;
+		}
+
+		private boolean matches(int hash, ByteBuffer buffer) {
+			if (this.hash != hash || bytes.length != buffer.remaining()) {
+				return false;
+			}
+			int offset = buffer.position();
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] != buffer.get(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.message;
+
+import java.nio.ByteBuffer;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * Immutable message whose header and content have been encoded once into
+ * a single read-only buffer. The content of the message is a view of that
+ * buffer. A pre-encoded message can be sent any number of times, on any
+ * number of channels and from any thread. Every call to 
+ * {@link #asByteBuffer()} returns a new view of the same shared buffer,
+ * so that the channel controller frames the message by reference.
+ * 
+ * @author Simon Raess
+ */
+public final class PreEncodedMessage extends DefaultMessage {
+	
+	private final ByteBuffer encoded;
+	
+	private PreEncodedMessage(MessageHeader header, ByteBuffer content, ByteBuffer encoded) {
+		super(header, content, encoded);
+		this.encoded = encoded;
+	}
+	
+	/**
+	 * Freezes the given message into its pre-encoded form. If the message
+	 * is already pre-encoded, it is returned unchanged.
+	 * 
+	 * @param message the message to freeze
+	 * @return the pre-encoded message
+	 */
+	public static PreEncodedMessage valueOf(Message message) {
+		Assert.notNull("message", message);
+		if (message instanceof PreEncodedMessage) {
+			return (PreEncodedMessage) message;
+		}
+		
+		ByteBuffer source = message.asByteBuffer();
+		ByteBuffer buffer = ByteBuffer.allocate(source.remaining());
+		buffer.put(source);
+		buffer.flip();
+		ByteBuffer encoded = buffer.asReadOnlyBuffer();
+		
+		DefaultMessageParser parser = new DefaultMessageParser();
+		DefaultMessage parsed = (DefaultMessage) parser.parse(encoded.duplicate());
+		MessageHeader header = parsed.getMessageHeader();
+		header.freeze();
+		
+		return new PreEncodedMessage(header, parsed.getContentBuffer(), encoded);
+	}
+	
+	@Override
+	public ByteBuffer asByteBuffer() {
+		return encoded.duplicate();
+	}
+	
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The locks that are released while the application is called back. A
+ * channel is guarded by its own lock, session wide state by the session
+ * lock. Whenever both are needed, the session lock is acquired first. 
+ * Locks are therefore released in reverse order and reacquired in the
+ * order passed to the constructor. Only locks held by the calling thread
+ * are released and later reacquired.
+ * 
+ * @author Simon Raess
+ */
+final class CallbackLocks {
+	
+	/**
+	 * CallbackLocks object that does not release any lock.
+	 */
+	static final CallbackLocks NONE = new CallbackLocks();
+	
+	private final ReentrantLock[] locks;
+	
+	/**
+	 * Creates a new CallbackLocks object for the given locks, which
+	 * are passed in the order they are acquired. Null locks are ignored.
+	 * 
+	 * @param locks the locks in acquisition order
+	 */
+	CallbackLocks(ReentrantLock... locks) {
+		this.locks = locks.clone();
+	}
+	
+	/**
+	 * Releases all the locks held by the current thread.
+	 * 
+	 * @return a token to be passed to {@link #reacquire(int)}
+	 */
+	int release() {
+		int released = 0;
+		for (int i = locks.length - 1; i >= 0; i--) {
+			ReentrantLock lock = locks[i];
+			if (lock != null && lock.isHeldByCurrentThread()) {
+				lock.unlock();
+				released |= 1 << i;
+			}
+		}
+		return released;
+	}
+	
+	/**
+	 * Reacquires the locks released by the matching call to {@link #release()}.
+	 * 
+	 * @param released the token returned by release
+	 */
+	void reacquire(int released) {
+		for (int i = 0; i < locks.length; i++) {
+			if ((released & (1 << i)) != 0) {
+				locks[i].lock();
+			}
+		}
+	}
+	
+}
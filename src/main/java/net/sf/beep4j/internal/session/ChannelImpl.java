@@ -15,10 +15,14 @@
  */
 package net.sf.beep4j.internal.session;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 import net.sf.beep4j.Channel;
@@ -26,23 +30,49 @@ import net.sf.beep4j.ChannelFilterChainBuilder;
 import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.CloseChannelCallback;
 import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.FailureAwareReplyHandler;
 import net.sf.beep4j.Message;
 import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.MessageOutputStream;
 import net.sf.beep4j.ProtocolException;
 import net.sf.beep4j.Reply;
 import net.sf.beep4j.ReplyHandler;
 import net.sf.beep4j.Session;
+import net.sf.beep4j.StreamingChannelHandler;
+import net.sf.beep4j.StreamingReplyHandler;
 import net.sf.beep4j.ext.ChannelFilterAdapter;
 import net.sf.beep4j.internal.DefaultChannelFilterChain;
-import net.sf.beep4j.internal.FilterChainTargetHolder;
+import net.sf.beep4j.internal.FilterInvocation;
+import net.sf.beep4j.internal.InternalException;
 import net.sf.beep4j.internal.management.CloseCallback;
 import net.sf.beep4j.internal.message.DefaultMessageBuilder;
 import net.sf.beep4j.internal.util.Assert;
-import net.sf.beep4j.internal.util.IntegerSequence;
-import net.sf.beep4j.internal.util.Sequence;
+import net.sf.beep4j.internal.util.EventLoop;
+import net.sf.beep4j.internal.util.ReferenceCounting;
+import net.sf.beep4j.internal.util.SerialExecutor;
 
 class ChannelImpl implements Channel, InternalChannel {
 	
+	/**
+	 * The size of the fragments in which streamed messages are sent.
+	 */
+	private static final int FRAGMENT_SIZE = 4096;
+	
+	/**
+	 * The maximum number of completed ReplyHandlerRecords a channel keeps
+	 * for reuse.
+	 */
+	private static final int MAX_POOLED_RECORDS = 16;
+	
+	/*
+	 * The kinds of replies, dispatched by the fused reply objects.
+	 */
+	private static final int RPY = 0;
+	private static final int ERR = 1;
+	private static final int ANS = 2;
+	private static final int NUL = 3;
+	
 	private final InternalSession session;
 	
 	private final String profile;
@@ -51,22 +81,79 @@ class ChannelImpl implements Channel, InternalChannel {
 	
 	private final InternalChannelFilterChain filterChain;
 	
-	private final ReentrantLock sessionLock;
+	/**
+	 * Guards the state of this channel: the message number sequence,
+	 * the registered replies and reply handlers, the open reply counters,
+	 * the open stream and the state of the channel. It is never acquired
+	 * before the session lock by a thread that holds it. The lock is null
+	 * if the channel is confined to an event loop.
+	 */
+	private final ReentrantLock channelLock;
+	
+	/**
+	 * The locks released while the application is called back.
+	 */
+	private final CallbackLocks callbackLocks;
+	
+	/**
+	 * Executor on which the application handlers are invoked in order
+	 * or null if they are invoked by the receiving thread.
+	 */
+	private SerialExecutor dispatcher;
+	
+	/**
+	 * The event loop the channel is confined to or null.
+	 */
+	private EventLoop eventLoop;
+	
+	/**
+	 * Whether the event loop thread waits for the dispatcher. Meanwhile
+	 * the thread of the dispatcher may access the channel directly.
+	 */
+	private volatile boolean eventLoopWaiting;
 	
-	private final Sequence<Integer> messageNumberSequence = new IntegerSequence(1, 1);
+	/**
+	 * The message number of the next message sent on this channel.
+	 */
+	private int nextMessageNumber = 1;
 
 	/**
 	 * Maps from message number to Reply objects. Replies are registered when they are
-	 * created and removed from this map as soon as they are completed by the
+	 * created and removed from this table as soon as they are completed by the
 	 * application.
 	 */
-	private final Map<Integer, Reply> replies = Collections.synchronizedMap(new HashMap<Integer, Reply>());
+	private final ReplyRing<Reply> replies = new ReplyRing<Reply>();
 	
-	private final LinkedList<ReplyHandlerHolder> replyHandlerHolders = new LinkedList<ReplyHandlerHolder>();
+	/**
+	 * The records of the sent messages whose reply has not been received
+	 * completely, keyed by message number.
+	 */
+	private final ReplyRing<ReplyHandlerRecord> replyHandlerRecords = new ReplyRing<ReplyHandlerRecord>();
+	
+	/**
+	 * The message number of the oldest record in replyHandlerRecords. The
+	 * message numbers of sent messages are consecutive and the replies must
+	 * be received in the same order, so the next record is the one of the
+	 * following message number.
+	 */
+	private int oldestOutgoing;
+	
+	/**
+	 * Completed ReplyHandlerRecords kept for reuse, linked through their
+	 * next field. Guarded by the channel lock.
+	 */
+	private ReplyHandlerRecord recordPool;
+	
+	private int pooledRecords;
 	
 	private ChannelHandler channelHandler;
 	
-	private State state = new Alive();
+	/**
+	 * The channel handler if it receives messages as streams, null otherwise.
+	 */
+	private volatile StreamingChannelHandler streamingHandler;
+	
+	private volatile State state = new Alive();
 	
 	/**
 	 * Counter that counts how many messages we have sent but to which we
@@ -80,18 +167,114 @@ class ChannelImpl implements Channel, InternalChannel {
 	 */
 	private int openIncomingReplies;
 	
+	/**
+	 * The currently open message stream or null.
+	 */
+	private MessageOutputStream openStream;
+	
 	public ChannelImpl(
 			InternalSession session, 
 			String profile, 
 			int channelNumber,
 			ChannelFilterChainBuilder filterChainBuilder,
 			ReentrantLock sessionLock) {
+		this(session, profile, channelNumber, filterChainBuilder, sessionLock, new ReentrantLock());
+	}
+	
+	/**
+	 * Creates a new channel guarded by the given channel lock. The session
+	 * lock is held by the session while it dispatches incoming frames. Both
+	 * locks are released before the application is called back. Either
+	 * lock may be null.
+	 * 
+	 * @param session the session the channel belongs to
+	 * @param profile the profile URI of the channel
+	 * @param channelNumber the channel number
+	 * @param filterChainBuilder the builder for the filter chain of the channel
+	 * @param sessionLock the session lock
+	 * @param channelLock the lock guarding the state of this channel
+	 */
+	public ChannelImpl(
+			InternalSession session, 
+			String profile, 
+			int channelNumber,
+			ChannelFilterChainBuilder filterChainBuilder,
+			ReentrantLock sessionLock,
+			ReentrantLock channelLock) {
 		this.session = session;
 		this.profile = profile;
 		this.channelNumber = channelNumber;
-		this.sessionLock = sessionLock;
-		this.filterChain = new DefaultChannelFilterChain(new HeadFilter(), new TailFilter());
-		filterChainBuilder.buildFilterChain(filterChain);
+		this.channelLock = channelLock;
+		this.callbackLocks = new CallbackLocks(sessionLock, channelLock);
+		DefaultChannelFilterChain chain = new DefaultChannelFilterChain(new HeadFilter(), new TailFilter());
+		filterChainBuilder.buildFilterChain(chain);
+		this.filterChain = chain.compile();
+	}
+	
+	/**
+	 * Sets the Executor on which the handlers of the application are 
+	 * invoked. The handlers of this channel are invoked one after the
+	 * other in the order the events have been received. Handlers of
+	 * streamed messages and replies are always invoked by the receiving
+	 * thread. Must be called before the channel is opened.
+	 * 
+	 * @param executor the Executor used to invoke the handlers
+	 */
+	public void setDispatcher(Executor executor) {
+		Assert.notNull("executor", executor);
+		this.dispatcher = new SerialExecutor(executor);
+	}
+	
+	/**
+	 * Confines this channel to the given event loop. The channel must
+	 * have been created without locks. All its state is accessed from
+	 * the event loop thread. Calls of the application from other threads
+	 * are passed to the event loop. Must be called before the channel 
+	 * is opened.
+	 * 
+	 * @param eventLoop the event loop
+	 */
+	public void setEventLoop(EventLoop eventLoop) {
+		Assert.notNull("eventLoop", eventLoop);
+		if (channelLock != null) {
+			throw new IllegalStateException("a channel confined to an event loop "
+					+ "must not be guarded by a lock");
+		}
+		this.eventLoop = eventLoop;
+	}
+	
+	/*
+	 * Determines whether the current call must be passed to the
+	 * event loop.
+	 */
+	private boolean isForeignThread() {
+		if (eventLoop == null || eventLoop.inEventLoop()) {
+			return false;
+		}
+		return !eventLoopWaiting || !dispatcher.isExecutorThread();
+	}
+	
+	/*
+	 * Invokes the given task on the event loop and waits for its result.
+	 * Exceptions thrown by the task are rethrown.
+	 */
+	private <T> T callInEventLoop(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<T>(task);
+		eventLoop.execute(future);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalException("interrupted while waiting for the event loop", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new InternalException("event loop task failed", cause);
+		}
 	}
 	
 	protected void setState(State state) {
@@ -102,12 +285,12 @@ class ChannelImpl implements Channel, InternalChannel {
 	// --> replies to incoming messages <--
 	
 	protected boolean hasReply(int messageNumber) {
-		return replies.containsKey(messageNumber);
+		return replies.contains(messageNumber);
 	}
 	
 	protected Reply createReply(InternalSession session, int messageNumber) {
 		incrementOpenIncomingReplies();
-		Reply reply = wrapReply(new DefaultReply(session, channelNumber, messageNumber));
+		Reply reply = new ChannelReply(session, messageNumber);
 		registerReply(messageNumber, reply);
 		return reply;
 	}
@@ -132,75 +315,224 @@ class ChannelImpl implements Channel, InternalChannel {
 	// --> replies to outgoing messages <--
 	
 	/**
-	 * Gets the next ReplyHandlerHolder. The given <var>messageNumber</var>
-	 * must match the message number of the ReplyHandlerHolder. Otherwise
+	 * Gets the next ReplyHandlerRecord. The given <var>messageNumber</var>
+	 * must match the message number of the ReplyHandlerRecord. Otherwise
 	 * a protocol exception is thrown and the session terminated.
 	 */
-	private ReplyHandlerHolder getReplyHandlerHolder(final int messageNumber) {
-		synchronized (replyHandlerHolders) {
-			if (replyHandlerHolders.isEmpty()) {
-				throw new ProtocolException("received a reply (message=" + messageNumber + ") "
-						+ " on channel " + channelNumber + " but expects no outstanding replies");
-			}
-			ReplyHandlerHolder holder = replyHandlerHolders.getFirst();
-			if (holder.getMessageNumber() != messageNumber) {
-				throw new ProtocolException("next expected reply on channel "
-						+ channelNumber + " must have message number "
-						+ holder.getMessageNumber() + " but was "
-						+ messageNumber);
-			}
-			return holder;
-		}
+	private ReplyHandlerRecord getReplyHandlerRecord(final int messageNumber) {
+		if (replyHandlerRecords.isEmpty()) {
+			throw new ProtocolException("received a reply (message=" + messageNumber + ") "
+					+ " on channel " + channelNumber + " but expects no outstanding replies");
+		}
+		if (oldestOutgoing != messageNumber) {
+			throw new ProtocolException("next expected reply on channel "
+					+ channelNumber + " must have message number "
+					+ oldestOutgoing + " but was "
+					+ messageNumber);
+		}
+		return replyHandlerRecords.get(messageNumber);
 	}
 	
 	/**
-	 * Removes the next ReplyHandlerHolder. The given <var>messageNumber</var>
-	 * must match the message number of the returned ReplyHandlerHolder. If that
+	 * Removes the next ReplyHandlerRecord. The given <var>messageNumber</var>
+	 * must match the message number of the returned ReplyHandlerRecord. If that
 	 * is not the case a protocol exception is thrown and the session is
 	 * terminated.
 	 * 
 	 * @param messageNumber the expected message number
 	 */
-	private ReplyHandlerHolder unregisterReplyHandlerHolder(final int messageNumber) {
-		synchronized (replyHandlerHolders) {
-			ReplyHandlerHolder holder = replyHandlerHolders.removeFirst();
-			if (messageNumber != holder.getMessageNumber()) {
-				throw new ProtocolException("next expected reply has message number " 
-						+ holder.getMessageNumber()
-						+ "; received reply had message number " + messageNumber);
-			}
-			return holder;
-		}
+	private ReplyHandlerRecord unregisterReplyHandlerRecord(final int messageNumber) {
+		ReplyHandlerRecord record = getReplyHandlerRecord(messageNumber);
+		replyHandlerRecords.remove(messageNumber);
+		oldestOutgoing = increment(messageNumber);
+		record.registered = false;
+		return record;
 	}
 	
 	/**
-	 * Registers a ReplyHandlerHolder. A ReplyHandlerHolder represents a reply that
-	 * must be received later.
+	 * Registers the ReplyHandlerRecord of a reply that must be received later.
+	 * The passed in handler is usually the ReplyHandlerRecord obtained before
+	 * the message was passed through the filter chain. If a filter replaced 
+	 * it, the replacement is registered instead.
 	 * 
 	 * @param messageNumber the message number of the incoming reply
 	 * @param handler the ReplyHandler that will process the reply
+	 * @param sending the ReplyHandlerRecord obtained for the message, null
+	 *                if the message has not passed through a filter
+	 */
+	private void registerReplyHandler(final int messageNumber, final ReplyHandler handler, 
+			final ReplyHandlerRecord sending) {
+		ReplyHandlerRecord record;
+		if (handler instanceof ReplyHandlerRecord) {
+			record = (ReplyHandlerRecord) handler;
+		} else {
+			record = new ReplyHandlerRecord();
+			record.entry = handler;
+			record.streamingTarget = sending != null ? sending.streamingTarget : null;
+		}
+		if (replyHandlerRecords.isEmpty()) {
+			oldestOutgoing = messageNumber;
+		}
+		record.registered = true;
+		replyHandlerRecords.put(messageNumber, record);
+	}
+	
+	/**
+	 * Gets the message number of the next message sent on this channel.
 	 */
-	private void registerReplyHandler(final int messageNumber, final ReplyHandler handler) {
-		synchronized (replyHandlerHolders) {
-			replyHandlerHolders.addLast(new ReplyHandlerHolder(handler, messageNumber));
+	private int nextMessageNumber() {
+		int result = nextMessageNumber;
+		nextMessageNumber = increment(result);
+		return result;
+	}
+	
+	/**
+	 * Gets the message number following the given one. Message numbers
+	 * wrap around to 0 after reaching 2147483647.
+	 */
+	private static int increment(int messageNumber) {
+		return messageNumber == Integer.MAX_VALUE ? 0 : messageNumber + 1;
+	}
+	
+	/**
+	 * Gets a ReplyHandlerRecord for the given ReplyHandler of the 
+	 * application, reusing a completed one if possible.
+	 */
+	private ReplyHandlerRecord obtainRecord(ReplyHandler target) {
+		ReplyHandlerRecord record;
+		lock();
+		try {
+			record = recordPool;
+			if (record != null) {
+				recordPool = record.next;
+				record.next = null;
+				pooledRecords--;
+			}
+		} finally {
+			unlock();
+		}
+		if (record == null) {
+			record = new ReplyHandlerRecord();
+		}
+		record.target = target;
+		record.streamingTarget = target instanceof StreamingReplyHandler 
+				? (StreamingReplyHandler) target : null;
+		return record;
+	}
+	
+	/**
+	 * Puts a completed ReplyHandlerRecord back into the pool. Must be called
+	 * with the channel lock held.
+	 */
+	private void recycle(ReplyHandlerRecord record) {
+		if (pooledRecords < MAX_POOLED_RECORDS) {
+			record.target = null;
+			record.streamingTarget = null;
+			record.next = recordPool;
+			recordPool = record;
+			pooledRecords++;
 		}
 	}
 	
 	// --> start of InternalChannel methods <--
 	
 	public void channelOpened(ChannelHandler channelHandler) {
-		Assert.notNull("channelHandler", wrappChannelHandler(channelHandler));
-		this.channelHandler = wrappChannelHandler(channelHandler);
-		this.channelHandler.channelOpened(this);
+		Assert.notNull("channelHandler", channelHandler);
+		channelHandler = wrapUnlocking(channelHandler);
+		lock();
+		try {
+			if (channelHandler instanceof StreamingChannelHandler) {
+				this.streamingHandler = (StreamingChannelHandler) channelHandler;
+			}
+			this.channelHandler = wrappChannelHandler(channelHandler);
+			this.channelHandler.channelOpened(this);
+		} finally {
+			unlock();
+		}
+	}
+	
+	private ChannelHandler wrapUnlocking(ChannelHandler channelHandler) {
+		if (channelHandler instanceof StreamingChannelHandler) {
+			return new UnlockingStreamingChannelHandler(
+					(StreamingChannelHandler) channelHandler, callbackLocks);
+		}
+		if (dispatcher != null) {
+			channelHandler = new DispatchingChannelHandler(channelHandler, dispatcher);
+		}
+		return new UnlockingChannelHandler(channelHandler, callbackLocks);
 	}
 
+	/*
+	 * Channels without filters bypass the filter chain.
+	 */
 	private ChannelHandler wrappChannelHandler(ChannelHandler channelHandler) {
+		channelHandler = new TerminalChannelHandler(channelHandler);
+		if (filterChain.isEmpty()) {
+			return channelHandler;
+		}
 		return new FilterChannelHandler(filterChain, channelHandler);
 	}
 	
+	public void registerPiggybackedRequest(ReplyHandler reply) {
+		Assert.notNull("listener", reply);
+		ReplyHandlerRecord record = obtainRecord(reply);
+		lock();
+		try {
+			incrementOpenOutgoingReplies();
+			registerReplyHandler(PIGGYBACKED_MESSAGE_NUMBER, record, record);
+		} finally {
+			unlock();
+		}
+	}
+	
+	public void receivePiggybackedRequest(Message request) {
+		receiveMSG(PIGGYBACKED_MESSAGE_NUMBER, request);
+		if (dispatcher != null) {
+			int released = callbackLocks.release();
+			eventLoopWaiting = true;
+			try {
+				dispatcher.executeAndWait(new Runnable() {
+					public void run() {
+						// all previously dispatched calls have completed
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InternalException("interrupted while waiting for the piggybacked "
+						+ "request to be processed", e);
+			} finally {
+				eventLoopWaiting = false;
+				callbackLocks.reacquire(released);
+			}
+		}
+	}
+	
 	public void receiveMSG(final int messageNumber, final Message message) {
-		Assert.holdsLock("session", sessionLock);
-		
+		lock();
+		try {
+			validateMessageNumber(messageNumber);
+			Reply reply = createReply(session, messageNumber);
+			state.receiveMSG(message, reply);
+		} finally {
+			unlock();
+		}
+	}
+	
+	public MessageContentHandler receiveMSGStart(final int messageNumber, final Message header) {
+		if (streamingHandler == null) {
+			return null;
+		}
+		lock();
+		try {
+			validateMessageNumber(messageNumber);
+			Reply reply = createReply(session, messageNumber);
+			return state.receiveMSGStart(header, reply);
+		} finally {
+			unlock();
+		}
+	}
+	
+	private void validateMessageNumber(final int messageNumber) {
 		if (hasReply(messageNumber)) {
 			// Validation of frames according to the BEEP specification section 2.2.1.1.
 			//
@@ -212,33 +544,64 @@ class ChannelImpl implements Channel, InternalChannel {
 					+ "that has been received but for which a reply has not been "
 					+ "completely sent.");
 		}
-		
-		Reply reply = createReply(session, messageNumber);
-		state.receiveMSG(message, reply);
 	}
 	
 	public void receiveRPY(final int messageNumber, final Message message) {
-		Assert.holdsLock("session", sessionLock);
-		ReplyHandlerHolder holder = unregisterReplyHandlerHolder(messageNumber);
-		state.receiveRPY(holder, message);
+		lock();
+		try {
+			ReplyHandlerRecord record = unregisterReplyHandlerRecord(messageNumber);
+			state.receiveRPY(record.entry, message);
+		} finally {
+			unlock();
+		}
+	}
+	
+	public MessageContentHandler receiveRPYStart(final int messageNumber, final Message header) {
+		lock();
+		try {
+			ReplyHandlerRecord record = getReplyHandlerRecord(messageNumber);
+			if (record.streamingTarget == null) {
+				return null;
+			}
+			unregisterReplyHandlerRecord(messageNumber);
+			return state.receiveRPYStart(record.streamingTarget, header);
+		} finally {
+			unlock();
+		}
 	}
 	
 	public void receiveERR(final int messageNumber, final Message message) {
-		Assert.holdsLock("session", sessionLock);
-		ReplyHandlerHolder holder = unregisterReplyHandlerHolder(messageNumber);
-		state.receiveERR(holder, message);
+		lock();
+		try {
+			ReplyHandlerRecord record = unregisterReplyHandlerRecord(messageNumber);
+			state.receiveERR(record.entry, message);
+		} finally {
+			unlock();
+		}
 	}
 	
 	public void receiveANS(final int messageNumber, final int answerNumber, final Message message) {
-		Assert.holdsLock("session", sessionLock);
-		ReplyHandlerHolder holder = getReplyHandlerHolder(messageNumber);
-		state.receiveANS(holder, message);
+		lock();
+		try {
+			ReplyHandlerRecord record = getReplyHandlerRecord(messageNumber);
+			state.receiveANS(record.entry, message);
+		} finally {
+			unlock();
+		}
 	}
 	
 	public void receiveNUL(final int messageNumber) {
-		Assert.holdsLock("session", sessionLock);
-		ReplyHandlerHolder holder = unregisterReplyHandlerHolder(messageNumber);
-		state.receiveNUL(holder);
+		lock();
+		try {
+			ReplyHandlerRecord record = unregisterReplyHandlerRecord(messageNumber);
+			state.receiveNUL(record.entry);
+		} finally {
+			unlock();
+		}
+	}
+	
+	public boolean isStreaming() {
+		return streamingHandler != null;
 	}
 	
 	public boolean isAlive() {
@@ -269,112 +632,187 @@ class ChannelImpl implements Channel, InternalChannel {
 		return new DefaultMessageBuilder();
 	}
 	
-	public void sendMessage(Message message, ReplyHandler reply) {
+	public void sendMessage(final Message message, final ReplyHandler reply) {
 		Assert.notNull("message", message);
 		Assert.notNull("listener", reply);
-		incrementOpenOutgoingReplies();
-		state.sendMessage(message, wrapReplyHandler(reply));
+		if (isForeignThread()) {
+			state.checkSendMessage();
+			ReferenceCounting.retain(message);
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					try {
+						sendMessage(message, reply);
+					} catch (RuntimeException e) {
+						if (!(reply instanceof FailureAwareReplyHandler)) {
+							throw e;
+						}
+						((FailureAwareReplyHandler) reply).sendFailed(e);
+					} finally {
+						ReferenceCounting.release(message);
+					}
+				}
+			});
+			return;
+		}
+		state.sendMessage(message, obtainRecord(reply));
 	}
 	
 	private void lock() {
-		if (sessionLock != null) {
-			sessionLock.lock();
+		if (channelLock != null) {
+			channelLock.lock();
 		}
 	}
 	
 	private void unlock() {
-		if (sessionLock != null) {
-			sessionLock.unlock();
+		if (channelLock != null) {
+			channelLock.unlock();
 		}
 	}
 	
-	private void doSendMessage(Message message, ReplyHandler replyHandler) {
+	private void doSendMessage(Message message, ReplyHandler replyHandler, ReplyHandlerRecord record) {
 		lock();
 		try {
-			int messageNumber = messageNumberSequence.next();
-			registerReplyHandler(messageNumber, replyHandler);
+			int messageNumber = nextMessageNumber();
+			incrementOpenOutgoingReplies();
+			registerReplyHandler(messageNumber, replyHandler, record);
 			session.sendMSG(channelNumber, messageNumber, message, replyHandler);
 		} finally {
 			unlock();
 		}
 	}
-
-	/*
-	 * The passed in ReplyHandler is decorated by the the following 
-	 * decorators:
-	 * 
-	 * 1. UnlockingReplyHandler: unlock / lock session lock
-	 * 2. FilterReplyHandler:    passes request through filters
-	 * 3. ReplyHandlerWrapper:   bookkeeping (notify about completed replies)
-	 * 4. target:                after the filters are processed, this method is called
-	 */
-	protected ReplyHandler wrapReplyHandler(ReplyHandler replyHandler) {
-		replyHandler = new ReplyHandlerWrapper(replyHandler);
-		replyHandler = new FilterReplyHandler(filterChain, replyHandler);
-		replyHandler = new UnlockingReplyHandler(replyHandler, sessionLock);
-		return replyHandler;
+	
+	public MessageOutputStream openMessage(final MessageBuilder builder, final ReplyHandler reply) {
+		Assert.notNull("builder", builder);
+		Assert.notNull("listener", reply);
+		if (isForeignThread()) {
+			return callInEventLoop(new Callable<MessageOutputStream>() {
+				public MessageOutputStream call() {
+					return openMessage(builder, reply);
+				}
+			});
+		}
+		return state.openMessage(builder.getMessage(), obtainRecord(reply));
 	}
 	
-	public void close(CloseChannelCallback callback) {
-		Assert.notNull("callback", callback);
-		filterChain.fireFilterClose(callback);
+	private MessageOutputStream doOpenMessage(Message message, ReplyHandler replyHandler) {
+		lock();
+		try {
+			if (openStream != null) {
+				throw new IllegalStateException("there is already an open message stream "
+						+ "on channel " + channelNumber);
+			}
+			int messageNumber = nextMessageNumber();
+			registerReplyHandler(messageNumber, replyHandler, null);
+			incrementOpenOutgoingReplies();
+			session.sendMSGFragment(channelNumber, messageNumber, message.asByteBuffer(), false);
+			openStream = new ChannelMessageOutputStream(messageNumber);
+			return openStream;
+		} finally {
+			unlock();
+		}
+	}
+	
+	private MessageContentHandler startMessage(Message header, Reply reply) {
+		MessageContentHandler handler = streamingHandler.messageStarted(header, reply);
+		if (handler == null) {
+			throw new IllegalStateException("StreamingChannelHandler returned no MessageContentHandler");
+		}
+		return handler;
+	}
+	
+	private void streamClosed(MessageOutputStream stream) {
+		lock();
+		try {
+			if (openStream == stream) {
+				openStream = null;
+			}
+		} finally {
+			unlock();
+		}
 	}
 
-	protected Reply wrapReply(Reply reply) {
-		reply = new ReplyWrapper(reply);
-		reply = new LockingReply(reply, sessionLock);
-		return new FilterReply(filterChain, reply);
+	public void close(final CloseChannelCallback callback) {
+		Assert.notNull("callback", callback);
+		if (isForeignThread()) {
+			callInEventLoop(new Callable<Void>() {
+				public Void call() {
+					close(callback);
+					return null;
+				}
+			});
+			return;
+		}
+		if (filterChain.isEmpty()) {
+			doClose(callback);
+		} else {
+			filterChain.fireFilterClose(callback);
+		}
 	}
 	
+	private void doClose(CloseChannelCallback callback) {
+		if (dispatcher != null) {
+			callback = new DispatchingCloseChannelCallback(callback, dispatcher);
+		}
+		lock();
+		try {
+			state.closeInitiated(new UnlockingCloseChannelCallback(callback, callbackLocks));
+		} finally {
+			unlock();
+		}
+	}
+
 	public void channelCloseRequested(CloseCallback callback) {
-		state.closeRequested(callback);
+		lock();
+		try {
+			state.closeRequested(callback);
+		} finally {
+			unlock();
+		}
 	}
 	
 	// --> end of Channel methods <--
 	
-	protected synchronized void incrementOpenOutgoingReplies() {
+	/*
+	 * The open reply counters are guarded by the channel lock.
+	 */
+	
+	protected void incrementOpenOutgoingReplies() {
 		openOutgoingReplies++;
 	}
 	
 	protected void outgoingReplyCompleted() {
-		synchronized (this) {
-			openOutgoingReplies--;
-		}
-		
 		lock();
 		try {
+			openOutgoingReplies--;
 			state.checkCondition();
 		} finally {
 			unlock();
 		}
 	}
 	
-	protected synchronized boolean hasOpenOutgoingReplies() {
+	protected boolean hasOpenOutgoingReplies() {
 		return openOutgoingReplies > 0;
 	}
 	
-	protected synchronized void incrementOpenIncomingReplies() {
+	protected void incrementOpenIncomingReplies() {
 		openIncomingReplies++;
 	}
 	
 	protected void incomingReplyCompleted() {
-		synchronized (this) {
-			openIncomingReplies--;
-		}
-		
 		lock();
 		try {
+			openIncomingReplies--;
 			state.checkCondition();
 		} finally {
 			unlock();
 		}
 	}
 	
-	protected synchronized boolean hasOpenIncomingReplies() {
+	protected boolean hasOpenIncomingReplies() {
 		return openIncomingReplies > 0;
 	}
 	
-	protected synchronized boolean isReadyToShutdown() {
+	protected boolean isReadyToShutdown() {
 		return !hasOpenIncomingReplies() && !hasOpenOutgoingReplies();
 	}
 	
@@ -393,32 +831,33 @@ class ChannelImpl implements Channel, InternalChannel {
 	private final class HeadFilter extends ChannelFilterAdapter {
 		@Override
 		public void filterSendMessage(NextFilter next, Message message, ReplyHandler replyHandler) {
-			doSendMessage(message, replyHandler);
+			doSendMessage(message, replyHandler, 
+					FilterInvocation.getTarget(next, ReplyHandlerRecord.class));
 		}
 		
 		@Override
 		public void filterClose(NextFilter next, CloseChannelCallback callback) {
-			state.closeInitiated(new UnlockingCloseChannelCallback(callback, sessionLock));
+			doClose(callback);
 		}
 
 		@Override
 		public void filterSendRPY(NextFilter next, Message message) {
-			FilterChainTargetHolder.getReply().sendRPY(message);
+			FilterInvocation.getTarget(next, ChannelReply.class).doSend(RPY, message);
 		}
 
 		@Override
 		public void filterSendERR(NextFilter next, Message message) {
-			FilterChainTargetHolder.getReply().sendERR(message);
+			FilterInvocation.getTarget(next, ChannelReply.class).doSend(ERR, message);
 		}
 
 		@Override
 		public void filterSendANS(NextFilter next, Message message) {
-			FilterChainTargetHolder.getReply().sendANS(message);
+			FilterInvocation.getTarget(next, ChannelReply.class).doSend(ANS, message);
 		}
 		
 		@Override
 		public void filterSendNUL(NextFilter next) {
-			FilterChainTargetHolder.getReply().sendNUL();
+			FilterInvocation.getTarget(next, ChannelReply.class).doSend(NUL, null);
 		}
 	}
 
@@ -432,155 +871,118 @@ class ChannelImpl implements Channel, InternalChannel {
 	private final class TailFilter extends ChannelFilterAdapter {
 		@Override
 		public void filterChannelOpened(NextFilter next, Channel channel) {
-			FilterChainTargetHolder.getChannelHandler().channelOpened(ChannelImpl.this);
+			FilterInvocation.getTarget(next, ChannelHandler.class).channelOpened(channel);
 		}
 
 		@Override
 		public void filterMessageReceived(NextFilter next, Message message, Reply reply) {
-			FilterChainTargetHolder.getChannelHandler().messageReceived(message, reply);
+			FilterInvocation.getTarget(next, ChannelHandler.class).messageReceived(message, reply);
 		}
 		
 		@Override
-		public void filterChannelCloseRequested(NextFilter next, CloseChannelRequest r) {
-			DefaultCloseChannelRequest request = (DefaultCloseChannelRequest) r;
-			FilterChainTargetHolder.getChannelHandler().channelCloseRequested(request);
-			
-			CloseCallback callback = FilterChainTargetHolder.getCloseCallback();
-			
-			// TODO: request might not get here if filters stop before
-			if (request.isAccepted()) {
-				setState(new CloseRequested(callback));
-			} else {
-				callback.closeDeclined(550, "still working");
-				setState(new Alive());
-			}
+		public void filterChannelCloseRequested(NextFilter next, CloseChannelRequest request) {
+			FilterInvocation.getTarget(next, ChannelHandler.class).channelCloseRequested(request);
 		}
 		
 		@Override
 		public void filterChannelClosed(NextFilter next) {
-			FilterChainTargetHolder.getChannelHandler().channelClosed();
-			setState(new Dead());
+			FilterInvocation.getTarget(next, ChannelHandler.class).channelClosed();
 		}
 
 		@Override
 		public void filterReceivedRPY(NextFilter next, Message message) {
-			FilterChainTargetHolder.getReplyHandler().receivedRPY(message);
+			FilterInvocation.getTarget(next, ReplyHandlerRecord.class).deliver(RPY, message);
 		}
 		
 		@Override
 		public void filterReceivedERR(NextFilter next, Message message) {
-			FilterChainTargetHolder.getReplyHandler().receivedERR(message);
+			FilterInvocation.getTarget(next, ReplyHandlerRecord.class).deliver(ERR, message);
 		}
 		
 		@Override
 		public void filterReceivedANS(NextFilter next, Message message) {
-			FilterChainTargetHolder.getReplyHandler().receivedANS(message);
+			FilterInvocation.getTarget(next, ReplyHandlerRecord.class).deliver(ANS, message);
 		}
 		
 		@Override
 		public void filterReceivedNUL(NextFilter next) {
-			FilterChainTargetHolder.getReplyHandler().receivedNUL();
+			FilterInvocation.getTarget(next, ReplyHandlerRecord.class).deliver(NUL, null);
 		}
 	}
 
-	/*
-	 * Wrapper for ReplyHandler that decrements a counter whenever
-	 * a complete message has been received. Intercepts calls to 
-	 * the real ReplyHandler from the application to make this
-	 * book-keeping possible.
+	/**
+	 * ChannelHandler at the application end of the filter chain. Invokes
+	 * the handler of the application and updates the state of the 
+	 * channel afterwards.
 	 */
-	private class ReplyHandlerWrapper implements ReplyHandler {
-
-		private final ReplyHandler target;
+	private final class TerminalChannelHandler implements ChannelHandler {
+		
+		private final ChannelHandler target;
 		
-		private ReplyHandlerWrapper(ReplyHandler target) {
-			Assert.notNull("target", target);
+		private TerminalChannelHandler(ChannelHandler target) {
 			this.target = target;
 		}
 		
-		public void receivedANS(Message message) {
-			target.receivedANS(message);			
+		public void channelOpened(Channel channel) {
+			target.channelOpened(channel);
 		}
 		
-		public void receivedNUL() {
-			try {
-				target.receivedNUL();
-			} finally {
-				outgoingReplyCompleted();
-			}
+		public void messageReceived(Message message, Reply reply) {
+			target.messageReceived(message, reply);
 		}
 		
-		public void receivedERR(Message message) {
-			try {
-				target.receivedERR(message);
-			} finally {
-				outgoingReplyCompleted();
+		public void channelCloseRequested(CloseChannelRequest r) {
+			DefaultCloseChannelRequest request = (DefaultCloseChannelRequest) r;
+			target.channelCloseRequested(request);
+			
+			CloseCallback callback = request.getCallback();
+			
+			// TODO: request might not get here if filters stop before
+			if (request.isAccepted()) {
+				setState(new CloseRequested(callback));
+			} else {
+				callback.closeDeclined(550, "still working");
+				setState(new Alive());
 			}
 		}
 		
-		public void receivedRPY(Message message) {
-			try {
-				target.receivedRPY(message);
-			} finally {
-				outgoingReplyCompleted();
-			}
+		public void channelClosed() {
+			target.channelClosed();
+			setState(new Dead());
 		}
 	}
-	
+
 	/*
-	 * The ReplyWrapper is used to count outstanding replies. This information
-	 * is needed to know when a channel close can be accepted.
+	 * Wrapper for the MessageContentHandler of a streamed reply. Notifies
+	 * the channel that the reply has been completed or aborted, which is 
+	 * needed to know when a channel close can be accepted.
 	 */
-	private class ReplyWrapper implements Reply {
+	private class ReplyContentHandler implements MessageContentHandler {
 		
-		private final Reply target;
+		private final MessageContentHandler target;
 		
-		private ReplyWrapper(Reply target) {
-			Assert.notNull("target", target);
+		private ReplyContentHandler(MessageContentHandler target) {
 			this.target = target;
 		}
 		
-		public void sendANS(Message message) {
-			target.sendANS(message);			
+		public void contentReceived(ByteBuffer buffer) {
+			target.contentReceived(buffer);
 		}
 		
-		public void sendNUL() {
-			incomingReplyCompleted();
-			target.sendNUL();
-		}
-		
-		public void sendERR(Message message) {
-			incomingReplyCompleted();
-			target.sendERR(message);
+		public void contentCompleted() {
+			try {
+				target.contentCompleted();
+			} finally {
+				outgoingReplyCompleted();
+			}
 		}
 		
-		public void sendRPY(Message message) {
-			incomingReplyCompleted();
-			target.sendRPY(message);
-		}
-	}
-	
-	private static class ReplyHandlerHolder implements ReplyHandler {
-		private final ReplyHandler target;
-		private final int messageNumber;
-		private ReplyHandlerHolder(ReplyHandler target, int messageNumber) {
-			this.target = target;
-			this.messageNumber = messageNumber;
-		}
-		int getMessageNumber() {
-			return messageNumber;
-		}
-		public void receivedANS(Message message) {
-			target.receivedANS(message);
-		}
-		public void receivedNUL() {
-			target.receivedNUL();
-		}
-		public void receivedERR(Message message) {
-			target.receivedERR(message);
-		}
-		public void receivedRPY(Message message) {
-			target.receivedRPY(message);
+		public void contentAborted(Throwable cause) {
+			try {
+				target.contentAborted(cause);
+			} finally {
+				outgoingReplyCompleted();
+			}
 		}
 	}
 	
@@ -588,14 +990,22 @@ class ChannelImpl implements Channel, InternalChannel {
 		
 		void checkCondition();
 		
+		void checkSendMessage();
+		
 		void sendMessage(Message message, ReplyHandler replyHandler);
 		
+		MessageOutputStream openMessage(Message message, ReplyHandler replyHandler);
+		
 		void closeInitiated(CloseChannelCallback callback);
 		
 		void closeRequested(CloseCallback callback);
 		
 		void receiveMSG(Message message, Reply reply);
 		
+		MessageContentHandler receiveMSGStart(Message header, Reply reply);
+		
+		MessageContentHandler receiveRPYStart(StreamingReplyHandler replyHandler, Message header);
+		
 		void receiveRPY(ReplyHandler replyHandler, Message message);
 		
 		void receiveERR(ReplyHandler replyHandler, Message message);
@@ -612,10 +1022,22 @@ class ChannelImpl implements Channel, InternalChannel {
 			// nothing to check
 		}
 		
+		/*
+		 * Invoked on foreign threads before the message is passed to the
+		 * event loop. Must only read immutable state.
+		 */
+		public void checkSendMessage() {
+			throw new IllegalStateException(buildExceptionMessage("sendMessage"));
+		}
+		
 		public void sendMessage(Message message, ReplyHandler replyHandler) {
 			throw new IllegalStateException(buildExceptionMessage("sendMessage"));
 		}
 		
+		public MessageOutputStream openMessage(Message message, ReplyHandler replyHandler) {
+			throw new IllegalStateException(buildExceptionMessage("openMessage"));
+		}
+		
 		public void closeInitiated(CloseChannelCallback callback) {
 			throw new IllegalStateException(buildExceptionMessage("closeInitiated"));
 		}
@@ -628,6 +1050,14 @@ class ChannelImpl implements Channel, InternalChannel {
 			throw new IllegalStateException(buildExceptionMessage("receiveMSG"));
 		}
 		
+		public MessageContentHandler receiveMSGStart(Message header, Reply reply) {
+			throw new IllegalStateException(buildExceptionMessage("receiveMSGStart"));
+		}
+		
+		public MessageContentHandler receiveRPYStart(StreamingReplyHandler replyHandler, Message header) {
+			throw new IllegalStateException(buildExceptionMessage("receiveRPYStart"));
+		}
+		
 		public void receiveANS(ReplyHandler replyHandler, Message message) {
 			throw new IllegalStateException(buildExceptionMessage("receiveANS"));
 		}
@@ -674,13 +1104,42 @@ class ChannelImpl implements Channel, InternalChannel {
 		public void receiveRPY(ReplyHandler replyHandler, Message message) {
 			replyHandler.receivedRPY(message);
 		}
+		
+		@Override
+		public MessageContentHandler receiveRPYStart(StreamingReplyHandler replyHandler, Message header) {
+			MessageContentHandler handler;
+			int released = callbackLocks.release();
+			try {
+				handler = replyHandler.replyStarted(header);
+			} finally {
+				callbackLocks.reacquire(released);
+			}
+			if (handler == null) {
+				throw new IllegalStateException("StreamingReplyHandler returned no MessageContentHandler");
+			}
+			return new ReplyContentHandler(handler);
+		}
 	}
 	
 	private class Alive extends AbstractReceivingState {
 		
+		@Override
+		public void checkSendMessage() {
+			// messages can be sent
+		}
+		
 		@Override
 		public void sendMessage(final Message message, final ReplyHandler replyHandler) {
-			filterChain.fireFilterSendMessage(message, replyHandler);
+			if (filterChain.isEmpty()) {
+				doSendMessage(message, replyHandler, null);
+			} else {
+				filterChain.fireFilterSendMessage(message, replyHandler);
+			}
+		}
+		
+		@Override
+		public MessageOutputStream openMessage(Message message, ReplyHandler replyHandler) {
+			return doOpenMessage(message, replyHandler);
 		}
 		
 		@Override
@@ -688,6 +1147,11 @@ class ChannelImpl implements Channel, InternalChannel {
 			channelHandler.messageReceived(message, reply);
 		}
 		
+		@Override
+		public MessageContentHandler receiveMSGStart(Message header, Reply reply) {
+			return startMessage(header, reply);
+		}
+		
 		@Override
 		public void closeInitiated(CloseChannelCallback callback) {
 			setState(new CloseInitiated(callback));
@@ -695,12 +1159,7 @@ class ChannelImpl implements Channel, InternalChannel {
 		
 		@Override
 		public void closeRequested(CloseCallback callback) {
-			FilterChainTargetHolder.setCloseCallback(callback);
-			try {
-				channelHandler.channelCloseRequested(new DefaultCloseChannelRequest());
-			} finally {
-				FilterChainTargetHolder.setCloseCallback(null);
-			}
+			channelHandler.channelCloseRequested(new DefaultCloseChannelRequest(callback));
 //			setState(new CloseRequested(callback));
 		}
 		
@@ -719,6 +1178,11 @@ class ChannelImpl implements Channel, InternalChannel {
 			channelHandler.messageReceived(message, reply);
 		}
 		
+		@Override
+		public MessageContentHandler receiveMSGStart(Message header, Reply reply) {
+			return startMessage(header, reply);
+		}
+		
 		/**
 		 * Sending the close channel request is allowed as soon as all
 		 * sent messages have been acknowledged. beep4j is a bit more
@@ -731,12 +1195,22 @@ class ChannelImpl implements Channel, InternalChannel {
 			if (isReadyToShutdown()) {
 				final CloseCallback closeCallback = new CloseCallback() {
 					public void closeDeclined(int code, String message) {
-						callback.closeDeclined(code, message);
-						setState(new Alive());
+						lock();
+						try {
+							callback.closeDeclined(code, message);
+							setState(new Alive());
+						} finally {
+							unlock();
+						}
 					}
 					public void closeAccepted() {
-						callback.closeAccepted();
-						channelHandler.channelClosed();
+						lock();
+						try {
+							callback.closeAccepted();
+							channelHandler.channelClosed();
+						} finally {
+							unlock();
+						}
 					}
 				};
 				setState(new CloseInitiatedSentState(callback));
@@ -784,6 +1258,12 @@ class ChannelImpl implements Channel, InternalChannel {
 					+ "further messages on a channel after sending a channel close request");
 		}
 		
+		@Override
+		public MessageContentHandler receiveMSGStart(Message header, Reply reply) {
+			throw new ProtocolException("the remote peer is not allowed to send "
+					+ "further messages on a channel after sending a channel close request");
+		}
+		
 		@Override
 		public void checkCondition() {
 			if (isReadyToShutdown()) {
@@ -798,11 +1278,128 @@ class ChannelImpl implements Channel, InternalChannel {
 	}
 	
 	
-	protected class DefaultReply implements Reply {
+	/*
+	 * MessageOutputStream that collects the written content in fragments
+	 * of FRAGMENT_SIZE bytes. Before a fragment is sent, the stream waits
+	 * until the previous fragments have been sent. So at most one fragment
+	 * is queued at any time.
+	 */
+	private class ChannelMessageOutputStream extends MessageOutputStream {
 		
-		private final InternalSession session;
+		private final int messageNumber;
+		
+		private ByteBuffer buffer = ByteBuffer.allocate(FRAGMENT_SIZE);
 		
-		private final int channel;
+		private boolean open = true;
+		
+		private ChannelMessageOutputStream(int messageNumber) {
+			this.messageNumber = messageNumber;
+		}
+		
+		private void checkOpen() throws IOException {
+			if (!open) {
+				throw new IOException("stream of message " + messageNumber 
+						+ " on channel " + channelNumber + " is closed");
+			}
+		}
+		
+		@Override
+		public synchronized void write(int b) throws IOException {
+			checkOpen();
+			if (!buffer.hasRemaining()) {
+				sendFragment(false);
+			}
+			buffer.put((byte) b);
+		}
+		
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			write(ByteBuffer.wrap(b, off, len));
+		}
+		
+		public synchronized int write(ByteBuffer src) throws IOException {
+			checkOpen();
+			int count = src.remaining();
+			while (src.hasRemaining()) {
+				if (!buffer.hasRemaining()) {
+					sendFragment(false);
+				}
+				int length = Math.min(src.remaining(), buffer.remaining());
+				ByteBuffer chunk = src.duplicate();
+				chunk.limit(chunk.position() + length);
+				buffer.put(chunk);
+				src.position(src.position() + length);
+			}
+			return count;
+		}
+		
+		@Override
+		public synchronized void flush() throws IOException {
+			checkOpen();
+			if (buffer.position() > 0) {
+				sendFragment(false);
+			}
+		}
+		
+		public synchronized boolean isOpen() {
+			return open;
+		}
+		
+		@Override
+		public synchronized void close() throws IOException {
+			if (open) {
+				open = false;
+				try {
+					sendFragment(true);
+				} finally {
+					streamClosed(this);
+				}
+			}
+		}
+		
+		private void sendFragment(final boolean last) throws IOException {
+			try {
+				session.awaitFramesSent(channelNumber);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("interrupted while waiting for the window of "
+						+ "channel " + channelNumber);
+			}
+			
+			buffer.flip();
+			final ByteBuffer fragment = buffer;
+			buffer = ByteBuffer.allocate(FRAGMENT_SIZE);
+			
+			try {
+				if (isForeignThread()) {
+					callInEventLoop(new Callable<Void>() {
+						public Void call() {
+							session.sendMSGFragment(channelNumber, messageNumber, fragment, last);
+							return null;
+						}
+					});
+				} else {
+					session.sendMSGFragment(channelNumber, messageNumber, fragment, last);
+				}
+			} catch (RuntimeException e) {
+				IOException exception = new IOException("failed to send fragment of message "
+						+ messageNumber + " on channel " + channelNumber + ": " + e.getMessage());
+				exception.initCause(e);
+				throw exception;
+			}
+		}
+	}
+	
+	/*
+	 * The Reply passed to the application for an incoming message. Passes
+	 * calls from foreign threads to the event loop, runs them through the
+	 * filter chain (unless there are no filters), acquires the channel lock, 
+	 * counts the outstanding replies and sends the reply. These steps used
+	 * to be separate decorators. Replies are not reused, because the 
+	 * application may keep a reference after completing them.
+	 */
+	private final class ChannelReply implements Reply {
+		
+		private final InternalSession session;
 		
 		private final int messageNumber;
 		
@@ -810,54 +1407,237 @@ class ChannelImpl implements Channel, InternalChannel {
 		
 		private boolean complete;
 		
-		public DefaultReply(InternalSession session, int channel, int messageNumber) {
+		/*
+		 * Set as soon as the application sends the RPY, ERR or NUL,
+		 * before the call is passed to the event loop. Ensures that the
+		 * calling thread gets the IllegalStateException.
+		 */
+		private final AtomicBoolean responseSent = new AtomicBoolean();
+		
+		private ChannelReply(InternalSession session, int messageNumber) {
 			Assert.notNull("session", session);
 			this.session = session;
-			this.channel = channel;
 			this.messageNumber = messageNumber;
 		}
 		
-		private void checkCompletion() {
-			if (complete) {
+		public void sendANS(Message message) {
+			send(ANS, message);
+		}
+		
+		public void sendERR(Message message) {
+			send(ERR, message);
+		}
+		
+		public void sendNUL() {
+			send(NUL, null);
+		}
+		
+		public void sendRPY(Message message) {
+			send(RPY, message);
+		}
+		
+		private void send(final int type, final Message message) {
+			if (type != NUL) {
+				Assert.notNull("message", message);
+			}
+			if (type == ANS ? responseSent.get() : !responseSent.compareAndSet(false, true)) {
 				throw new IllegalStateException("a complete reply has already been sent");
 			}
+			if (isForeignThread()) {
+				ReferenceCounting.retain(message);
+				eventLoop.execute(new Runnable() {
+					public void run() {
+						try {
+							filter(type, message);
+						} finally {
+							ReferenceCounting.release(message);
+						}
+					}
+				});
+			} else {
+				filter(type, message);
+			}
 		}
-
-		private void complete() {
-			complete = true;
-			replyCompleted(channel, messageNumber);
+		
+		private void filter(int type, Message message) {
+			if (filterChain.isEmpty()) {
+				doSend(type, message);
+			} else if (type == RPY) {
+				filterChain.fireFilterSendRPY(this, message);
+			} else if (type == ERR) {
+				filterChain.fireFilterSendERR(this, message);
+			} else if (type == ANS) {
+				filterChain.fireFilterSendANS(this, message);
+			} else {
+				filterChain.fireFilterSendNUL(this);
+			}
 		}
 		
-		public MessageBuilder createMessageBuilder() {
-			return new DefaultMessageBuilder();
+		/*
+		 * Sends the reply. Invoked after the filters have been processed.
+		 */
+		private void doSend(int type, Message message) {
+			if (type != NUL) {
+				Assert.notNull("message", message);
+			}
+			lock();
+			try {
+				if (complete) {
+					throw new IllegalStateException("a complete reply has already been sent");
+				}
+				if (type == ANS) {
+					session.sendANS(channelNumber, messageNumber, answerNumber++, message);
+					return;
+				}
+				incomingReplyCompleted();
+				if (type == RPY) {
+					session.sendRPY(channelNumber, messageNumber, message);
+				} else if (type == ERR) {
+					session.sendERR(channelNumber, messageNumber, message);
+				} else {
+					session.sendNUL(channelNumber, messageNumber);
+				}
+				complete = true;
+				replyCompleted(channelNumber, messageNumber);
+			} finally {
+				unlock();
+			}
 		}
-
-		public void sendANS(Message message) {
-			Assert.notNull("message", message);
-			checkCompletion();
-			session.sendANS(channel, messageNumber, answerNumber++, message);
+	}
+	
+	/*
+	 * Record of a message sent on this channel whose reply has not been
+	 * received completely. It is the ReplyHandler the reply is passed to:
+	 * it releases the held locks, hands the call to the dispatcher (if any),
+	 * runs it through the filter chain (unless there are no filters), 
+	 * invokes the ReplyHandler of the application and counts the 
+	 * outstanding replies. These steps used to be separate decorators. 
+	 * Completed records are reused for later messages.
+	 */
+	private final class ReplyHandlerRecord implements ReplyHandler {
+		
+		/*
+		 * The ReplyHandler of the application.
+		 */
+		private ReplyHandler target;
+		
+		private StreamingReplyHandler streamingTarget;
+		
+		/*
+		 * The ReplyHandler invoked by the channel when the reply is
+		 * received. Either this record or the replacement of a filter.
+		 */
+		private ReplyHandler entry = this;
+		
+		/*
+		 * Whether the record is registered with the channel. Guarded by
+		 * the channel lock.
+		 */
+		private boolean registered;
+		
+		/*
+		 * The next record in the pool.
+		 */
+		private ReplyHandlerRecord next;
+		
+		public void receivedANS(Message message) {
+			receive(ANS, message);
 		}
 		
-		public void sendERR(Message message) {
-			Assert.notNull("message", message);
-			checkCompletion();
-			session.sendERR(channel, messageNumber, message);
-			complete();
+		public void receivedERR(Message message) {
+			receive(ERR, message);
 		}
 		
-		public void sendNUL() {
-			checkCompletion();
-			session.sendNUL(channel, messageNumber);
-			complete();
+		public void receivedNUL() {
+			receive(NUL, null);
 		}
 		
-		public void sendRPY(Message message) {
-			Assert.notNull("message", message);
-			checkCompletion();
-			session.sendRPY(channel, messageNumber, message);
-			complete();
+		public void receivedRPY(Message message) {
+			receive(RPY, message);
+		}
+		
+		private void receive(final int type, final Message message) {
+			int released = callbackLocks.release();
+			try {
+				if (dispatcher == null) {
+					filter(type, message);
+				} else {
+					ReferenceCounting.retain(message);
+					dispatcher.execute(new Runnable() {
+						public void run() {
+							try {
+								filter(type, message);
+							} finally {
+								ReferenceCounting.release(message);
+							}
+						}
+					});
+				}
+			} finally {
+				callbackLocks.reacquire(released);
+			}
 		}
 		
+		private void filter(int type, Message message) {
+			if (filterChain.isEmpty()) {
+				deliver(type, message);
+			} else if (type == RPY) {
+				filterChain.fireFilterReceivedRPY(this, message);
+			} else if (type == ERR) {
+				filterChain.fireFilterReceivedERR(this, message);
+			} else if (type == ANS) {
+				filterChain.fireFilterReceivedANS(this, message);
+			} else {
+				filterChain.fireFilterReceivedNUL(this);
+			}
+		}
+		
+		/*
+		 * Passes the reply to the application. Invoked after the filters
+		 * have been processed.
+		 */
+		private void deliver(int type, Message message) {
+			if (type == ANS) {
+				target.receivedANS(message);
+				return;
+			}
+			try {
+				if (type == RPY) {
+					target.receivedRPY(message);
+				} else if (type == ERR) {
+					target.receivedERR(message);
+				} else {
+					target.receivedNUL();
+				}
+			} finally {
+				completed();
+			}
+		}
+		
+		/*
+		 * Waits for the event loop on foreign threads, so that failures
+		 * reach the caller as they do when the channel is locked.
+		 */
+		private void completed() {
+			if (isForeignThread()) {
+				callInEventLoop(new Callable<Void>() {
+					public Void call() {
+						completed();
+						return null;
+					}
+				});
+				return;
+			}
+			lock();
+			try {
+				outgoingReplyCompleted();
+				if (!registered) {
+					recycle(this);
+				}
+			} finally {
+				unlock();
+			}
+		}
 	}
-
+	
 }
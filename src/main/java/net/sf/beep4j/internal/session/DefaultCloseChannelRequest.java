@@ -16,11 +16,25 @@
 package net.sf.beep4j.internal.session;
 
 import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.internal.management.CloseCallback;
 
 public class DefaultCloseChannelRequest implements CloseChannelRequest {
 	
+	/**
+	 * The callback notified about the outcome of the request.
+	 */
+	private final CloseCallback callback;
+	
 	private boolean accepted;
 	
+	public DefaultCloseChannelRequest(CloseCallback callback) {
+		this.callback = callback;
+	}
+	
+	public CloseCallback getCallback() {
+		return callback;
+	}
+	
 	public boolean isAccepted() {
 		return accepted;
 	}
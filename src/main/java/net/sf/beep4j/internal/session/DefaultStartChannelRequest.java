@@ -15,6 +15,8 @@
  */
 package net.sf.beep4j.internal.session;
 
+import java.util.Arrays;
+
 import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.ProfileInfo;
 import net.sf.beep4j.StartChannelRequest;
@@ -54,10 +56,9 @@ final class DefaultStartChannelRequest implements StartChannelRequest {
 	}
 	
 	public ProfileInfo getProfile(String profileUri) {
-		for (int i = 0; i < profiles.length; i++) {
-			if (profileUri.equals(profiles[i].getUri())) {
-				return profiles[i];
-			}
+		ProfileInfo profile = findProfile(profileUri);
+		if (profile != null) {
+			return profile;
 		}
 		throw new IllegalArgumentException("there is no ProfileInfo object matching "
 				+ "the passed in profile uri: '" + profileUri + "'");
@@ -80,9 +81,56 @@ final class DefaultStartChannelRequest implements StartChannelRequest {
 					+ "cancelled or accepted");
 		}
 		checkProfile(profile.getUri());
+		if (carriesPiggybackedRequest(profile)) {
+			// the request must not be sent back as the piggybacked reply
+			profile = new ProfileInfo(profile.getUri());
+		}
 		response = StartChannelResponse.createSuccessResponse(profile, handler);
 	}
 	
+	public void selectProfileWithRequest(ProfileInfo profile, ChannelHandler handler) {
+		Assert.notNull("profile", profile);
+		Assert.notNull("handler", handler);
+		if (response != null) {
+			throw new IllegalStateException("StartChannelRequest is already either "
+					+ "cancelled or accepted");
+		}
+		checkProfile(profile.getUri());
+		if (!profile.hasContent() || !profile.isBase64Encoded()) {
+			throw new IllegalArgumentException("profile " + profile.getUri() 
+					+ " does not carry a piggybacked request");
+		}
+		response = StartChannelResponse.createSuccessResponse(profile, handler, true);
+	}
+	
+	/**
+	 * Determines whether the requested profile with the given uri carries
+	 * a piggybacked request.
+	 * 
+	 * @param profileUri the uri of the profile
+	 * @return true iff the profile content is a base64 encoded request
+	 */
+	boolean hasPiggybackedRequest(String profileUri) {
+		ProfileInfo profile = findProfile(profileUri);
+		return profile != null && profile.hasContent() && profile.isBase64Encoded();
+	}
+	
+	private boolean carriesPiggybackedRequest(ProfileInfo profile) {
+		return hasPiggybackedRequest(profile.getUri()) 
+		    && profile.hasContent() && profile.isBase64Encoded()
+		    && Arrays.equals(profile.getBinaryContent(), 
+		    		findProfile(profile.getUri()).getBinaryContent());
+	}
+	
+	private ProfileInfo findProfile(String profileUri) {
+		for (int i = 0; i < profiles.length; i++) {
+			if (profileUri.equals(profiles[i].getUri())) {
+				return profiles[i];
+			}
+		}
+		return null;
+	}
+	
 	private void checkProfile(String profile) {
 		for (int i = 0; i < profiles.length; i++) {
 			ProfileInfo initial = profiles[i];
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.ChannelHandler;
+import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.ReferenceCounting;
+import net.sf.beep4j.internal.util.SerialExecutor;
+
+/**
+ * {@link ChannelHandler} implementation that invokes the target ChannelHandler
+ * on the SerialExecutor of the channel. Received messages are retained until
+ * the target has processed them.
+ * 
+ * <p>A close request must be answered before the caller returns. The calling
+ * thread therefore waits until all the previously dispatched callbacks and
+ * the close request itself have been processed.</p>
+ * 
+ * @author Simon Raess
+ */
+final class DispatchingChannelHandler implements ChannelHandler {
+	
+	private final ChannelHandler target;
+	
+	private final SerialExecutor executor;
+	
+	DispatchingChannelHandler(ChannelHandler target, SerialExecutor executor) {
+		Assert.notNull("target", target);
+		Assert.notNull("executor", executor);
+		this.target = target;
+		this.executor = executor;
+	}
+	
+	public void channelOpened(final Channel c) {
+		executor.execute(new Runnable() {
+			public void run() {
+				target.channelOpened(c);
+			}
+		});
+	}
+	
+	public void messageReceived(final Message message, final Reply reply) {
+		ReferenceCounting.retain(message);
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					target.messageReceived(message, reply);
+				} finally {
+					ReferenceCounting.release(message);
+				}
+			}
+		});
+	}
+	
+	public void channelCloseRequested(final CloseChannelRequest request) {
+		try {
+			executor.executeAndWait(new Runnable() {
+				public void run() {
+					target.channelCloseRequested(request);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalException("interrupted while waiting for the close request "
+					+ "to be processed", e);
+		}
+	}
+	
+	public void channelClosed() {
+		executor.execute(new Runnable() {
+			public void run() {
+				target.channelClosed();
+			}
+		});
+	}
+	
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import net.sf.beep4j.CloseChannelCallback;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.SerialExecutor;
+
+/**
+ * {@link CloseChannelCallback} implementation that invokes the target
+ * on the SerialExecutor of the channel.
+ * 
+ * @author Simon Raess
+ */
+final class DispatchingCloseChannelCallback implements CloseChannelCallback {
+	
+	private final CloseChannelCallback target;
+	
+	private final SerialExecutor executor;
+	
+	DispatchingCloseChannelCallback(CloseChannelCallback target, SerialExecutor executor) {
+		Assert.notNull("target", target);
+		Assert.notNull("executor", executor);
+		this.target = target;
+		this.executor = executor;
+	}
+	
+	public void closeAccepted() {
+		executor.execute(new Runnable() {
+			public void run() {
+				target.closeAccepted();
+			}
+		});
+	}
+
+	public void closeDeclined(final int code, final String message) {
+		executor.execute(new Runnable() {
+			public void run() {
+				target.closeDeclined(code, message);
+			}
+		});
+	}
+
+}
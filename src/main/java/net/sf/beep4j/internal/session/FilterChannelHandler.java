@@ -21,7 +21,6 @@ import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.CloseChannelRequest;
 import net.sf.beep4j.Message;
 import net.sf.beep4j.Reply;
-import net.sf.beep4j.internal.FilterChainTargetHolder;
 
 /**
  * @author Simon Raess
@@ -38,39 +37,19 @@ final class FilterChannelHandler implements ChannelHandler {
 	}
 	
 	public void channelOpened(Channel c) {
-		FilterChainTargetHolder.setChannelHandler(target);
-		try {
-			filterChain.fireFilterChannelOpened(c);
-		} finally {
-			FilterChainTargetHolder.setChannelHandler(null);
-		}
+		filterChain.fireFilterChannelOpened(target, c);
 	}
 
 	public void messageReceived(Message message, Reply reply) {
-		FilterChainTargetHolder.setChannelHandler(target);
-		try {
-			filterChain.fireFilterMessageReceived(message, reply);
-		} finally {
-			FilterChainTargetHolder.setChannelHandler(null);
-		}
+		filterChain.fireFilterMessageReceived(target, message, reply);
 	}
 	
 	public void channelCloseRequested(CloseChannelRequest request) {
-		FilterChainTargetHolder.setChannelHandler(target);
-		try {
-			filterChain.fireFilterChannelCloseRequested(request);
-		} finally {
-			FilterChainTargetHolder.setChannelHandler(null);
-		}
+		filterChain.fireFilterChannelCloseRequested(target, request);
 	}
 	
 	public void channelClosed() {
-		FilterChainTargetHolder.setChannelHandler(target);
-		try {
-			filterChain.fireFilterChannelClosed();
-		} finally {
-			FilterChainTargetHolder.setChannelHandler(null);
-		}
+		filterChain.fireFilterChannelClosed(target);
 	}
 
 }
@@ -18,6 +18,8 @@ package net.sf.beep4j.internal.session;
 import net.sf.beep4j.Channel;
 import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.ReplyHandler;
 import net.sf.beep4j.internal.management.CloseCallback;
 
 /**
@@ -28,8 +30,34 @@ import net.sf.beep4j.internal.management.CloseCallback;
  */
 public interface InternalChannel extends Channel {
 	
+	/**
+	 * The message number of a request piggybacked on the start channel
+	 * request. Regular messages are numbered starting with 1.
+	 */
+	int PIGGYBACKED_MESSAGE_NUMBER = 0;
+	
 	void channelOpened(ChannelHandler channelHandler);
 	
+	/**
+	 * Registers the ReplyHandler for the request that has been piggybacked
+	 * on the start channel request. That request has the message number
+	 * {@link #PIGGYBACKED_MESSAGE_NUMBER}.
+	 * 
+	 * @param replyHandler the handler receiving the reply
+	 */
+	void registerPiggybackedRequest(ReplyHandler replyHandler);
+	
+	/**
+	 * Passes the request piggybacked on the start channel request to the
+	 * application. Returns after the application has processed the request,
+	 * even if the handlers of the channel are invoked by an Executor, so 
+	 * that a reply sent by the handler can be piggybacked on the start 
+	 * channel response.
+	 * 
+	 * @param request the piggybacked request
+	 */
+	void receivePiggybackedRequest(Message request);
+	
 	void receiveMSG(int messageNumber, Message message);
 	
 	void receiveRPY(int messageNumber, Message message);
@@ -40,6 +68,34 @@ public interface InternalChannel extends Channel {
 	
 	void receiveNUL(int messageNumber);
 	
+	/**
+	 * Receives the MIME headers of a streamed MSG message. 
+	 * 
+	 * @param messageNumber the message number
+	 * @param header a Message containing only the headers
+	 * @return the handler for the content or null if the message should 
+	 *         be assembled
+	 */
+	MessageContentHandler receiveMSGStart(int messageNumber, Message header);
+	
+	/**
+	 * Receives the MIME headers of a streamed RPY message. 
+	 * 
+	 * @param messageNumber the message number
+	 * @param header a Message containing only the headers
+	 * @return the handler for the content or null if the message should 
+	 *         be assembled
+	 */
+	MessageContentHandler receiveRPYStart(int messageNumber, Message header);
+	
+	/**
+	 * Tests whether the handler of this channel receives messages as 
+	 * streams.
+	 * 
+	 * @return true iff the channel handler is a StreamingChannelHandler
+	 */
+	boolean isStreaming();
+	
 	/**
 	 * Tests whether this channel is in the Alive state.
 	 * 
@@ -1,14 +1,30 @@
 package net.sf.beep4j.internal.session;
 
 import net.sf.beep4j.Channel;
-import net.sf.beep4j.ChannelFilterChain;
+import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.CloseChannelCallback;
 import net.sf.beep4j.CloseChannelRequest;
 import net.sf.beep4j.Message;
 import net.sf.beep4j.Reply;
 import net.sf.beep4j.ReplyHandler;
 
-public interface InternalChannelFilterChain extends ChannelFilterChain {
+/**
+ * Immutable filter chain of a channel. The objects on which the filtered 
+ * operations are finally invoked are passed explicitly along with the 
+ * arguments of the operation.
+ * 
+ * @author Simon Raess
+ */
+public interface InternalChannelFilterChain {
+	
+	/**
+	 * Determines whether the chain contains filters other than the
+	 * head and tail filter. Operations on an empty chain may bypass
+	 * the chain.
+	 * 
+	 * @return true iff no filters have been added to the chain
+	 */
+	boolean isEmpty();
 	
 	// --> filtering Channel methods <--
 	
@@ -18,32 +34,32 @@ public interface InternalChannelFilterChain extends ChannelFilterChain {
 	
 	// --> filtering ChannelHandler methods <--
 	
-	void fireFilterChannelOpened(Channel channel);
+	void fireFilterChannelOpened(ChannelHandler target, Channel channel);
 	
-	void fireFilterMessageReceived(Message message, Reply reply);
+	void fireFilterMessageReceived(ChannelHandler target, Message message, Reply reply);
 	
-	void fireFilterChannelCloseRequested(CloseChannelRequest request);
+	void fireFilterChannelCloseRequested(ChannelHandler target, CloseChannelRequest request);
 	
-	void fireFilterChannelClosed();
+	void fireFilterChannelClosed(ChannelHandler target);
 	
 	// --> filtering ReplyHandler methods <--
 	
-	void fireFilterReceivedRPY(Message message);
+	void fireFilterReceivedRPY(ReplyHandler target, Message message);
 
-	void fireFilterReceivedERR(Message message);
+	void fireFilterReceivedERR(ReplyHandler target, Message message);
 	
-	void fireFilterReceivedANS(Message message);
+	void fireFilterReceivedANS(ReplyHandler target, Message message);
 	
-	void fireFilterReceivedNUL();
+	void fireFilterReceivedNUL(ReplyHandler target);
 	
 	// --> filtering Reply methods <--
 	
-	void fireFilterSendRPY(Message message);
+	void fireFilterSendRPY(Reply target, Message message);
 
-	void fireFilterSendERR(Message message);
+	void fireFilterSendERR(Reply target, Message message);
 
-	void fireFilterSendANS(Message message);
+	void fireFilterSendANS(Reply target, Message message);
 
-	void fireFilterSendNUL();
+	void fireFilterSendNUL(Reply target);
 
 }
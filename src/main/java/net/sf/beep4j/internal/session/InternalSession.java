@@ -15,6 +15,8 @@
  */
 package net.sf.beep4j.internal.session;
 
+import java.nio.ByteBuffer;
+
 import net.sf.beep4j.Message;
 import net.sf.beep4j.ReplyHandler;
 import net.sf.beep4j.Session;
@@ -41,6 +43,25 @@ public interface InternalSession extends Session {
 	
 	void sendNUL(int channelNumber, int messageNumber);
 	
+	/**
+	 * Sends a fragment of a streamed MSG message on the given channel. 
+	 * 
+	 * @param channelNumber the channel on which to send the fragment
+	 * @param messageNumber the message number of the streamed message
+	 * @param buffer the content of the fragment
+	 * @param last whether this fragment completes the message
+	 */
+	void sendMSGFragment(int channelNumber, int messageNumber, ByteBuffer buffer, boolean last);
+	
+	/**
+	 * Blocks until the frames enqueued on the given channel have been sent.
+	 * Must not be invoked while holding the session lock.
+	 * 
+	 * @param channelNumber the channel number
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	void awaitFramesSent(int channelNumber) throws InterruptedException;
+	
 	/**
 	 * Requests to close the specified channel.
 	 * 
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of pending replies keyed by message number. The slot of a
+ * message number is the message number modulo the capacity of the
+ * table. The message numbers of pipelined messages are consecutive,
+ * so they occupy consecutive slots and wrap around the table like 
+ * a ring buffer. All operations access a single slot.
+ * 
+ * <p>If the slot of a message number is taken, the table doubles its
+ * capacity as long as it is at least half full. Consecutive message
+ * numbers never share a slot after that. Otherwise the message numbers
+ * are not consecutive and the reply is kept in an overflow map.</p>
+ * 
+ * <p>This class is not thread-safe. It has a single writer: the owning
+ * channel guards it with its lock or confines it to its event loop.</p>
+ * 
+ * @param <T> the type of the pending replies
+ * @author Simon Raess
+ */
+final class ReplyRing<T> {
+	
+	private static final int INITIAL_CAPACITY = 16;
+	
+	/**
+	 * The capacity is never increased beyond this limit.
+	 */
+	private static final int MAX_CAPACITY = 1 << 16;
+	
+	private int[] keys;
+	
+	private Object[] values;
+	
+	private int mask;
+	
+	private int size;
+	
+	/**
+	 * Replies whose slot was taken or null.
+	 */
+	private Map<Integer, Object> overflow;
+	
+	ReplyRing() {
+		this(INITIAL_CAPACITY);
+	}
+	
+	/**
+	 * Creates a new table with the given initial capacity, which is 
+	 * rounded up to the next power of two.
+	 * 
+	 * @param capacity the initial capacity
+	 */
+	ReplyRing(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0");
+		}
+		int length = 1;
+		while (length < capacity) {
+			length <<= 1;
+		}
+		this.keys = new int[length];
+		this.values = new Object[length];
+		this.mask = length - 1;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	boolean contains(int messageNumber) {
+		return get(messageNumber) != null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	T get(int messageNumber) {
+		int i = messageNumber & mask;
+		if (values[i] != null && keys[i] == messageNumber) {
+			return (T) values[i];
+		}
+		return overflow != null ? (T) overflow.get(messageNumber) : null;
+	}
+	
+	/**
+	 * Puts the reply of the given message number into the table.
+	 * 
+	 * @param messageNumber the message number
+	 * @param value the pending reply, must not be null
+	 * @return the previous reply of the message number or null
+	 */
+	@SuppressWarnings("unchecked")
+	T put(int messageNumber, T value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value cannot be null");
+		}
+		int i = messageNumber & mask;
+		while (values[i] != null && keys[i] != messageNumber 
+				&& values.length < MAX_CAPACITY && size * 2 >= values.length) {
+			resize(values.length << 1);
+			i = messageNumber & mask;
+		}
+		if (values[i] == null) {
+			if (overflow != null && overflow.containsKey(messageNumber)) {
+				return (T) overflow.put(messageNumber, value);
+			}
+			keys[i] = messageNumber;
+			values[i] = value;
+			size++;
+			return null;
+		} else if (keys[i] == messageNumber) {
+			T previous = (T) values[i];
+			values[i] = value;
+			return previous;
+		}
+		if (overflow == null) {
+			overflow = new HashMap<Integer, Object>();
+		}
+		T previous = (T) overflow.put(messageNumber, value);
+		if (previous == null) {
+			size++;
+		}
+		return previous;
+	}
+	
+	/**
+	 * Removes the reply of the given message number.
+	 * 
+	 * @param messageNumber the message number
+	 * @return the removed reply or null
+	 */
+	@SuppressWarnings("unchecked")
+	T remove(int messageNumber) {
+		int i = messageNumber & mask;
+		T removed;
+		if (values[i] != null && keys[i] == messageNumber) {
+			removed = (T) values[i];
+			values[i] = null;
+		} else if (overflow != null) {
+			removed = (T) overflow.remove(messageNumber);
+		} else {
+			removed = null;
+		}
+		if (removed != null) {
+			size--;
+		}
+		return removed;
+	}
+	
+	/*
+	 * Two message numbers that have different slots keep different
+	 * slots in a larger table.
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int j = oldKeys[i] & mask;
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+	
+}
@@ -16,22 +16,26 @@
 package net.sf.beep4j.internal.session;
 
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantLock;
 
 import net.sf.beep4j.ChannelFilterChainBuilder;
 import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.ChannelHandlerFactory;
 import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.MessageContentHandler;
 import net.sf.beep4j.ProfileInfo;
 import net.sf.beep4j.ProtocolException;
 import net.sf.beep4j.ReplyHandler;
 import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.internal.ChannelSlot;
+import net.sf.beep4j.internal.ChannelSlots;
 import net.sf.beep4j.internal.NullChannelFilterChainBuilder;
 import net.sf.beep4j.internal.SessionListener;
 import net.sf.beep4j.internal.SessionManager;
@@ -42,12 +46,20 @@ import net.sf.beep4j.internal.management.CloseCallback;
 import net.sf.beep4j.internal.management.Greeting;
 import net.sf.beep4j.internal.management.ManagementProfile;
 import net.sf.beep4j.internal.management.ManagementProfileImpl;
+import net.sf.beep4j.internal.management.SaxMessageBuilder;
 import net.sf.beep4j.internal.management.StartChannelCallback;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+import net.sf.beep4j.internal.message.DefaultMessageParser;
+import net.sf.beep4j.internal.message.MessageParser;
 import net.sf.beep4j.internal.stream.BeepStream;
 import net.sf.beep4j.internal.stream.MessageHandler;
+import net.sf.beep4j.internal.stream.StreamingMessageHandler;
 import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.EventLoop;
+import net.sf.beep4j.internal.util.ReferenceCounting;
 import net.sf.beep4j.internal.util.IntegerSequence;
 import net.sf.beep4j.internal.util.Sequence;
+import net.sf.beep4j.transport.DeflatingTransport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,7 +77,7 @@ import org.slf4j.LoggerFactory;
  * @author Simon Raess
  */
 public class SessionImpl 
-		implements MessageHandler, SessionManager, InternalSession, TransportHandler {
+		implements StreamingMessageHandler, SessionManager, InternalSession, TransportHandler {
 	
 	private static final int MANAGEMENT_CHANNEL = 0;
 
@@ -73,7 +85,12 @@ public class SessionImpl
 	
 	private final boolean initiator;
 	
-	private final Map<Integer,InternalChannel> channels = new HashMap<Integer,InternalChannel>();
+	/**
+	 * The slots holding the open channels. They are shared with the transport
+	 * mapping and the frame handler. Channels are removed by the thread that
+	 * completes the close, which might hold only the lock of that channel.
+	 */
+	private final ChannelSlots slots;
 	
 	private final ManagementProfile channelManagementProfile;
 	
@@ -85,11 +102,29 @@ public class SessionImpl
 	
 	private ChannelFilterChainBuilder filterChainBuilder = new NullChannelFilterChainBuilder();
 	
-	private final ReentrantLock sessionLock = new ReentrantLock();
+	/**
+	 * The Executor on which the channel handlers are invoked or null
+	 * if they are invoked by the receiving thread.
+	 */
+	private Executor executor;
+	
+	/**
+	 * The event loop the session is confined to or null.
+	 */
+	private final EventLoop eventLoop;
+	
+	/**
+	 * Guards the session state and the transitions between those states.
+	 * Each channel guards its own state with a separate lock. A thread
+	 * holding a channel lock never acquires the session lock. Sending
+	 * does not acquire the session lock at all. The lock is null if the
+	 * session is confined to an event loop.
+	 */
+	private final ReentrantLock sessionLock;
 	
 	private final List<SessionListener> eventListeners = Collections.synchronizedList(new LinkedList<SessionListener>());
 	
-	private SessionState currentState;
+	private volatile SessionState currentState;
 	
 	private SessionState initialState;
 	
@@ -104,12 +139,91 @@ public class SessionImpl
 	 */
 	private Greeting greeting;
 	
+	/**
+	 * Parses requests and replies piggybacked on start channel requests.
+	 */
+	private final MessageParser messageParser = new DefaultMessageParser();
+	
+	/**
+	 * Guards the state of the piggybacked request whose replies are
+	 * held back.
+	 */
+	private final Object piggybackLock = new Object();
+	
+	/**
+	 * The channel whose replies to the piggybacked request are held back
+	 * until the positive response to its start channel request has been
+	 * queued or -1 if there is none. Written while holding piggybackLock.
+	 */
+	private volatile int piggybackChannel = -1;
+	
+	/**
+	 * Whether the piggybacked request is currently passed to the channel.
+	 * An RPY sent meanwhile is piggybacked on the start channel response.
+	 * Guarded by piggybackLock.
+	 */
+	private boolean piggybackProcessing;
+	
+	/**
+	 * The encoded RPY to the piggybacked request. Guarded by piggybackLock.
+	 */
+	private byte[] piggybackedReply;
+	
+	/**
+	 * Replies to the piggybacked request that are sent as soon as the
+	 * start channel response has been queued. Guarded by piggybackLock.
+	 */
+	private final List<DeferredReply> deferredReplies = new LinkedList<DeferredReply>();
+	
 	public SessionImpl(boolean initiator, SessionHandler sessionHandler, BeepStream beepStream) {
+		this(initiator, sessionHandler, beepStream, null);
+	}
+	
+	/**
+	 * Creates a new session that is confined to the given event loop. All
+	 * the state of the session and its channels is accessed from the
+	 * event loop thread only, so no locks are used. The transport must
+	 * invoke the session from the event loop thread. Calls of the 
+	 * application from other threads are passed to the event loop and 
+	 * return before they have been processed, except for those that
+	 * return a value.
+	 * 
+	 * @param initiator whether this peer initiated the session
+	 * @param sessionHandler the handler of the application
+	 * @param beepStream the stream to send frames to
+	 * @param eventLoop the event loop or null to guard the session by locks
+	 */
+	public SessionImpl(boolean initiator, SessionHandler sessionHandler, BeepStream beepStream, 
+			EventLoop eventLoop) {
+		this(initiator, sessionHandler, beepStream, eventLoop, new ChannelSlots());
+	}
+	
+	/**
+	 * Creates a new session that keeps its channels in the given slots,
+	 * which are shared with the other components of the session.
+	 * 
+	 * @param initiator whether this peer initiated the session
+	 * @param sessionHandler the handler of the application
+	 * @param beepStream the stream to send frames to
+	 * @param eventLoop the event loop or null to guard the session by locks
+	 * @param slots the slots shared by the components of the session
+	 */
+	public SessionImpl(boolean initiator, SessionHandler sessionHandler, BeepStream beepStream, 
+			EventLoop eventLoop, ChannelSlots slots) {
 		Assert.notNull("sessionHandler", sessionHandler);
 		Assert.notNull("beepStream", beepStream);
+		Assert.notNull("slots", slots);
 		
 		this.initiator = initiator;
-		this.sessionHandler = new UnlockingSessionHandler(sessionHandler, sessionLock);
+		this.slots = slots;
+		this.eventLoop = eventLoop;
+		if (eventLoop == null) {
+			this.sessionLock = new ReentrantLock();
+			this.sessionHandler = new UnlockingSessionHandler(sessionHandler, sessionLock);
+		} else {
+			this.sessionLock = null;
+			this.sessionHandler = sessionHandler;
+		}
 		this.beepStream = beepStream;
 		
 		addSessionListener(beepStream);
@@ -130,6 +244,20 @@ public class SessionImpl
 		this.filterChainBuilder = filterChainBuilder == null ? new NullChannelFilterChainBuilder() : filterChainBuilder;
 	}
 
+	/**
+	 * Sets the Executor on which the ChannelHandlers and ReplyHandlers 
+	 * of channels started afterwards are invoked. The handlers of one 
+	 * channel are invoked one after the other in the order the events
+	 * were received, the handlers of different channels concurrently.
+	 * The management channel and the SessionHandler are not affected.
+	 * 
+	 * @param executor the Executor or null to invoke the handlers on
+	 *                 the receiving thread
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
 	protected DeadState createDeadState() {
 		return new DeadState();
 	}
@@ -151,26 +279,50 @@ public class SessionImpl
 	}
 
 	protected void initChannelManagementProfile() {
-		InternalChannel channel = new ChannelImpl(this, null, MANAGEMENT_CHANNEL, filterChainBuilder, null);
+		ChannelImpl channel = new ChannelImpl(
+				this, null, MANAGEMENT_CHANNEL, filterChainBuilder, null, newChannelLock());
+		if (eventLoop != null) {
+			channel.setEventLoop(eventLoop);
+		}
 		ChannelHandler channelHandler = channelManagementProfile.createChannelHandler(this, channel);
 		registerChannel(MANAGEMENT_CHANNEL, channel);
 		channel.channelOpened(channelHandler);
 	}
 		
 	protected InternalChannel createChannel(InternalSession session, String profileUri, int channelNumber) {
-		return new ChannelImpl(session, profileUri, channelNumber, filterChainBuilder, sessionLock);
+		ChannelImpl channel = new ChannelImpl(session, profileUri, channelNumber, 
+				filterChainBuilder, sessionLock, newChannelLock());
+		if (eventLoop != null) {
+			channel.setEventLoop(eventLoop);
+		}
+		if (executor != null) {
+			channel.setDispatcher(executor);
+		}
+		return channel;
 	}
 	
-	private ChannelHandler initChannel(InternalChannel channel, ChannelHandler handler) {
-		return new UnlockingChannelHandler(handler, sessionLock);
+	private ReentrantLock newChannelLock() {
+		return eventLoop == null ? new ReentrantLock() : null;
 	}
 	
 	protected void lock() {
-		sessionLock.lock();
+		if (sessionLock != null) {
+			sessionLock.lock();
+		}
 	}
 	
 	protected void unlock() {
-		sessionLock.unlock();
+		if (sessionLock != null) {
+			sessionLock.unlock();
+		}
+	}
+	
+	/*
+	 * Determines whether the current call must be passed to the 
+	 * event loop.
+	 */
+	private boolean isForeignThread() {
+		return eventLoop != null && !eventLoop.inEventLoop();
 	}
 	
 	private String traceInfo() {
@@ -233,16 +385,27 @@ public class SessionImpl
 	}
 	
 	protected boolean hasOpenChannels() {
-		return channels.size() > 1;
+		int open = 0;
+		for (ChannelSlot slot : slots.values()) {
+			if (slot.getChannel() != null) {
+				open++;
+			}
+		}
+		return open > 1;
 	}
 
 	protected void registerChannel(int channelNumber, InternalChannel channel) {
-		channels.put(channelNumber, channel);
+		slots.open(channelNumber).setChannel(channel);
 		fireChannelStarted(channelNumber);
 	}
 	
+	private InternalChannel findChannel(int channelNumber) {
+		ChannelSlot slot = slots.get(channelNumber);
+		return slot != null ? slot.getChannel() : null;
+	}
+	
 	protected InternalChannel getChannel(int channelNumber) {
-		InternalChannel channel = channels.get(channelNumber);
+		InternalChannel channel = findChannel(channelNumber);
 		if (channel == null) {
 			throw new ProtocolException("channel " + channelNumber + " is not known by session");
 		}
@@ -250,8 +413,14 @@ public class SessionImpl
 	}
 
 	protected void removeChannel(int channelNumber) {
-		channels.remove(channelNumber);
+		ChannelSlot slot = slots.get(channelNumber);
+		if (slot != null) {
+			slot.setChannel(null);
+		}
 		fireChannelClosed(channelNumber);
+		if (slot != null) {
+			slots.release(slot);
+		}
 	}
 	
 	protected void checkInitialAliveTransition() {
@@ -294,16 +463,98 @@ public class SessionImpl
 		});
 	}
 	
-	public void startChannel(ProfileInfo[] profiles, ChannelHandlerFactory factory) {
+	public void startChannel(final ProfileInfo[] profiles, final ChannelHandlerFactory factory) {
+		if (isForeignThread()) {
+			getCurrentState().checkStartChannel();
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					startChannel(profiles, factory);
+				}
+			});
+			return;
+		}
 		lock();
 		try {
-			getCurrentState().startChannel(profiles, factory);
+			getCurrentState().startChannel(profiles, factory, null);
+		} finally {
+			unlock();
+		}
+	}
+	
+	public void startChannel(String profileUri, Message message, 
+			final ChannelHandler channelHandler, final ReplyHandler replyHandler) {
+		Assert.notNull("message", message);
+		Assert.notNull("replyHandler", replyHandler);
+		final ProfileInfo profile = new ProfileInfo(profileUri, toByteArray(message));
+		final ChannelHandlerFactory factory = new ChannelHandlerFactory() {
+			public ChannelHandler createChannelHandler(ProfileInfo info) {
+				return channelHandler;
+			}
+			public void startChannelFailed(int code, String message) {
+				unlock();
+				try {
+					sessionHandler.channelStartFailed(profile.getUri(), channelHandler, code, message);
+				} finally {
+					lock();
+				}
+			}
+		};
+		if (isForeignThread()) {
+			getCurrentState().checkStartChannel();
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					startChannel(profile, factory, replyHandler);
+				}
+			});
+			return;
+		}
+		startChannel(profile, factory, replyHandler);
+	}
+	
+	private void startChannel(ProfileInfo profile, ChannelHandlerFactory factory, ReplyHandler replyHandler) {
+		lock();
+		try {
+			getCurrentState().startChannel(new ProfileInfo[] { profile }, factory, replyHandler);
+		} finally {
+			unlock();
+		}
+	}
+	
+	private static byte[] toByteArray(Message message) {
+		ByteBuffer buffer = message.asByteBuffer();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+	public void startCompression() {
+		if (isForeignThread()) {
+			getCurrentState().checkStartCompression();
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					startCompression();
+				}
+			});
+			return;
+		}
+		lock();
+		try {
+			getCurrentState().startCompression();
 		} finally {
 			unlock();
 		}
 	}
 	
 	public void close() {
+		if (isForeignThread()) {
+			getCurrentState().checkCloseSession();
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					close();
+				}
+			});
+			return;
+		}
 		lock();
 		try {
 			getCurrentState().closeSession();
@@ -319,51 +570,50 @@ public class SessionImpl
 	
 	/*
 	 * This method is called by the channel implementation to send a message on
-	 * a particular channel to the other peer.
+	 * a particular channel to the other peer. The send methods do not acquire
+	 * the session lock. The channel serializes the sends on one channel, the
+	 * BeepStream takes care of sends on different channels.
 	 */	
 	public void sendMSG(int channelNumber, int messageNumber, Message message, ReplyHandler replyHandler) {
-		lock();
-		try {
-			getCurrentState().sendMessage(channelNumber, messageNumber, message, replyHandler);
-		} finally {
-			unlock();
-		}
+		getCurrentState().sendMessage(channelNumber, messageNumber, message, replyHandler);
 	}
 	
 	public void sendANS(int channelNumber, int messageNumber, int answerNumber, Message message) {
-		lock();
-		try {
-			getCurrentState().sendANS(channelNumber, messageNumber, answerNumber, message);
-		} finally {
-			unlock();
-		}
+		getCurrentState().sendANS(channelNumber, messageNumber, answerNumber, message);
 	}
 	
 	public void sendERR(int channelNumber, int messageNumber, Message message) {
-		lock();
-		try {
-			getCurrentState().sendERR(channelNumber, messageNumber, message);
-		} finally {
-			unlock();
-		}
+		getCurrentState().sendERR(channelNumber, messageNumber, message);
 	}
 	
 	public void sendNUL(int channelNumber, int messageNumber) {
-		lock();
-		try {
-			getCurrentState().sendNUL(channelNumber, messageNumber);
-		} finally {
-			unlock();
-		}
+		getCurrentState().sendNUL(channelNumber, messageNumber);
 	}
 	
 	public void sendRPY(int channelNumber, int messageNumber, Message message) {
-		lock();
-		try {
-			getCurrentState().sendRPY(channelNumber, messageNumber, message);
-		} finally {
-			unlock();
+		getCurrentState().sendRPY(channelNumber, messageNumber, message);
+	}
+	
+	public void sendMSGFragment(int channelNumber, int messageNumber, ByteBuffer buffer, boolean last) {
+		getCurrentState().sendMSGFragment(channelNumber, messageNumber, buffer, last);
+	}
+	
+	/*
+	 * Waiting must happen without holding the session lock. Otherwise
+	 * no other thread could send or receive on this session until the 
+	 * remote peer has opened its window. The event loop thread of a
+	 * confined session never waits, as it is the thread that receives
+	 * the window updates. The frames are queued instead.
+	 */
+	public void awaitFramesSent(int channelNumber) throws InterruptedException {
+		if (eventLoop != null && eventLoop.inEventLoop()) {
+			return;
 		}
+		if (sessionLock != null && sessionLock.isHeldByCurrentThread()) {
+			throw new IllegalStateException("cannot wait for frames to be sent "
+					+ "while holding the session lock");
+		}
+		beepStream.awaitFramesSent(channelNumber);
 	}
 
 	/*
@@ -372,20 +622,17 @@ public class SessionImpl
 	 */
 	public void requestChannelClose(final int channelNumber, final CloseCallback callback) {
 		Assert.notNull("callback", callback);
-		lock();
-		try {
-			channelManagementProfile.closeChannel(channelNumber, new CloseCallback() {
-				public void closeDeclined(int code, String message) {
-					callback.closeDeclined(code, message);
-				}
-				public void closeAccepted() {
-					callback.closeAccepted();
-					removeChannel(channelNumber);
-				}
-			});
-		} finally {
-			unlock();
-		}
+		// the calling thread holds the lock of the closed channel, so the
+		// session lock must not be acquired here
+		channelManagementProfile.closeChannel(channelNumber, new CloseCallback() {
+			public void closeDeclined(int code, String message) {
+				callback.closeDeclined(code, message);
+			}
+			public void closeAccepted() {
+				callback.closeAccepted();
+				removeChannel(channelNumber);
+			}
+		});
 	}
 	
 	// --> end of InternalSession methods <--
@@ -406,6 +653,29 @@ public class SessionImpl
 		return getCurrentState().channelStartRequested(channelNumber, profiles);
 	}
 	
+	/*
+	 * This method is invoked by the ChannelManagementProfile after the 
+	 * positive response to a start channel request has been queued. The
+	 * replies to a piggybacked request that have been held back until now
+	 * are sent on the new channel.
+	 */
+	public void channelStartAccepted(int channelNumber) {
+		Assert.holdsLock("session", sessionLock);
+		synchronized (piggybackLock) {
+			if (channelNumber != piggybackChannel) {
+				return;
+			}
+			try {
+				for (DeferredReply reply : deferredReplies) {
+					reply.send();
+				}
+			} finally {
+				deferredReplies.clear();
+				piggybackChannel = -1;
+			}
+		}
+	}
+	
 	/*
 	 * This method is invoked by the ChannelManagement profile when a channel
 	 * close request is received. This request is passed on to the ChannelHandler,
@@ -437,6 +707,7 @@ public class SessionImpl
 			getCurrentState().receiveMSG(channelNumber, messageNumber, message);
 		} finally {
 			unlock();
+			ReferenceCounting.release(message);
 		}
 	}
 
@@ -446,6 +717,7 @@ public class SessionImpl
 			getCurrentState().receiveANS(channelNumber, messageNumber, answerNumber, message);
 		} finally {
 			unlock();
+			ReferenceCounting.release(message);
 		}
 	}
 	
@@ -464,6 +736,7 @@ public class SessionImpl
 			getCurrentState().receiveERR(channelNumber, messageNumber, message);
 		} finally {
 			unlock();
+			ReferenceCounting.release(message);
 		}
 	}
 		
@@ -473,11 +746,40 @@ public class SessionImpl
 			getCurrentState().receiveRPY(channelNumber, messageNumber, message);
 		} finally {
 			unlock();
+			ReferenceCounting.release(message);
 		}
 	}
 	
 	// --> end of MessageHandler methods <--
 	
+	
+	// --> start of StreamingMessageHandler methods <--
+	
+	public boolean isStreamingChannel(int channelNumber) {
+		InternalChannel channel = findChannel(channelNumber);
+		return channel != null && channel.isStreaming();
+	}
+	
+	public final MessageContentHandler receiveMSGStart(int channelNumber, int messageNumber, Message header) {
+		lock();
+		try {
+			return getCurrentState().receiveMSGStart(channelNumber, messageNumber, header);
+		} finally {
+			unlock();
+		}
+	}
+	
+	public final MessageContentHandler receiveRPYStart(int channelNumber, int messageNumber, Message header) {
+		lock();
+		try {
+			return getCurrentState().receiveRPYStart(channelNumber, messageNumber, header);
+		} finally {
+			unlock();
+		}
+	}
+	
+	// --> end of StreamingMessageHandler methods <--
+	
 	/*
 	 * Notifies the ChannelManagementProfile about this event. The
 	 * ChannelManagementProfile then asks the application (SessionHandler)
@@ -530,13 +832,27 @@ public class SessionImpl
 		void sendERR(int channelNumber, int messageNumber, Message message);
 
 		void sendANS(int channelNumber, int messageNumber, int answerNumber, Message message);
+		
+		void sendMSGFragment(int channelNumber, int messageNumber, ByteBuffer buffer, boolean last);
+		
+		MessageContentHandler receiveMSGStart(int channelNumber, int messageNumber, Message header);
+		
+		MessageContentHandler receiveRPYStart(int channelNumber, int messageNumber, Message header);
 
 		void exceptionCaught(Throwable cause);
 
-		void startChannel(ProfileInfo[] profiles, ChannelHandlerFactory factory);
+		void checkStartChannel();
+		
+		void startChannel(ProfileInfo[] profiles, ChannelHandlerFactory factory, ReplyHandler replyHandler);
+		
+		void checkStartCompression();
+		
+		void startCompression();
 		
 		void sendMessage(int channelNumber, int messageNumber, Message message, ReplyHandler listener);
 		
+		void checkCloseSession();
+		
 		void closeSession();
 		
 		StartChannelResponse channelStartRequested(int channelNumber, ProfileInfo[] profiles);
@@ -575,11 +891,29 @@ public class SessionImpl
 					+ getName() + ">");
 		}
 		
-		public void startChannel(ProfileInfo[] profiles, ChannelHandlerFactory factory) {
+		/*
+		 * The check methods are invoked on foreign threads before the call
+		 * is passed to the event loop. They must only read state that is
+		 * safe to access from any thread.
+		 */
+		public void checkStartChannel() {
 			throw new IllegalStateException("" +
 					"cannot start channel in state <" + getName() + ">");
 		}
 		
+		public void startChannel(ProfileInfo[] profiles, ChannelHandlerFactory factory, ReplyHandler replyHandler) {
+			checkStartChannel();
+		}
+		
+		public void checkStartCompression() {
+			throw new IllegalStateException(
+					"cannot start compression in state <" + getName() + ">");
+		}
+		
+		public void startCompression() {
+			checkStartCompression();
+		}
+		
 		public void sendMessage(int channelNumber, int messageNumber, Message message, ReplyHandler listener) {
 			throw new IllegalStateException(
 					"cannot send messages in state <" + getName() + ">: channel="
@@ -610,6 +944,12 @@ public class SessionImpl
 					+ channelNumber);
 		}
 		
+		public void sendMSGFragment(int channelNumber, int messageNumber, ByteBuffer buffer, boolean last) {
+			throw new IllegalStateException(
+					"cannot send messages in state <" + getName() + ">: channel="
+					+ channelNumber);
+		}
+		
 		public StartChannelResponse channelStartRequested(int channelNumber, ProfileInfo[] profiles) {
 			return StartChannelResponse.createCancelledResponse(550, "cannot start channel");
 		}
@@ -646,10 +986,26 @@ public class SessionImpl
 					+ "message RPY, channel=" + channelNumber + ",message=" + messageNumber);
 		}
 		
-		public void closeSession() {
+		public MessageContentHandler receiveMSGStart(int channelNumber, int messageNumber, Message header) {
+			throw new IllegalStateException(
+					"internal error: unexpected method invocation in state <" + getName() + ">: "
+					+ "streamed message MSG, channel=" + channelNumber + ",message=" + messageNumber);
+		}
+		
+		public MessageContentHandler receiveRPYStart(int channelNumber, int messageNumber, Message header) {
+			throw new IllegalStateException(
+					"internal error: unexpected method invocation in state <" + getName() + ">: "
+					+ "streamed message RPY, channel=" + channelNumber + ",message=" + messageNumber);
+		}
+		
+		public void checkCloseSession() {
 			throw new IllegalStateException("cannot close session");
 		}
 		
+		public void closeSession() {
+			checkCloseSession();
+		}
+		
 		public void channelCloseRequested(int channelNumber, CloseCallback callback) {
 			throw new IllegalStateException("cannot close channel");
 		}
@@ -738,6 +1094,35 @@ public class SessionImpl
 
 	}
 	
+	/*
+	 * A reply to a piggybacked request that is held back until the start
+	 * channel response has been queued. The message is retained meanwhile.
+	 */
+	private static final class DeferredReply {
+		
+		private final Message message;
+		
+		private final Runnable send;
+		
+		private DeferredReply(Message message, Runnable send) {
+			ReferenceCounting.retain(message);
+			this.message = message;
+			this.send = send;
+		}
+		
+		private void send() {
+			try {
+				send.run();
+			} finally {
+				ReferenceCounting.release(message);
+			}
+		}
+		
+		private void discard() {
+			ReferenceCounting.release(message);
+		}
+	}
+	
 	protected class AliveState extends AbstractSessionState {
 		
 		@Override
@@ -746,7 +1131,8 @@ public class SessionImpl
 		}
 		
 		@Override
-		public void startChannel(final ProfileInfo[] profiles, final ChannelHandlerFactory factory) {
+		public void startChannel(final ProfileInfo[] profiles, final ChannelHandlerFactory factory, 
+				final ReplyHandler replyHandler) {
 			final int channelNumber = getNextChannelNumber();
 			channelManagementProfile.startChannel(channelNumber, profiles, new StartChannelCallback() {
 				public void channelCreated(ProfileInfo info) {
@@ -755,9 +1141,15 @@ public class SessionImpl
 						ChannelHandler handler = factory.createChannelHandler(info);
 						InternalChannel channel = createChannel(
 								SessionImpl.this, info.getUri(), channelNumber);
-						ChannelHandler channelHandler = initChannel(channel, handler);
 						registerChannel(channelNumber, channel);
-						channel.channelOpened(channelHandler);
+						if (replyHandler != null) {
+							channel.registerPiggybackedRequest(replyHandler);
+						}
+						channel.channelOpened(handler);
+						if (replyHandler != null && info.hasContent() && info.isBase64Encoded()) {
+							debug("received piggybacked reply on channel ", channelNumber);
+							receivePiggybackedReply(channel, info);
+						}
 					} finally {
 						unlock();
 					}
@@ -773,6 +1165,41 @@ public class SessionImpl
 			});
 		}
 		
+		@Override
+		public void checkStartChannel() {
+			// channels can be started
+		}
+		
+		@Override
+		public void checkStartCompression() {
+			if (!beepStream.isCompressionSupported()) {
+				throw new IllegalStateException("transport does not support compression");
+			}
+		}
+		
+		@Override
+		public void startCompression() {
+			checkStartCompression();
+			final int channelNumber = getNextChannelNumber();
+			ProfileInfo[] profiles = new ProfileInfo[] { new ProfileInfo(DeflatingTransport.PROFILE) };
+			
+			// like a tuning profile, the channel is never registered
+			channelManagementProfile.startChannel(channelNumber, profiles, new StartChannelCallback() {
+				public void channelCreated(ProfileInfo info) {
+					lock();
+					try {
+						debug("compression accepted by remote peer on channel ", channelNumber);
+						beepStream.startCompression();
+					} finally {
+						unlock();
+					}
+				}
+				public void channelFailed(int code, String message) {
+					info("compression declined by remote peer: " + code + ":" + message);
+				}
+			});
+		}
+		
 		@Override
 		public void sendMessage(int channelNumber, int messageNumber, Message message, ReplyHandler listener) {
 			debug("send message: channel=", channelNumber, ",message=", messageNumber);
@@ -780,38 +1207,115 @@ public class SessionImpl
 		}
 		
 		@Override
-		public void sendANS(int channelNumber, int messageNumber, int answerNumber, Message message) {
+		public void sendANS(final int channelNumber, final int messageNumber, 
+				final int answerNumber, final Message message) {
+			if (isPiggybackedReply(channelNumber, messageNumber) 
+					&& deferReply(channelNumber, message, false, new Runnable() {
+						public void run() {
+							beepStream.sendANS(channelNumber, messageNumber, answerNumber, message);
+						}
+					})) {
+				return;
+			}
 			debug("send ANS: channel=", channelNumber, ",message=", messageNumber, ",answer=", answerNumber);
 			beepStream.sendANS(channelNumber, messageNumber, answerNumber, message);
 		}
 		
 		@Override
-		public void sendERR(int channelNumber, int messageNumber, Message message) {
+		public void sendERR(final int channelNumber, final int messageNumber, final Message message) {
+			if (isPiggybackedReply(channelNumber, messageNumber) 
+					&& deferReply(channelNumber, message, false, new Runnable() {
+						public void run() {
+							beepStream.sendERR(channelNumber, messageNumber, message);
+						}
+					})) {
+				return;
+			}
 			debug("send ERR: channel=", channelNumber, ",message=", messageNumber);
 			beepStream.sendERR(channelNumber, messageNumber, message);
 		}
 		
 		@Override
-		public void sendNUL(int channelNumber, int messageNumber) {
+		public void sendNUL(final int channelNumber, final int messageNumber) {
+			if (isPiggybackedReply(channelNumber, messageNumber) 
+					&& deferReply(channelNumber, null, false, new Runnable() {
+						public void run() {
+							beepStream.sendNUL(channelNumber, messageNumber);
+						}
+					})) {
+				return;
+			}
 			debug("send NUL: channel=", channelNumber, ",message=", messageNumber);
 			beepStream.sendNUL(channelNumber, messageNumber);
 		}
 		
 		@Override
-		public void sendRPY(int channelNumber, int messageNumber, Message message) {
+		public void sendRPY(final int channelNumber, final int messageNumber, final Message message) {
+			if (isPiggybackedReply(channelNumber, messageNumber) 
+					&& deferReply(channelNumber, message, true, new Runnable() {
+						public void run() {
+							beepStream.sendRPY(channelNumber, messageNumber, message);
+						}
+					})) {
+				return;
+			}
 			debug("send RPY: channel=", channelNumber, ",message=", messageNumber);
 			beepStream.sendRPY(channelNumber, messageNumber, message);
 		}
 		
+		private boolean isPiggybackedReply(int channelNumber, int messageNumber) {
+			return messageNumber == InternalChannel.PIGGYBACKED_MESSAGE_NUMBER 
+			    && channelNumber == piggybackChannel;
+		}
+		
+		/*
+		 * Replies to a piggybacked request must not overtake the start
+		 * channel response, because the remote peer does not know the 
+		 * channel before. An RPY sent while the request is processed is
+		 * piggybacked on the response instead. The passed in action sends 
+		 * the reply once the response has been queued. It runs while 
+		 * holding the piggyback lock, so the replies are sent in order.
+		 * Returns false if the reply can be sent right away.
+		 */
+		private boolean deferReply(int channelNumber, Message message, 
+				boolean piggybackable, Runnable send) {
+			synchronized (piggybackLock) {
+				if (channelNumber != piggybackChannel) {
+					return false;
+				}
+				if (piggybackable && piggybackProcessing && deferredReplies.isEmpty()) {
+					debug("hold back RPY to piggybacked request: channel=", channelNumber);
+					piggybackedReply = toByteArray(message);
+					return true;
+				}
+				debug("defer reply to piggybacked request: channel=", channelNumber);
+				deferredReplies.add(new DeferredReply(message, send));
+				return true;
+			}
+		}
+		
+		@Override
+		public void sendMSGFragment(int channelNumber, int messageNumber, ByteBuffer buffer, boolean last) {
+			debug("send MSG fragment: channel=", channelNumber, ",message=", messageNumber, ",last=", last);
+			beepStream.sendMSGFragment(channelNumber, messageNumber, buffer, last);
+		}
+		
 		@Override
 		public StartChannelResponse channelStartRequested(int channelNumber, ProfileInfo[] profiles) {
 			debug("start of channel ", channelNumber, " requested by remote peer: ", Arrays.toString(profiles));
 			
 			// of course, requesting to start the same channel twice is non-sense, terminate session
-			if (channels.containsKey(channelNumber)) {
+			if (findChannel(channelNumber) != null) {
 				throw new ProtocolException("the given channel with number " + channelNumber + " is already open");
 			}
 			
+			ProfileInfo compression = findCompressionProfile(profiles);
+			if (compression != null) {
+				debug("compression requested by remote peer on channel ", channelNumber);
+				beepStream.startCompression();
+				return StartChannelResponse.createSuccessResponse(compression, null);
+			}
+			
 			DefaultStartChannelRequest request = new DefaultStartChannelRequest(profiles);
 			sessionHandler.channelStartRequested(request);
 			
@@ -831,13 +1335,107 @@ public class SessionImpl
 			debug("start of channel ", channelNumber, " is accepted by application: ", info.getUri());
 			
 			InternalChannel channel = createChannel(SessionImpl.this, info.getUri(), channelNumber);
-			ChannelHandler handler = initChannel(channel, response.getChannelHandler());
 			registerChannel(channelNumber, channel);
-			channel.channelOpened(handler);
+			channel.channelOpened(response.getChannelHandler());
+			
+			if (response.isPiggybacked()) {
+				return receivePiggybackedRequest(channelNumber, channel, response);
+			} else if (request.hasPiggybackedRequest(info.getUri())) {
+				declinePiggybackedRequest(channelNumber);
+			}
 			
 			return response;
 		}
 		
+		/*
+		 * Passes the request piggybacked on the start channel request to the
+		 * channel. An RPY sent before the channel returns is piggybacked on
+		 * the returned response. Any other reply is held back until the
+		 * response has been queued.
+		 */
+		private StartChannelResponse receivePiggybackedRequest(int channelNumber, 
+				InternalChannel channel, StartChannelResponse response) {
+			debug("received piggybacked request on channel ", channelNumber);
+			ProfileInfo info = response.getProfile();
+			Message request = messageParser.parse(ByteBuffer.wrap(info.getBinaryContent()));
+			synchronized (piggybackLock) {
+				piggybackChannel = channelNumber;
+				piggybackProcessing = true;
+			}
+			byte[] reply;
+			try {
+				channel.receivePiggybackedRequest(request);
+			} catch (RuntimeException e) {
+				discardDeferredReplies();
+				throw e;
+			} finally {
+				ReferenceCounting.release(request);
+				synchronized (piggybackLock) {
+					piggybackProcessing = false;
+					reply = piggybackedReply;
+					piggybackedReply = null;
+				}
+			}
+			
+			ProfileInfo profile = new ProfileInfo(info.getUri());
+			if (reply != null) {
+				debug("piggybacking reply on start channel response for channel ", channelNumber);
+				profile = new ProfileInfo(info.getUri(), reply);
+			}
+			return StartChannelResponse.createSuccessResponse(profile, response.getChannelHandler());
+		}
+		
+		/*
+		 * The application selected the profile without processing the 
+		 * piggybacked request. The remote peer waits for a reply, so the 
+		 * request is answered with an error once the channel is known.
+		 */
+		private void declinePiggybackedRequest(int channelNumber) {
+			info("piggybacked request on channel " + channelNumber + " has not been processed");
+			MessageBuilder builder = new DefaultMessageBuilder();
+			builder.setContentType("application", "beep+xml");
+			builder.setCharsetName("UTF-8");
+			Message error = new SaxMessageBuilder().createError(
+					builder, 550, "piggybacked request has not been processed");
+			synchronized (piggybackLock) {
+				piggybackChannel = channelNumber;
+			}
+			try {
+				sendERR(channelNumber, InternalChannel.PIGGYBACKED_MESSAGE_NUMBER, error);
+			} finally {
+				ReferenceCounting.release(error);
+			}
+		}
+		
+		private void discardDeferredReplies() {
+			synchronized (piggybackLock) {
+				for (DeferredReply reply : deferredReplies) {
+					reply.discard();
+				}
+				deferredReplies.clear();
+				piggybackedReply = null;
+				piggybackChannel = -1;
+			}
+		}
+		
+		private void receivePiggybackedReply(InternalChannel channel, ProfileInfo info) {
+			Message reply = messageParser.parse(ByteBuffer.wrap(info.getBinaryContent()));
+			try {
+				channel.receiveRPY(InternalChannel.PIGGYBACKED_MESSAGE_NUMBER, reply);
+			} finally {
+				ReferenceCounting.release(reply);
+			}
+		}
+		
+		private ProfileInfo findCompressionProfile(ProfileInfo[] profiles) {
+			for (ProfileInfo profile : profiles) {
+				if (DeflatingTransport.PROFILE.equals(profile.getUri())) {
+					return beepStream.isCompressionSupported() ? profile : null;
+				}
+			}
+			return null;
+		}
+		
 		@Override
 		public void receiveMSG(int channelNumber, int messageNumber, Message message) {			
 			InternalChannel channel = getChannel(channelNumber);
@@ -868,6 +1466,23 @@ public class SessionImpl
 			channel.receiveRPY(messageNumber, message);
 		}
 		
+		@Override
+		public MessageContentHandler receiveMSGStart(int channelNumber, int messageNumber, Message header) {
+			InternalChannel channel = getChannel(channelNumber);
+			return channel.receiveMSGStart(messageNumber, header);
+		}
+		
+		@Override
+		public MessageContentHandler receiveRPYStart(int channelNumber, int messageNumber, Message header) {
+			InternalChannel channel = getChannel(channelNumber);
+			return channel.receiveRPYStart(messageNumber, header);
+		}
+		
+		@Override
+		public void checkCloseSession() {
+			// the session can be closed
+		}
+		
 		@Override
 		public void closeSession() {
 			// TODO: do not allow session close if there are still open channels
@@ -15,8 +15,6 @@
  */
 package net.sf.beep4j.internal.session;
 
-import java.util.concurrent.locks.Lock;
-
 import net.sf.beep4j.Channel;
 import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.CloseChannelRequest;
@@ -36,56 +34,48 @@ final class UnlockingChannelHandler implements ChannelHandler {
 	
 	private final ChannelHandler target;
 	
-	private final Lock lock;
+	private final CallbackLocks locks;
 	
-	UnlockingChannelHandler(ChannelHandler target, Lock lock) {
+	UnlockingChannelHandler(ChannelHandler target, CallbackLocks locks) {
 		Assert.notNull("target", target);
-		Assert.notNull("lock", lock);
+		Assert.notNull("locks", locks);
 		this.target = target;
-		this.lock = lock;
-	}
-	
-	private void lock() {
-		lock.lock();
-	}
-	
-	private void unlock() {
-		lock.unlock();
+		this.locks = locks;
 	}
 	
 	public void channelOpened(Channel c) {
-		unlock();
+		int released = locks.release();
 		try {
 			target.channelOpened(c);
 		} finally {
-			lock();
+			locks.reacquire(released);
 		}
 	}
 	
 	public void messageReceived(Message message, Reply reply) {
-		unlock();
+		int released = locks.release();
 		try {
 			target.messageReceived(message, reply);
 		} finally {
-			lock();
+			locks.reacquire(released);
 		}
 	}
 	
 	public void channelCloseRequested(CloseChannelRequest request) {
-		unlock();
+		int released = locks.release();
 		try {
 			target.channelCloseRequested(request);
 		} finally {
-			lock();
+			locks.reacquire(released);
 		}
 	}
 	
 	public void channelClosed() {
-		unlock();
+		int released = locks.release();
 		try {
 			target.channelClosed();
 		} finally {
-			lock();
+			locks.reacquire(released);
 		}
 	}
 	
@@ -15,8 +15,6 @@
  */
 package net.sf.beep4j.internal.session;
 
-import java.util.concurrent.locks.Lock;
-
 import net.sf.beep4j.CloseChannelCallback;
 import net.sf.beep4j.internal.util.Assert;
 
@@ -24,41 +22,29 @@ final class UnlockingCloseChannelCallback implements CloseChannelCallback {
 	
 	private final CloseChannelCallback target;
 	
-	private final Lock lock;
+	private final CallbackLocks locks;
 	
-	public UnlockingCloseChannelCallback(CloseChannelCallback target, Lock lock) {
+	public UnlockingCloseChannelCallback(CloseChannelCallback target, CallbackLocks locks) {
 		Assert.notNull("target", target);
 		this.target = target;
-		this.lock = lock;
-	}
-	
-	private void unlock() {
-		if (lock != null) {
-			lock.unlock();
-		}
-	}
-	
-	private void lock() {
-		if (lock != null) {
-			lock.lock();
-		}
+		this.locks = locks;
 	}
 	
 	public void closeAccepted() {
-		unlock();
+		int released = locks.release();
 		try {
 			target.closeAccepted();
 		} finally {
-			lock();
+			locks.reacquire(released);
 		}
 	}
 
 	public void closeDeclined(int code, String message) {
-		unlock();
+		int released = locks.release();
 		try {
 			target.closeDeclined(code, message);
 		} finally {
-			lock();
+			locks.reacquire(released);
 		}
 	}
 
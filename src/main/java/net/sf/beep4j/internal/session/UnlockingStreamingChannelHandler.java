@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2007 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.StreamingChannelHandler;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * {@link StreamingChannelHandler} implementation that unlocks the given lock
+ * before calling a target StreamingChannelHandler. Further it guarantees 
+ * that the lock is again locked as soon as the target handler returns.
+ * 
+ * @author Simon Raess
+ * @see UnlockingChannelHandler
+ */
+final class UnlockingStreamingChannelHandler implements StreamingChannelHandler {
+	
+	private final StreamingChannelHandler target;
+	
+	private final UnlockingChannelHandler delegate;
+	
+	private final CallbackLocks locks;
+	
+	UnlockingStreamingChannelHandler(StreamingChannelHandler target, CallbackLocks locks) {
+		Assert.notNull("target", target);
+		Assert.notNull("locks", locks);
+		this.target = target;
+		this.delegate = new UnlockingChannelHandler(target, locks);
+		this.locks = locks;
+	}
+	
+	public MessageContentHandler messageStarted(Message header, Reply reply) {
+		int released = locks.release();
+		try {
+			return target.messageStarted(header, reply);
+		} finally {
+			locks.reacquire(released);
+		}
+	}
+	
+	public void channelOpened(Channel c) {
+		delegate.channelOpened(c);
+	}
+	
+	public void messageReceived(Message message, Reply reply) {
+		delegate.messageReceived(message, reply);
+	}
+	
+	public void channelCloseRequested(CloseChannelRequest request) {
+		delegate.channelCloseRequested(request);
+	}
+	
+	public void channelClosed() {
+		delegate.channelClosed();
+	}
+	
+}
@@ -15,6 +15,8 @@
  */
 package net.sf.beep4j.internal.stream;
 
+import java.nio.ByteBuffer;
+
 import net.sf.beep4j.Message;
 import net.sf.beep4j.internal.SessionListener;
 
@@ -73,6 +75,43 @@ public interface BeepStream extends SessionListener {
 	 */
 	void sendNUL(int channel, int messageNumber);
 	
+	/**
+	 * Sends a fragment of a streamed message of type MSG. All other 
+	 * messages on the channel are held back until the last fragment
+	 * has been sent.
+	 * 
+	 * @param channel the channel number
+	 * @param messageNumber the message number
+	 * @param buffer the content of the fragment
+	 * @param last whether this fragment completes the message
+	 */
+	void sendMSGFragment(int channel, int messageNumber, ByteBuffer buffer, boolean last);
+	
+	/**
+	 * Blocks until all frames enqueued on the given channel have been
+	 * passed to the transport. Returns immediately if the channel is
+	 * closed.
+	 * 
+	 * @param channel the channel number
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	void awaitFramesSent(int channel) throws InterruptedException;
+	
+	/**
+	 * Determines whether the underlying transport is able to compress
+	 * the outgoing byte stream.
+	 * 
+	 * @return true iff {@link #startCompression()} is supported
+	 */
+	boolean isCompressionSupported();
+	
+	/**
+	 * Compresses all bytes sent to the remote peer from now on.
+	 * 
+	 * @throws IllegalStateException if compression is not supported
+	 */
+	void startCompression();
+	
 	/**
 	 * Instructs the mapping to close the underlying Transport object.
 	 */
@@ -168,7 +168,8 @@ public class DataHeader {
 	 * Splits the header into two parts. The first part's size is set
 	 * to the passed in parameter. It has the intermediate flag set to
 	 * true. The second part has the remaining
-	 * size plus its sequence number adapted.
+	 * size plus its sequence number adapted. It keeps the intermediate
+	 * flag of this header.
 	 *  
 	 * @param size the size of the first part
 	 * @return an array of two elements
@@ -178,7 +179,7 @@ public class DataHeader {
 		
 		DataHeader[] result = new DataHeader[2];
 		result[0] = new DataHeader(type, channel, messageNumber, true, sequenceNumber, size);
-		result[1] = new DataHeader(type, channel, messageNumber, false, sequenceNumber + size, payloadSize - size);
+		result[1] = new DataHeader(type, channel, messageNumber, intermediate, sequenceNumber + size, payloadSize - size);
 		
 		return result;
 	}
@@ -270,7 +271,7 @@ public class DataHeader {
 		public DataHeader[] split(int size) {
 			DataHeader[] result = new DataHeader[2];
 			result[0] = new ANSHeader(channel, messageNumber, true, sequenceNumber, size, answerNumber);
-			result[1] = new ANSHeader(channel, messageNumber, false, sequenceNumber + size, payloadSize - size, answerNumber);
+			result[1] = new ANSHeader(channel, messageNumber, intermediate, sequenceNumber + size, payloadSize - size, answerNumber);
 			return result;
 		}
 		
@@ -17,7 +17,14 @@ package net.sf.beep4j.internal.stream;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
+import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.internal.ChannelSlot;
+import net.sf.beep4j.internal.ChannelSlots;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.BufferAllocator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +33,14 @@ import org.slf4j.LoggerFactory;
  * Default implementation of a BEEP {@link StreamParser}. Parses the stream of
  * bytes as it arrives from the remote peer and passes the resulting BEEP
  * frames to a {@link FrameHandler}. Works together with a {@link TransportMapping}
- * to update sender / receiver windows of a BEEP session.
+ * to update sender / receiver windows of a BEEP session. The {@link ChannelSlot}
+ * of a frame is looked up once and passed to both of them.
+ * 
+ * <p>If compression is enabled, the parser inflates the stream as soon as
+ * the start of a zlib stream is detected at a frame boundary. No BEEP 
+ * frame starts with the zlib header byte, so the start of the compressed
+ * stream can be detected without any further coordination with the 
+ * remote peer. See {@link net.sf.beep4j.transport.DeflatingTransport}.</p>
  * 
  * @author Simon Raess
  */
@@ -34,25 +48,51 @@ public class DefaultStreamParser implements StreamParser, ParseStateContext {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(StreamParser.class);
 	
+	/**
+	 * The first byte of a zlib stream using the deflate method with a
+	 * 32K window.
+	 */
+	private static final byte ZLIB_HEADER = 0x78;
+	
+	private static final int INFLATE_BUFFER_SIZE = 8192;
+	
 	private final TransportMapping mapping;
 	
 	private final FrameHandler handler;
 	
-	private final ParseState headerState = new HeaderState();
+	/**
+	 * The slots of the open channels. The slot of a frame is resolved
+	 * once when its header has been parsed.
+	 */
+	private final ChannelSlots slots;
+	
+	private final HeaderState headerState = new HeaderState();
 	
 	private final ParseState trailerState = new TrailerState();
 	
+	private final BufferAllocator allocator = BufferAllocator.getInstance();
+	
 	// conversational state
 	
 	private ParseState currentState;
 	
 	private DataHeader header;
 	
+	private ChannelSlot slot;
+	
 	private ByteBuffer payload;
 	
-	public DefaultStreamParser(FrameHandler handler, TransportMapping mapping) {
+	private boolean compressionEnabled;
+	
+	private Inflater inflater;
+	
+	private byte[] inflated;
+	
+	public DefaultStreamParser(FrameHandler handler, TransportMapping mapping, ChannelSlots slots) {
+		Assert.notNull("slots", slots);
 		this.handler = handler;
 		this.mapping = mapping;
+		this.slots = slots;
 		this.currentState = headerState;
 	}
 	
@@ -63,15 +103,73 @@ public class DefaultStreamParser implements StreamParser, ParseStateContext {
 		currentState = state;
 	}
 	
+	/**
+	 * Enables detection of a compressed stream. Has to be set before
+	 * the first compressed byte arrives.
+	 * 
+	 * @param compressionEnabled whether compressed streams are accepted
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+	
 	public void process(ByteBuffer buffer) {
-		while (currentState.process(buffer, this));
+		if (inflater == null) {
+			if (!compressionEnabled) {
+				while (currentState.process(buffer, this));
+				return;
+			}
+			while (buffer.hasRemaining() && !isCompressedStreamStart(buffer)) {
+				if (!currentState.process(buffer, this)) {
+					return;
+				}
+			}
+			if (!buffer.hasRemaining()) {
+				return;
+			}
+			LOG.debug("start of compressed stream detected");
+			inflater = new Inflater();
+			inflated = new byte[INFLATE_BUFFER_SIZE];
+		}
+		inflate(buffer);
+	}
+	
+	public void abort(Throwable cause) {
+		handler.abort(cause);
+	}
+	
+	private boolean isCompressedStreamStart(ByteBuffer buffer) {
+		return currentState == headerState 
+		    && headerState.isEmpty()
+		    && buffer.get(buffer.position()) == ZLIB_HEADER;
+	}
+	
+	private void inflate(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			inflater.setInput(buffer.array(), 
+					buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] input = new byte[buffer.remaining()];
+			buffer.get(input);
+			inflater.setInput(input);
+		}
+		try {
+			int length;
+			while ((length = inflater.inflate(inflated)) > 0) {
+				ByteBuffer chunk = ByteBuffer.wrap(inflated, 0, length);
+				while (currentState.process(chunk, this));
+			}
+		} catch (DataFormatException e) {
+			throw new ProtocolException("corrupt compressed stream: " + e.getMessage(), e);
+		}
 	}
 		
 	protected void forward(Frame frame) {
 		handler.handleFrame(frame);
 		if (frame.getHeader().getPayloadSize() > 0) {				
 			mapping.frameReceived(
-					frame.getChannelNumber(), frame.getSequenceNumber(), frame.getSize());
+					frame.getChannelSlot(), frame.getSequenceNumber(), frame.getSize());
 		}
 	}
 		
@@ -86,9 +184,13 @@ public class DefaultStreamParser implements StreamParser, ParseStateContext {
 			int channel = header.getChannel();
 			int size = header.getPayloadSize();
 			long seqno = header.getSequenceNumber();
-			mapping.checkFrame(channel, seqno, size);
+			slot = slots.get(channel);
+			if (slot == null) {
+				throw new ProtocolException("unknown channel: " + channel);
+			}
+			mapping.checkFrame(slot, seqno, size);
 			
-			setCurrentState(new PayloadState(header.getPayloadSize()));
+			setCurrentState(new PayloadState(header.getPayloadSize(), allocator));
 			
 		} else {
 			mapping.processMappingFrame(tokens);
@@ -109,10 +211,12 @@ public class DefaultStreamParser implements StreamParser, ParseStateContext {
 	}
 	
 	public void handleTrailer() {
-		Frame frame = new Frame(header, payload);
+		Frame frame = new Frame(header, payload, allocator.deallocator(payload), slot);
+		frame.trackLeaks();
 		forward(frame);
 		header = null;
 		payload = null;
+		slot = null;
 		setCurrentState(headerState);
 	}
 
@@ -15,6 +15,7 @@
  */
 package net.sf.beep4j.internal.stream;
 
+import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 
@@ -48,12 +49,17 @@ public class DefaultTransportContext implements TransportContext {
 		try {
 			parser.process(buffer);
 		} catch (ProtocolException e) {
+			parser.abort(e);
 			exceptionCaught(e);
 		}
 	}
 
 	public void connectionClosed() {
-		handler.connectionClosed();
+		try {
+			parser.abort(new IOException("connection closed"));
+		} finally {
+			handler.connectionClosed();
+		}
 	}
 
 }
@@ -15,46 +15,96 @@
  */
 package net.sf.beep4j.internal.stream;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
 
+import net.sf.beep4j.internal.ChannelSlot;
+import net.sf.beep4j.internal.ChannelSlots;
 import net.sf.beep4j.internal.SessionListener;
 import net.sf.beep4j.internal.util.Assert;
 
 /**
  * FrameHandler implementation that delegates to a unique {@link FrameHandler}
- * per channel. It uses
+ * per channel. The FrameHandler of a channel is created by the 
+ * {@link FrameHandlerFactory} when the first frame is received on that
+ * channel. At that point the channel has been completely set up, so that
+ * the factory can select a FrameHandler that fits the channel. The
+ * FrameHandlers are kept in the {@link ChannelSlot} of their channel,
+ * which received frames carry along.
  * 
  * @author Simon Raess
  */
 public class DelegatingFrameHandler implements FrameHandler, SessionListener {
 	
+	/**
+	 * Placeholder for the FrameHandler of a started channel on which
+	 * no frame has been received yet.
+	 */
+	private static final FrameHandler UNASSIGNED = new FrameHandler() {
+		public void handleFrame(Frame frame) {
+			throw new IllegalStateException("no FrameHandler assigned");
+		}
+		public void abort(Throwable cause) {
+			// nothing received yet
+		}
+	};
+	
 	private final FrameHandlerFactory factory;
 	
-	private final Map<Integer, FrameHandler> handlers = new HashMap<Integer, FrameHandler>();
+	private final ChannelSlots slots;
 	
 	public DelegatingFrameHandler(FrameHandlerFactory factory) {
+		this(factory, new ChannelSlots());
+	}
+	
+	public DelegatingFrameHandler(FrameHandlerFactory factory, ChannelSlots slots) {
 		Assert.notNull("factory", factory);
+		Assert.notNull("slots", slots);
 		this.factory = factory;
+		this.slots = slots;
 		this.channelStarted(0);
 	}
 	
 	public void handleFrame(Frame frame) {
-		FrameHandler handler = handlers.get(frame.getChannelNumber());
+		int channelNumber = frame.getChannelNumber();
+		ChannelSlot slot = frame.getChannelSlot();
+		if (slot == null) {
+			slot = slots.get(channelNumber);
+		}
+		FrameHandler handler = slot != null ? slot.getFrameHandler() : null;
 		if (handler == null) {
 			throw new IllegalStateException("there must be a FrameHandler for channel "
-					+ frame.getChannelNumber() + "; channelStarted was not called");
+					+ channelNumber + "; channelStarted was not called");
+		} else if (handler == UNASSIGNED) {
+			handler = factory.createFrameHandler(channelNumber);
+			slot.setFrameHandler(handler);
 		}
 		handler.handleFrame(frame);
 	}
 	
+	public void abort(Throwable cause) {
+		for (ChannelSlot slot : slots.values()) {
+			FrameHandler handler = slot.getFrameHandler();
+			if (handler != null) {
+				handler.abort(cause);
+			}
+		}
+	}
+	
 	public void channelStarted(int channelNumber) {
-		FrameHandler handler = factory.createFrameHandler();
-		handlers.put(channelNumber, handler);
+		slots.open(channelNumber).setFrameHandler(UNASSIGNED);
 	}
 	
 	public void channelClosed(int channelNumber) {
-		handlers.remove(channelNumber);
+		ChannelSlot slot = slots.get(channelNumber);
+		if (slot == null) {
+			return;
+		}
+		FrameHandler handler = slot.getFrameHandler();
+		slot.setFrameHandler(null);
+		slots.release(slot);
+		if (handler != null) {
+			handler.abort(new IOException("channel " + channelNumber + " has been closed"));
+		}
 	}
 	
 }
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * Immutable reference to a region of a file, used as payload of frames
+ * whose content is sent directly from a file.
+ * 
+ * @author Simon Raess
+ */
+public final class FileRegion {
+	
+	private final FileChannel channel;
+	
+	private final long position;
+	
+	private final int length;
+	
+	public FileRegion(FileChannel channel, long position, int length) {
+		Assert.notNull("channel", channel);
+		if (position < 0) {
+			throw new IllegalArgumentException("position must be >= 0");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("length must be >= 0");
+		}
+		this.channel = channel;
+		this.position = position;
+		this.length = length;
+	}
+	
+	public FileChannel getChannel() {
+		return channel;
+	}
+	
+	public long getPosition() {
+		return position;
+	}
+	
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Splits this region into one region of the given <var>size</var>
+	 * and another region with the rest.
+	 * 
+	 * @param size the size of the first region
+	 * @return an array of two regions replacing this region
+	 */
+	public FileRegion[] split(int size) {
+		if (size < 0 || size > length) {
+			throw new IllegalArgumentException("cannot split region of length " 
+					+ length + " at " + size);
+		}
+		return new FileRegion[] {
+			new FileRegion(channel, position, size),
+			new FileRegion(channel, position + size, length - size)
+		};
+	}
+	
+	/**
+	 * Maps the region into memory.
+	 * 
+	 * @return the read-only mapped region
+	 */
+	public ByteBuffer map() {
+		try {
+			return channel.map(MapMode.READ_ONLY, position, length);
+		} catch (IOException e) {
+			throw new InternalException("cannot map file region", e);
+		}
+	}
+	
+	/**
+	 * Reads the complete region into the passed in buffer. The position
+	 * of the file channel is not modified.
+	 * 
+	 * @param target the buffer to read into
+	 */
+	public void read(ByteBuffer target) {
+		if (target.remaining() < length) {
+			throw new IllegalArgumentException("target buffer too small: remaining="
+					+ target.remaining() + ",length=" + length);
+		}
+		try {
+			long current = position;
+			long end = position + length;
+			while (current < end) {
+				int limit = target.limit();
+				target.limit(target.position() + (int) (end - current));
+				int count = channel.read(target, current);
+				target.limit(limit);
+				if (count < 0) {
+					throw new EOFException("unexpected end of file at position " + current);
+				}
+				current += count;
+			}
+		} catch (IOException e) {
+			throw new InternalException("cannot read file region", e);
+		}
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (obj instanceof FileRegion) {
+			FileRegion region = (FileRegion) obj;
+			return channel == region.channel
+			    && position == region.position
+			    && length == region.length;
+		} else {
+			return false;
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		int result = 17;
+		result = result * 13 + channel.hashCode();
+		result = result * 13 + (int) (position ^ (position >>> 32));
+		result = result * 13 + length;
+		return result;
+	}
+	
+	@Override
+	public String toString() {
+		return "FileRegion[position=" + position + ",length=" + length + "]";
+	}
+	
+}
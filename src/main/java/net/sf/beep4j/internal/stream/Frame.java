@@ -17,16 +17,28 @@ package net.sf.beep4j.internal.stream;
 
 import java.nio.ByteBuffer;
 
+import net.sf.beep4j.ReferenceCounted;
+import net.sf.beep4j.internal.ChannelSlot;
 import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.LeakDetector;
+import net.sf.beep4j.internal.util.ReferenceCounter;
+import net.sf.beep4j.transport.FileTransport;
+import net.sf.beep4j.transport.GatheringTransport;
 import net.sf.beep4j.transport.Transport;
 
 /**
  * Represents a BEEP frame, which consists of a header ({@link DataHeader})
- * and a {@link ByteBuffer} content.
+ * and a {@link ByteBuffer} content. The content of outgoing frames can
+ * also be a {@link FileRegion}, which is only read when the frame is
+ * sent.
+ * 
+ * <p>Frames are reference counted. A received frame is released once its
+ * payload has been consumed, a sent frame once it has been written to
+ * the transport.</p>
  * 
  * @author Simon Raess
  */
-public final class Frame {
+public final class Frame implements ReferenceCounted {
 	
 	/**
 	 * The header of this frame.
@@ -38,6 +50,24 @@ public final class Frame {
 	 */
 	private final ByteBuffer payload;
 	
+	/**
+	 * The file region holding the payload of this frame, null if the
+	 * payload is held in a ByteBuffer.
+	 */
+	private final FileRegion region;
+	
+	/**
+	 * The reference count of the payload, shared by the frames split
+	 * from the same original frame.
+	 */
+	private final ReferenceCounter counter;
+	
+	/**
+	 * The slot of the channel on which this frame has been received or 
+	 * null if the frame has not been received from the transport.
+	 */
+	private final ChannelSlot slot;
+	
 	/**
 	 * Creates a new frame that has the given header and payload.
 	 * 
@@ -45,10 +75,70 @@ public final class Frame {
 	 * @param payload the payload of the frame
 	 */
 	public Frame(DataHeader header, ByteBuffer payload) {
+		this(header, payload, (Runnable) null);
+	}
+	
+	/**
+	 * Creates a new frame that has the given header and payload. The
+	 * deallocator is run when the frame is released.
+	 * 
+	 * @param header the header of the frame
+	 * @param payload the payload of the frame
+	 * @param deallocator the action freeing the payload, may be null
+	 */
+	public Frame(DataHeader header, ByteBuffer payload, Runnable deallocator) {
+		this(header, payload, deallocator, null);
+	}
+	
+	/**
+	 * Creates a new frame that has been received on the channel of the 
+	 * given slot. The deallocator is run when the frame is released.
+	 * 
+	 * @param header the header of the frame
+	 * @param payload the payload of the frame
+	 * @param deallocator the action freeing the payload, may be null
+	 * @param slot the slot of the channel, may be null
+	 */
+	public Frame(DataHeader header, ByteBuffer payload, Runnable deallocator, ChannelSlot slot) {
 		Assert.notNull("header", header);
 		Assert.notNull("payload", payload);
 		this.header = header;
 		this.payload = payload;
+		this.region = null;
+		this.counter = new ReferenceCounter(deallocator);
+		this.slot = slot;
+	}
+	
+	/**
+	 * Creates a new frame whose payload is the given region of a file.
+	 * 
+	 * @param header the header of the frame
+	 * @param region the file region containing the payload
+	 */
+	public Frame(DataHeader header, FileRegion region) {
+		Assert.notNull("header", header);
+		Assert.notNull("region", region);
+		this.header = header;
+		this.payload = null;
+		this.region = region;
+		this.counter = new ReferenceCounter();
+		this.slot = null;
+	}
+	
+	private Frame(DataHeader header, ByteBuffer payload, FileRegion region, ReferenceCounter counter,
+			ChannelSlot slot) {
+		this.header = header;
+		this.payload = payload;
+		this.region = region;
+		this.counter = counter;
+		this.slot = slot;
+	}
+	
+	/**
+	 * Registers this frame with the shared LeakDetector.
+	 */
+	void trackLeaks() {
+		counter.track(this, LeakDetector.getInstance());
 	}
 	
 	public DataHeader getHeader() {
@@ -63,6 +153,15 @@ public final class Frame {
 		return header.getChannel();
 	}
 	
+	/**
+	 * Gets the slot of the channel on which this frame has been received.
+	 * 
+	 * @return the slot or null if the frame has not been received
+	 */
+	public ChannelSlot getChannelSlot() {
+		return slot;
+	}
+	
 	public boolean isIntermediate() {
 		return header.isIntermediate();
 	}
@@ -79,13 +178,42 @@ public final class Frame {
 		return header.getPayloadSize();
 	}
 	
+	/**
+	 * Gets the payload of this frame. If the payload is a region of
+	 * a file, the region is mapped into memory.
+	 * 
+	 * @return the payload
+	 */
 	public ByteBuffer getPayload() {
-		return payload;
+		return region != null ? region.map() : payload;
+	}
+	
+	/**
+	 * Gets the file region holding the payload of this frame.
+	 * 
+	 * @return the file region or null if the payload is not read from a file
+	 */
+	public FileRegion getFileRegion() {
+		return region;
+	}
+	
+	public int getReferenceCount() {
+		return counter.getReferenceCount();
+	}
+	
+	public void retain() {
+		counter.retain();
+	}
+	
+	public boolean release() {
+		return counter.release();
 	}
 	
 	/**
 	 * Splits this frame into one frame of the given <var>size</var>
-	 * and another frame with the rest of data.
+	 * and another frame with the rest of data. The reference held on this
+	 * frame is transferred to the two new frames, which share the reference 
+	 * count. Each of them must be released.
 	 * 
 	 * @param size the size of the first frame's payload
 	 * @return an array of two frames replacing this frame
@@ -94,10 +222,17 @@ public final class Frame {
 		Frame[] result = new Frame[2];
 		
 		DataHeader[] headers = header.split(size);
-		ByteBuffer[] buffers = splitPayload(getPayload(), size);
 		
-		result[0] = new Frame(headers[0], buffers[0]);		
-		result[1] = new Frame(headers[1], buffers[1]);
+		if (region != null) {
+			FileRegion[] regions = region.split(size);
+			result[0] = new Frame(headers[0], null, regions[0], counter, slot);
+			result[1] = new Frame(headers[1], null, regions[1], counter, slot);
+		} else {
+			ByteBuffer[] buffers = splitPayload(payload, size);
+			result[0] = new Frame(headers[0], buffers[0], null, counter, slot);		
+			result[1] = new Frame(headers[1], buffers[1], null, counter, slot);
+		}
+		counter.retain();
 		
 		return result;
 	}
@@ -105,19 +240,24 @@ public final class Frame {
 	private ByteBuffer[] splitPayload(ByteBuffer payload, int size) {
 		ByteBuffer[] result = new ByteBuffer[2];
 		ByteBuffer tmp = payload.asReadOnlyBuffer();
+		int start = payload.position();
 		
-		tmp.position(0).limit(size);
+		tmp.limit(start + size);
 		result[0] = tmp.slice();
 		
-		tmp.position(size);
-		tmp.limit(payload.capacity());
+		tmp.position(start + size);
+		tmp.limit(payload.limit());
 		result[1] = tmp.slice();
 		
 		return result;
 	}
 
 	/**
-	 * Sends this frame to the given transport.
+	 * Sends this frame to the given transport. The payload of the frame
+	 * is not consumed, which means that frames sharing their payload with
+	 * other frames can safely be sent. The payload is copied only if the
+	 * transport supports neither {@link GatheringTransport} nor (for file
+	 * regions) {@link FileTransport}.
 	 * 
 	 * @param transport the transport where the bytes of this frame are
 	 *        sent to
@@ -125,9 +265,28 @@ public final class Frame {
 	public final void send(Transport transport) {
 		ByteBuffer headerBuffer = header.asByteBuffer();
 		
+		if (region != null && transport instanceof FileTransport) {
+			FileTransport fileTransport = (FileTransport) transport;
+			fileTransport.sendFile(headerBuffer, 
+					region.getChannel(), region.getPosition(), region.getLength(), 
+					ByteBuffer.wrap(Constants.TRAILER_BYTES));
+			return;
+		}
+		
+		if (region == null && transport instanceof GatheringTransport) {
+			GatheringTransport gatheringTransport = (GatheringTransport) transport;
+			gatheringTransport.sendBuffers(headerBuffer, payload.asReadOnlyBuffer(), 
+					ByteBuffer.wrap(Constants.TRAILER_BYTES).asReadOnlyBuffer(), this);
+			return;
+		}
+		
 		ByteBuffer buffer = ByteBuffer.allocate(headerBuffer.remaining() + getSize() + 5);
 		buffer.put(headerBuffer);
-		buffer.put(getPayload());
+		if (region != null) {
+			region.read(buffer);
+		} else {
+			buffer.put(payload.duplicate());
+		}
 		buffer.put(Constants.TRAILER_BYTES);
 		buffer.flip();
 		
@@ -143,7 +302,8 @@ public final class Frame {
 		} else if (obj.getClass().equals(getClass())) {
 			Frame frame = (Frame) obj;
 			return header.equals(frame.header)
-			    && payload.equals(frame.payload);
+			    && (payload != null ? payload.equals(frame.payload) : frame.payload == null)
+			    && (region != null ? region.equals(frame.region) : frame.region == null);
 		} else {
 			return false;
 		}
@@ -153,7 +313,7 @@ public final class Frame {
 	public int hashCode() {
 		int result = 17;
 		result = result * 13 + header.hashCode();
-		result = result * 13 + payload.hashCode();
+		result = result * 13 + (payload != null ? payload.hashCode() : region.hashCode());
 		return result;
 	}
 	
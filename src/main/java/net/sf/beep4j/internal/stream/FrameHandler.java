@@ -29,4 +29,12 @@ public interface FrameHandler {
 	 */
 	void handleFrame(Frame frame);
 	
+	/**
+	 * Aborts the messages that have been received partially. Held frames
+	 * are released. Invoked when no more frames will be received for them.
+	 * 
+	 * @param cause the reason why the messages are aborted
+	 */
+	void abort(Throwable cause);
+	
 }
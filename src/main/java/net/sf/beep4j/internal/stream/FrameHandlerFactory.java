@@ -23,10 +23,11 @@ package net.sf.beep4j.internal.stream;
 public interface FrameHandlerFactory {
 	
 	/**
-	 * Creates a new {@link FrameHandler}.
+	 * Creates a new {@link FrameHandler} for the given channel.
 	 * 
+	 * @param channelNumber the number of the channel
 	 * @return the newly created FrameHandler
 	 */
-	FrameHandler createFrameHandler();
+	FrameHandler createFrameHandler(int channelNumber);
 	
 }
@@ -44,6 +44,15 @@ final class HeaderState implements ParseState {
 		return "header";
 	}
 	
+	/**
+	 * Determines whether no part of a header has been read so far.
+	 * 
+	 * @return true iff the state is at the start of a frame
+	 */
+	final boolean isEmpty() {
+		return tmp.position() == 0;
+	}
+	
 	public final boolean process(ByteBuffer buffer, ParseStateContext context) {
 		int position = buffer.position();
 		int index = findLF(buffer);
@@ -23,9 +23,11 @@ import java.util.Map;
 
 import net.sf.beep4j.Message;
 import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.internal.message.DefaultMessage;
 import net.sf.beep4j.internal.message.DefaultMessageParser;
-import net.sf.beep4j.internal.message.MessageParser;
+import net.sf.beep4j.internal.message.MessageHeaderCache;
 import net.sf.beep4j.internal.stream.DataHeader.ANSHeader;
+import net.sf.beep4j.internal.util.BufferAllocator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,10 +44,15 @@ public class MessageAssembler implements FrameHandler {
 	
 	private final MessageHandler handler;
 	
+	private final DefaultMessageParser parser;
+	
+	private final BufferAllocator allocator = BufferAllocator.getInstance();
+	
 	private State currentState;
 
 	public MessageAssembler(MessageHandler handler) {
 		this.handler = handler;
+		this.parser = new DefaultMessageParser(new MessageHeaderCache());
 	}
 	
 	private void setCurrentState(State state) {
@@ -73,8 +80,26 @@ public class MessageAssembler implements FrameHandler {
 		currentState.append(frame, handler);
 	}
 	
+	public void abort(Throwable cause) {
+		if (currentState != null) {
+			LOG.debug("aborting message in state " + currentState, cause);
+			currentState.abort();
+			setCurrentState(null);
+		}
+	}
+	
 	// --> end of FrameHandler methods <--
 	
+	/**
+	 * Determines whether the assembler is between messages, that is, 
+	 * whether it has no partially received message or pending answers.
+	 * 
+	 * @return true iff no message is being assembled
+	 */
+	boolean isIdle() {
+		return currentState == null;
+	}
+	
 	
 	protected Message createMessage(List<Frame> frames) {
 		if (frames.size() == 0) {
@@ -95,14 +120,18 @@ public class MessageAssembler implements FrameHandler {
 		
 		LOG.debug("total payload size is " + total);
 		
-		ByteBuffer buffer = ByteBuffer.allocate(total);
+		ByteBuffer buffer = allocator.allocate(total);
 		for (Frame frame : frames) {
 			buffer.put(frame.getPayload());
+			frame.release();
 		}
 		buffer.flip();
 		
-		MessageParser parser = new DefaultMessageParser();
-		return parser.parse(buffer);
+		Message message = parser.parse(buffer, allocator.deallocator(buffer));
+		if (message instanceof DefaultMessage) {
+			((DefaultMessage) message).trackLeaks();
+		}
+		return message;
 	}
 
 	protected void receive(MessageType type, int channelNumber, int messageNumber, Message message) {
@@ -123,6 +152,14 @@ public class MessageAssembler implements FrameHandler {
 	
 	private static interface State {
 		void append(Frame frame, MessageHandler handler);
+		void abort();
+	}
+	
+	private static void release(List<Frame> frames) {
+		for (Frame frame : frames) {
+			frame.release();
+		}
+		frames.clear();
 	}
 	
 	private class NormalState implements State {
@@ -160,6 +197,11 @@ public class MessageAssembler implements FrameHandler {
 			}
 		}
 
+		public void abort() {
+			release(fragments);
+			last = null;
+		}
+
 		/*
 		 * Validation of sequencing according to the BEEP specification section
 		 * 2.2.1.1.
@@ -257,6 +299,7 @@ public class MessageAssembler implements FrameHandler {
 				
 				fragments.clear();
 				setCurrentState(null);
+				frame.release();
 				handler.receiveNUL(frame.getChannelNumber(), frame.getMessageNumber());
 				
 			} else {
@@ -281,6 +324,13 @@ public class MessageAssembler implements FrameHandler {
 			}
 		}
 				
+		public void abort() {
+			for (List<Frame> frames : fragments.values()) {
+				release(frames);
+			}
+			fragments.clear();
+		}
+		
 		private boolean hasUnfinishedAnsMessages() {
 			return fragments.size() > 0;
 		}
@@ -17,6 +17,8 @@ package net.sf.beep4j.internal.stream;
 
 import java.nio.ByteBuffer;
 
+import net.sf.beep4j.internal.util.BufferAllocator;
+
 /**
  * ParseState responsible to read the payload of a frame.
  * 
@@ -47,9 +49,20 @@ final class PayloadState implements ParseState {
 	 * @param payloadSize the number of bytes in the payload
 	 */
 	PayloadState(int payloadSize) {
+		this(payloadSize, BufferAllocator.getInstance());
+	}
+	
+	/**
+	 * Creates a new PayloadState that reads exactly <var>payloadSize</var> 
+	 * bytes into a buffer obtained from the given allocator.
+	 * 
+	 * @param payloadSize the number of bytes in the payload
+	 * @param allocator the allocator of the payload buffer
+	 */
+	PayloadState(int payloadSize, BufferAllocator allocator) {
 		this.position = 0;
 		this.size = payloadSize;
-		this.payload = ByteBuffer.allocate(payloadSize);
+		this.payload = allocator.allocate(payloadSize);
 	}
 	
 	public final String getName() {
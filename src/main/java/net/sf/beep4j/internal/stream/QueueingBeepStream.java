@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.ReferenceCounting;
+import net.sf.beep4j.internal.util.SerialExecutor;
+
+/**
+ * BeepStream decorator that hands outgoing messages over to a single
+ * writer. The send methods only put the message on a lock-free queue and
+ * return. The writer drains the queue on the given Executor and passes 
+ * the messages to the target stream, which assigns the sequence numbers,
+ * accounts for the send windows, frames the messages and writes them to
+ * the transport. When many threads send concurrently, the writer sends
+ * all of their messages in one run.
+ * 
+ * <p>The queue is shared by all channels of the session, so the messages
+ * are passed on in the order in which they were sent. Messages are 
+ * retained until the writer has passed them on. Exceptions thrown by
+ * the target stream are logged by the writer, the sender does not see
+ * them.</p>
+ * 
+ * <p>Channels are registered with the target stream directly, because
+ * the remote peer may send frames on a new channel before the writer
+ * gets to it. Closing a channel, starting compression and closing the
+ * transport are queued behind the messages sent before.</p>
+ * 
+ * @author Simon Raess
+ */
+public class QueueingBeepStream implements BeepStream {
+	
+	private final BeepStream target;
+	
+	private final SerialExecutor writer;
+	
+	/**
+	 * Creates a new QueueingBeepStream.
+	 * 
+	 * @param target the stream that frames and writes the messages
+	 * @param executor the Executor on which the writer runs
+	 */
+	public QueueingBeepStream(BeepStream target, Executor executor) {
+		Assert.notNull("target", target);
+		Assert.notNull("executor", executor);
+		this.target = target;
+		this.writer = new SerialExecutor(executor);
+	}
+	
+	// --> start of SessionListener methods <--
+	
+	public void channelStarted(int channelNumber) {
+		target.channelStarted(channelNumber);
+	}
+	
+	public void channelClosed(final int channelNumber) {
+		writer.execute(new Runnable() {
+			public void run() {
+				target.channelClosed(channelNumber);
+			}
+		});
+	}
+	
+	// --> end of SessionListener methods <--
+	
+	// --> start of BeepStream methods <--
+	
+	public void sendMSG(final int channel, final int messageNumber, final Message message) {
+		ReferenceCounting.retain(message);
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					target.sendMSG(channel, messageNumber, message);
+				} finally {
+					ReferenceCounting.release(message);
+				}
+			}
+		});
+	}
+	
+	public void sendRPY(final int channel, final int messageNumber, final Message message) {
+		ReferenceCounting.retain(message);
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					target.sendRPY(channel, messageNumber, message);
+				} finally {
+					ReferenceCounting.release(message);
+				}
+			}
+		});
+	}
+	
+	public void sendERR(final int channel, final int messageNumber, final Message message) {
+		ReferenceCounting.retain(message);
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					target.sendERR(channel, messageNumber, message);
+				} finally {
+					ReferenceCounting.release(message);
+				}
+			}
+		});
+	}
+	
+	public void sendANS(final int channel, final int messageNumber, final int answerNumber, 
+			final Message message) {
+		ReferenceCounting.retain(message);
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					target.sendANS(channel, messageNumber, answerNumber, message);
+				} finally {
+					ReferenceCounting.release(message);
+				}
+			}
+		});
+	}
+	
+	public void sendNUL(final int channel, final int messageNumber) {
+		writer.execute(new Runnable() {
+			public void run() {
+				target.sendNUL(channel, messageNumber);
+			}
+		});
+	}
+	
+	public void sendMSGFragment(final int channel, final int messageNumber, final ByteBuffer buffer, 
+			final boolean last) {
+		writer.execute(new Runnable() {
+			public void run() {
+				target.sendMSGFragment(channel, messageNumber, buffer, last);
+			}
+		});
+	}
+	
+	/**
+	 * Waits until the writer has passed on everything queued before and
+	 * then until the target stream has sent the frames of the channel.
+	 */
+	public void awaitFramesSent(int channel) throws InterruptedException {
+		if (!writer.isExecutorThread()) {
+			writer.executeAndWait(new Runnable() {
+				public void run() {
+					// nothing to do, all previously queued messages have been passed on
+				}
+			});
+		}
+		target.awaitFramesSent(channel);
+	}
+	
+	public boolean isCompressionSupported() {
+		return target.isCompressionSupported();
+	}
+	
+	public void startCompression() {
+		writer.execute(new Runnable() {
+			public void run() {
+				target.startCompression();
+			}
+		});
+	}
+	
+	public void closeTransport() {
+		writer.execute(new Runnable() {
+			public void run() {
+				target.closeTransport();
+			}
+		});
+	}
+	
+	// --> end of BeepStream methods <--
+	
+}
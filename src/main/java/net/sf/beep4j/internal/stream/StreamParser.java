@@ -36,4 +36,13 @@ public interface StreamParser {
 	 */
 	void process(ByteBuffer buffer);
 	
+	/**
+	 * Aborts the messages that have been received partially. Invoked
+	 * when the stream ends, either because the connection has been closed
+	 * or because of a protocol error.
+	 * 
+	 * @param cause the reason why the stream ends
+	 */
+	void abort(Throwable cause);
+	
 }
@@ -0,0 +1,238 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.internal.message.DefaultMessageParser;
+import net.sf.beep4j.internal.message.MessageHeaderCache;
+import net.sf.beep4j.internal.message.MessageParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FrameHandler that passes the content of MSG and RPY messages to the
+ * {@link StreamingMessageHandler} frame by frame. The frames of a message
+ * are only collected until the MIME headers are complete. Then the 
+ * handler decides whether it wants to receive the message as a stream. 
+ * If it does not, the collected frames and all remaining frames of the
+ * message are passed to a {@link MessageAssembler}. ANS, NUL, and ERR
+ * messages are always assembled.
+ * 
+ * @author Simon Raess
+ */
+public class StreamingFrameHandler implements FrameHandler {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(StreamingFrameHandler.class);
+	
+	/**
+	 * Messages whose MIME headers are longer than this are assembled.
+	 */
+	private static final int MAX_HEADER_SIZE = 4096;
+	
+	private final StreamingMessageHandler handler;
+	
+	private final MessageAssembler assembler;
+	
+	private final MessageParser parser = new DefaultMessageParser(new MessageHeaderCache());
+	
+	/**
+	 * The frames of the current message received before the end of the
+	 * MIME headers or null if the headers of the current message have
+	 * already been processed.
+	 */
+	private List<Frame> headerFrames;
+	
+	private int headerSize;
+	
+	/**
+	 * The header of the last frame of the current message or null if
+	 * there is no current message.
+	 */
+	private DataHeader last;
+	
+	/**
+	 * The handler of the current message if it is streamed.
+	 */
+	private MessageContentHandler contentHandler;
+	
+	/**
+	 * Whether the current message is passed to the assembler.
+	 */
+	private boolean assembling;
+	
+	public StreamingFrameHandler(StreamingMessageHandler handler) {
+		this.handler = handler;
+		this.assembler = new MessageAssembler(handler);
+	}
+	
+	// --> start of FrameHandler methods <--
+	
+	public void handleFrame(Frame frame) {
+		DataHeader header = frame.getHeader();
+		
+		if (last == null) {
+			MessageType type = header.getType();
+			if (!assembler.isIdle() || (MessageType.MSG != type && MessageType.RPY != type)) {
+				assembler.handleFrame(frame);
+				return;
+			}
+			headerFrames = new LinkedList<Frame>();
+			headerSize = 0;
+		} else {
+			validateFrame(header);
+		}
+		
+		last = frame.isIntermediate() ? header : null;
+		
+		if (assembling) {
+			assembler.handleFrame(frame);
+			assembling = last != null;
+		} else if (contentHandler != null) {
+			deliver(frame.getPayload());
+			frame.release();
+		} else {
+			headerFrames.add(frame);
+			headerSize += frame.getSize();
+			processHeader(header);
+		}
+	}
+	
+	public void abort(Throwable cause) {
+		MessageContentHandler target = contentHandler;
+		List<Frame> frames = headerFrames;
+		contentHandler = null;
+		headerFrames = null;
+		last = null;
+		assembling = false;
+		try {
+			if (frames != null) {
+				for (Frame frame : frames) {
+					frame.release();
+				}
+			}
+			if (target != null) {
+				LOG.debug("aborting streamed message", cause);
+				target.contentAborted(cause);
+			}
+		} finally {
+			assembler.abort(cause);
+		}
+	}
+	
+	// --> end of FrameHandler methods <--
+	
+	private void processHeader(DataHeader header) {
+		ByteBuffer buffer = concatenate(headerFrames);
+		int offset = DefaultMessageParser.findContentOffset(buffer);
+		
+		if (offset == -1) {
+			if (last == null || headerSize > MAX_HEADER_SIZE) {
+				LOG.debug("assembling message " + header.getMessageNumber() 
+						+ " without parsable header");
+				assemble();
+			}
+			return;
+		}
+		
+		ByteBuffer headerBuffer = buffer.duplicate();
+		headerBuffer.limit(offset);
+		Message message = parser.parse(headerBuffer);
+		
+		int channel = header.getChannel();
+		int messageNumber = header.getMessageNumber();
+		if (MessageType.MSG == header.getType()) {
+			contentHandler = handler.receiveMSGStart(channel, messageNumber, message);
+		} else {
+			contentHandler = handler.receiveRPYStart(channel, messageNumber, message);
+		}
+		
+		if (contentHandler == null) {
+			assemble();
+		} else {
+			LOG.debug("streaming message " + messageNumber + " on channel " + channel);
+			List<Frame> frames = headerFrames;
+			headerFrames = null;
+			buffer.position(offset);
+			deliver(buffer);
+			for (Frame frame : frames) {
+				frame.release();
+			}
+		}
+	}
+	
+	private void assemble() {
+		List<Frame> frames = headerFrames;
+		headerFrames = null;
+		assembling = last != null;
+		for (Frame frame : frames) {
+			assembler.handleFrame(frame);
+		}
+	}
+	
+	private void deliver(ByteBuffer content) {
+		MessageContentHandler target = contentHandler;
+		if (last == null) {
+			contentHandler = null;
+		}
+		if (content.hasRemaining()) {
+			target.contentReceived(content);
+		}
+		if (last == null) {
+			target.contentCompleted();
+		}
+	}
+	
+	private static ByteBuffer concatenate(List<Frame> frames) {
+		if (frames.size() == 1) {
+			return frames.get(0).getPayload().duplicate();
+		}
+		int size = 0;
+		for (Frame frame : frames) {
+			size += frame.getSize();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (Frame frame : frames) {
+			buffer.put(frame.getPayload().duplicate());
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/*
+	 * Validation of sequencing according to the BEEP specification section
+	 * 2.2.1.1. The message number and the keyword of a frame must match 
+	 * those of the previous frame if that one was intermediate.
+	 */
+	private void validateFrame(DataHeader header) {
+		if (last.getMessageNumber() != header.getMessageNumber()) {
+			throw new ProtocolException("message number for fragments does not match: was "
+					+ header.getMessageNumber() + ", should be " 
+					+ last.getMessageNumber());
+		}
+		if (last.getType() != header.getType()) {
+			throw new ProtocolException("header type does not match: expected "
+					+ last.getType() + " but was " + header.getType());
+		}
+	}
+	
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+
+/**
+ * Extension of the {@link MessageHandler} interface for processors that
+ * are able to receive messages while they arrive. The start of a message
+ * is announced as soon as its MIME headers have been received. The content
+ * is then passed to the returned {@link MessageContentHandler}.
+ * 
+ * @author Simon Raess
+ */
+public interface StreamingMessageHandler extends MessageHandler {
+	
+	/**
+	 * Determines whether the messages on the given channel should be 
+	 * streamed.
+	 * 
+	 * @param channelNumber the channel number
+	 * @return true iff messages on that channel should be streamed
+	 */
+	boolean isStreamingChannel(int channelNumber);
+	
+	/**
+	 * Receive the MIME headers of a MSG message.
+	 * 
+	 * @param channelNumber the channel number
+	 * @param messageNumber the message number
+	 * @param header a Message containing only the headers
+	 * @return the handler for the content or null if the message
+	 *         should be assembled and passed to 
+	 *         {@link #receiveMSG(int, int, Message)}
+	 */
+	MessageContentHandler receiveMSGStart(int channelNumber, int messageNumber, Message header);
+	
+	/**
+	 * Receive the MIME headers of a RPY message.
+	 * 
+	 * @param channelNumber the channel number
+	 * @param messageNumber the message number
+	 * @param header a Message containing only the headers
+	 * @return the handler for the content or null if the message
+	 *         should be assembled and passed to 
+	 *         {@link #receiveRPY(int, int, Message)}
+	 */
+	MessageContentHandler receiveRPYStart(int channelNumber, int messageNumber, Message header);
+	
+}
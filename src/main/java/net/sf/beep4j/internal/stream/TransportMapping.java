@@ -15,7 +15,7 @@
  */
 package net.sf.beep4j.internal.stream;
 
-
+import net.sf.beep4j.internal.ChannelSlot;
 
 /**
  * A TransportMapping implements a transport mapping as described by
@@ -51,20 +51,20 @@ public interface TransportMapping {
 	 * after the header has been parsed, but before the parsing of
 	 * the body has started.
 	 * 
-	 * @param channel the channel number of the message
+	 * @param slot the slot of the channel of the message
 	 * @param seqno the sequence number of the message
 	 * @param size the payload size of the message
 	 */
-	void checkFrame(int channel, long seqno, int size);
+	void checkFrame(ChannelSlot slot, long seqno, int size);
 	
 	/**
 	 * Invoked by the framework to notify the mapping that the parsing
 	 * of the message has completed.
 	 * 
-	 * @param channel the channel number of the message
+	 * @param slot the slot of the channel of the message
 	 * @param seqno the sequence number of the message
 	 * @param size the size of the message
 	 */
-	void frameReceived(int channel, long seqno, int size);
+	void frameReceived(ChannelSlot slot, long seqno, int size);
 		
 }
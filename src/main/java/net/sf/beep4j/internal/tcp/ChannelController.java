@@ -15,6 +15,8 @@
  */
 package net.sf.beep4j.internal.tcp;
 
+import java.nio.ByteBuffer;
+
 import net.sf.beep4j.Message;
 
 /**
@@ -84,6 +86,36 @@ public interface ChannelController {
 	 * @param message the Message to be sent
 	 */
 	void sendRPY(int messageNumber, Message message);
+	
+	/**
+	 * Sends a fragment of a streamed MSG message with the given messageNumber
+	 * on the channel of this controller. The first fragment starts the
+	 * message, the fragment with <var>last</var> set to true completes
+	 * it. While a streamed message is incomplete, all other messages sent
+	 * through this controller are queued. The controller owns the passed
+	 * in buffer afterwards.
+	 * 
+	 * @param messageNumber the message number of the message
+	 * @param buffer the content of the fragment
+	 * @param last whether this is the last fragment of the message
+	 */
+	void sendMSGFragment(int messageNumber, ByteBuffer buffer, boolean last);
+	
+	/**
+	 * Blocks the calling thread until all enqueued frames have been passed 
+	 * to the transport or the controller has been closed. Frames stay in 
+	 * the queue while the window of the remote peer is exhausted.
+	 * 
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	void awaitFramesSent() throws InterruptedException;
+	
+	/**
+	 * Closes the controller. Frames that have not been sent yet are
+	 * discarded and threads blocked in {@link #awaitFramesSent()} are
+	 * released.
+	 */
+	void close();
 
 	/**
 	 * <p>Validation of the sequence number according to the BEEP specification section
@@ -138,6 +170,18 @@ public interface ChannelController {
 		public void sendRPY(int messageNumber, Message message) {
 			// swallow
 		}
+		
+		public void sendMSGFragment(int messageNumber, ByteBuffer buffer, boolean last) {
+			// swallow
+		}
+		
+		public void awaitFramesSent() {
+			// nothing to wait for
+		}
+		
+		public void close() {
+			// swallow
+		}
 
 		public void updateSendWindow(long ackno, int size) {
 			// swallow
@@ -21,11 +21,14 @@ import java.util.LinkedList;
 
 import net.sf.beep4j.Message;
 import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.internal.message.FileRegionMessage;
 import net.sf.beep4j.internal.stream.DataHeader;
+import net.sf.beep4j.internal.stream.FileRegion;
 import net.sf.beep4j.internal.stream.Frame;
 import net.sf.beep4j.internal.stream.MessageType;
 import net.sf.beep4j.internal.stream.DataHeader.ANSHeader;
 import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.ReferenceCounting;
 import net.sf.beep4j.transport.Transport;
 
 import org.slf4j.Logger;
@@ -35,6 +38,20 @@ import org.slf4j.LoggerFactory;
  * Default implementation of the {@link ChannelController} interface for use
  * by the TCP mapping implementation.
  * 
+ * <p>Messages are framed by reference. The frames hold views of the 
+ * buffer returned by {@link Message#asByteBuffer()}, so that all frames
+ * of a pre-encoded message share one buffer. Only the frame headers are
+ * generated for each send.</p>
+ * 
+ * <p>Messages whose content is a region of a file are never loaded into 
+ * memory. Their frames reference the file and are read when they are
+ * sent, see {@link Frame#send(Transport)}.</p>
+ * 
+ * <p>Streamed MSG messages are sent fragment by fragment. While such a 
+ * message is incomplete, all other messages are held back, because
+ * frames of different messages must not be interleaved on a channel.
+ * They are framed when the last fragment has been enqueued.</p>
+ * 
  * @author Simon Raess
  */
 final class DefaultChannelController implements ChannelController {
@@ -53,10 +70,20 @@ final class DefaultChannelController implements ChannelController {
 	
 	private final LinkedList<Frame> frames = new LinkedList<Frame>();
 	
+	private final LinkedList<PendingMessage> pendingMessages = new LinkedList<PendingMessage>();
+	
 	private final Transport transport;
 	
 	private long seqno;
 	
+	/**
+	 * The message number of the streamed message that is currently sent
+	 * or -1 if there is none.
+	 */
+	private int streamedMessageNumber = -1;
+	
+	private boolean closed;
+	
 	public DefaultChannelController(Transport transport, int channel, int window) {
 		Assert.notNull("transport", transport);
 		this.transport = transport;
@@ -74,77 +101,145 @@ final class DefaultChannelController implements ChannelController {
 	public synchronized void sendANS(int messageNumber, int answerNumber, Message message) {
 		LOG.debug("sendANS to message " + messageNumber + " with answer number "
 				+ answerNumber + " on channel " + channel);
-		ByteBuffer buffer = message.asByteBuffer();
-		DataHeader header = new ANSHeader(
-				channel, messageNumber, false, 
-				seqno, 
-				buffer.remaining(), answerNumber);
-
-		seqno += buffer.remaining();
-		
-		Frame frame = new Frame(header, buffer);
-		enqueueFrame(frame);
+		submitMessage(MessageType.ANS, messageNumber, answerNumber, message);
 		sendFrames(transport);
 	}
 	
 	public synchronized void sendERR(int messageNumber, Message message) {
 		LOG.debug("sendERR to message " + messageNumber + " on channel " + channel);
-		ByteBuffer buffer = message.asByteBuffer();
-		DataHeader header = new DataHeader(
-				MessageType.ERR,
-				channel, messageNumber, false, 
-				seqno, buffer.remaining());
-		
-		seqno += buffer.remaining();
-		
-		Frame frame = new Frame(header, buffer);
-		enqueueFrame(frame);
+		submitMessage(MessageType.ERR, messageNumber, -1, message);
 		sendFrames(transport);
 	}
 	
 	public synchronized void sendMSG(int messageNumber, Message message) {
 		LOG.debug("sendMSG with message number " + messageNumber + " on channel " + channel);
-		ByteBuffer buffer = message.asByteBuffer();
-		DataHeader header = new DataHeader(
-				MessageType.MSG,
-				channel, messageNumber, false, 
-				seqno, buffer.remaining());
-		
-		seqno += buffer.remaining();
-		
-		Frame frame = new Frame(header, buffer);
-		enqueueFrame(frame);
+		submitMessage(MessageType.MSG, messageNumber, -1, message);
 		sendFrames(transport);
 	}
 	
 	public synchronized void sendNUL(int messageNumber) {
 		LOG.debug("sendNUL to message " + messageNumber + " on channel " + channel);
-		DataHeader header = new DataHeader(
-				MessageType.NUL,
-				channel, messageNumber, false, 
-				seqno, 0);
-		
-		Frame frame = new Frame(header, ByteBuffer.allocate(0));
-		enqueueFrame(frame);
+		submitMessage(MessageType.NUL, messageNumber, -1, null);
 		sendFrames(transport);
 	}
 	
 	public synchronized void sendRPY(int messageNumber, Message message) {
 		LOG.debug("sendRPY to message " + messageNumber + " on channel " + channel);
-		ByteBuffer buffer = message.asByteBuffer();
-		DataHeader header = new DataHeader(
-				MessageType.RPY,
-				channel, messageNumber, false, 
-				seqno, buffer.remaining());
-		
-		seqno += buffer.remaining();
-		
-		Frame frame = new Frame(header, buffer);
-		enqueueFrame(frame);
+		submitMessage(MessageType.RPY, messageNumber, -1, message);
 		int count = sendFrames(transport);
 		LOG.debug("sendRPY caused " + count + " frames to be sent");
 	}
 	
+	public synchronized void sendMSGFragment(int messageNumber, ByteBuffer buffer, boolean last) {
+		LOG.debug("sendMSGFragment with message number " + messageNumber 
+				+ " on channel " + channel + " (last=" + last + ")");
+		if (streamedMessageNumber != -1 && streamedMessageNumber != messageNumber) {
+			throw new IllegalStateException("message " + streamedMessageNumber 
+					+ " is still being streamed on channel " + channel);
+		}
+		
+		DataHeader header = createHeader(MessageType.MSG, messageNumber, -1, !last, buffer.remaining());
+		enqueueFrame(new Frame(header, buffer));
+		
+		if (last) {
+			streamedMessageNumber = -1;
+			while (!pendingMessages.isEmpty()) {
+				PendingMessage pending = pendingMessages.removeFirst();
+				enqueueMessage(pending.type, pending.messageNumber, pending.answerNumber, pending.message);
+			}
+		} else {
+			streamedMessageNumber = messageNumber;
+		}
+		
+		sendFrames(transport);
+	}
+	
+	public synchronized void awaitFramesSent() throws InterruptedException {
+		while (!closed && !frames.isEmpty()) {
+			wait();
+		}
+	}
+	
+	public synchronized void close() {
+		closed = true;
+		for (Frame frame : frames) {
+			frame.release();
+		}
+		frames.clear();
+		for (PendingMessage pending : pendingMessages) {
+			ReferenceCounting.release(pending.message);
+		}
+		pendingMessages.clear();
+		notifyAll();
+	}
+	
+	/*
+	 * Enqueues the given message unless a streamed message is incomplete.
+	 * In that case, the message is held back until the streamed message
+	 * is complete. The message is retained until its frames have been sent.
+	 */
+	private void submitMessage(MessageType type, int messageNumber, int answerNumber, Message message) {
+		ReferenceCounting.retain(message);
+		if (streamedMessageNumber != -1) {
+			pendingMessages.addLast(new PendingMessage(type, messageNumber, answerNumber, message));
+		} else {
+			enqueueMessage(type, messageNumber, answerNumber, message);
+		}
+	}
+	
+	/*
+	 * Creates the header of the next frame and advances the sequence 
+	 * number by the given size.
+	 */
+	private DataHeader createHeader(MessageType type, int messageNumber, int answerNumber, 
+			boolean intermediate, int size) {
+		DataHeader header;
+		if (MessageType.ANS == type) {
+			header = new ANSHeader(channel, messageNumber, intermediate, seqno, size, answerNumber);
+		} else {
+			header = new DataHeader(type, channel, messageNumber, intermediate, seqno, size);
+		}
+		seqno += size;
+		return header;
+	}
+	
+	/*
+	 * Enqueues the frames of the given message. Messages with content from a 
+	 * file are sent as a frame with the MIME header followed by frames 
+	 * referencing the file. All other messages are enqueued as a single 
+	 * frame, which is split later according to the send window. NUL 
+	 * messages have no message and are sent as an empty frame.
+	 */
+	private void enqueueMessage(MessageType type, int messageNumber, int answerNumber, Message message) {
+		if (message == null) {
+			DataHeader header = createHeader(type, messageNumber, answerNumber, false, 0);
+			enqueueFrame(new Frame(header, ByteBuffer.allocate(0)));
+		} else if (message instanceof FileRegionMessage) {
+			FileRegionMessage fileMessage = (FileRegionMessage) message;
+			ByteBuffer buffer = fileMessage.getEncodedHeader();
+			long position = fileMessage.getPosition();
+			long remaining = fileMessage.getLength();
+			
+			DataHeader header = createHeader(type, messageNumber, answerNumber, 
+					remaining > 0, buffer.remaining());
+			enqueueFrame(new Frame(header, buffer));
+			
+			while (remaining > 0) {
+				int size = (int) Math.min(remaining, Integer.MAX_VALUE);
+				remaining -= size;
+				header = createHeader(type, messageNumber, answerNumber, remaining > 0, size);
+				FileRegion region = new FileRegion(fileMessage.getFileChannel(), position, size);
+				enqueueFrame(new Frame(header, region));
+				position += size;
+			}
+		} else {
+			ByteBuffer buffer = message.asByteBuffer();
+			DataHeader header = createHeader(type, messageNumber, answerNumber, 
+					false, buffer.remaining());
+			enqueueFrame(new Frame(header, buffer, ReferenceCounting.releaser(message)));
+		}
+	}
+	
 	long id;
 	
 	public synchronized void checkFrame(long seqno, int payloadSize) {
@@ -202,10 +297,15 @@ final class DefaultChannelController implements ChannelController {
 			LOG.debug("send frame " + frame.getHeader());
 			senderWindow.moveBy(frame.getSize());
 			frame.send(transport);
+			frame.release();
 			LOG.debug("sender window = " + senderWindow);
 			count++;
 		}
 		
+		if (frames.isEmpty()) {
+			notifyAll();
+		}
+		
 		return count;
 	}
 	
@@ -234,4 +334,20 @@ final class DefaultChannelController implements ChannelController {
 		}
 	}
 	
+	/*
+	 * A message held back while a streamed message is sent.
+	 */
+	private static final class PendingMessage {
+		private final MessageType type;
+		private final int messageNumber;
+		private final int answerNumber;
+		private final Message message;
+		private PendingMessage(MessageType type, int messageNumber, int answerNumber, Message message) {
+			this.type = type;
+			this.messageNumber = messageNumber;
+			this.answerNumber = answerNumber;
+			this.message = message;
+		}
+	}
+	
 }
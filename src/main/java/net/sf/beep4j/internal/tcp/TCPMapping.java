@@ -15,14 +15,17 @@
  */
 package net.sf.beep4j.internal.tcp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import net.sf.beep4j.Message;
 import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.internal.ChannelSlot;
+import net.sf.beep4j.internal.ChannelSlots;
 import net.sf.beep4j.internal.stream.BeepStream;
 import net.sf.beep4j.internal.stream.TransportMapping;
 import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.transport.DeflatingTransport;
 import net.sf.beep4j.transport.Transport;
 
 /**
@@ -41,8 +44,12 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	
 	private final int bufferSize;
 	
-	private final Map<Integer, ChannelController> channels = 
-			new HashMap<Integer, ChannelController>();
+	/**
+	 * The slots holding the ChannelControllers of the open channels. They are
+	 * shared with the other components of the session. Received frames pass
+	 * in the slot resolved by the parser.
+	 */
+	private final ChannelSlots slots;
 	
 	/**
 	 * Whether the transport has been closed.
@@ -50,7 +57,18 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	private boolean closed;
 	
 	public TCPMapping(Transport transport) {
-		this(transport, null);
+		this(transport, new ChannelSlots());
+	}
+	
+	/**
+	 * Creates a new TCPMapping that keeps its ChannelControllers in the
+	 * given slots.
+	 * 
+	 * @param transport the transport to send the frames to
+	 * @param slots the slots shared by the components of the session
+	 */
+	public TCPMapping(Transport transport, ChannelSlots slots) {
+		this(transport, null, DEFAULT_BUFFER_SIZE, slots);
 	}
 	
 	public TCPMapping(Transport transport, ChannelControllerFactory factory) {
@@ -58,10 +76,17 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	}
 	
 	public TCPMapping(Transport transport, ChannelControllerFactory factory, int bufferSize) {
+		this(transport, factory, bufferSize, new ChannelSlots());
+	}
+	
+	public TCPMapping(Transport transport, ChannelControllerFactory factory, int bufferSize, 
+			ChannelSlots slots) {
 		Assert.notNull("transport", transport);
+		Assert.notNull("slots", slots);
 		this.transport = transport;
 		this.factory = factory != null ? factory : this;
 		this.bufferSize = bufferSize;
+		this.slots = slots;
 	}
 	
 	/**
@@ -76,16 +101,26 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	// --> start of SessionListener methods <--
 	
 	public synchronized void channelStarted(int channelNumber) {
-		if (channels.containsKey(channelNumber)) {
+		ChannelSlot slot = slots.open(channelNumber);
+		if (slot.getController() != null) {
 			throw new IllegalArgumentException("there is already a channel for channel number: " 
 					+ channelNumber);
 		}
 		ChannelController controller = factory.createChannelController(channelNumber, transport);
-		channels.put(channelNumber, controller);
+		slot.setController(controller != null ? controller : ChannelController.NULL);
 	}
 	
 	public synchronized void channelClosed(int channelNumber) {
-		channels.remove(channelNumber);
+		ChannelSlot slot = slots.get(channelNumber);
+		if (slot == null) {
+			return;
+		}
+		ChannelController controller = slot.getController();
+		slot.setController(null);
+		slots.release(slot);
+		if (controller != null) {
+			controller.close();
+		}
 	}
 	
 	// --> end of SessionListener methods <--
@@ -99,8 +134,9 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	 * @return the ChannelController for the given channel
 	 * @throws ProtocolException if the given channel is not open
 	 */
-	protected synchronized ChannelController getChannelController(int channel) {
-		ChannelController controller = channels.get(new Integer(channel));
+	protected ChannelController getChannelController(int channel) {
+		ChannelSlot slot = slots.get(channel);
+		ChannelController controller = slot != null ? slot.getController() : null;
 		if (controller == null) {
 			throw new ProtocolException("unknown channel: " + channel);
 		}
@@ -109,7 +145,7 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	
 	/**
 	 * Gets the existing ChannelController or a special NullChannelController if
-	 * no such channel exists. This method has to be used by {@link #frameReceived(int, long, int)}
+	 * no such channel exists. This method has to be used by {@link #frameReceived(ChannelSlot, long, int)}
 	 * because that method might be called after {@link #channelClosed(int)} has
 	 * been called for that channel. This can happen only if the close channel
 	 * request is not accepted right away, because the local peer still awaits
@@ -124,14 +160,22 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	 * @param channel
 	 * @return a ChannelController for that channel
 	 */
-	protected synchronized ChannelController lenientGetChannelController(int channel) {
-		ChannelController controller = channels.get(new Integer(channel));
-		
-		if (controller == null) {
-			controller = ChannelController.NULL;
-		}
-
-		return controller;
+	protected ChannelController lenientGetChannelController(int channel) {
+		ChannelSlot slot = slots.get(channel);
+		return slot != null ? lenientGetChannelController(slot) : ChannelController.NULL;
+	}
+	
+	/**
+	 * Gets the ChannelController held by the given slot or a NullChannelController
+	 * if the channel has been closed in the meantime.
+	 * 
+	 * @param slot the slot of the channel
+	 * @return a ChannelController for that channel
+	 * @see #lenientGetChannelController(int)
+	 */
+	protected ChannelController lenientGetChannelController(ChannelSlot slot) {
+		ChannelController controller = slot.getController();
+		return controller != null ? controller : ChannelController.NULL;
 	}
 
 	
@@ -146,12 +190,16 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 	
 	// --> start of TransportMapping methods <--
 	
-	public void checkFrame(int channel, long seqno, int size) {
-		getChannelController(channel).checkFrame(seqno, size);
+	public void checkFrame(ChannelSlot slot, long seqno, int size) {
+		ChannelController controller = slot.getController();
+		if (controller == null) {
+			throw new ProtocolException("unknown channel: " + slot.getChannelNumber());
+		}
+		controller.checkFrame(seqno, size);
 	}
 	
-	public void frameReceived(int channel, long seqno, int size) {
-		lenientGetChannelController(channel).frameReceived(seqno, size);
+	public void frameReceived(ChannelSlot slot, long seqno, int size) {
+		lenientGetChannelController(slot).frameReceived(seqno, size);
 	}
 
 	public void processMappingFrame(String[] tokens) {
@@ -193,9 +241,36 @@ public class TCPMapping implements TransportMapping, BeepStream, ChannelControll
 		getChannelController(channel).sendRPY(messageNumber, message);
 	}
 	
+	public void sendMSGFragment(int channel, int messageNumber, ByteBuffer buffer, boolean last) {
+		getChannelController(channel).sendMSGFragment(messageNumber, buffer, last);
+	}
+	
+	public void awaitFramesSent(int channel) throws InterruptedException {
+		lenientGetChannelController(channel).awaitFramesSent();
+	}
+	
+	public boolean isCompressionSupported() {
+		return transport instanceof DeflatingTransport;
+	}
+	
+	public void startCompression() {
+		if (!isCompressionSupported()) {
+			throw new IllegalStateException("transport does not support compression");
+		}
+		((DeflatingTransport) transport).startCompression();
+	}
+	
 	public void closeTransport() {
 		transport.closeTransport();
 		closed = true;
+		
+		List<ChannelSlot> open = slots.values();
+		for (ChannelSlot slot : open) {
+			ChannelController controller = slot.getController();
+			if (controller != null) {
+				controller.close();
+			}
+		}
 	}
 	
 	// --> end of BeepStream methods <--
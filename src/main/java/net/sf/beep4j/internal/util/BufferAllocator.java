@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates the buffers holding received frames and messages.
+ * In direct mode, buffers are allocated outside the Java heap so that
+ * long-queued messages do not fill up the old generation. Direct buffers
+ * are freed deterministically when the frame or message owning them is 
+ * released (see {@link net.sf.beep4j.ReferenceCounted}). The direct memory
+ * in use is limited by a hard cap. Allocations exceeding the cap are served
+ * from the heap.
+ * 
+ * <p>The shared instance is configured through the system properties
+ * {@value #DIRECT_PROPERTY} (true to enable direct mode) and 
+ * {@value #LIMIT_PROPERTY} (the cap in bytes, 64 MB by default) or 
+ * replaced with {@link #setInstance(BufferAllocator)}.</p>
+ * 
+ * <p>A direct buffer must not be accessed after it has been freed. Handlers
+ * must therefore retain received messages they keep after their callback
+ * returns.</p>
+ * 
+ * <p>Outgoing messages are framed by reference and nothing releases them
+ * once they have been sent, so they are always allocated by 
+ * {@link #HEAP}.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class BufferAllocator {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(BufferAllocator.class);
+	
+	/**
+	 * The system property enabling direct mode for the shared instance.
+	 */
+	public static final String DIRECT_PROPERTY = "net.sf.beep4j.directBuffers";
+	
+	/**
+	 * The system property specifying the cap of the shared instance.
+	 */
+	public static final String LIMIT_PROPERTY = "net.sf.beep4j.directBufferLimit";
+	
+	private static final long DEFAULT_LIMIT = 64 * 1024 * 1024;
+	
+	/**
+	 * An allocator that always allocates buffers on the heap.
+	 */
+	public static final BufferAllocator HEAP = new BufferAllocator(false, 0);
+	
+	private static volatile BufferAllocator instance = new BufferAllocator(
+			Boolean.getBoolean(DIRECT_PROPERTY), Long.getLong(LIMIT_PROPERTY, DEFAULT_LIMIT));
+	
+	private static final Cleaner CLEANER = Cleaner.create();
+	
+	private final boolean direct;
+	
+	private final long limit;
+	
+	private final AtomicLong used = new AtomicLong();
+	
+	/**
+	 * Creates a new BufferAllocator.
+	 * 
+	 * @param direct whether buffers are allocated outside the heap
+	 * @param limit the maximum number of bytes in direct buffers
+	 */
+	public BufferAllocator(boolean direct, long limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must be >= 0");
+		}
+		this.direct = direct;
+		this.limit = limit;
+	}
+	
+	/**
+	 * Gets the shared instance.
+	 * 
+	 * @return the shared BufferAllocator
+	 */
+	public static BufferAllocator getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Replaces the shared instance. Buffers that were allocated by the 
+	 * previous instance are still freed by that instance.
+	 * 
+	 * @param allocator the new shared instance
+	 */
+	public static void setInstance(BufferAllocator allocator) {
+		Assert.notNull("allocator", allocator);
+		instance = allocator;
+	}
+	
+	public boolean isDirect() {
+		return direct;
+	}
+	
+	/**
+	 * Gets the number of bytes currently allocated in direct buffers.
+	 * 
+	 * @return the direct memory in use
+	 */
+	public long getDirectMemoryUsed() {
+		return used.get();
+	}
+	
+	/**
+	 * Allocates a buffer of the given capacity.
+	 * 
+	 * @param capacity the capacity of the buffer
+	 * @return a direct buffer in direct mode unless the cap is reached,
+	 *         a heap buffer otherwise
+	 */
+	public ByteBuffer allocate(int capacity) {
+		if (direct && capacity > 0 && reserve(capacity)) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+		return ByteBuffer.allocate(capacity);
+	}
+	
+	private boolean reserve(int capacity) {
+		for (;;) {
+			long current = used.get();
+			if (current + capacity > limit) {
+				LOG.debug("direct buffer limit reached, allocating " + capacity + " bytes on heap");
+				return false;
+			}
+			if (used.compareAndSet(current, current + capacity)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Frees a buffer allocated by this allocator. Heap buffers are left 
+	 * to the garbage collector.
+	 * 
+	 * @param buffer the buffer returned by {@link #allocate(int)}
+	 */
+	public void free(ByteBuffer buffer) {
+		if (buffer.isDirect()) {
+			used.addAndGet(-buffer.capacity());
+			CLEANER.clean(buffer);
+		}
+	}
+	
+	/**
+	 * Creates a deallocator for a {@link ReferenceCounter} that frees
+	 * the given buffer.
+	 * 
+	 * @param buffer the buffer returned by {@link #allocate(int)}
+	 * @return the deallocator or null if there is nothing to free
+	 */
+	public Runnable deallocator(final ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			return null;
+		}
+		return new Runnable() {
+			public void run() {
+				free(buffer);
+			}
+		};
+	}
+	
+	/**
+	 * Releases the native memory of direct buffers without waiting for the 
+	 * garbage collector. The JDK does not offer a public API for that, 
+	 * so the available internal API is looked up at runtime. If none is 
+	 * available, the memory is freed by the garbage collector.
+	 */
+	private static abstract class Cleaner {
+		
+		abstract void clean(ByteBuffer buffer);
+		
+		static Cleaner create() {
+			try {
+				// Java 9 and later
+				Class<?> type = Class.forName("sun.misc.Unsafe");
+				final Method method = type.getMethod("invokeCleaner", ByteBuffer.class);
+				Field field = type.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				final Object unsafe = field.get(null);
+				return new Cleaner() {
+					@Override
+					void clean(ByteBuffer buffer) {
+						invoke(method, unsafe, buffer);
+					}
+				};
+			} catch (Exception e) {
+				// fall through
+			}
+			try {
+				// Java 5 to 8
+				final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+				return new Cleaner() {
+					@Override
+					void clean(ByteBuffer buffer) {
+						invoke(clean, invoke(cleaner, buffer));
+					}
+				};
+			} catch (Exception e) {
+				LOG.debug("direct buffers cannot be freed explicitly", e);
+			}
+			return new Cleaner() {
+				@Override
+				void clean(ByteBuffer buffer) {
+					// left to the garbage collector
+				}
+			};
+		}
+		
+		private static Object invoke(Method method, Object target, Object... args) {
+			try {
+				return method.invoke(target, args);
+			} catch (Exception e) {
+				throw new IllegalStateException("cannot free direct buffer", e);
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of heap buffers of a fixed size for outgoing messages. A buffer
+ * is returned to the pool by the deallocator of the message owning it,
+ * that is, when the message has been released and all its frames have
+ * been written (see {@link net.sf.beep4j.ReferenceCounted}). Buffers of
+ * messages that are never released are simply garbage collected.
+ * 
+ * <p>Requests larger than the buffer size are served by new buffers,
+ * which are not pooled.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class BufferPool {
+	
+	private final int bufferSize;
+	
+	private final int maxPooled;
+	
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	
+	private final AtomicInteger pooled = new AtomicInteger();
+	
+	/**
+	 * Creates a new BufferPool.
+	 * 
+	 * @param bufferSize the capacity of the pooled buffers
+	 * @param maxPooled the maximum number of idle buffers kept in the pool
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be > 0");
+		}
+		if (maxPooled < 0) {
+			throw new IllegalArgumentException("maxPooled must be >= 0");
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Gets the number of idle buffers in the pool.
+	 * 
+	 * @return the number of pooled buffers
+	 */
+	public int getPooledCount() {
+		return pooled.get();
+	}
+	
+	/**
+	 * Allocates a buffer for the given number of bytes. The limit of the
+	 * returned buffer is the requested capacity.
+	 * 
+	 * @param capacity the number of bytes needed
+	 * @return a pooled buffer if the capacity fits, a new buffer otherwise
+	 */
+	public ByteBuffer allocate(int capacity) {
+		if (capacity > bufferSize) {
+			return ByteBuffer.allocate(capacity);
+		}
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(bufferSize);
+		} else {
+			pooled.decrementAndGet();
+		}
+		buffer.clear();
+		buffer.limit(capacity);
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer obtained from {@link #allocate(int)} to the pool.
+	 * The buffer must not be used afterwards.
+	 * 
+	 * @param buffer the buffer
+	 */
+	public void free(ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize) {
+			return;
+		}
+		if (pooled.incrementAndGet() <= maxPooled) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Creates a deallocator for a {@link ReferenceCounter} that returns
+	 * the given buffer to the pool.
+	 * 
+	 * @param buffer the buffer returned by {@link #allocate(int)}
+	 * @return the deallocator or null if the buffer is not pooled
+	 */
+	public Runnable deallocator(final ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize) {
+			return null;
+		}
+		return new Runnable() {
+			public void run() {
+				free(buffer);
+			}
+		};
+	}
+	
+}
@@ -0,0 +1,258 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table mapping channel numbers to objects without boxing the channel
+ * numbers. Channel numbers below {@link #DENSE_LIMIT} are stored in an
+ * array indexed by the channel number, larger ones in an open addressing
+ * hash table with linear probing.
+ *
+ * <p>The table is looked up for every frame, but changes only when a
+ * channel is started or closed. Therefore, modifications copy the
+ * affected array and publish the copy, while lookups read the published
+ * arrays without any locking.</p>
+ *
+ * @param <T> the type of the stored objects
+ * @author Simon Raess
+ */
+public final class ChannelTable<T> {
+	
+	/**
+	 * Channel numbers below this limit are stored in the dense array.
+	 */
+	static final int DENSE_LIMIT = 256;
+	
+	private static final int INITIAL_DENSE_SIZE = 8;
+	
+	private static final int INITIAL_SPARSE_SIZE = 8;
+	
+	/**
+	 * The objects of the channels below DENSE_LIMIT, indexed by
+	 * channel number.
+	 */
+	private volatile Object[] dense = new Object[INITIAL_DENSE_SIZE];
+	
+	/**
+	 * The objects of the channels from DENSE_LIMIT upwards or null.
+	 */
+	private volatile Sparse sparse;
+	
+	private volatile int size;
+	
+	/**
+	 * Gets the object of the given channel.
+	 * 
+	 * @param channelNumber the channel number
+	 * @return the object or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int channelNumber) {
+		if (channelNumber < 0) {
+			return null;
+		} else if (channelNumber < DENSE_LIMIT) {
+			Object[] values = dense;
+			return channelNumber < values.length ? (T) values[channelNumber] : null;
+		} else {
+			Sparse table = sparse;
+			return table != null ? (T) table.get(channelNumber) : null;
+		}
+	}
+	
+	/**
+	 * Determines whether there is an object for the given channel.
+	 * 
+	 * @param channelNumber the channel number
+	 * @return true iff there is an object for the channel
+	 */
+	public boolean containsKey(int channelNumber) {
+		return get(channelNumber) != null;
+	}
+	
+	/**
+	 * Gets the number of channels in this table.
+	 * 
+	 * @return the number of channels
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Puts the object of the given channel into the table.
+	 * 
+	 * @param channelNumber the channel number
+	 * @param value the object, must not be null
+	 * @return the previous object of the channel or null
+	 */
+	public synchronized T put(int channelNumber, T value) {
+		Assert.notNull("value", value);
+		if (channelNumber < 0) {
+			throw new IllegalArgumentException("channel number must be >= 0: " + channelNumber);
+		}
+		T previous = get(channelNumber);
+		if (channelNumber < DENSE_LIMIT) {
+			Object[] values = dense;
+			int length = values.length;
+			while (length <= channelNumber) {
+				length <<= 1;
+			}
+			Object[] copy = new Object[Math.min(length, DENSE_LIMIT)];
+			System.arraycopy(values, 0, copy, 0, values.length);
+			copy[channelNumber] = value;
+			dense = copy;
+		} else {
+			Sparse table = sparse;
+			sparse = table != null ? table.with(channelNumber, value) : Sparse.of(channelNumber, value);
+		}
+		if (previous == null) {
+			size++;
+		}
+		return previous;
+	}
+	
+	/**
+	 * Removes the object of the given channel.
+	 * 
+	 * @param channelNumber the channel number
+	 * @return the removed object or null if there was none
+	 */
+	public synchronized T remove(int channelNumber) {
+		T previous = get(channelNumber);
+		if (previous == null) {
+			return null;
+		}
+		if (channelNumber < DENSE_LIMIT) {
+			Object[] copy = dense.clone();
+			copy[channelNumber] = null;
+			dense = copy;
+		} else {
+			sparse = sparse.without(channelNumber);
+		}
+		size--;
+		return previous;
+	}
+	
+	/**
+	 * Gets a snapshot of the objects in this table.
+	 * 
+	 * @return the objects of all channels
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> values() {
+		List<T> result = new ArrayList<T>(size);
+		for (Object value : dense) {
+			if (value != null) {
+				result.add((T) value);
+			}
+		}
+		Sparse table = sparse;
+		if (table != null) {
+			for (Object value : table.values) {
+				if (value != null) {
+					result.add((T) value);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Immutable open addressing hash table. Key 0 marks an empty slot, 
+	 * which is never a valid key because only channel numbers from
+	 * DENSE_LIMIT upwards are stored.
+	 */
+	private static final class Sparse {
+		
+		private final int[] keys;
+		
+		private final Object[] values;
+		
+		private final int count;
+		
+		private Sparse(int capacity, int count) {
+			this.keys = new int[capacity];
+			this.values = new Object[capacity];
+			this.count = count;
+		}
+		
+		private static Sparse of(int key, Object value) {
+			Sparse table = new Sparse(INITIAL_SPARSE_SIZE, 1);
+			table.insert(key, value);
+			return table;
+		}
+		
+		private static int hash(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+		
+		Object get(int key) {
+			int mask = keys.length - 1;
+			for (int i = hash(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+		
+		/*
+		 * Only used while a new table is filled.
+		 */
+		private void insert(int key, Object value) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (keys[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+		
+		Sparse with(int key, Object value) {
+			int count = get(key) != null ? this.count : this.count + 1;
+			int capacity = keys.length;
+			while (count * 2 > capacity) {
+				capacity <<= 1;
+			}
+			return copy(capacity, count, 0).put(key, value);
+		}
+		
+		Sparse without(int key) {
+			return count == 1 ? null : copy(keys.length, count - 1, key);
+		}
+		
+		private Sparse put(int key, Object value) {
+			insert(key, value);
+			return this;
+		}
+		
+		private Sparse copy(int capacity, int count, int excluded) {
+			Sparse table = new Sparse(capacity, count);
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != 0 && keys[i] != excluded) {
+					table.insert(keys[i], values[i]);
+				}
+			}
+			return table;
+		}
+	}
+
+}
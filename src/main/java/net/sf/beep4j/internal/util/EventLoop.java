@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An Executor that runs all tasks on a single thread, the event loop
+ * thread. State that is only accessed from the event loop thread needs
+ * no locking. Other threads pass their work to the loop through
+ * {@link #execute(Runnable)}. Tasks are run in the order they have been
+ * submitted.
+ * 
+ * @author Simon Raess
+ */
+public interface EventLoop extends Executor {
+	
+	/**
+	 * Determines whether the current thread is the event loop thread.
+	 * 
+	 * @return true iff called from the event loop thread
+	 */
+	boolean inEventLoop();
+	
+}
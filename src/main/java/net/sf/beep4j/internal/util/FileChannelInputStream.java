@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * InputStream implementation that reads a region of a FileChannel. The 
+ * stream uses positional reads, that is, the position of the channel 
+ * is never modified. Several streams can thus read from the same 
+ * channel concurrently.
+ * 
+ * @author Simon Raess
+ */
+public class FileChannelInputStream extends InputStream {
+	
+	private final FileChannel channel;
+	
+	private final long end;
+	
+	private long position;
+	
+	private long mark;
+	
+	private boolean closed;
+	
+	/**
+	 * Creates a new FileChannelInputStream reading <var>length</var> bytes
+	 * starting at <var>position</var>.
+	 * 
+	 * @param channel the channel to read from
+	 * @param position the position of the first byte
+	 * @param length the number of bytes to read
+	 */
+	public FileChannelInputStream(FileChannel channel, long position, long length) {
+		Assert.notNull("channel", channel);
+		this.channel = channel;
+		this.position = position;
+		this.mark = position;
+		this.end = position + length;
+	}
+	
+	private void checkClosed() throws IOException {
+		if (closed) {
+			throw new IOException("stream is closed");
+		}
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	@Override
+	public synchronized void mark(int readlimit) {
+		mark = position;
+	}
+	
+	@Override
+	public synchronized void reset() throws IOException {
+		checkClosed();
+		position = mark;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int count = read(b, 0, 1);
+		return count == -1 ? -1 : b[0] & 0xff;
+	}
+	
+	@Override
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		if (position >= end) {
+			return -1;
+		} else if (len == 0) {
+			return 0;
+		}
+		int count = (int) Math.min(len, end - position);
+		int read = channel.read(ByteBuffer.wrap(b, off, count), position);
+		if (read == -1) {
+			return -1;
+		}
+		position += read;
+		return read;
+	}
+	
+	@Override
+	public synchronized long skip(long n) throws IOException {
+		checkClosed();
+		long count = Math.max(0, Math.min(n, end - position));
+		position += count;
+		return count;
+	}
+	
+	@Override
+	public synchronized int available() throws IOException {
+		checkClosed();
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		closed = true;
+	}
+	
+}
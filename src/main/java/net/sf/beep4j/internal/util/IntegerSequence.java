@@ -15,6 +15,13 @@
  */
 package net.sf.beep4j.internal.util;
 
+/**
+ * Sequence of integers. This class is not thread-safe. The owner of a
+ * sequence guards it with its own lock or confines it to a single 
+ * thread.
+ * 
+ * @author Simon Raess
+ */
 public class IntegerSequence implements Sequence<Integer> {
 	
 	private final int increment;
@@ -34,7 +41,7 @@ public class IntegerSequence implements Sequence<Integer> {
 		this.increment = increment;
 	}
 	
-	public synchronized Integer next() {
+	public Integer next() {
 		int result = value;
 		value += increment;
 		value  = value < 0 ? 0 : value;
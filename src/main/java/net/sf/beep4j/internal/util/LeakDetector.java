@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Debugging aid that reports reference counted objects which have been 
+ * garbage collected without being released. The allocation site of every
+ * tracked object is recorded and logged together with the leak. Leaks are
+ * detected whenever a new object is tracked or {@link #reportLeaks()} is
+ * called.
+ * 
+ * <p>The shared instance is disabled unless the system property
+ * {@value #ENABLED_PROPERTY} is set to true, because recording the 
+ * allocation site is expensive.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class LeakDetector {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(LeakDetector.class);
+	
+	/**
+	 * The system property enabling the shared instance.
+	 */
+	public static final String ENABLED_PROPERTY = "net.sf.beep4j.leakDetection";
+	
+	private static final LeakDetector INSTANCE = new LeakDetector(Boolean.getBoolean(ENABLED_PROPERTY));
+	
+	private final boolean enabled;
+	
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	
+	private final Set<Tracker> trackers = Collections.synchronizedSet(new HashSet<Tracker>());
+	
+	public LeakDetector(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Gets the shared instance.
+	 * 
+	 * @return the shared LeakDetector
+	 */
+	public static LeakDetector getInstance() {
+		return INSTANCE;
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Starts tracking the given object.
+	 * 
+	 * @param owner the object to track
+	 * @return the tracker or null if this detector is disabled
+	 */
+	public Tracker track(Object owner) {
+		if (!enabled) {
+			return null;
+		}
+		reportLeaks();
+		Tracker tracker = new Tracker(owner);
+		trackers.add(tracker);
+		return tracker;
+	}
+	
+	/**
+	 * Reports all tracked objects that have been garbage collected without
+	 * being released.
+	 * 
+	 * @return the number of leaks reported
+	 */
+	public int reportLeaks() {
+		int leaks = 0;
+		Tracker tracker;
+		while ((tracker = (Tracker) queue.poll()) != null) {
+			if (trackers.remove(tracker)) {
+				LOG.error("LEAK: " + tracker.type + " was garbage collected before "
+						+ "it was released, allocation site follows", tracker.allocationSite);
+				leaks++;
+			}
+		}
+		return leaks;
+	}
+	
+	/**
+	 * Handle of a tracked object. It is closed once the object
+	 * has been released.
+	 */
+	public final class Tracker extends WeakReference<Object> {
+		
+		private final String type;
+		
+		private final Throwable allocationSite;
+		
+		private Tracker(Object owner) {
+			super(owner, queue);
+			this.type = owner.getClass().getName();
+			this.allocationSite = new Throwable("allocation site of " + type);
+		}
+		
+		/**
+		 * Stops tracking the object.
+		 */
+		public void close() {
+			trackers.remove(this);
+			clear();
+		}
+		
+	}
+	
+}
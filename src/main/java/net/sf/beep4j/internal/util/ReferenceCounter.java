@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.beep4j.ReferenceCounted;
+
+/**
+ * Reusable implementation of the {@link ReferenceCounted} contract. Classes 
+ * implementing ReferenceCounted delegate to an instance of this class.
+ * An optional deallocator is run when the count drops to 0.
+ * 
+ * @author Simon Raess
+ */
+public final class ReferenceCounter implements ReferenceCounted {
+	
+	private final AtomicInteger count = new AtomicInteger(1);
+	
+	private final Runnable deallocator;
+	
+	private volatile LeakDetector.Tracker tracker;
+	
+	public ReferenceCounter() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a new ReferenceCounter with a count of 1.
+	 * 
+	 * @param deallocator the action freeing the buffers, may be null
+	 */
+	public ReferenceCounter(Runnable deallocator) {
+		this.deallocator = deallocator;
+	}
+	
+	/**
+	 * Registers the owner of this counter with the given LeakDetector. The
+	 * owner is reported as leaked if it is garbage collected before the
+	 * count has dropped to 0.
+	 * 
+	 * @param owner the object owning this counter
+	 * @param detector the detector to register with
+	 */
+	public void track(Object owner, LeakDetector detector) {
+		tracker = detector.track(owner);
+	}
+	
+	public int getReferenceCount() {
+		return count.get();
+	}
+	
+	public void retain() {
+		for (;;) {
+			int current = count.get();
+			if (current <= 0) {
+				throw new IllegalStateException("object has already been released");
+			}
+			if (count.compareAndSet(current, current + 1)) {
+				return;
+			}
+		}
+	}
+	
+	public boolean release() {
+		for (;;) {
+			int current = count.get();
+			if (current <= 0) {
+				throw new IllegalStateException("object has already been released");
+			}
+			if (count.compareAndSet(current, current - 1)) {
+				if (current > 1) {
+					return false;
+				}
+				LeakDetector.Tracker tracker = this.tracker;
+				if (tracker != null) {
+					tracker.close();
+				}
+				if (deallocator != null) {
+					deallocator.run();
+				}
+				return true;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import net.sf.beep4j.ReferenceCounted;
+
+/**
+ * Static helper methods to retain and release objects that may or may
+ * not be {@link ReferenceCounted}.
+ * 
+ * @author Simon Raess
+ */
+public final class ReferenceCounting {
+	
+	private ReferenceCounting() {
+		// hidden constructor
+	}
+	
+	/**
+	 * Retains the given object if it is reference counted.
+	 * 
+	 * @param object the object to retain, may be null
+	 */
+	public static void retain(Object object) {
+		if (object instanceof ReferenceCounted) {
+			((ReferenceCounted) object).retain();
+		}
+	}
+	
+	/**
+	 * Releases the given object if it is reference counted.
+	 * 
+	 * @param object the object to release, may be null
+	 * @return true iff the object has been freed by this call
+	 */
+	public static boolean release(Object object) {
+		if (object instanceof ReferenceCounted) {
+			return ((ReferenceCounted) object).release();
+		}
+		return false;
+	}
+	
+	/**
+	 * Creates an action that releases the given object if it is 
+	 * reference counted.
+	 * 
+	 * @param object the object to release, may be null
+	 * @return the action or null if the object is not reference counted
+	 */
+	public static Runnable releaser(final Object object) {
+		if (!(object instanceof ReferenceCounted)) {
+			return null;
+		}
+		return new Runnable() {
+			public void run() {
+				((ReferenceCounted) object).release();
+			}
+		};
+	}
+	
+}
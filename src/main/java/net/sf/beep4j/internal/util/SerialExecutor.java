@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor that runs the submitted tasks one after the other in submission
+ * order on an underlying Executor. Many SerialExecutors can share one
+ * underlying Executor, for instance a thread pool or an executor that 
+ * starts a virtual thread per task. Tasks of the same SerialExecutor 
+ * never run concurrently, tasks of different SerialExecutors do.
+ * 
+ * <p>At most {@link #BATCH_SIZE} tasks are run before the SerialExecutor 
+ * is resubmitted to the underlying Executor. This gives other 
+ * SerialExecutors a fair chance on a bounded pool.</p>
+ * 
+ * <p>Exceptions thrown by tasks are logged and do not prevent the
+ * execution of subsequent tasks.</p>
+ * 
+ * @author Simon Raess
+ */
+public final class SerialExecutor implements Executor {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(SerialExecutor.class);
+	
+	/**
+	 * The maximum number of tasks run per submission to the underlying
+	 * Executor.
+	 */
+	public static final int BATCH_SIZE = 16;
+	
+	/**
+	 * The SerialExecutor whose tasks are run by the current thread.
+	 */
+	private static final ThreadLocal<SerialExecutor> current = new ThreadLocal<SerialExecutor>();
+	
+	private final Executor executor;
+	
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * Whether the worker has been submitted to the underlying Executor
+	 * and has not yet finished.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	
+	private final Runnable worker = new Runnable() {
+		public void run() {
+			runTasks();
+		}
+	};
+	
+	public SerialExecutor(Executor executor) {
+		Assert.notNull("executor", executor);
+		this.executor = executor;
+	}
+	
+	public void execute(Runnable task) {
+		Assert.notNull("task", task);
+		tasks.offer(task);
+		schedule();
+	}
+	
+	/**
+	 * Runs the given task after all previously submitted tasks and waits
+	 * until it has completed. If the current thread is running a task of
+	 * this executor, the task is run directly. Exceptions thrown by the 
+	 * task are rethrown.
+	 * 
+	 * @param task the task to run
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void executeAndWait(Runnable task) throws InterruptedException {
+		Assert.notNull("task", task);
+		if (isExecutorThread()) {
+			task.run();
+			return;
+		}
+		FutureTask<Object> future = new FutureTask<Object>(task, null);
+		execute(future);
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new UndeclaredThrowableException(cause);
+		}
+	}
+	
+	/**
+	 * Determines whether the current thread is running a task of this
+	 * SerialExecutor.
+	 * 
+	 * @return true iff called from within a task of this executor
+	 */
+	public boolean isExecutorThread() {
+		return current.get() == this;
+	}
+	
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(worker);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+	
+	private void runTasks() {
+		SerialExecutor previous = current.get();
+		current.set(this);
+		try {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Runnable task = tasks.poll();
+				if (task == null) {
+					break;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOG.warn("task " + task + " threw an exception", e);
+				}
+			}
+		} finally {
+			current.set(previous);
+			scheduled.set(false);
+		}
+		schedule();
+	}
+	
+}
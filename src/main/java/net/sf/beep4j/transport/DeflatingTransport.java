@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.Deflater;
+
+import net.sf.beep4j.ReferenceCounted;
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.util.Assert;
+
+/**
+ * Transport decorator that compresses the whole outgoing byte stream of
+ * a session once compression has been negotiated. All bytes passed to
+ * the transport after {@link #startCompression()} belong to a single
+ * zlib stream. Every call to one of the send methods is completed with a
+ * sync flush, so that the remote peer can decode everything that has been
+ * written so far without waiting for more data.
+ * 
+ * <p>Compression is negotiated on channel 0 by starting a channel with
+ * the profile {@link #PROFILE}. Like a tuning profile, the channel is
+ * never used to exchange messages. Each peer switches its outgoing
+ * direction as soon as it has accepted or received the acceptance of
+ * the start request. The receiving side detects the start of the
+ * compressed stream by the zlib header at a frame boundary.</p>
+ * 
+ * @author Simon Raess
+ */
+public class DeflatingTransport implements FileTransport, GatheringTransport {
+	
+	/**
+	 * The URI of the profile used to negotiate stream compression.
+	 */
+	public static final String PROFILE = "http://beep4j.sourceforge.net/profiles/deflate";
+	
+	private static final int MIN_OUTPUT_SIZE = 64;
+	
+	private static final int MAX_OUTPUT_SIZE = 16384;
+	
+	private final Transport target;
+	
+	private final Deflater deflater;
+	
+	private boolean compressing;
+	
+	/**
+	 * Number of uncompressed bytes passed to the deflater since the last flush.
+	 */
+	private int pending;
+	
+	public DeflatingTransport(Transport target) {
+		this(target, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	public DeflatingTransport(Transport target, int level) {
+		Assert.notNull("target", target);
+		this.target = target;
+		this.deflater = new Deflater(level);
+	}
+	
+	/**
+	 * Compresses all bytes sent after this method returns.
+	 */
+	public synchronized void startCompression() {
+		compressing = true;
+	}
+	
+	/**
+	 * Determines whether outgoing bytes are compressed.
+	 * 
+	 * @return true iff compression has been started
+	 */
+	public synchronized boolean isCompressing() {
+		return compressing;
+	}
+	
+	public synchronized void sendBytes(ByteBuffer buffer) {
+		if (compressing) {
+			deflate(buffer);
+			flush();
+		} else {
+			target.sendBytes(buffer);
+		}
+	}
+	
+	public synchronized void sendBuffers(ByteBuffer header, ByteBuffer payload, 
+			ByteBuffer trailer, ReferenceCounted owner) {
+		if (compressing) {
+			deflate(header);
+			deflate(payload);
+			deflate(trailer);
+			flush();
+		} else if (target instanceof GatheringTransport) {
+			((GatheringTransport) target).sendBuffers(header, payload, trailer, owner);
+		} else {
+			// the target may keep the buffer, so the payload must be copied
+			ByteBuffer buffer = ByteBuffer.allocate(
+					header.remaining() + payload.remaining() + trailer.remaining());
+			buffer.put(header);
+			buffer.put(payload);
+			buffer.put(trailer);
+			buffer.flip();
+			target.sendBytes(buffer);
+		}
+	}
+	
+	public synchronized void sendFile(ByteBuffer header, FileChannel file, long position, 
+			int count, ByteBuffer trailer) {
+		if (!compressing && target instanceof FileTransport) {
+			((FileTransport) target).sendFile(header, file, position, count, trailer);
+			return;
+		}
+		ByteBuffer content;
+		try {
+			content = file.map(MapMode.READ_ONLY, position, count);
+		} catch (IOException e) {
+			throw new InternalException("cannot map file region", e);
+		}
+		if (compressing) {
+			deflate(header);
+			deflate(content);
+			deflate(trailer);
+			flush();
+		} else {
+			// separate writes could be interleaved with other frames
+			ByteBuffer buffer = ByteBuffer.allocate(
+					header.remaining() + content.remaining() + trailer.remaining());
+			buffer.put(header);
+			buffer.put(content);
+			buffer.put(trailer);
+			buffer.flip();
+			target.sendBytes(buffer);
+		}
+	}
+	
+	public synchronized void closeTransport() {
+		try {
+			target.closeTransport();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private void deflate(ByteBuffer buffer) {
+		pending += buffer.remaining();
+		if (buffer.hasArray()) {
+			deflater.setInput(buffer.array(), 
+					buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] input = new byte[buffer.remaining()];
+			buffer.get(input);
+			deflater.setInput(input);
+		}
+		while (!deflater.needsInput()) {
+			drain(Deflater.NO_FLUSH);
+		}
+	}
+	
+	private void flush() {
+		while (drain(Deflater.SYNC_FLUSH));
+		pending = 0;
+	}
+	
+	/*
+	 * Writes the output of one invocation of the deflater to the target.
+	 * Returns true if the output buffer has been filled completely, in which
+	 * case there might be more output pending.
+	 */
+	private boolean drain(int flush) {
+		// the target may write asynchronously, so each chunk gets its own array
+		byte[] output = new byte[Math.min(MAX_OUTPUT_SIZE, pending + MIN_OUTPUT_SIZE)];
+		int length = deflater.deflate(output, 0, output.length, flush);
+		if (length > 0) {
+			target.sendBytes(ByteBuffer.wrap(output, 0, length));
+		}
+		return length == output.length;
+	}
+	
+}
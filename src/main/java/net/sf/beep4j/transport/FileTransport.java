@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Optional interface implemented by transports that are able to send
+ * the content of a file without loading it into the heap, for instance
+ * by using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * or a memory mapping of the file. Frames whose payload is a region of 
+ * a file are passed to this method instead of 
+ * {@link Transport#sendBytes(ByteBuffer)}.
+ * 
+ * <p>Implementations must write the header, the file region and the 
+ * trailer as one unit, that is, no bytes passed to another send method
+ * may be written in between.</p>
+ * 
+ * @author Simon Raess
+ */
+public interface FileTransport extends Transport {
+	
+	/**
+	 * Sends the given header, followed by <var>count</var> bytes of the 
+	 * file starting at <var>position</var>, followed by the given trailer.
+	 * 
+	 * @param header the bytes preceding the file content
+	 * @param file the file channel to read from
+	 * @param position the position of the first byte to send
+	 * @param count the number of bytes to send
+	 * @param trailer the bytes following the file content
+	 */
+	void sendFile(ByteBuffer header, FileChannel file, long position, int count, ByteBuffer trailer);
+	
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport;
+
+import java.nio.ByteBuffer;
+
+import net.sf.beep4j.ReferenceCounted;
+
+/**
+ * Optional interface implemented by transports that are able to send
+ * a header, a payload and a trailer without first copying them into a
+ * single buffer, for instance by using a gathering write. Frames whose
+ * payload is held in memory are passed to this method instead of 
+ * {@link Transport#sendBytes(ByteBuffer)}.
+ * 
+ * <p>Implementations must write the three buffers as one unit, that is, 
+ * no bytes passed to another send method may be written in between.</p>
+ * 
+ * <p>The payload belongs to the given owner and is only guaranteed to
+ * be valid until this method returns. A transport that writes the payload
+ * after that (for instance asynchronously) must retain the owner and 
+ * release it once the payload has been written.</p>
+ * 
+ * @author Simon Raess
+ */
+public interface GatheringTransport extends Transport {
+	
+	/**
+	 * Sends the given header, followed by the payload, followed by the
+	 * given trailer. The buffers must not be modified other than by
+	 * advancing their position.
+	 * 
+	 * @param header the bytes preceding the payload
+	 * @param payload the payload, a read-only view owned by <var>owner</var>
+	 * @param trailer the bytes following the payload
+	 * @param owner the object owning the payload
+	 */
+	void sendBuffers(ByteBuffer header, ByteBuffer payload, ByteBuffer trailer, ReferenceCounted owner);
+	
+}
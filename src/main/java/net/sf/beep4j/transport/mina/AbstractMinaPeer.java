@@ -15,15 +15,60 @@
  */
 package net.sf.beep4j.transport.mina;
 
+import java.util.concurrent.Executor;
+
 import net.sf.beep4j.ChannelFilterChainBuilder;
 import net.sf.beep4j.Peer;
 
 public abstract class AbstractMinaPeer implements Peer {
 
 	protected ChannelFilterChainBuilder filterChainBuilder;
+	
+	protected boolean compressionEnabled;
+	
+	protected Executor executor;
+	
+	protected Executor writerExecutor;
 
 	public void setChannelFilterChainBuilder(ChannelFilterChainBuilder builder) {
 		filterChainBuilder = builder;
 	}
+	
+	/**
+	 * Enables session-level stream compression for all sessions created
+	 * by this peer. Compression is only used if it is requested through
+	 * {@link net.sf.beep4j.Session#startCompression()}.
+	 * 
+	 * @param compressionEnabled whether compression is supported
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+	
+	/**
+	 * Sets the Executor on which the ChannelHandlers and ReplyHandlers of
+	 * all sessions created by this peer are invoked. The handlers of one 
+	 * channel are invoked in order, the handlers of different channels 
+	 * concurrently. If no executor is set, the handlers are invoked by 
+	 * the MINA I/O thread.
+	 * 
+	 * @param executor the Executor, for instance a thread pool
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Sets the Executor on which the outgoing messages of each session 
+	 * are framed and written. If set, threads sending a message only 
+	 * queue it and return. The messages of one session are written by
+	 * one task at a time. If no writer executor is set, the sending 
+	 * thread writes the message itself.
+	 * 
+	 * @param writerExecutor the Executor, for instance a thread pool
+	 */
+	public void setWriterExecutor(Executor writerExecutor) {
+		this.writerExecutor = writerExecutor;
+	}
 
 }
\ No newline at end of file
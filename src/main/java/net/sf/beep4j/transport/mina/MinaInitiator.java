@@ -33,7 +33,8 @@ public class MinaInitiator extends AbstractMinaPeer implements Initiator {
 	}
 	
 	public void connect(SocketAddress address, SessionHandler handler) {
-		MinaTransport transport = new MinaTransport(true, handler, filterChainBuilder);
+		MinaTransport transport = new MinaTransport(
+				true, handler, filterChainBuilder, compressionEnabled, executor, writerExecutor);
 		connector.connect(address, transport);
 	}
 
@@ -17,6 +17,7 @@ package net.sf.beep4j.transport.mina;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.util.concurrent.Executor;
 
 import net.sf.beep4j.ChannelFilterChainBuilder;
 import net.sf.beep4j.Listener;
@@ -42,7 +43,8 @@ public class MinaListener extends AbstractMinaPeer implements Listener {
 	
 	public void bind(SocketAddress address, SessionHandlerFactory factory) throws IOException {
 		Assert.notNull("factory", factory);
-		IoHandler handler = new BEEPIoHandler(factory, filterChainBuilder);
+		IoHandler handler = new BEEPIoHandler(factory, filterChainBuilder, compressionEnabled, 
+				executor, writerExecutor);
 		acceptor.bind(address, handler);
 	}
 	
@@ -56,15 +58,40 @@ public class MinaListener extends AbstractMinaPeer implements Listener {
 		
 		private final ChannelFilterChainBuilder filterChainBuilder;
 		
+		private final boolean compressionEnabled;
+		
+		private final Executor executor;
+		
+		private final Executor writerExecutor;
+		
 		public BEEPIoHandler(SessionHandlerFactory factory, ChannelFilterChainBuilder builder) {
+			this(factory, builder, false);
+		}
+		
+		public BEEPIoHandler(SessionHandlerFactory factory, ChannelFilterChainBuilder builder, 
+				boolean compressionEnabled) {
+			this(factory, builder, compressionEnabled, null);
+		}
+		
+		public BEEPIoHandler(SessionHandlerFactory factory, ChannelFilterChainBuilder builder, 
+				boolean compressionEnabled, Executor executor) {
+			this(factory, builder, compressionEnabled, executor, null);
+		}
+		
+		public BEEPIoHandler(SessionHandlerFactory factory, ChannelFilterChainBuilder builder, 
+				boolean compressionEnabled, Executor executor, Executor writerExecutor) {
 			this.factory = factory;
 			this.filterChainBuilder = builder;
+			this.compressionEnabled = compressionEnabled;
+			this.executor = executor;
+			this.writerExecutor = writerExecutor;
 		}
 		
 		@Override
 		public void sessionOpened(IoSession session) throws Exception {
 			SessionHandler handler = factory.createSessionHandler();
-			MinaTransport transport = new MinaTransport(false, handler, filterChainBuilder);
+			MinaTransport transport = new MinaTransport(
+					false, handler, filterChainBuilder, compressionEnabled, executor, writerExecutor);
 			session.setAttribute(KEY, transport);
 			transport.sessionOpened(session);
 		}
@@ -15,19 +15,25 @@
  */
 package net.sf.beep4j.transport.mina;
 
+import java.util.concurrent.Executor;
+
 import net.sf.beep4j.ChannelFilterChainBuilder;
 import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.internal.ChannelSlots;
 import net.sf.beep4j.internal.session.SessionImpl;
+import net.sf.beep4j.internal.stream.BeepStream;
 import net.sf.beep4j.internal.stream.DefaultStreamParser;
 import net.sf.beep4j.internal.stream.DefaultTransportContext;
 import net.sf.beep4j.internal.stream.DelegatingFrameHandler;
 import net.sf.beep4j.internal.stream.FrameHandler;
 import net.sf.beep4j.internal.stream.FrameHandlerFactory;
 import net.sf.beep4j.internal.stream.MessageAssembler;
-import net.sf.beep4j.internal.stream.MessageHandler;
-import net.sf.beep4j.internal.stream.StreamParser;
+import net.sf.beep4j.internal.stream.QueueingBeepStream;
+import net.sf.beep4j.internal.stream.StreamingFrameHandler;
+import net.sf.beep4j.internal.stream.StreamingMessageHandler;
 import net.sf.beep4j.internal.tcp.TCPMapping;
 import net.sf.beep4j.internal.util.HexDump;
+import net.sf.beep4j.transport.DeflatingTransport;
 import net.sf.beep4j.transport.LoggingTransportContext;
 import net.sf.beep4j.transport.Transport;
 import net.sf.beep4j.transport.TransportContext;
@@ -42,6 +48,13 @@ import org.slf4j.LoggerFactory;
  * Transport implementation based on Apache MINA. See {@link http://mina.apache.org}
  * for more information about MINA.
  * 
+ * <p>The transport implements neither {@link net.sf.beep4j.transport.GatheringTransport}
+ * nor {@link net.sf.beep4j.transport.FileTransport}. MINA has no gathering
+ * writes, and some of its transports (such as the VmPipe transport) may
+ * reorder writes issued by different threads. Each frame, including frames
+ * whose content is read from a file, is therefore written as a single 
+ * buffer.</p>
+ * 
  * @author Simon Raess
  */
 public class MinaTransport extends IoHandlerAdapter implements Transport {
@@ -54,23 +67,83 @@ public class MinaTransport extends IoHandlerAdapter implements Transport {
 	
 	private TransportContext context;
 	
+	private final Object writeLock = new Object();
+	
 	public MinaTransport(
 			boolean initiator, 
 			SessionHandler sessionHandler, 
 			ChannelFilterChainBuilder channelFilterChainBuilder) {
+		this(initiator, sessionHandler, channelFilterChainBuilder, false);
+	}
+	
+	public MinaTransport(
+			boolean initiator, 
+			SessionHandler sessionHandler, 
+			ChannelFilterChainBuilder channelFilterChainBuilder,
+			boolean compressionEnabled) {
+		this(initiator, sessionHandler, channelFilterChainBuilder, compressionEnabled, null);
+	}
+	
+	/**
+	 * Creates a new MinaTransport.
+	 * 
+	 * @param initiator whether this is the initiating peer
+	 * @param sessionHandler the handler of the session
+	 * @param channelFilterChainBuilder the builder of the channel filter chains
+	 * @param compressionEnabled whether stream compression is supported
+	 * @param executor the Executor on which the channel handlers are invoked,
+	 *                 null to invoke them on the I/O thread
+	 */
+	public MinaTransport(
+			boolean initiator, 
+			SessionHandler sessionHandler, 
+			ChannelFilterChainBuilder channelFilterChainBuilder,
+			boolean compressionEnabled,
+			Executor executor) {
+		this(initiator, sessionHandler, channelFilterChainBuilder, compressionEnabled, executor, null);
+	}
+	
+	/**
+	 * Creates a new MinaTransport.
+	 * 
+	 * @param initiator whether this is the initiating peer
+	 * @param sessionHandler the handler of the session
+	 * @param channelFilterChainBuilder the builder of the channel filter chains
+	 * @param compressionEnabled whether stream compression is supported
+	 * @param executor the Executor on which the channel handlers are invoked,
+	 *                 null to invoke them on the I/O thread
+	 * @param writerExecutor the Executor on which outgoing messages are written,
+	 *                       null to write them on the sending thread
+	 */
+	public MinaTransport(
+			boolean initiator, 
+			SessionHandler sessionHandler, 
+			ChannelFilterChainBuilder channelFilterChainBuilder,
+			boolean compressionEnabled,
+			Executor executor,
+			Executor writerExecutor) {
 		
-		final TCPMapping mapping = new TCPMapping(this);
-		final SessionImpl session = new SessionImpl(initiator, sessionHandler, mapping);
+		final ChannelSlots slots = new ChannelSlots();
+		final TCPMapping mapping = new TCPMapping(
+				compressionEnabled ? new DeflatingTransport(this) : this, slots);
+		final BeepStream stream = writerExecutor != null 
+				? new QueueingBeepStream(mapping, writerExecutor) : mapping;
+		final SessionImpl session = new SessionImpl(initiator, sessionHandler, stream, null, slots);
 		session.setChannelFilterChainBuilder(channelFilterChainBuilder);
-		final MessageHandler messageHandler = session;
+		session.setExecutor(executor);
+		final StreamingMessageHandler messageHandler = session;
 		final DelegatingFrameHandler frameHandler = new DelegatingFrameHandler(new FrameHandlerFactory() {
-			public FrameHandler createFrameHandler() {
+			public FrameHandler createFrameHandler(int channelNumber) {
+				if (messageHandler.isStreamingChannel(channelNumber)) {
+					return new StreamingFrameHandler(messageHandler);
+				}
 				return new MessageAssembler(messageHandler);
 			}
-		});
+		}, slots);
 		session.addSessionListener(frameHandler);
 		
-		final StreamParser parser = new DefaultStreamParser(frameHandler, mapping);
+		final DefaultStreamParser parser = new DefaultStreamParser(frameHandler, mapping, slots);
+		parser.setCompressionEnabled(compressionEnabled);
 		final TransportContext target = new DefaultTransportContext(session, parser);
 		context = new LoggingTransportContext(target);
 	}
@@ -82,7 +155,9 @@ public class MinaTransport extends IoHandlerAdapter implements Transport {
 		if (DATA_LOG.isDebugEnabled()) {
 			DATA_LOG.debug(HexDump.dump(buffer));
 		}
-		session.write(ByteBuffer.wrap(buffer));
+		synchronized (writeLock) {
+			session.write(ByteBuffer.wrap(buffer));
+		}
 	}
 	
 	public void closeTransport() {
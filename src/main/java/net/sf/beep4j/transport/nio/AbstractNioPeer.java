@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+import net.sf.beep4j.ChannelFilterChainBuilder;
+import net.sf.beep4j.Peer;
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.EventLoop;
+
+/**
+ * Base class of peers whose connections are served by a {@link Reactor}.
+ * If the reactor is a {@link NioEventLoop}, the sessions are confined to
+ * the thread of the loop.
+ * 
+ * @author Simon Raess
+ */
+public abstract class AbstractNioPeer implements Peer {
+	
+	protected final Reactor reactor;
+
+	protected ChannelFilterChainBuilder filterChainBuilder;
+	
+	protected boolean compressionEnabled;
+	
+	protected Executor executor;
+	
+	protected Executor writerExecutor;
+	
+	protected AbstractNioPeer(Reactor reactor) {
+		Assert.notNull("reactor", reactor);
+		this.reactor = reactor;
+	}
+
+	public void setChannelFilterChainBuilder(ChannelFilterChainBuilder builder) {
+		filterChainBuilder = builder;
+	}
+	
+	/**
+	 * Enables session-level stream compression for all sessions created
+	 * by this peer.
+	 * 
+	 * @param compressionEnabled whether compression is supported
+	 * @see net.sf.beep4j.Session#startCompression()
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+	
+	/**
+	 * Sets the Executor on which the ChannelHandlers and ReplyHandlers of
+	 * all sessions created by this peer are invoked. If no executor is set,
+	 * the handlers are invoked by the thread of the reactor that read the 
+	 * data.
+	 * 
+	 * @param executor the Executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Sets the Executor on which the outgoing messages of each session 
+	 * are framed and written. If set, threads sending a message only 
+	 * queue it and return. The messages of one session are written by
+	 * one task at a time. If no writer executor is set, the sending 
+	 * thread writes the message itself.
+	 * 
+	 * @param writerExecutor the Executor, for instance a thread pool
+	 */
+	public void setWriterExecutor(Executor writerExecutor) {
+		this.writerExecutor = writerExecutor;
+	}
+	
+	/**
+	 * Creates a transport for the given connection and starts it. The
+	 * sessions of a {@link NioEventLoopGroup} are bound to one of its loops.
+	 * 
+	 * @param channel the connected channel
+	 * @param initiator whether this peer initiated the connection
+	 * @param handler the handler of the new session
+	 * @throws IOException if the channel cannot be configured
+	 */
+	protected void startTransport(SocketChannel channel, boolean initiator, SessionHandler handler) 
+			throws IOException {
+		Reactor target = reactor;
+		if (reactor instanceof NioEventLoopGroup) {
+			target = ((NioEventLoopGroup) reactor).bind();
+		}
+		EventLoop eventLoop = target instanceof EventLoop ? (EventLoop) target : null;
+		NioTransport transport = new NioTransport(channel, initiator, handler, 
+				filterChainBuilder, compressionEnabled, executor, writerExecutor, eventLoop);
+		transport.start(target);
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.util.Assert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of threads that serve a set of selectable channels according to
+ * the leader/follower pattern. One thread, the leader, waits for I/O
+ * events on the channels. As soon as an event is available, the leader
+ * promotes one of the followers to be the new leader and processes the
+ * event itself. After processing the event, the thread becomes a 
+ * follower again and waits for its promotion:
+ * 
+ * <pre>
+ *   while (true) {
+ *     waitForPromotion()
+ *     event = select()
+ *     giveUpLead()
+ *     processEvent(event)
+ *   }
+ * </pre>
+ * 
+ * <p>Events are processed by the thread that detected them, so no
+ * handoff queue is needed. The events of different channels are
+ * processed in parallel. While an event of a channel is processed, the
+ * channel is not selected, so the events of one channel are processed
+ * one after the other in the order they occurred.</p>
+ * 
+ * @author Simon Raess
+ */
+public class LeaderFollowerPool implements Reactor {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(LeaderFollowerPool.class);
+	
+	private final int size;
+	
+	private final Selector selector;
+	
+	/**
+	 * The lock held by the leader. The followers wait for their promotion
+	 * on this lock.
+	 */
+	private final ReentrantLock leaderLock = new ReentrantLock(true);
+	
+	/**
+	 * Changes to the registered channels that must be applied by the
+	 * leader before it selects again.
+	 */
+	private final Queue<Runnable> changes = new ConcurrentLinkedQueue<Runnable>();
+	
+	private Thread[] threads;
+	
+	private volatile boolean running;
+	
+	/**
+	 * Creates a new pool with the given number of threads.
+	 * 
+	 * @param size the number of threads
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public LeaderFollowerPool(int size) throws IOException {
+		if (size <= 0) {
+			throw new IllegalArgumentException("size must be > 0");
+		}
+		this.size = size;
+		this.selector = Selector.open();
+	}
+	
+	/**
+	 * Starts the threads of the pool.
+	 */
+	public synchronized void start() {
+		if (threads != null) {
+			throw new IllegalStateException("pool has already been started");
+		}
+		running = true;
+		threads = new Thread[size];
+		for (int i = 0; i < size; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					follow();
+				}
+			}, "beep4j-lf-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+	
+	/**
+	 * Stops the threads of the pool and closes the selector. The channels
+	 * registered with the pool are not closed.
+	 */
+	public synchronized void stop() {
+		running = false;
+		selector.wakeup();
+		if (threads != null) {
+			for (Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			threads = null;
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			LOG.warn("failed to close selector", e);
+		}
+	}
+	
+	/**
+	 * If the channel is registered already, the new interest set is applied
+	 * once the event of the channel that is currently processed (if any)
+	 * has been handled.
+	 */
+	public void register(final SelectableChannel channel, final int ops, final EventHandler handler) {
+		Assert.notNull("channel", channel);
+		Assert.notNull("handler", handler);
+		submit(new Runnable() {
+			public void run() {
+				SelectionKey key = channel.keyFor(selector);
+				try {
+					if (key == null) {
+						channel.register(selector, ops, new Registration(handler, ops));
+					} else {
+						Registration registration = (Registration) key.attachment();
+						registration.handler = handler;
+						registration.ops = ops;
+						if (!registration.processing) {
+							key.interestOps(ops);
+						}
+					}
+				} catch (ClosedChannelException e) {
+					LOG.debug("channel closed before it could be registered");
+				} catch (CancelledKeyException e) {
+					LOG.debug("channel closed before its interest set could be changed");
+				}
+			}
+		});
+	}
+	
+	private void resume(final SelectionKey key, final Registration registration) {
+		submit(new Runnable() {
+			public void run() {
+				registration.processing = false;
+				try {
+					key.interestOps(registration.ops);
+				} catch (CancelledKeyException e) {
+					LOG.debug("channel closed while its event was processed");
+				}
+			}
+		});
+	}
+	
+	private void submit(Runnable change) {
+		changes.offer(change);
+		selector.wakeup();
+	}
+	
+	private void follow() {
+		while (running) {
+			Event event;
+			leaderLock.lock();
+			try {
+				event = select();
+			} finally {
+				leaderLock.unlock();
+			}
+			if (event != null) {
+				processEvent(event);
+			}
+		}
+	}
+	
+	/*
+	 * Invoked by the leader. Returns the event of a ready key whose 
+	 * interest set has been cleared or null if the pool has been stopped.
+	 */
+	private Event select() {
+		try {
+			while (running) {
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					try {
+						Registration registration = (Registration) key.attachment();
+						key.interestOps(0);
+						registration.processing = true;
+						return new Event(key, registration);
+					} catch (CancelledKeyException e) {
+						LOG.debug("channel closed while it was selected");
+					}
+				}
+				applyChanges();
+				selector.select();
+			}
+			return null;
+		} catch (IOException e) {
+			throw new InternalException("selecting failed", e);
+		}
+	}
+	
+	private void applyChanges() {
+		Runnable change;
+		while ((change = changes.poll()) != null) {
+			change.run();
+		}
+	}
+	
+	private void processEvent(Event event) {
+		EventHandler handler = event.registration.handler;
+		try {
+			handler.handleEvent(event.key);
+		} catch (RuntimeException e) {
+			LOG.warn("event handler " + handler + " threw an exception", e);
+		} finally {
+			resume(event.key, event.registration);
+		}
+	}
+	
+	private static class Event {
+		private final SelectionKey key;
+		private final Registration registration;
+		private Event(SelectionKey key, Registration registration) {
+			this.key = key;
+			this.registration = registration;
+		}
+	}
+	
+	/*
+	 * Attached to the selection key of a channel. The interest set of the
+	 * key is cleared while an event of the channel is processed, the 
+	 * registered interest set is kept here. Only changed by the leader.
+	 */
+	private static class Registration {
+		private volatile EventHandler handler;
+		private volatile int ops;
+		private volatile boolean processing;
+		private Registration(EventHandler handler, int ops) {
+			this.handler = handler;
+			this.ops = ops;
+		}
+	}
+	
+}
@@ -0,0 +1,262 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.EventLoop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binds one session to one of the loops of a {@link NioEventLoopGroup}.
+ * The session is confined to the binding rather than to the loop itself,
+ * so that it can be moved to another loop of the group. The tasks of the
+ * session are queued by the binding and run in order on whatever loop
+ * the session is bound to at the time.
+ * 
+ * <p>The binding also counts the I/O events of its session. The group
+ * uses these counts to pick the session to migrate when the loops are 
+ * unevenly loaded.</p>
+ * 
+ * @author Simon Raess
+ */
+final class LoopBinding implements Reactor, EventLoop {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(LoopBinding.class);
+	
+	/**
+	 * The maximum number of tasks run per submission to the loop.
+	 */
+	private static final int BATCH_SIZE = 16;
+	
+	private final NioEventLoopGroup group;
+	
+	/**
+	 * The loop the session is currently bound to. Only changed by the 
+	 * thread of the current loop.
+	 */
+	private volatile NioEventLoop loop;
+	
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * Whether the drainer has been submitted to a loop and has not yet
+	 * finished.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	
+	private final AtomicBoolean released = new AtomicBoolean();
+	
+	private final Runnable drainer = new Runnable() {
+		public void run() {
+			runTasks();
+		}
+	};
+	
+	/*
+	 * The registration of the session's channel. Only accessed by the 
+	 * thread of the current loop.
+	 */
+	
+	private SelectableChannel channel;
+	
+	private int ops;
+	
+	private EventHandler handler;
+	
+	/**
+	 * The number of I/O events of the session. Written by the thread 
+	 * of the current loop only.
+	 */
+	private volatile long eventCount;
+	
+	/**
+	 * The event count at the previous sample of the group.
+	 */
+	private long sampledEventCount;
+	
+	LoopBinding(NioEventLoopGroup group, NioEventLoop loop) {
+		this.group = group;
+		this.loop = loop;
+		loop.sessionAdded();
+	}
+	
+	/**
+	 * Gets the loop the session is currently bound to.
+	 * 
+	 * @return the current loop
+	 */
+	NioEventLoop getLoop() {
+		return loop;
+	}
+	
+	/**
+	 * Gets the number of events since the previous call. Invoked by the
+	 * rebalancing thread of the group only.
+	 * 
+	 * @return the number of events since the last sample
+	 */
+	long sampleEvents() {
+		long count = eventCount;
+		long delta = count - sampledEventCount;
+		sampledEventCount = count;
+		return delta;
+	}
+	
+	/**
+	 * Moves the session to the given loop. The migration is queued 
+	 * behind the tasks already submitted to the session, the tasks
+	 * submitted afterwards run on the new loop.
+	 * 
+	 * @param target the loop to move the session to
+	 */
+	void migrateTo(final NioEventLoop target) {
+		Assert.notNull("target", target);
+		execute(new Runnable() {
+			public void run() {
+				doMigrate(target);
+			}
+		});
+	}
+	
+	private void doMigrate(NioEventLoop target) {
+		NioEventLoop source = loop;
+		if (source == target || released.get()) {
+			return;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("migrating session from " + source + " to " + target);
+		}
+		if (channel != null) {
+			source.deregister(channel);
+		}
+		source.sessionRemoved();
+		target.sessionAdded();
+		loop = target;
+		if (channel != null) {
+			target.register(channel, ops, handler);
+		}
+	}
+	
+	/**
+	 * Unbinds the session from its loop. Invoked when the session's
+	 * connection has been closed.
+	 */
+	void release() {
+		if (!released.compareAndSet(false, true)) {
+			return;
+		}
+		group.released(this);
+		if (inEventLoop()) {
+			loop.sessionRemoved();
+		} else {
+			execute(new Runnable() {
+				public void run() {
+					loop.sessionRemoved();
+				}
+			});
+		}
+	}
+	
+	// --> start of EventLoop methods <--
+	
+	public boolean inEventLoop() {
+		return loop.inEventLoop();
+	}
+	
+	public void execute(Runnable task) {
+		Assert.notNull("task", task);
+		tasks.offer(task);
+		schedule();
+	}
+	
+	// --> end of EventLoop methods <--
+	
+	// --> start of Reactor methods <--
+	
+	public void register(final SelectableChannel channel, final int ops, final EventHandler handler) {
+		Assert.notNull("channel", channel);
+		Assert.notNull("handler", handler);
+		if (inEventLoop()) {
+			doRegister(channel, ops, handler);
+		} else {
+			execute(new Runnable() {
+				public void run() {
+					doRegister(channel, ops, handler);
+				}
+			});
+		}
+	}
+	
+	// --> end of Reactor methods <--
+	
+	private void doRegister(SelectableChannel channel, int ops, final EventHandler handler) {
+		this.channel = channel;
+		this.ops = ops;
+		this.handler = new EventHandler() {
+			public void handleEvent(SelectionKey key) {
+				eventCount++;
+				handler.handleEvent(key);
+			}
+		};
+		loop.register(channel, ops, this.handler);
+	}
+	
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			loop.execute(drainer);
+		}
+	}
+	
+	/*
+	 * A drainer submitted to the loop the session has just been moved 
+	 * away from is passed on to the new loop. The same happens to the
+	 * remaining tasks after a migration task has been run, so that the
+	 * tasks of the session keep running in submission order.
+	 */
+	private void runTasks() {
+		NioEventLoop current = loop;
+		if (!current.inEventLoop()) {
+			current.execute(drainer);
+			return;
+		}
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			Runnable task = tasks.poll();
+			if (task == null) {
+				break;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.warn("task " + task + " threw an exception", e);
+			}
+			if (loop != current) {
+				loop.execute(drainer);
+				return;
+			}
+		}
+		scheduled.set(false);
+		schedule();
+	}
+	
+}
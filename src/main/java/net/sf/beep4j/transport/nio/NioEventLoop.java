@@ -0,0 +1,462 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.EventLoop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reactor whose channels are all served by a single thread. Sessions
+ * on connections registered with an event loop are confined to it, 
+ * that is, they are only ever accessed from the thread of the loop 
+ * and therefore need no locks.
+ * 
+ * <p>Other threads pass tasks to the loop through a lock-free queue.
+ * The loop alternates between handling the ready channels, running
+ * the queued tasks and running the timers that are due:</p>
+ * 
+ * <pre>
+ *   while (running) {
+ *     select(timeout of next timer)
+ *     handleEvents()
+ *     runTasks()
+ *     runTimers()
+ *   }
+ * </pre>
+ * 
+ * <p>The loop owns the buffer that the channels served by it read into.
+ * It also records how busy it is, see {@link #getUtilization()}.</p>
+ * 
+ * @author Simon Raess
+ */
+public class NioEventLoop implements Reactor, EventLoop {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(NioEventLoop.class);
+	
+	/**
+	 * The maximum number of tasks run between two selects.
+	 */
+	private static final int MAX_TASKS = 256;
+	
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	/**
+	 * The loop whose thread is the current thread.
+	 */
+	private static final ThreadLocal<NioEventLoop> current = new ThreadLocal<NioEventLoop>();
+	
+	private final String name;
+	
+	private final Selector selector;
+	
+	/**
+	 * The tasks submitted to the loop. Any thread may add tasks, only 
+	 * the loop thread removes them.
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * The pending timers ordered by their deadline. Only accessed by
+	 * the loop thread.
+	 */
+	private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+	
+	/**
+	 * The buffer the channels of this loop read into. Only accessed by
+	 * the loop thread.
+	 */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	
+	private final AtomicInteger sessionCount = new AtomicInteger();
+	
+	private volatile Thread thread;
+	
+	private volatile boolean running;
+	
+	/*
+	 * The metrics are written by the loop thread only.
+	 */
+	
+	private volatile long eventCount;
+	
+	private volatile long taskCount;
+	
+	private volatile long busyTime;
+	
+	private long timerSequence;
+	
+	/*
+	 * The values of the previous utilization sample.
+	 */
+	
+	private long sampledBusyTime;
+	
+	private long sampledTime = System.nanoTime();
+	
+	private volatile double utilization;
+	
+	/**
+	 * Creates a new event loop whose thread has the given name.
+	 * 
+	 * @param name the name of the thread
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public NioEventLoop(String name) throws IOException {
+		Assert.notNull("name", name);
+		this.name = name;
+		this.selector = Selector.open();
+	}
+	
+	/**
+	 * Gets the event loop whose thread is the current thread.
+	 * 
+	 * @return the current event loop or null
+	 */
+	static NioEventLoop current() {
+		return current.get();
+	}
+	
+	/**
+	 * Starts the thread of the loop.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("event loop has already been started");
+		}
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				current.set(NioEventLoop.this);
+				loop();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops the thread of the loop and closes the selector. The channels
+	 * registered with the loop are not closed. Tasks and timers that have
+	 * not been run yet are discarded.
+	 */
+	public synchronized void stop() {
+		running = false;
+		selector.wakeup();
+		if (thread != null && !inEventLoop()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			LOG.warn("failed to close selector", e);
+		}
+	}
+	
+	/**
+	 * Runs the given task on the loop thread after the given delay.
+	 * 
+	 * @param task the task to run
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 */
+	public void schedule(Runnable task, long delay, TimeUnit unit) {
+		Assert.notNull("task", task);
+		final long deadline = System.nanoTime() + unit.toNanos(delay);
+		final Runnable timed = task;
+		if (inEventLoop()) {
+			timers.add(new Timer(deadline, timerSequence++, timed));
+		} else {
+			execute(new Runnable() {
+				public void run() {
+					timers.add(new Timer(deadline, timerSequence++, timed));
+				}
+			});
+		}
+	}
+	
+	// --> start of metrics methods <--
+	
+	/**
+	 * Gets the number of sessions served by this loop.
+	 * 
+	 * @return the number of sessions
+	 */
+	public int getSessionCount() {
+		return sessionCount.get();
+	}
+	
+	/**
+	 * Gets the number of I/O events handled so far.
+	 * 
+	 * @return the number of handled events
+	 */
+	public long getEventCount() {
+		return eventCount;
+	}
+	
+	/**
+	 * Gets the number of tasks and timers run so far.
+	 * 
+	 * @return the number of tasks
+	 */
+	public long getTaskCount() {
+		return taskCount;
+	}
+	
+	/**
+	 * Gets the time the loop has spent handling events and running tasks.
+	 * 
+	 * @param unit the unit of the result
+	 * @return the busy time
+	 */
+	public long getBusyTime(TimeUnit unit) {
+		return unit.convert(busyTime, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Gets the fraction of time the loop was busy during the last sampling
+	 * period. The value is between 0 and 1. It is updated whenever the 
+	 * loop is sampled by its {@link NioEventLoopGroup}.
+	 * 
+	 * @return the utilization of the loop
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+	
+	/**
+	 * Computes the utilization since the previous call. Invoked by a 
+	 * single thread only.
+	 */
+	double sampleUtilization() {
+		long now = System.nanoTime();
+		long busy = busyTime;
+		long elapsed = now - sampledTime;
+		if (elapsed > 0) {
+			utilization = Math.min(1.0, (double) (busy - sampledBusyTime) / elapsed);
+		}
+		sampledTime = now;
+		sampledBusyTime = busy;
+		return utilization;
+	}
+	
+	void sessionAdded() {
+		sessionCount.incrementAndGet();
+	}
+	
+	void sessionRemoved() {
+		sessionCount.decrementAndGet();
+	}
+	
+	// --> end of metrics methods <--
+	
+	/**
+	 * Gets the buffer the channels of this loop read into. Must only be
+	 * used by the loop thread.
+	 * 
+	 * @return the read buffer of this loop
+	 */
+	ByteBuffer getReadBuffer() {
+		return readBuffer;
+	}
+	
+	/**
+	 * Determines whether the given channel is registered with this loop.
+	 * 
+	 * @param channel the channel
+	 * @return true iff the channel is registered with the selector of this loop
+	 */
+	boolean isRegistered(SelectableChannel channel) {
+		return channel.keyFor(selector) != null;
+	}
+	
+	/**
+	 * Removes the given channel from the selector of this loop. Must be
+	 * invoked by the loop thread.
+	 * 
+	 * @param channel the channel to deregister
+	 */
+	void deregister(SelectableChannel channel) {
+		SelectionKey key = channel.keyFor(selector);
+		if (key != null) {
+			key.cancel();
+		}
+	}
+	
+	// --> start of EventLoop methods <--
+	
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+	
+	public void execute(Runnable task) {
+		Assert.notNull("task", task);
+		tasks.offer(task);
+		if (!inEventLoop()) {
+			selector.wakeup();
+		}
+	}
+	
+	// --> end of EventLoop methods <--
+	
+	// --> start of Reactor methods <--
+	
+	public void register(final SelectableChannel channel, final int ops, final EventHandler handler) {
+		Assert.notNull("channel", channel);
+		Assert.notNull("handler", handler);
+		if (inEventLoop()) {
+			doRegister(channel, ops, handler);
+		} else {
+			execute(new Runnable() {
+				public void run() {
+					doRegister(channel, ops, handler);
+				}
+			});
+		}
+	}
+	
+	// --> end of Reactor methods <--
+	
+	private void doRegister(SelectableChannel channel, int ops, EventHandler handler) {
+		try {
+			channel.register(selector, ops, handler);
+		} catch (ClosedChannelException e) {
+			LOG.debug("channel closed before it could be registered");
+		} catch (CancelledKeyException e) {
+			LOG.debug("channel closed before its interest set could be changed");
+		}
+	}
+	
+	private void loop() {
+		while (running) {
+			try {
+				if (!tasks.isEmpty()) {
+					selector.selectNow();
+				} else if (timers.isEmpty()) {
+					selector.select();
+				} else {
+					long timeout = timers.peek().deadline - System.nanoTime();
+					if (timeout > 0) {
+						selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+					} else {
+						selector.selectNow();
+					}
+				}
+			} catch (IOException e) {
+				throw new InternalException("selecting failed", e);
+			}
+			long start = System.nanoTime();
+			handleEvents();
+			runTasks();
+			runTimers();
+			busyTime += System.nanoTime() - start;
+		}
+	}
+	
+	private void handleEvents() {
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+			EventHandler handler = (EventHandler) key.attachment();
+			eventCount++;
+			try {
+				handler.handleEvent(key);
+			} catch (CancelledKeyException e) {
+				LOG.debug("channel closed while its event was processed");
+			} catch (RuntimeException e) {
+				LOG.warn("event handler " + handler + " threw an exception", e);
+			}
+		}
+	}
+	
+	/*
+	 * Runs at most MAX_TASKS queued tasks, so that the I/O events are
+	 * not starved by tasks that keep on submitting new tasks.
+	 */
+	private void runTasks() {
+		for (int i = 0; i < MAX_TASKS; i++) {
+			Runnable task = tasks.poll();
+			if (task == null) {
+				return;
+			}
+			run(task);
+		}
+	}
+	
+	private void runTimers() {
+		long now = System.nanoTime();
+		while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+			run(timers.poll().task);
+		}
+	}
+	
+	private void run(Runnable task) {
+		taskCount++;
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			LOG.warn("event loop task " + task + " threw an exception", e);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+	
+	private static class Timer implements Comparable<Timer> {
+		private final long deadline;
+		private final long sequence;
+		private final Runnable task;
+		private Timer(long deadline, long sequence, Runnable task) {
+			this.deadline = deadline;
+			this.sequence = sequence;
+			this.task = task;
+		}
+		public int compareTo(Timer timer) {
+			long diff = deadline - timer.deadline;
+			if (diff == 0) {
+				diff = sequence - timer.sequence;
+			}
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+	
+}
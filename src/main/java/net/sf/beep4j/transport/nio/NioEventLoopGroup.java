@@ -0,0 +1,279 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.beep4j.internal.util.Assert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reactor that spreads its sessions over a fixed number of 
+ * {@link NioEventLoop}s, by default one per available processor. Each
+ * session is confined to one loop at a time. New sessions are assigned
+ * to the loop that serves the fewest sessions.
+ * 
+ * <p>Sessions do not necessarily cause the same load. The group therefore
+ * samples the utilization of its loops periodically. If the difference
+ * between the busiest and the least busy loop exceeds the imbalance 
+ * threshold, one session of the busiest loop is migrated to the least
+ * busy loop. The session whose share of the events of the busiest loop
+ * comes closest to half of the difference is chosen.</p>
+ * 
+ * <p>Use the group like any other reactor:</p>
+ * 
+ * <pre>
+ *   NioEventLoopGroup group = new NioEventLoopGroup();
+ *   group.start();
+ *   Listener listener = new NioListener(group);
+ * </pre>
+ * 
+ * @author Simon Raess
+ */
+public class NioEventLoopGroup implements Reactor {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(NioEventLoopGroup.class);
+	
+	/**
+	 * The default interval between two rebalancing attempts in milliseconds.
+	 */
+	public static final long DEFAULT_REBALANCE_INTERVAL = 1000;
+	
+	/**
+	 * The default minimal difference in utilization between the busiest 
+	 * and the least busy loop that triggers a migration.
+	 */
+	public static final double DEFAULT_IMBALANCE_THRESHOLD = 0.2;
+	
+	private final NioEventLoop[] loops;
+	
+	private final Map<LoopBinding, Boolean> bindings = 
+			new ConcurrentHashMap<LoopBinding, Boolean>();
+	
+	private long rebalanceInterval = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REBALANCE_INTERVAL);
+	
+	private double imbalanceThreshold = DEFAULT_IMBALANCE_THRESHOLD;
+	
+	private volatile boolean running;
+	
+	private final Runnable rebalancer = new Runnable() {
+		public void run() {
+			if (running) {
+				rebalance();
+				loops[0].schedule(this, rebalanceInterval, TimeUnit.NANOSECONDS);
+			}
+		}
+	};
+	
+	/**
+	 * Creates a group with one loop per available processor.
+	 * 
+	 * @throws IOException if a selector cannot be opened
+	 */
+	public NioEventLoopGroup() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a group with the given number of loops.
+	 * 
+	 * @param size the number of loops
+	 * @throws IOException if a selector cannot be opened
+	 */
+	public NioEventLoopGroup(int size) throws IOException {
+		if (size <= 0) {
+			throw new IllegalArgumentException("size must be > 0");
+		}
+		this.loops = new NioEventLoop[size];
+		for (int i = 0; i < size; i++) {
+			loops[i] = new NioEventLoop("beep4j-loop-" + i);
+		}
+	}
+	
+	/**
+	 * Sets the interval between two rebalancing attempts. An interval of
+	 * 0 disables rebalancing. Has to be set before the group is started.
+	 * 
+	 * @param interval the interval
+	 * @param unit the unit of the interval
+	 */
+	public void setRebalanceInterval(long interval, TimeUnit unit) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("interval must be >= 0");
+		}
+		this.rebalanceInterval = unit.toNanos(interval);
+	}
+	
+	/**
+	 * Sets the minimal difference in utilization between the busiest and
+	 * the least busy loop that causes a session to be migrated. 
+	 * 
+	 * @param threshold a value between 0 and 1
+	 */
+	public void setImbalanceThreshold(double threshold) {
+		if (threshold < 0 || threshold > 1) {
+			throw new IllegalArgumentException("threshold must be between 0 and 1");
+		}
+		this.imbalanceThreshold = threshold;
+	}
+	
+	/**
+	 * Gets the loops of this group. The utilization and the number of 
+	 * sessions of each loop are available from the loop.
+	 * 
+	 * @return the loops
+	 */
+	public List<NioEventLoop> getLoops() {
+		List<NioEventLoop> result = new ArrayList<NioEventLoop>(loops.length);
+		Collections.addAll(result, loops);
+		return result;
+	}
+	
+	/**
+	 * Starts the threads of all loops and the periodic rebalancing.
+	 */
+	public synchronized void start() {
+		if (running) {
+			throw new IllegalStateException("group has already been started");
+		}
+		running = true;
+		for (int i = 0; i < loops.length; i++) {
+			loops[i].start();
+		}
+		if (rebalanceInterval > 0 && loops.length > 1) {
+			loops[0].schedule(rebalancer, rebalanceInterval, TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Stops the threads of all loops. 
+	 */
+	public synchronized void stop() {
+		running = false;
+		for (int i = 0; i < loops.length; i++) {
+			loops[i].stop();
+		}
+	}
+	
+	// --> start of Reactor methods <--
+	
+	/**
+	 * Registers the channel with the loop serving the fewest sessions. 
+	 * Channels registered this way stay on their loop, registering them
+	 * again changes their registration with that loop.
+	 */
+	public void register(SelectableChannel channel, int ops, EventHandler handler) {
+		for (NioEventLoop loop : loops) {
+			if (loop.isRegistered(channel)) {
+				loop.register(channel, ops, handler);
+				return;
+			}
+		}
+		leastLoaded().register(channel, ops, handler);
+	}
+	
+	// --> end of Reactor methods <--
+	
+	/**
+	 * Binds a new session to the loop serving the fewest sessions.
+	 * 
+	 * @return the binding to which the session is confined
+	 */
+	LoopBinding bind() {
+		LoopBinding binding = new LoopBinding(this, leastLoaded());
+		bindings.put(binding, Boolean.TRUE);
+		return binding;
+	}
+	
+	void released(LoopBinding binding) {
+		bindings.remove(binding);
+	}
+	
+	private NioEventLoop leastLoaded() {
+		NioEventLoop result = loops[0];
+		for (int i = 1; i < loops.length; i++) {
+			if (loops[i].getSessionCount() < result.getSessionCount()) {
+				result = loops[i];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Samples the utilization of the loops and migrates one session if 
+	 * they are unevenly loaded. Invoked by a single thread only.
+	 */
+	void rebalance() {
+		NioEventLoop busiest = null;
+		NioEventLoop idlest = null;
+		for (int i = 0; i < loops.length; i++) {
+			NioEventLoop loop = loops[i];
+			loop.sampleUtilization();
+			if (busiest == null || loop.getUtilization() > busiest.getUtilization()) {
+				busiest = loop;
+			}
+			if (idlest == null || loop.getUtilization() < idlest.getUtilization()) {
+				idlest = loop;
+			}
+		}
+		
+		long busiestEvents = 0;
+		List<LoopBinding> candidates = new ArrayList<LoopBinding>();
+		List<Long> events = new ArrayList<Long>();
+		for (LoopBinding binding : bindings.keySet()) {
+			long delta = binding.sampleEvents();
+			if (binding.getLoop() == busiest) {
+				candidates.add(binding);
+				events.add(delta);
+				busiestEvents += delta;
+			}
+		}
+		
+		double imbalance = busiest.getUtilization() - idlest.getUtilization();
+		if (busiest == idlest || imbalance <= imbalanceThreshold || candidates.size() < 2) {
+			return;
+		}
+		
+		// the share of the busiest loop's events that should be moved
+		double share = imbalance / 2 / busiest.getUtilization();
+		LoopBinding selected = null;
+		double distance = Double.MAX_VALUE;
+		for (int i = 0; i < candidates.size(); i++) {
+			double candidateShare = busiestEvents == 0 
+					? 1.0 / candidates.size() 
+					: (double) events.get(i) / busiestEvents;
+			if (Math.abs(candidateShare - share) < distance) {
+				distance = Math.abs(candidateShare - share);
+				selected = candidates.get(i);
+			}
+		}
+		
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("utilization of " + busiest + " exceeds " + idlest + " by " + imbalance);
+		}
+		selected.migrateTo(idlest);
+	}
+	
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+import net.sf.beep4j.Initiator;
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.internal.InternalException;
+
+/**
+ * Initiator whose connections are served by a {@link Reactor}.
+ * 
+ * @author Simon Raess
+ */
+public class NioInitiator extends AbstractNioPeer implements Initiator {
+	
+	public NioInitiator(Reactor reactor) {
+		super(reactor);
+	}
+	
+	public void connect(SocketAddress address, SessionHandler handler) {
+		try {
+			SocketChannel channel = SocketChannel.open(address);
+			startTransport(channel, true, handler);
+		} catch (IOException e) {
+			throw new InternalException("cannot connect to " + address, e);
+		}
+	}
+
+}
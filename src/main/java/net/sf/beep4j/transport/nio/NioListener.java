@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.beep4j.Listener;
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.SessionHandlerFactory;
+import net.sf.beep4j.internal.util.Assert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener whose server sockets and accepted connections are served by 
+ * a {@link Reactor}.
+ * 
+ * @author Simon Raess
+ */
+public class NioListener extends AbstractNioPeer implements Listener {
+	
+	private static final Logger LOG = LoggerFactory.getLogger("net.sf.beep4j.transport");
+	
+	private final Map<SocketAddress, ServerSocketChannel> servers = 
+			new ConcurrentHashMap<SocketAddress, ServerSocketChannel>();
+	
+	public NioListener(Reactor reactor) {
+		super(reactor);
+	}
+	
+	public void bind(SocketAddress address, final SessionHandlerFactory factory) throws IOException {
+		Assert.notNull("factory", factory);
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(address);
+		server.configureBlocking(false);
+		servers.put(address, server);
+		reactor.register(server, SelectionKey.OP_ACCEPT, new Reactor.EventHandler() {
+			public void handleEvent(SelectionKey key) {
+				accept(server, factory);
+			}
+		});
+	}
+	
+	public void unbind(SocketAddress address) {
+		ServerSocketChannel server = servers.remove(address);
+		if (server != null) {
+			try {
+				server.close();
+			} catch (IOException e) {
+				LOG.warn("failed to close server socket", e);
+			}
+		}
+	}
+	
+	private void accept(ServerSocketChannel server, SessionHandlerFactory factory) {
+		try {
+			SocketChannel channel = server.accept();
+			if (channel == null) {
+				return;
+			}
+			SessionHandler handler = factory.createSessionHandler();
+			startTransport(channel, false, handler);
+		} catch (IOException e) {
+			LOG.warn("failed to accept connection", e);
+		}
+	}
+	
+}
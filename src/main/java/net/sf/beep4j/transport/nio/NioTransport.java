@@ -0,0 +1,456 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.beep4j.ChannelFilterChainBuilder;
+import net.sf.beep4j.ReferenceCounted;
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.internal.ChannelSlots;
+import net.sf.beep4j.internal.InternalException;
+import net.sf.beep4j.internal.session.SessionImpl;
+import net.sf.beep4j.internal.stream.BeepStream;
+import net.sf.beep4j.internal.stream.DefaultStreamParser;
+import net.sf.beep4j.internal.stream.DefaultTransportContext;
+import net.sf.beep4j.internal.stream.DelegatingFrameHandler;
+import net.sf.beep4j.internal.stream.FrameHandler;
+import net.sf.beep4j.internal.stream.FrameHandlerFactory;
+import net.sf.beep4j.internal.stream.MessageAssembler;
+import net.sf.beep4j.internal.stream.QueueingBeepStream;
+import net.sf.beep4j.internal.stream.StreamingFrameHandler;
+import net.sf.beep4j.internal.stream.StreamingMessageHandler;
+import net.sf.beep4j.internal.tcp.TCPMapping;
+import net.sf.beep4j.internal.util.Assert;
+import net.sf.beep4j.internal.util.EventLoop;
+import net.sf.beep4j.transport.DeflatingTransport;
+import net.sf.beep4j.transport.FileTransport;
+import net.sf.beep4j.transport.GatheringTransport;
+import net.sf.beep4j.transport.LoggingTransportContext;
+import net.sf.beep4j.transport.TransportContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport implementation on top of a non-blocking SocketChannel whose
+ * read events are processed by a {@link Reactor}. The thread that reads 
+ * a buffer also passes it through the stream parser and the session. 
+ * The sending thread writes as many bytes as the socket accepts without
+ * blocking. The rest is queued and written by the reactor as soon as the
+ * channel becomes writable, so a slow peer never blocks the sender. The
+ * queued bytes are bounded by the flow control windows of the channels. If the transport is 
+ * created for an {@link EventLoop}, the session is confined to the
+ * thread of that loop.
+ * 
+ * @author Simon Raess
+ */
+public class NioTransport implements FileTransport, GatheringTransport, Reactor.EventHandler {
+	
+	private static final Logger LOG = LoggerFactory.getLogger("net.sf.beep4j.transport");
+	
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	private final SocketChannel channel;
+	
+	private final TransportContext context;
+	
+	/**
+	 * The buffer bytes are read into if the channel is not served by an
+	 * {@link NioEventLoop}, which lends its own buffer. Only accessed by 
+	 * the thread that processes the current read event.
+	 */
+	private ByteBuffer readBuffer;
+	
+	private final Object writeLock = new Object();
+	
+	/**
+	 * Buffers waiting for the channel to become writable. Guarded by the
+	 * write lock.
+	 */
+	private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+	
+	/**
+	 * Whether the channel has been registered with the reactor. Guarded 
+	 * by the write lock.
+	 */
+	private boolean registered;
+	
+	/**
+	 * Whether the transport is closed as soon as the queued buffers have
+	 * been written. Guarded by the write lock.
+	 */
+	private boolean closing;
+	
+	private final AtomicBoolean closed = new AtomicBoolean();
+	
+	/**
+	 * The event loop the session is confined to or null.
+	 */
+	private final EventLoop eventLoop;
+	
+	/**
+	 * The reactor the channel is registered with.
+	 */
+	private volatile Reactor reactor;
+	
+	public NioTransport(
+			SocketChannel channel,
+			boolean initiator, 
+			SessionHandler sessionHandler, 
+			ChannelFilterChainBuilder channelFilterChainBuilder,
+			boolean compressionEnabled,
+			Executor executor) {
+		this(channel, initiator, sessionHandler, channelFilterChainBuilder, 
+				compressionEnabled, executor, null);
+	}
+	
+	public NioTransport(
+			SocketChannel channel,
+			boolean initiator, 
+			SessionHandler sessionHandler, 
+			ChannelFilterChainBuilder channelFilterChainBuilder,
+			boolean compressionEnabled,
+			Executor executor,
+			EventLoop eventLoop) {
+		this(channel, initiator, sessionHandler, channelFilterChainBuilder, 
+				compressionEnabled, executor, null, eventLoop);
+	}
+	
+	public NioTransport(
+			SocketChannel channel,
+			boolean initiator, 
+			SessionHandler sessionHandler, 
+			ChannelFilterChainBuilder channelFilterChainBuilder,
+			boolean compressionEnabled,
+			Executor executor,
+			Executor writerExecutor,
+			EventLoop eventLoop) {
+		Assert.notNull("channel", channel);
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		
+		final ChannelSlots slots = new ChannelSlots();
+		final TCPMapping mapping = new TCPMapping(
+				compressionEnabled ? new DeflatingTransport(this) : this, slots);
+		final BeepStream stream = writerExecutor != null 
+				? new QueueingBeepStream(mapping, writerExecutor) : mapping;
+		final SessionImpl session = new SessionImpl(initiator, sessionHandler, stream, eventLoop, slots);
+		session.setChannelFilterChainBuilder(channelFilterChainBuilder);
+		session.setExecutor(executor);
+		final StreamingMessageHandler messageHandler = session;
+		final DelegatingFrameHandler frameHandler = new DelegatingFrameHandler(new FrameHandlerFactory() {
+			public FrameHandler createFrameHandler(int channelNumber) {
+				if (messageHandler.isStreamingChannel(channelNumber)) {
+					return new StreamingFrameHandler(messageHandler);
+				}
+				return new MessageAssembler(messageHandler);
+			}
+		}, slots);
+		session.addSessionListener(frameHandler);
+		
+		final DefaultStreamParser parser = new DefaultStreamParser(frameHandler, mapping, slots);
+		parser.setCompressionEnabled(compressionEnabled);
+		this.context = new LoggingTransportContext(new DefaultTransportContext(session, parser));
+	}
+	
+	/**
+	 * Starts the session on this transport and registers the channel
+	 * with the reactor. The session of a transport confined to an 
+	 * event loop is started by the thread of the loop.
+	 * 
+	 * @param reactor the reactor processing the read events
+	 * @throws IOException if the channel cannot be configured
+	 */
+	public void start(final Reactor reactor) throws IOException {
+		this.reactor = reactor;
+		channel.configureBlocking(false);
+		if (eventLoop == null || eventLoop.inEventLoop()) {
+			doStart(reactor);
+		} else {
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					doStart(reactor);
+				}
+			});
+		}
+	}
+	
+	private void doStart(Reactor reactor) {
+		context.connectionEstablished(channel.socket().getRemoteSocketAddress());
+		synchronized (writeLock) {
+			registered = true;
+			updateInterest();
+		}
+	}
+	
+	// --> start of EventHandler methods <--
+	
+	public void handleEvent(SelectionKey key) {
+		int ready = key.readyOps();
+		if ((ready & SelectionKey.OP_WRITE) != 0) {
+			flush();
+		}
+		if ((ready & SelectionKey.OP_READ) != 0 && !closed.get()) {
+			read();
+		}
+	}
+	
+	private void read() {
+		ByteBuffer buffer = getReadBuffer();
+		int count;
+		try {
+			buffer.clear();
+			count = channel.read(buffer);
+		} catch (IOException e) {
+			context.exceptionCaught(e);
+			close();
+			return;
+		}
+		if (count < 0) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("transport session closed by remote peer");
+			}
+			close();
+		} else if (count > 0) {
+			buffer.flip();
+			try {
+				context.messageReceived(buffer);
+			} catch (RuntimeException e) {
+				context.exceptionCaught(e);
+			}
+		}
+	}
+	
+	private ByteBuffer getReadBuffer() {
+		NioEventLoop loop = NioEventLoop.current();
+		if (loop != null) {
+			return loop.getReadBuffer();
+		}
+		if (readBuffer == null) {
+			readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+		return readBuffer;
+	}
+	
+	// --> end of EventHandler methods <--
+	
+	// --> start of FileTransport and GatheringTransport methods <--
+	
+	public void sendBytes(ByteBuffer buffer) {
+		synchronized (writeLock) {
+			if (pendingWrites.isEmpty()) {
+				write(buffer);
+			}
+			enqueue(buffer);
+		}
+	}
+	
+	/**
+	 * The three buffers are written with a gathering write. If the channel
+	 * does not accept all of the bytes, the rest of the payload is copied
+	 * before it is queued, because the payload is only valid until this 
+	 * method returns.
+	 */
+	public void sendBuffers(ByteBuffer header, ByteBuffer payload, ByteBuffer trailer, 
+			ReferenceCounted owner) {
+		synchronized (writeLock) {
+			if (pendingWrites.isEmpty()) {
+				write(header, payload, trailer);
+			}
+			enqueue(header);
+			if (payload.hasRemaining()) {
+				ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+				copy.put(payload);
+				copy.flip();
+				enqueue(copy);
+			}
+			enqueue(trailer);
+		}
+	}
+	
+	/**
+	 * The file region is transferred directly from the file channel to
+	 * the socket channel. If the channel does not accept all of the bytes,
+	 * the rest of the region is mapped into memory and queued.
+	 */
+	public void sendFile(ByteBuffer header, FileChannel file, long position, int count, 
+			ByteBuffer trailer) {
+		synchronized (writeLock) {
+			long sent = 0;
+			if (pendingWrites.isEmpty()) {
+				write(header);
+				if (!header.hasRemaining()) {
+					sent = transfer(file, position, count);
+					if (sent == count) {
+						write(trailer);
+					}
+				}
+			}
+			enqueue(header);
+			if (sent < count) {
+				enqueue(map(file, position + sent, (int) (count - sent)));
+			}
+			enqueue(trailer);
+		}
+	}
+	
+	/**
+	 * If buffers are still queued, the transport is closed once they
+	 * have been written.
+	 */
+	public void closeTransport() {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("close transport");
+		}
+		synchronized (writeLock) {
+			if (!pendingWrites.isEmpty()) {
+				closing = true;
+				return;
+			}
+		}
+		close();
+	}
+	
+	// --> end of FileTransport and GatheringTransport methods <--
+	
+	/*
+	 * Writes the given buffers until the channel does not accept any more
+	 * bytes. Invoked with the write lock held.
+	 */
+	private void write(ByteBuffer... buffers) {
+		ByteBuffer last = buffers[buffers.length - 1];
+		try {
+			while (last.hasRemaining() && channel.write(buffers) > 0) {
+				// continue writing
+			}
+		} catch (IOException e) {
+			throw new InternalException("failed to send bytes", e);
+		}
+	}
+	
+	private long transfer(FileChannel file, long position, int count) {
+		long sent = 0;
+		try {
+			while (sent < count) {
+				long transferred = file.transferTo(position + sent, count - sent, channel);
+				if (transferred == 0) {
+					break;
+				}
+				sent += transferred;
+			}
+		} catch (IOException e) {
+			throw new InternalException("failed to send file region", e);
+		}
+		return sent;
+	}
+	
+	private static ByteBuffer map(FileChannel file, long position, int count) {
+		try {
+			return file.map(MapMode.READ_ONLY, position, count);
+		} catch (IOException e) {
+			throw new InternalException("cannot map file region", e);
+		}
+	}
+	
+	/*
+	 * Queues the remaining bytes of the buffer. Invoked with the write 
+	 * lock held.
+	 */
+	private void enqueue(ByteBuffer buffer) {
+		if (buffer.hasRemaining() && !closed.get()) {
+			pendingWrites.add(buffer);
+			if (pendingWrites.size() == 1) {
+				updateInterest();
+			}
+		}
+	}
+	
+	/*
+	 * Writes queued buffers until the queue is empty or the channel does 
+	 * not accept any more bytes. Invoked by the reactor when the channel
+	 * is writable.
+	 */
+	private void flush() {
+		IOException failure = null;
+		boolean closeNow = false;
+		synchronized (writeLock) {
+			try {
+				while (!pendingWrites.isEmpty()) {
+					ByteBuffer buffer = pendingWrites.peek();
+					channel.write(buffer);
+					if (buffer.hasRemaining()) {
+						return;
+					}
+					pendingWrites.remove();
+				}
+				updateInterest();
+				closeNow = closing;
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		// the session is notified without holding the write lock
+		if (failure != null) {
+			context.exceptionCaught(failure);
+			close();
+		} else if (closeNow) {
+			close();
+		}
+	}
+	
+	/*
+	 * Registers interest in write events as long as buffers are queued.
+	 * Invoked with the write lock held.
+	 */
+	private void updateInterest() {
+		if (registered && !closed.get()) {
+			int ops = SelectionKey.OP_READ;
+			if (!pendingWrites.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			reactor.register(channel, ops, this);
+		}
+	}
+	
+	private void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.warn("failed to close channel", e);
+		}
+		synchronized (writeLock) {
+			pendingWrites.clear();
+		}
+		context.connectionClosed();
+		if (reactor instanceof LoopBinding) {
+			((LoopBinding) reactor).release();
+		}
+	}
+	
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Demultiplexes the I/O events of a set of selectable channels and
+ * passes them to the handler of the channel. The events of a channel
+ * are handled one after the other.
+ * 
+ * @author Simon Raess
+ */
+public interface Reactor {
+	
+	/**
+	 * Handles the I/O events of one channel registered with a reactor.
+	 */
+	public static interface EventHandler {
+		
+		/**
+		 * Processes the ready operations of the channel. The channel is not
+		 * selected again until this method returns.
+		 * 
+		 * @param key the selection key of the channel
+		 */
+		void handleEvent(SelectionKey key);
+		
+	}
+	
+	/**
+	 * Registers a channel with the reactor. The handler is invoked whenever 
+	 * one of the given operations is ready. Registering a channel that is
+	 * already registered replaces its interest set and handler. This 
+	 * method may be invoked by any thread, the change is applied 
+	 * asynchronously unless the caller is the thread of the reactor.
+	 * 
+	 * @param channel the non-blocking channel
+	 * @param ops the interest set
+	 * @param handler the handler of the channel's events
+	 */
+	void register(SelectableChannel channel, int ops, EventHandler handler);
+	
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.BroadcastHandler;
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.CloseChannelCallback;
+import net.sf.beep4j.FailureAwareReplyHandler;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.MessageOutputStream;
+import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.Session;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+import net.sf.beep4j.internal.message.PreEncodedMessage;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+public class ChannelBroadcasterTest extends TestCase {
+	
+	private Mockery context;
+	
+	private BroadcastHandler handler;
+	
+	@Override
+	protected void setUp() throws Exception {
+		context = new Mockery();
+		handler = context.mock(BroadcastHandler.class);
+	}
+	
+	private Message createMessage() throws IOException {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setContentType("text", "plain");
+		builder.setCharsetName("US-ASCII");
+		builder.getOutputStream().write(42);
+		return builder.getMessage();
+	}
+	
+	public void testBroadcast() throws Exception {
+		final Message message = createMessage();
+		final RecordingChannel first = new RecordingChannel(false);
+		final RecordingChannel second = new RecordingChannel(false);
+		final RecordingChannel closed = new RecordingChannel(true);
+		
+		context.checking(new Expectations() {{
+			one(handler).sendFailed(with(same(closed)), with(any(IllegalStateException.class)));
+			one(handler).receivedRPY(with(same(first)), with(same(message)));
+			one(handler).receivedERR(with(same(second)), with(same(message)));
+		}});
+		
+		int count = ChannelBroadcaster.broadcast(message, 
+				Arrays.asList(new Channel[] { first, closed, second }), handler);
+		
+		assertEquals(2, count);
+		assertTrue(first.messages.get(0) instanceof PreEncodedMessage);
+		assertSame(first.messages.get(0), second.messages.get(0));
+		assertEquals(message, first.messages.get(0));
+		
+		first.replyHandlers.get(0).receivedRPY(message);
+		second.replyHandlers.get(0).receivedERR(message);
+		
+		context.assertIsSatisfied();
+	}
+	
+	public void testLateSendFailureIsReported() throws Exception {
+		final Message message = createMessage();
+		final RecordingChannel channel = new RecordingChannel(false);
+		final IllegalStateException cause = new IllegalStateException("channel is closed");
+		
+		context.checking(new Expectations() {{
+			one(handler).sendFailed(channel, cause);
+		}});
+		
+		int count = ChannelBroadcaster.broadcast(message, 
+				Arrays.asList(new Channel[] { channel }), handler);
+		
+		assertEquals(1, count);
+		ReplyHandler replyHandler = channel.replyHandlers.get(0);
+		assertTrue(replyHandler instanceof FailureAwareReplyHandler);
+		((FailureAwareReplyHandler) replyHandler).sendFailed(cause);
+		
+		context.assertIsSatisfied();
+	}
+	
+	private static class RecordingChannel implements Channel {
+		private final boolean closed;
+		private final List<Message> messages = new ArrayList<Message>();
+		private final List<ReplyHandler> replyHandlers = new ArrayList<ReplyHandler>();
+		
+		private RecordingChannel(boolean closed) {
+			this.closed = closed;
+		}
+		
+		public String getProfile() {
+			return "http://example.com/profile";
+		}
+		
+		public Session getSession() {
+			throw new UnsupportedOperationException();
+		}
+		
+		public MessageBuilder createMessageBuilder() {
+			return new DefaultMessageBuilder();
+		}
+		
+		public void sendMessage(Message message, ReplyHandler replyHandler) {
+			if (closed) {
+				throw new IllegalStateException("channel is closed");
+			}
+			messages.add(message);
+			replyHandlers.add(replyHandler);
+		}
+		
+		public MessageOutputStream openMessage(MessageBuilder builder, ReplyHandler replyHandler) {
+			throw new UnsupportedOperationException();
+		}
+		
+		public void close(CloseChannelCallback callback) {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.ChannelFilter.NextFilter;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+import net.sf.beep4j.internal.message.DefaultMessageParser;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+
+public class DeflateFilterTest extends TestCase {
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private Mockery context;
+	
+	private NextFilter next;
+	
+	private Message filtered;
+	
+	@Override
+	protected void setUp() throws Exception {
+		context = new Mockery();
+		next = context.mock(NextFilter.class);
+	}
+	
+	private Message createMessage(String content) throws Exception {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setContentType("application", "beep+xml");
+		builder.setCharsetName("US-ASCII");
+		builder.addHeader("X-Id", "42");
+		Writer writer = builder.getWriter();
+		writer.write(content);
+		writer.close();
+		return builder.getMessage();
+	}
+	
+	private static String createContent(int repetitions) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < repetitions; i++) {
+			builder.append("<item id='").append(i).append("'>value</item>");
+		}
+		return builder.toString();
+	}
+	
+	private Action capture() {
+		return new CustomAction("capture message") {
+			public Object invoke(Invocation invocation) throws Throwable {
+				filtered = (Message) invocation.getParameter(0);
+				return null;
+			}
+		};
+	}
+	
+	private static String getContent(Message message) {
+		return ASCII.decode(message.getContentBuffer()).toString();
+	}
+	
+	private Message send(DeflateFilter filter, Message message) {
+		context.checking(new Expectations() {{
+			one(next).filterSendRPY(with(any(Message.class))); will(capture());
+		}});
+		filter.filterSendRPY(next, message);
+		return filtered;
+	}
+	
+	private Message receive(DeflateFilter filter, Message message) {
+		final Reply reply = context.mock(Reply.class, "reply" + System.identityHashCode(message));
+		context.checking(new Expectations() {{
+			one(next).filterMessageReceived(with(any(Message.class)), with(same(reply))); will(capture());
+		}});
+		filter.filterMessageReceived(next, message, reply);
+		return filtered;
+	}
+	
+	public void testCompressAndDecompress() throws Exception {
+		String content = createContent(100);
+		Message compressed = send(new DeflateFilter(), createMessage(content));
+		
+		assertEquals("deflate", compressed.getHeader(DeflateFilter.CONTENT_ENCODING));
+		assertEquals("application/beep+xml", compressed.getContentType());
+		assertTrue(compressed.getContentBuffer().remaining() < content.length());
+		
+		// transfer over the wire
+		Message received = new DefaultMessageParser().parse(compressed.asByteBuffer());
+		Message decompressed = receive(new DeflateFilter(), received);
+		
+		assertNull(decompressed.getHeader(DeflateFilter.CONTENT_ENCODING));
+		assertEquals("42", decompressed.getHeader("X-Id"));
+		assertEquals("application/beep+xml", decompressed.getContentType());
+		assertEquals(content, getContent(decompressed));
+		context.assertIsSatisfied();
+	}
+	
+	public void testSmallMessageNotCompressed() throws Exception {
+		Message message = createMessage("<small/>");
+		assertSame(message, send(new DeflateFilter(), message));
+		assertSame(message, receive(new DeflateFilter(), message));
+		context.assertIsSatisfied();
+	}
+	
+	public void testPresetDictionary() throws Exception {
+		byte[] dictionary = "<item id=''>value</item>".getBytes(ASCII);
+		String content = createContent(20);
+		
+		Message compressed = send(new DeflateFilter(0, dictionary), createMessage(content));
+		Message decompressed = receive(new DeflateFilter(0, dictionary), compressed);
+		assertEquals(content, getContent(decompressed));
+		
+		try {
+			new DeflateFilter().decompress(compressed);
+			fail("decompression without the dictionary must fail");
+		} catch (ProtocolException e) {
+			// expected
+		}
+		context.assertIsSatisfied();
+	}
+	
+	public void testMaximumInflatedSize() throws Exception {
+		String content = createContent(1000);
+		Message compressed = send(new DeflateFilter(), createMessage(content));
+		
+		DeflateFilter exact = new DeflateFilter(DeflateFilter.DEFAULT_THRESHOLD, null, content.length());
+		assertEquals(content, getContent(exact.decompress(compressed)));
+		
+		try {
+			new DeflateFilter(DeflateFilter.DEFAULT_THRESHOLD, null, content.length() - 1)
+					.decompress(compressed);
+			fail("content exceeding the maximum size must be rejected");
+		} catch (ProtocolException e) {
+			// expected
+		}
+		context.assertIsSatisfied();
+	}
+	
+	public void testCorruptContent() throws Exception {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.addHeader(DeflateFilter.CONTENT_ENCODING, DeflateFilter.DEFLATE);
+		builder.getContentBuffer(4).put(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+		try {
+			new DeflateFilter().decompress(builder.getMessage());
+			fail("corrupt content must be detected");
+		} catch (ProtocolException e) {
+			// expected
+		}
+	}
+	
+}
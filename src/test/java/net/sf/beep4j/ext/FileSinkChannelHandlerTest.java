@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.ChannelHandler;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+import net.sf.beep4j.internal.message.FileRegionMessage;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+
+public class FileSinkChannelHandlerTest extends TestCase {
+	
+	private Mockery context;
+	
+	private ChannelHandler target;
+	
+	private Reply reply;
+	
+	private Message received;
+	
+	private File directory;
+	
+	@Override
+	protected void setUp() throws Exception {
+		context = new Mockery();
+		target = context.mock(ChannelHandler.class);
+		reply = context.mock(Reply.class);
+		directory = File.createTempFile("beep4j", ".dir");
+		directory.delete();
+		directory.mkdir();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		if (received instanceof FileRegionMessage) {
+			((FileRegionMessage) received).close();
+		}
+		File[] files = directory.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		directory.delete();
+	}
+	
+	private Message createHeader() {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setContentType("application", "octet-stream");
+		builder.addHeader("X-Name", "bulk");
+		return builder.getMessage();
+	}
+	
+	private Action storeMessage() {
+		return new CustomAction("store message") {
+			public Object invoke(Invocation invocation) throws Throwable {
+				received = (Message) invocation.getParameter(0);
+				return null;
+			}
+		};
+	}
+	
+	private static ByteBuffer toBuffer(String content) throws Exception {
+		return ByteBuffer.wrap(content.getBytes("US-ASCII"));
+	}
+	
+	public void testMessageStoredInFile() throws Exception {
+		FileSinkChannelHandler handler = new FileSinkChannelHandler(target, directory);
+		
+		context.checking(new Expectations() {{
+			one(target).messageReceived(with(any(Message.class)), with(same(reply)));
+			will(storeMessage());
+		}});
+		
+		MessageContentHandler contentHandler = handler.messageStarted(createHeader(), reply);
+		ByteBuffer first = toBuffer("abc");
+		contentHandler.contentReceived(first);
+		contentHandler.contentReceived(toBuffer("defg"));
+		contentHandler.contentCompleted();
+		
+		context.assertIsSatisfied();
+		assertEquals(3, first.remaining());
+		assertTrue(received instanceof FileRegionMessage);
+		assertEquals("application/octet-stream", received.getContentType());
+		assertEquals("bulk", received.getHeader("X-Name"));
+		assertEquals(toBuffer("abcdefg"), received.getContentBuffer());
+	}
+	
+	public void testContentAppendedToFile() throws Exception {
+		final File file = new File(directory, "content");
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.write(toBuffer("prefix"));
+		channel.close();
+		
+		FileSinkChannelHandler handler = new FileSinkChannelHandler(target, null) {
+			@Override
+			protected File createFile(Message header) {
+				return file;
+			}
+		};
+		
+		context.checking(new Expectations() {{
+			one(target).messageReceived(with(any(Message.class)), with(same(reply)));
+			will(storeMessage());
+		}});
+		
+		MessageContentHandler contentHandler = handler.messageStarted(createHeader(), reply);
+		contentHandler.contentReceived(toBuffer("xyz"));
+		contentHandler.contentCompleted();
+		
+		context.assertIsSatisfied();
+		FileRegionMessage message = (FileRegionMessage) received;
+		assertEquals(6, message.getPosition());
+		assertEquals(3, message.getLength());
+		assertEquals(toBuffer("xyz"), message.getContentBuffer());
+		assertEquals(file, message.getFile());
+	}
+	
+	public void testDeleteStoredMessage() throws Exception {
+		FileSinkChannelHandler handler = new FileSinkChannelHandler(target, directory);
+		
+		context.checking(new Expectations() {{
+			one(target).messageReceived(with(any(Message.class)), with(same(reply)));
+			will(storeMessage());
+		}});
+		
+		MessageContentHandler contentHandler = handler.messageStarted(createHeader(), reply);
+		contentHandler.contentReceived(toBuffer("abc"));
+		contentHandler.contentCompleted();
+		
+		FileRegionMessage message = (FileRegionMessage) received;
+		assertTrue(message.getFile().exists());
+		assertTrue(message.delete());
+		assertFalse(message.getFileChannel().isOpen());
+		assertEquals(0, directory.listFiles().length);
+	}
+	
+	public void testAbortedMessageIsDeleted() throws Exception {
+		FileSinkChannelHandler handler = new FileSinkChannelHandler(target, directory);
+		
+		MessageContentHandler contentHandler = handler.messageStarted(createHeader(), reply);
+		contentHandler.contentReceived(toBuffer("abc"));
+		assertEquals(1, directory.listFiles().length);
+		contentHandler.contentAborted(new Exception("connection closed"));
+		
+		context.assertIsSatisfied();
+		assertEquals(0, directory.listFiles().length);
+	}
+	
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.ext;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageCodec;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.internal.message.DefaultMessageParser;
+import net.sf.beep4j.internal.util.BufferPool;
+import net.sf.beep4j.internal.util.ReferenceCounting;
+
+import org.jmock.Mockery;
+
+public class MessageCodecsTest extends TestCase {
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private static class StringCodec implements MessageCodec<String> {
+		public String getContentType() {
+			return "text/x-test";
+		}
+		public int getEncodedLength(String object) {
+			return object.length();
+		}
+		public void encode(String object, ByteBuffer buffer) {
+			buffer.put(object.getBytes(ASCII));
+		}
+		public String decode(ByteBuffer content) {
+			return ASCII.decode(content).toString();
+		}
+	}
+	
+	public void testEncodeDecode() throws Exception {
+		StringCodec codec = new StringCodec();
+		Message message = MessageCodecs.encode(codec, "hello");
+		
+		assertEquals("text/x-test", message.getContentType());
+		assertEquals("hello", MessageCodecs.decode(codec, message));
+		
+		Message parsed = new DefaultMessageParser().parse(message.asByteBuffer());
+		assertEquals("text/x-test", parsed.getContentType());
+		assertEquals("hello", MessageCodecs.decode(codec, parsed));
+	}
+	
+	public void testEncodedLengthMismatch() throws Exception {
+		StringCodec codec = new StringCodec() {
+			@Override
+			public int getEncodedLength(String object) {
+				return object.length() + 1;
+			}
+		};
+		BufferPool pool = new BufferPool(1024, 4);
+		try {
+			MessageCodecs.encode(codec, "hello", pool);
+			fail("wrong encoded length must be detected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, pool.getPooledCount());
+	}
+	
+	public void testFailingCodecFreesBuffer() throws Exception {
+		StringCodec codec = new StringCodec() {
+			@Override
+			public void encode(String object, ByteBuffer buffer) {
+				throw new IllegalArgumentException("cannot encode " + object);
+			}
+		};
+		BufferPool pool = new BufferPool(1024, 4);
+		try {
+			MessageCodecs.encode(codec, "hello", pool);
+			fail("codec exception must be propagated");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, pool.getPooledCount());
+	}
+	
+	public void testReleasedMessageReturnsBufferToPool() throws Exception {
+		StringCodec codec = new StringCodec();
+		BufferPool pool = new BufferPool(1024, 4);
+		
+		Message first = MessageCodecs.encode(codec, "hello", pool);
+		ReferenceCounting.retain(first);
+		ReferenceCounting.release(first);
+		assertEquals(0, pool.getPooledCount());
+		assertEquals("hello", MessageCodecs.decode(codec, first));
+		ReferenceCounting.release(first);
+		assertEquals(1, pool.getPooledCount());
+		
+		Message second = MessageCodecs.encode(codec, "hi", pool);
+		assertEquals(0, pool.getPooledCount());
+		assertEquals("hi", MessageCodecs.decode(codec, second));
+		Message parsed = new DefaultMessageParser().parse(second.asByteBuffer());
+		assertEquals("hi", MessageCodecs.decode(codec, parsed));
+	}
+	
+	public void testCodecChannelHandler() throws Exception {
+		Mockery context = new Mockery();
+		final Reply reply = context.mock(Reply.class);
+		final StringCodec codec = new StringCodec();
+		final String[] received = new String[1];
+		
+		CodecChannelHandler<String> handler = new CodecChannelHandler<String>(codec) {
+			@Override
+			protected void objectReceived(String object, Reply r) {
+				assertSame(reply, r);
+				received[0] = object;
+			}
+		};
+		
+		handler.messageReceived(MessageCodecs.encode(codec, "world"), reply);
+		assertEquals("world", received[0]);
+		context.assertIsSatisfied();
+	}
+	
+}
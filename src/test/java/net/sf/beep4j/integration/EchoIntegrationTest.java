@@ -21,13 +21,15 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Writer;
 import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import net.sf.beep4j.Channel;
 import net.sf.beep4j.CloseChannelCallback;
-import net.sf.beep4j.Initiator;
 import net.sf.beep4j.Message;
 import net.sf.beep4j.MessageBuilder;
 import net.sf.beep4j.ProfileInfo;
@@ -40,6 +42,7 @@ import net.sf.beep4j.StartChannelRequest;
 import net.sf.beep4j.StartSessionRequest;
 import net.sf.beep4j.ext.ChannelHandlerAdapter;
 import net.sf.beep4j.ext.SessionHandlerAdapter;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
 import net.sf.beep4j.transport.mina.MinaInitiator;
 import net.sf.beep4j.transport.mina.MinaListener;
 
@@ -51,6 +54,16 @@ import org.apache.mina.transport.vmpipe.VmPipeConnector;
 
 public class EchoIntegrationTest extends TestCase {
 	
+	/**
+	 * Records the bytes exchanged by the peers of the current test.
+	 */
+	protected final WireTap wireTap = new WireTap();
+	
+	@Override
+	protected void tearDown() throws Exception {
+		wireTap.close();
+	}
+	
 	public void testOneToManyEcho() throws Exception {
 		ProfileInfo profile = new ProfileInfo(OneToManyEchoProfileHandler.PROFILE, "8192");
 		String text = loadMessage("rfc3080.txt");
@@ -75,26 +88,91 @@ public class EchoIntegrationTest extends TestCase {
 		doTest(profile, 3, text, 8001);
 	}
 	
+	public void testCompressedEcho() throws Exception {
+		ProfileInfo profile = new ProfileInfo(EchoProfileHandler.PROFILE);
+		String text = loadMessage("rfc3080.txt");
+		doTest(profile, 3, text, 8001, true);
+		wireTap.assertCompressed(text);
+	}
+	
+	public void testPiggybackedEcho() throws Exception {
+		ProfileInfo profile = new ProfileInfo(EchoProfileHandler.PROFILE);
+		String text = "piggybacked echo request";
+		doTest(profile, 2, text, 8001, false, true);
+	}
+	
+	public void testDispatchedEcho() throws Exception {
+		ProfileInfo profile = new ProfileInfo(OneToManyEchoProfileHandler.PROFILE, "8192");
+		String text = loadMessage("rfc3080.txt");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			doTest(profile, 3, text, 8001, false, false, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	public void testDispatchedPiggybackedEcho() throws Exception {
+		ProfileInfo profile = new ProfileInfo(EchoProfileHandler.PROFILE);
+		String text = "piggybacked echo request";
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			doTest(profile, 2, text, 8001, false, true, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
 	protected void doTest(ProfileInfo profile, int channels, String text, int port) throws Exception {
+		doTest(profile, channels, text, port, false);
+	}
+	
+	protected void doTest(ProfileInfo profile, int channels, String text, int port, 
+			boolean compression) throws Exception {
+		doTest(profile, channels, text, port, compression, false);
+	}
+	
+	protected void doTest(ProfileInfo profile, int channels, String text, int port, 
+			boolean compression, boolean piggyback) throws Exception {
+		doTest(profile, channels, text, port, compression, piggyback, null);
+	}
+	
+	protected void doTest(ProfileInfo profile, int channels, String text, int port, 
+			boolean compression, boolean piggyback, Executor executor) throws Exception {
 		Semaphore sem = new Semaphore(-channels);
+		EchoClientHandler client = new EchoClientHandler(profile, channels, text, sem, compression, piggyback);
+		
+		runPeers(new EchoSessionHandlerFactory(sem), client, port, compression, executor, sem);
 		
+		client.assertEquals(text);
+	}
+	
+	/*
+	 * Connects the client to a listener using the given factory and waits 
+	 * until the semaphore can be acquired.
+	 */
+	protected void runPeers(SessionHandlerFactory factory, SessionHandler client, int port, 
+			boolean compression, Executor executor, Semaphore sem) throws Exception {
 		IoAcceptor acceptor = new VmPipeAcceptor();
+		acceptor.getFilterChain().addLast("wiretap", wireTap.getListenerFilter());
 		
 		SocketAddress address = new VmPipeAddress(port);
 
 		MinaListener listener = new MinaListener(acceptor);
-		listener.bind(address, new EchoSessionHandlerFactory(sem));
+		listener.setCompressionEnabled(compression);
+		listener.setExecutor(executor);
+		listener.bind(address, factory);
 		
 		IoConnector connector = new VmPipeConnector();
-		EchoClientHandler client = new EchoClientHandler(profile, channels, text, sem);
+		connector.getFilterChain().addLast("wiretap", wireTap.getInitiatorFilter());
 		
-		Initiator initiator = new MinaInitiator(connector);
+		MinaInitiator initiator = new MinaInitiator(connector);
+		initiator.setCompressionEnabled(compression);
+		initiator.setExecutor(executor);
 		initiator.connect(address, client);
 		
 		sem.acquire();
 		listener.unbind(address);
-		
-		client.assertEquals(text);
 	}
 	
 	private String loadMessage(String resource) throws IOException {
@@ -138,9 +216,12 @@ public class EchoIntegrationTest extends TestCase {
 		@Override
 		public void channelStartRequested(StartChannelRequest startup) {
 			if (startup.hasProfile(EchoProfileHandler.PROFILE)) {
-				startup.selectProfile(
-						startup.getProfile(EchoProfileHandler.PROFILE), 
-						new EchoProfileHandler());				
+				ProfileInfo profile = startup.getProfile(EchoProfileHandler.PROFILE);
+				if (profile.hasContent()) {
+					startup.selectProfileWithRequest(profile, new EchoProfileHandler());
+				} else {
+					startup.selectProfile(profile, new EchoProfileHandler());
+				}
 			} else if (startup.hasProfile(OneToManyEchoProfileHandler.PROFILE)) {
 				ProfileInfo profile = startup.getProfile(OneToManyEchoProfileHandler.PROFILE);
 				int size = getSize(profile.getContent());
@@ -166,13 +247,18 @@ public class EchoIntegrationTest extends TestCase {
 		private final ProfileInfo profile;
 		private final String text;
 		private final Semaphore semaphore;
+		private final boolean compression;
+		private final boolean piggyback;
 		private Talker[] talkers;
 		
-		private EchoClientHandler(ProfileInfo profile, int channels, String text, Semaphore semaphore) {
+		private EchoClientHandler(ProfileInfo profile, int channels, String text, 
+				Semaphore semaphore, boolean compression, boolean piggyback) {
 			this.profile = profile;
 			this.talkers = new Talker[channels];
 			this.text = text;
 			this.semaphore = semaphore;
+			this.compression = compression;
+			this.piggyback = piggyback;
 		}
 		
 		public void assertEquals(String text) {
@@ -184,9 +270,17 @@ public class EchoIntegrationTest extends TestCase {
 		
 		@Override
 		public void sessionOpened(Session session) {
+			if (compression) {
+				session.startCompression();
+			}
 			for (int i = 0; i < talkers.length; i++) {
-				talkers[i] = new Talker(text, semaphore);
-				session.startChannel(profile, talkers[i]);
+				talkers[i] = new Talker(text, semaphore, piggyback);
+				if (piggyback) {
+					Message request = talkers[i].createMessage(new DefaultMessageBuilder());
+					session.startChannel(profile.getUri(), request, talkers[i], talkers[i].getReplyHandler());
+				} else {
+					session.startChannel(profile, talkers[i]);
+				}
 			}
 		}
 	}
@@ -197,11 +291,14 @@ public class EchoIntegrationTest extends TestCase {
 		
 		private final Semaphore semaphore;
 		
+		private final boolean piggybacked;
+		
 		private EchoListener listener;
 		
-		protected Talker(String expected, Semaphore semaphore) {
+		protected Talker(String expected, Semaphore semaphore, boolean piggybacked) {
 			this.expected = expected;
 			this.semaphore = semaphore;
+			this.piggybacked = piggybacked;
 		}
 		
 		public void assertEquals(String text) {
@@ -209,19 +306,45 @@ public class EchoIntegrationTest extends TestCase {
 		}
 		
 		public void channelOpened(Channel c) {
-			MessageBuilder builder = c.createMessageBuilder();
+			listener = new EchoListener(c, semaphore);
+			if (!piggybacked) {
+				c.sendMessage(createMessage(c.createMessageBuilder()), listener);
+			}
+		}
+		
+		protected Message createMessage(MessageBuilder builder) {
 			builder.setCharsetName("US-ASCII");
 			try {
 				Writer writer = builder.getWriter();
 				writer.write(expected);
 				writer.close();
-				listener = new EchoListener(c, semaphore);
-				c.sendMessage(builder.getMessage(), listener);
+				return builder.getMessage();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
 		}
 		
+		/*
+		 * The reply to a piggybacked request arrives after channelOpened
+		 * has created the listener.
+		 */
+		protected ReplyHandler getReplyHandler() {
+			return new ReplyHandler() {
+				public void receivedANS(Message message) {
+					listener.receivedANS(message);
+				}
+				public void receivedERR(Message message) {
+					listener.receivedERR(message);
+				}
+				public void receivedNUL() {
+					listener.receivedNUL();
+				}
+				public void receivedRPY(Message message) {
+					listener.receivedRPY(message);
+				}
+			};
+		}
+		
 		public void messageReceived(Message message, Reply handler) {
 			throw new UnsupportedOperationException();
 		}
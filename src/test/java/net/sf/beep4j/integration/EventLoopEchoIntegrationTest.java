@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.integration;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.SessionHandlerFactory;
+import net.sf.beep4j.transport.nio.NioEventLoop;
+import net.sf.beep4j.transport.nio.NioInitiator;
+import net.sf.beep4j.transport.nio.NioListener;
+
+/**
+ * Runs the echo tests over TCP connections whose sessions are confined
+ * to a {@link NioEventLoop}.
+ * 
+ * @author Simon Raess
+ */
+public class EventLoopEchoIntegrationTest extends EchoIntegrationTest {
+	
+	private static final int PORT_OFFSET = 10100;
+	
+	@Override
+	protected void runPeers(SessionHandlerFactory factory, SessionHandler client, int port, 
+			boolean compression, Executor executor, Semaphore sem) throws Exception {
+		NioEventLoop serverLoop = new NioEventLoop("server-loop");
+		NioEventLoop clientLoop = new NioEventLoop("client-loop");
+		serverLoop.start();
+		clientLoop.start();
+		try {
+			SocketAddress address = new InetSocketAddress("127.0.0.1", PORT_OFFSET + port);
+			
+			NioListener listener = new NioListener(serverLoop);
+			listener.setCompressionEnabled(compression);
+			listener.setExecutor(executor);
+			listener.bind(address, factory);
+			
+			NioInitiator initiator = new NioInitiator(clientLoop);
+			initiator.setCompressionEnabled(compression);
+			initiator.setExecutor(executor);
+			initiator.connect(wireTap.relay(address, PORT_OFFSET + port + 1), client);
+			
+			sem.acquire();
+			listener.unbind(address);
+		} finally {
+			clientLoop.stop();
+			serverLoop.stop();
+		}
+	}
+	
+}
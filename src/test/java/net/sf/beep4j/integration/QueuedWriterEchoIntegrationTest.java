@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.integration;
+
+import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.SessionHandlerFactory;
+import net.sf.beep4j.transport.mina.MinaInitiator;
+import net.sf.beep4j.transport.mina.MinaListener;
+
+import org.apache.mina.common.IoAcceptor;
+import org.apache.mina.common.IoConnector;
+import org.apache.mina.transport.vmpipe.VmPipeAcceptor;
+import org.apache.mina.transport.vmpipe.VmPipeAddress;
+import org.apache.mina.transport.vmpipe.VmPipeConnector;
+
+/**
+ * Runs the echo tests with peers that hand their outgoing messages over
+ * to a writer executor.
+ * 
+ * @author Simon Raess
+ */
+public class QueuedWriterEchoIntegrationTest extends EchoIntegrationTest {
+	
+	private static final int PORT_OFFSET = 300;
+	
+	@Override
+	protected void runPeers(SessionHandlerFactory factory, SessionHandler client, int port, 
+			boolean compression, Executor executor, Semaphore sem) throws Exception {
+		ExecutorService writers = Executors.newFixedThreadPool(2);
+		try {
+			IoAcceptor acceptor = new VmPipeAcceptor();
+			acceptor.getFilterChain().addLast("wiretap", wireTap.getListenerFilter());
+			SocketAddress address = new VmPipeAddress(PORT_OFFSET + port);
+			
+			MinaListener listener = new MinaListener(acceptor);
+			listener.setCompressionEnabled(compression);
+			listener.setExecutor(executor);
+			listener.setWriterExecutor(writers);
+			listener.bind(address, factory);
+			
+			IoConnector connector = new VmPipeConnector();
+			connector.getFilterChain().addLast("wiretap", wireTap.getInitiatorFilter());
+			
+			MinaInitiator initiator = new MinaInitiator(connector);
+			initiator.setCompressionEnabled(compression);
+			initiator.setExecutor(executor);
+			initiator.setWriterExecutor(writers);
+			initiator.connect(address, client);
+			
+			sem.acquire();
+			listener.unbind(address);
+		} finally {
+			writers.shutdown();
+		}
+	}
+	
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.integration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import junit.framework.Assert;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IoFilter;
+import org.apache.mina.common.IoFilterAdapter;
+import org.apache.mina.common.IoSession;
+
+/**
+ * Records the bytes exchanged between an initiator and a listener, so
+ * that tests can verify what was actually sent over the wire. MINA peers
+ * are tapped by adding the filters of this class to the acceptor and the
+ * connector. TCP peers are tapped by connecting the initiator to a relay
+ * started with {@link #relay(SocketAddress, int)}.
+ * 
+ * @author Simon Raess
+ */
+public class WireTap {
+	
+	private static final int ZLIB_HEADER = 0x78;
+	
+	private final ByteArrayOutputStream toListener = new ByteArrayOutputStream();
+	
+	private final ByteArrayOutputStream toInitiator = new ByteArrayOutputStream();
+	
+	private ServerSocket server;
+	
+	private volatile Socket[] sockets = new Socket[0];
+	
+	/**
+	 * Gets a filter recording the bytes received by the listener.
+	 * 
+	 * @return the filter to be added to the acceptor
+	 */
+	public IoFilter getListenerFilter() {
+		return new RecordingFilter(toListener);
+	}
+	
+	/**
+	 * Gets a filter recording the bytes received by the initiator.
+	 * 
+	 * @return the filter to be added to the connector
+	 */
+	public IoFilter getInitiatorFilter() {
+		return new RecordingFilter(toInitiator);
+	}
+	
+	/**
+	 * Starts a relay on the given local port that forwards the first
+	 * accepted connection to the target and records the bytes passed
+	 * in both directions.
+	 * 
+	 * @param target the address of the listener
+	 * @param port the local port of the relay
+	 * @return the address the initiator has to connect to
+	 * @throws IOException if the relay cannot be bound
+	 */
+	public SocketAddress relay(final SocketAddress target, int port) throws IOException {
+		final InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(address);
+		Thread acceptor = new Thread("wiretap-" + port) {
+			@Override
+			public void run() {
+				try {
+					Socket initiator = server.accept();
+					Socket listener = new Socket();
+					listener.connect(target);
+					sockets = new Socket[] { initiator, listener };
+					pump(initiator, listener, toListener);
+					pump(listener, initiator, toInitiator);
+				} catch (IOException e) {
+					// relay closed before a connection was made
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return address;
+	}
+	
+	/**
+	 * Closes the relay and the connection it forwards, if one has been started.
+	 */
+	public void close() throws IOException {
+		if (server != null) {
+			server.close();
+		}
+		for (Socket socket : sockets) {
+			close(socket);
+		}
+	}
+	
+	/**
+	 * Asserts that both directions switched to a zlib stream at a frame
+	 * boundary and that the given text never appeared in plain form.
+	 * 
+	 * @param text the content exchanged by the peers
+	 */
+	public void assertCompressed(String text) {
+		assertCompressed("initiator to listener", toListener, text);
+		assertCompressed("listener to initiator", toInitiator, text);
+	}
+	
+	private static void assertCompressed(String direction, ByteArrayOutputStream recorded, String text) {
+		String wire;
+		synchronized (recorded) {
+			wire = toString(recorded);
+		}
+		Assert.assertTrue(direction + ": no zlib stream after a frame trailer", 
+				wire.indexOf("END\r\n" + (char) ZLIB_HEADER) != -1);
+		Assert.assertEquals(direction + ": plain content on the wire", 
+				-1, wire.indexOf(text.substring(0, Math.min(64, text.length()))));
+	}
+	
+	private static String toString(ByteArrayOutputStream recorded) {
+		try {
+			return recorded.toString("ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void record(ByteArrayOutputStream recorded, byte[] bytes, int offset, int length) {
+		synchronized (recorded) {
+			recorded.write(bytes, offset, length);
+		}
+	}
+	
+	private static void pump(final Socket from, final Socket to, final ByteArrayOutputStream recorded) {
+		Thread pump = new Thread("wiretap-pump") {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[8192];
+				try {
+					InputStream in = from.getInputStream();
+					OutputStream out = to.getOutputStream();
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						record(recorded, buffer, 0, count);
+						out.write(buffer, 0, count);
+					}
+					to.shutdownOutput();
+				} catch (IOException e) {
+					// one side has gone away, tear down the connection
+					close(from);
+					close(to);
+				}
+			}
+		};
+		pump.setDaemon(true);
+		pump.start();
+	}
+	
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+	
+	private static class RecordingFilter extends IoFilterAdapter {
+		private final ByteArrayOutputStream recorded;
+		
+		private RecordingFilter(ByteArrayOutputStream recorded) {
+			this.recorded = recorded;
+		}
+		
+		@Override
+		public void messageReceived(NextFilter nextFilter, IoSession session, Object message) 
+				throws Exception {
+			if (message instanceof ByteBuffer) {
+				java.nio.ByteBuffer buffer = ((ByteBuffer) message).buf().duplicate();
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				record(recorded, bytes, 0, bytes.length);
+			}
+			nextFilter.messageReceived(session, message);
+		}
+	}
+	
+}
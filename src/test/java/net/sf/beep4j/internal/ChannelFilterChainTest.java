@@ -17,10 +17,14 @@
 package net.sf.beep4j.internal;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 import net.sf.beep4j.Channel;
 import net.sf.beep4j.ChannelFilter;
+import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.CloseChannelCallback;
 import net.sf.beep4j.CloseChannelRequest;
 import net.sf.beep4j.Message;
@@ -28,6 +32,7 @@ import net.sf.beep4j.MessageStub;
 import net.sf.beep4j.Reply;
 import net.sf.beep4j.ReplyHandler;
 import net.sf.beep4j.ChannelFilter.NextFilter;
+import net.sf.beep4j.ext.ChannelFilterAdapter;
 
 import org.hamcrest.Description;
 import org.jmock.Expectations;
@@ -88,7 +93,7 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addFirst(filter);
 		}
 		
-		target.fireFilterSendMessage(message, replyHandler);
+		target.compile().fireFilterSendMessage(message, replyHandler);
 		
 		assertIsSatisfied();
 	}
@@ -112,7 +117,7 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addFirst(filter);
 		}
 		
-		target.fireFilterClose(callback);
+		target.compile().fireFilterClose(callback);
 		
 		assertIsSatisfied();
 	}
@@ -136,7 +141,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterChannelOpened(channel);
+		final ChannelHandler handler = mock(ChannelHandler.class, "target");
+		checking(new Expectations() {{
+			one(handler).channelOpened(channel);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterChannelOpened(handler, channel);
 		
 		assertIsSatisfied();
 	}
@@ -161,7 +172,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterMessageReceived(message, reply);
+		final ChannelHandler handler = mock(ChannelHandler.class, "target");
+		checking(new Expectations() {{
+			one(handler).messageReceived(message, reply);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterMessageReceived(handler, message, reply);
 		
 		assertIsSatisfied();
 	}
@@ -185,7 +202,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterChannelCloseRequested(request);
+		final ChannelHandler handler = mock(ChannelHandler.class, "target");
+		checking(new Expectations() {{
+			one(handler).channelCloseRequested(request);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterChannelCloseRequested(handler, request);
 		
 		assertIsSatisfied();
 	}
@@ -208,7 +231,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterChannelClosed();
+		final ChannelHandler handler = mock(ChannelHandler.class, "target");
+		checking(new Expectations() {{
+			one(handler).channelClosed();
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterChannelClosed(handler);
 		
 		assertIsSatisfied();
 	}
@@ -232,7 +261,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addFirst(filter);
 		}
 		
-		target.fireFilterSendRPY(message);
+		final Reply reply = mock(Reply.class, "target");
+		checking(new Expectations() {{
+			one(reply).sendRPY(message);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterSendRPY(reply, message);
 		
 		assertIsSatisfied();
 	}
@@ -257,7 +292,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addFirst(filter);
 		}
 		
-		target.fireFilterSendERR(message);
+		final Reply reply = mock(Reply.class, "target");
+		checking(new Expectations() {{
+			one(reply).sendERR(message);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterSendERR(reply, message);
 		
 		assertIsSatisfied();
 	}
@@ -281,7 +322,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addFirst(filter);
 		}
 		
-		target.fireFilterSendANS(message);
+		final Reply reply = mock(Reply.class, "target");
+		checking(new Expectations() {{
+			one(reply).sendANS(message);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterSendANS(reply, message);
 		
 		assertIsSatisfied();
 	}
@@ -304,7 +351,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addFirst(filter);
 		}
 		
-		target.fireFilterSendNUL();
+		final Reply reply = mock(Reply.class, "target");
+		checking(new Expectations() {{
+			one(reply).sendNUL();
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterSendNUL(reply);
 		
 		assertIsSatisfied();
 	}
@@ -328,7 +381,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterReceivedRPY(message);
+		final ReplyHandler replyHandler = mock(ReplyHandler.class, "target");
+		checking(new Expectations() {{
+			one(replyHandler).receivedRPY(message);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterReceivedRPY(replyHandler, message);
 		
 		assertIsSatisfied();
 	}
@@ -352,7 +411,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterReceivedERR(message);
+		final ReplyHandler replyHandler = mock(ReplyHandler.class, "target");
+		checking(new Expectations() {{
+			one(replyHandler).receivedERR(message);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterReceivedERR(replyHandler, message);
 		
 		assertIsSatisfied();
 	}
@@ -376,7 +441,13 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterReceivedANS(message);
+		final ReplyHandler replyHandler = mock(ReplyHandler.class, "target");
+		checking(new Expectations() {{
+			one(replyHandler).receivedANS(message);
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterReceivedANS(replyHandler, message);
 		
 		assertIsSatisfied();
 	}
@@ -399,11 +470,87 @@ public class ChannelFilterChainTest extends TestCase {
 			target.addLast(filter);
 		}
 		
-		target.fireFilterReceivedNUL();
+		final ReplyHandler replyHandler = mock(ReplyHandler.class, "target");
+		checking(new Expectations() {{
+			one(replyHandler).receivedNUL();
+			inSequence(sequence);
+		}});
+		
+		target.compile().fireFilterReceivedNUL(replyHandler);
+		
+		assertIsSatisfied();
+	}
+	
+	public void testEmptyChain() throws Exception {
+		DefaultChannelFilterChain target = new DefaultChannelFilterChain(new HeadFilter(), new TailFilter());
+		assertTrue(target.compile().isEmpty());
+		
+		target.addLast(new HeadFilter());
+		assertFalse(target.compile().isEmpty());
+	}
+	
+	public void testAddBeforeAndAfter() throws Exception {
+		DefaultChannelFilterChain target = new DefaultChannelFilterChain(new HeadFilter(), new TailFilter());
+		final List<String> order = new ArrayList<String>();
+		
+		target.addLast(new MarkerFilter("b", order));
+		target.addBefore(MarkerFilter.class, new RecordingFilter("a", order));
+		target.addAfter(MarkerFilter.class, new RecordingFilter("c", order));
+		target.addAfter(HeadFilter.class, new RecordingFilter("first", order));
+		target.addBefore(TailFilter.class, new RecordingFilter("last", order));
+		
+		final ChannelHandler handler = mock(ChannelHandler.class);
+		checking(new Expectations() {{
+			one(handler).channelClosed();
+		}});
+		target.compile().fireFilterChannelClosed(handler);
+		
+		assertEquals(Arrays.asList("first", "a", "b", "c", "last"), order);
+	}
+	
+	public void testInvocationCanBeResumedLater() throws Exception {
+		DefaultChannelFilterChain target = new DefaultChannelFilterChain(new HeadFilter(), new TailFilter());
+		final NextFilter[] held = new NextFilter[1];
+		final Message message = new MessageStub();
+		final Reply reply = mock(Reply.class, "target");
+		
+		target.addLast(new ChannelFilterAdapter() {
+			@Override
+			public void filterSendRPY(NextFilter next, Message message) {
+				held[0] = next;
+			}
+		});
+		
+		checking(new Expectations() {{
+			one(reply).sendRPY(message);
+		}});
+		
+		target.compile().fireFilterSendRPY(reply, message);
+		held[0].filterSendRPY(message);
 		
 		assertIsSatisfied();
 	}
 	
+	private static class RecordingFilter extends ChannelFilterAdapter {
+		private final String name;
+		private final List<String> order;
+		private RecordingFilter(String name, List<String> order) {
+			this.name = name;
+			this.order = order;
+		}
+		@Override
+		public void filterChannelClosed(NextFilter next) {
+			order.add(name);
+			next.filterChannelClosed();
+		}
+	}
+	
+	private static class MarkerFilter extends RecordingFilter {
+		private MarkerFilter(String name, List<String> order) {
+			super(name, order);
+		}
+	}
+	
 	private static Action proceed() {
 		return new Action() {
 			
@@ -474,19 +621,19 @@ public class ChannelFilterChainTest extends TestCase {
 		}
 		
 		public void filterSendRPY(NextFilter next, Message message) {
-			// terminate
+			FilterInvocation.getTarget(next, Reply.class).sendRPY(message);
 		}
 		
 		public void filterSendERR(NextFilter next, Message message) {
-			// terminate
+			FilterInvocation.getTarget(next, Reply.class).sendERR(message);
 		}
 		
 		public void filterSendANS(NextFilter next, Message message) {
-			// terminate
+			FilterInvocation.getTarget(next, Reply.class).sendANS(message);
 		}
 		
 		public void filterSendNUL(NextFilter next) {
-			// terminate
+			FilterInvocation.getTarget(next, Reply.class).sendNUL();
 		}
 		
 	}
@@ -494,35 +641,35 @@ public class ChannelFilterChainTest extends TestCase {
 	private static class TailFilter implements ChannelFilter {
 		
 		public void filterChannelOpened(NextFilter next, Channel channel) {
-			// terminate
+			FilterInvocation.getTarget(next, ChannelHandler.class).channelOpened(channel);
 		}
 		
 		public void filterMessageReceived(NextFilter next, Message message, Reply reply) {
-			// terminate
+			FilterInvocation.getTarget(next, ChannelHandler.class).messageReceived(message, reply);
 		}
 		
 		public void filterChannelCloseRequested(NextFilter next, CloseChannelRequest request) {
-			// terminate
+			FilterInvocation.getTarget(next, ChannelHandler.class).channelCloseRequested(request);
 		}
 		
 		public void filterChannelClosed(NextFilter next) {
-			// terminate
+			FilterInvocation.getTarget(next, ChannelHandler.class).channelClosed();
 		}
 		
 		public void filterReceivedRPY(NextFilter next, Message message) {
-			// terminate
+			FilterInvocation.getTarget(next, ReplyHandler.class).receivedRPY(message);
 		}
 		
 		public void filterReceivedERR(NextFilter next, Message message) {
-			// terminate
+			FilterInvocation.getTarget(next, ReplyHandler.class).receivedERR(message);
 		}
 		
 		public void filterReceivedANS(NextFilter next, Message message) {
-			// terminate
+			FilterInvocation.getTarget(next, ReplyHandler.class).receivedANS(message);
 		}
 		
 		public void filterReceivedNUL(NextFilter next) {
-			// terminate
+			FilterInvocation.getTarget(next, ReplyHandler.class).receivedNUL();
 		}
 		
 		public void filterSendMessage(NextFilter next, Message message, ReplyHandler replyHandler) {
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.internal.stream.DataHeader;
+import net.sf.beep4j.internal.stream.DelegatingFrameHandler;
+import net.sf.beep4j.internal.stream.Frame;
+import net.sf.beep4j.internal.stream.FrameHandler;
+import net.sf.beep4j.internal.stream.FrameHandlerFactory;
+import net.sf.beep4j.internal.stream.MessageType;
+import net.sf.beep4j.internal.tcp.TCPMapping;
+import net.sf.beep4j.transport.Transport;
+
+public class ChannelSlotsTest extends TestCase {
+	
+	private ChannelSlots slots;
+	
+	private TCPMapping mapping;
+	
+	private DelegatingFrameHandler frameHandler;
+	
+	private List<Frame> handled;
+	
+	private List<Throwable> aborted;
+	
+	private int created;
+	
+	@Override
+	protected void setUp() throws Exception {
+		slots = new ChannelSlots();
+		handled = new ArrayList<Frame>();
+		aborted = new ArrayList<Throwable>();
+		mapping = new TCPMapping(new Transport() {
+			public void sendBytes(ByteBuffer buffer) {
+			}
+			public void closeTransport() {
+			}
+		}, slots);
+		mapping.channelStarted(0);
+		frameHandler = new DelegatingFrameHandler(new FrameHandlerFactory() {
+			public FrameHandler createFrameHandler(int channelNumber) {
+				created++;
+				return new FrameHandler() {
+					public void handleFrame(Frame frame) {
+						handled.add(frame);
+					}
+					public void abort(Throwable cause) {
+						aborted.add(cause);
+					}
+				};
+			}
+		}, slots);
+	}
+	
+	private Frame createFrame(ChannelSlot slot) {
+		DataHeader header = new DataHeader(MessageType.MSG, slot.getChannelNumber(), 1, false, 0, 0);
+		return new Frame(header, ByteBuffer.allocate(0), null, slot);
+	}
+	
+	public void testComponentsShareSlot() throws Exception {
+		mapping.channelStarted(1);
+		frameHandler.channelStarted(1);
+		
+		ChannelSlot slot = slots.get(1);
+		assertNotNull(slot.getController());
+		assertNotNull(slot.getFrameHandler());
+		assertSame(slot, slots.open(1));
+	}
+	
+	public void testFrameHandlerIsKeptInSlot() throws Exception {
+		mapping.channelStarted(1);
+		frameHandler.channelStarted(1);
+		ChannelSlot slot = slots.get(1);
+		
+		Frame first = createFrame(slot);
+		Frame second = createFrame(slot);
+		frameHandler.handleFrame(first);
+		FrameHandler handler = slot.getFrameHandler();
+		frameHandler.handleFrame(second);
+		
+		assertEquals(1, created);
+		assertSame(handler, slot.getFrameHandler());
+		assertEquals(2, handled.size());
+		assertSame(first, handled.get(0));
+		assertSame(second, handled.get(1));
+	}
+	
+	public void testSlotIsRemovedWhenAllComponentsClosed() throws Exception {
+		mapping.channelStarted(1);
+		frameHandler.channelStarted(1);
+		ChannelSlot slot = slots.get(1);
+		frameHandler.handleFrame(createFrame(slot));
+		
+		mapping.channelClosed(1);
+		assertNull(slot.getController());
+		assertSame(slot, slots.get(1));
+		
+		frameHandler.channelClosed(1);
+		assertNull(slot.getFrameHandler());
+		assertNull(slots.get(1));
+		assertEquals(1, aborted.size());
+	}
+	
+	public void testAbortReachesHandlersOfAllSlots() throws Exception {
+		mapping.channelStarted(1);
+		frameHandler.channelStarted(1);
+		frameHandler.channelStarted(3);
+		frameHandler.handleFrame(createFrame(slots.get(1)));
+		frameHandler.handleFrame(createFrame(slots.get(3)));
+		
+		Exception cause = new Exception();
+		frameHandler.abort(cause);
+		
+		assertEquals(2, aborted.size());
+		assertSame(cause, aborted.get(0));
+		assertSame(cause, aborted.get(1));
+	}
+	
+}
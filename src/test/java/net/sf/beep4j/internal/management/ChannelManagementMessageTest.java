@@ -151,6 +151,16 @@ public class ChannelManagementMessageTest extends TestCase {
 		assertEquals("abcdefg", profile.getContent());
 	}
 	
+	public void testProfileWithBinaryContent() throws Exception {
+		byte[] data = new byte[] { 0, 1, 2, (byte) 255 };
+		Message message = builder.createProfile(messageBuilder, new ProfileInfo(PROFILE, data));
+		ProfileInfo profile = parser.parseProfile(message);
+		assertEquals(PROFILE, profile.getUri());
+		assertTrue(profile.hasContent());
+		assertTrue(profile.isBase64Encoded());
+		assertTrue(Arrays.equals(data, profile.getBinaryContent()));
+	}
+	
 	public void testClose() throws Exception {
 		Message message = builder.createClose(messageBuilder, 2, 200);
 		CloseChannelMessage request = (CloseChannelMessage) parser.parseRequest(message);
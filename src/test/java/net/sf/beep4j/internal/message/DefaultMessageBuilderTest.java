@@ -49,4 +49,82 @@ public class DefaultMessageBuilderTest extends TestCase {
 		assertEquals(getMessage("greeting/i_greeting.txt"), buffer);
 	}
 	
+	public void testBuildCompact() throws Exception {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setCompactHeaders(true);
+		builder.getOutputStream().write(new byte[] { 1, 2, 3 });
+		
+		Message message = builder.getMessage();
+		ByteBuffer expected = ByteBuffer.wrap(new byte[] { '\r', '\n', 1, 2, 3 });
+		assertEquals(expected, message.asByteBuffer());
+	}
+	
+	public void testBuildCompactWithNonDefaultHeaders() throws Exception {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setCompactHeaders(true);
+		builder.setContentType("application", "beep+xml");
+		builder.setCharsetName("UTF-8");
+		
+		PrintWriter writer = new PrintWriter(builder.getWriter());
+		writer.print("<greeting />\r\n");
+		writer.close();
+		
+		Message message = builder.getMessage();
+		assertEquals(getMessage("greeting/i_greeting.txt"), message.asByteBuffer());
+	}
+	
+	public void testBuildFromFile() throws Exception {
+		FileInputStream fis = new FileInputStream("data/plain/greeting/i_greeting.txt");
+		FileChannel channel = fis.getChannel();
+		
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setContentType("text", "plain");
+		builder.setContent(channel, 2, 5);
+		Message message = builder.getMessage();
+		
+		assertTrue(message instanceof FileRegionMessage);
+		assertEquals("text/plain", message.getContentType());
+		assertEquals(getMessage("greeting/i_greeting.txt").position(2).limit(7), 
+				message.getContentBuffer());
+		byte[] content = new byte[10];
+		assertEquals(5, message.getInputStream().read(content));
+		assertEquals(0, channel.position());
+		fis.close();
+	}
+	
+	public void testEncodedHeaderIsShared() throws Exception {
+		EncodedHeaderCache cache = EncodedHeaderCache.getInstance();
+		
+		MessageHeader first = new MessageHeader();
+		first.setContentType("text", "plain");
+		first.addHeader("X-Shared-Test", "shared");
+		ByteBuffer firstBuffer = first.asByteBuffer();
+		int size = cache.size();
+		
+		MessageHeader second = new MessageHeader();
+		second.setContentType("text", "plain");
+		second.addHeader("X-Shared-Test", "shared");
+		ByteBuffer secondBuffer = second.asByteBuffer();
+		
+		assertEquals(size, cache.size());
+		assertNotSame(firstBuffer, secondBuffer);
+		assertSame(first.getEncodedBlock(), second.getEncodedBlock());
+		assertTrue(secondBuffer.isReadOnly());
+	}
+	
+	public void testEncodedHeaderIsInvalidated() throws Exception {
+		MessageHeader header = new MessageHeader();
+		header.asByteBuffer();
+		header.addHeader("X-Test", "changed");
+		
+		String encoded = new String(toArray(header.asByteBuffer()), "US-ASCII");
+		assertTrue(encoded.indexOf("X-Test: changed\r\n") != -1);
+	}
+	
+	private byte[] toArray(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+	
 }
@@ -72,6 +72,26 @@ public class DefaultMessageParseTest extends TestCase {
 		assertEquals(MESSAGE_3, content);
 	}
 	
+	public void testParseWithHeaderCache() throws Exception {
+		MessageParser parser = new DefaultMessageParser(new MessageHeaderCache());
+		DefaultMessage first = (DefaultMessage) parser.parse(readMessage("greeting/l_greeting.txt"));
+		DefaultMessage second = (DefaultMessage) parser.parse(readMessage("greeting/l_greeting.txt"));
+		DefaultMessage third = (DefaultMessage) parser.parse(readMessage("greeting/i_greeting.txt"));
+		
+		assertSame(first.getMessageHeader(), second.getMessageHeader());
+		assertNotSame(first.getMessageHeader(), third.getMessageHeader());
+		assertEquals("bar", second.getHeader("Foo"));
+		assertEquals(MESSAGE_2, getContent(second));
+		assertEquals(MESSAGE_1, getContent(third));
+		
+		try {
+			first.getMessageHeader().addHeader("Foo", "baz");
+			fail("cached headers must be read-only");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
 	public void testParseRoundTrip() throws Exception {
 		MessageBuilder messageBuilder = new DefaultMessageBuilder();
 		messageBuilder.addHeader("Foo", "  Bar  ");
@@ -91,6 +111,34 @@ public class DefaultMessageParseTest extends TestCase {
 		assertEquals(MESSAGE_2, content);
 	}
 
+	public void testParsedMessageKeepsWireBytes() throws Exception {
+		String wire = "Content-Type:  text/plain\r\nX-Route: a\r\n\r\nbody";
+		ByteBuffer buffer = ByteBuffer.wrap(wire.getBytes("US-ASCII"));
+		
+		DefaultMessageParser parser = new DefaultMessageParser();
+		Message message = parser.parse(buffer);
+		
+		ByteBuffer encoded = message.asByteBuffer();
+		assertEquals(ByteBuffer.wrap(wire.getBytes("US-ASCII")), encoded);
+		assertTrue(encoded.isReadOnly());
+		assertEquals("a", message.getHeader("X-Route"));
+	}
+
+	public void testEqualsComparesParsedHeaderAndContent() throws Exception {
+		String wire = "Content-Type:  text/plain\r\nX-Route: a\r\n\r\nbody";
+		String other = "X-Route: a\r\nContent-Type: text/plain\r\n\r\nbody";
+		
+		DefaultMessageParser parser = new DefaultMessageParser();
+		Message message = parser.parse(ByteBuffer.wrap(wire.getBytes("US-ASCII")));
+		Message reordered = parser.parse(ByteBuffer.wrap(other.getBytes("US-ASCII")));
+		assertFalse(message.asByteBuffer().equals(reordered.asByteBuffer()));
+		assertEquals(message, reordered);
+		assertEquals(message.hashCode(), reordered.hashCode());
+		
+		String changed = "Content-Type: text/plain\r\nX-Route: a\r\n\r\nbodY";
+		assertFalse(message.equals(parser.parse(ByteBuffer.wrap(changed.getBytes("US-ASCII")))));
+	}
+	
 	private static final String MESSAGE_1 = "<greeting />\r\n";
 
 	private static final String MESSAGE_2 = "<greeting>\r\n"
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.message;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+
+public class PreEncodedMessageTest extends TestCase {
+	
+	private Message createMessage() {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setContentType("text", "plain");
+		builder.setCharsetName("US-ASCII");
+		builder.addHeader("Foo", "bar");
+		PrintWriter writer = new PrintWriter(builder.getWriter());
+		writer.print("heartbeat");
+		writer.close();
+		return builder.getMessage();
+	}
+	
+	public void testValueOf() throws Exception {
+		Message message = createMessage();
+		Message frozen = PreEncodedMessage.valueOf(message);
+		
+		assertEquals(message.asByteBuffer(), frozen.asByteBuffer());
+		assertEquals("text/plain", frozen.getContentType());
+		assertEquals("bar", frozen.getHeader("Foo"));
+		assertEquals("heartbeat", new BufferedReader(frozen.getReader()).readLine());
+		assertEquals(message, frozen);
+	}
+	
+	public void testValueOfPreEncodedMessage() throws Exception {
+		PreEncodedMessage frozen = PreEncodedMessage.valueOf(createMessage());
+		assertSame(frozen, PreEncodedMessage.valueOf(frozen));
+	}
+	
+	public void testSharedBufferIsImmutable() throws Exception {
+		PreEncodedMessage frozen = PreEncodedMessage.valueOf(createMessage());
+		
+		ByteBuffer first = frozen.asByteBuffer();
+		assertTrue(first.isReadOnly());
+		assertTrue(frozen.getContentBuffer().isReadOnly());
+		
+		first.position(first.limit());
+		assertTrue(frozen.asByteBuffer().hasRemaining());
+		
+		try {
+			frozen.getMessageHeader().addHeader("Foo", "baz");
+			fail("header of pre-encoded message must be read-only");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	public void testGetPreEncodedMessage() throws Exception {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.getOutputStream().write(new byte[] { 1, 2, 3 });
+		Message message = builder.getPreEncodedMessage();
+		
+		assertTrue(message instanceof PreEncodedMessage);
+		assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), message.getContentBuffer());
+	}
+	
+}
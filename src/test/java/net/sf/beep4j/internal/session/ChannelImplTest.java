@@ -15,17 +15,35 @@
  */
 package net.sf.beep4j.internal.session;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 import net.sf.beep4j.Channel;
+import net.sf.beep4j.ChannelFilter.NextFilter;
+import net.sf.beep4j.ChannelFilterChain;
+import net.sf.beep4j.ChannelFilterChainBuilder;
 import net.sf.beep4j.ChannelHandler;
 import net.sf.beep4j.CloseChannelCallback;
 import net.sf.beep4j.CloseChannelRequest;
+import net.sf.beep4j.FailureAwareReplyHandler;
 import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.MessageOutputStream;
 import net.sf.beep4j.MessageStub;
 import net.sf.beep4j.NullReplyHandler;
+import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.Reply;
 import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.StreamingChannelHandler;
+import net.sf.beep4j.StreamingReplyHandler;
+import net.sf.beep4j.ext.ChannelFilterAdapter;
 import net.sf.beep4j.internal.NullChannelFilterChainBuilder;
 import net.sf.beep4j.internal.management.CloseCallback;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+import net.sf.beep4j.internal.util.EventLoop;
 
 import org.hamcrest.Description;
 import org.jmock.Expectations;
@@ -332,6 +350,357 @@ public class ChannelImplTest extends TestCase {
 		assertIsSatisfied();
 	}
 	
+	/*
+	 * - application opens a streamed message
+	 * - the header is sent as first fragment
+	 * - written content is sent in the final fragment when the stream is closed
+	 * - opening a second stream while the first one is open fails
+	 */
+	public void testOpenMessage() throws Exception {
+		final MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setContentType("text", "plain");
+		final ByteBuffer header = builder.getMessage().asByteBuffer();
+		
+		// define expectations
+		context.checking(new Expectations() {{
+			one(session).sendMSGFragment(1, 1, header, false); inSequence(sequence);
+			one(session).awaitFramesSent(1); inSequence(sequence);
+			one(session).sendMSGFragment(1, 1, ByteBuffer.wrap(new byte[] { 1, 2, 3 }), true); 
+			inSequence(sequence);
+		}});
+		
+		// test
+		MessageOutputStream stream = channel.openMessage(builder, new NullReplyHandler());
+		try {
+			channel.openMessage(builder, new NullReplyHandler());
+			fail("only one stream may be open per channel");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		stream.write(new byte[] { 1, 2, 3 });
+		stream.close();
+		assertFalse(stream.isOpen());
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * - channel with a streaming channel handler receives the header of a message
+	 * - application sends a message with a streaming reply handler
+	 * - the header of the reply is passed to the streaming reply handler
+	 */
+	public void testReceiveStreamedMessages() throws Exception {
+		final StreamingChannelHandler streamingHandler = context.mock(StreamingChannelHandler.class);
+		final StreamingReplyHandler replyHandler = context.mock(StreamingReplyHandler.class);
+		final MessageContentHandler contentHandler = context.mock(MessageContentHandler.class);
+		final Message message = new MessageStub();
+		final Message header = new MessageStub();
+		
+		// define expectations
+		context.checking(new Expectations() {{
+			one(streamingHandler).channelOpened(with(any(Channel.class))); inSequence(sequence);
+			one(streamingHandler).messageStarted(with(same(header)), with(any(Reply.class)));
+			will(returnValue(contentHandler)); inSequence(sequence);
+			
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(1)), with(same(message)), with(any(ReplyHandler.class)));
+			inSequence(sequence);
+			one(replyHandler).replyStarted(header); will(returnValue(contentHandler)); inSequence(sequence);
+			one(contentHandler).contentCompleted(); inSequence(sequence);
+		}});
+		
+		// test
+		InternalChannel channel = new ChannelImpl(session, PROFILE, CHANNEL, new NullChannelFilterChainBuilder(), null);
+		channel.channelOpened(streamingHandler);
+		assertTrue(channel.isStreaming());
+		assertSame(contentHandler, channel.receiveMSGStart(1, header));
+		
+		channel.sendMessage(message, replyHandler);
+		channel.receiveRPYStart(1, header).contentCompleted();
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	public void testReceiveMSGStartOnNonStreamingChannel() throws Exception {
+		assertFalse(channel.isStreaming());
+		assertNull(channel.receiveMSGStart(1, new MessageStub()));
+		assertIsSatisfied();
+	}
+
+	/*
+	 * - a filter replaces the streaming reply handler of a sent message
+	 * - the filter passes the message on after sendMessage has returned
+	 * - the header of the reply is still passed to the streaming reply handler
+	 */
+	public void testDeferredFilterKeepsStreamingReplyHandler() throws Exception {
+		final StreamingChannelHandler streamingHandler = context.mock(StreamingChannelHandler.class);
+		final StreamingReplyHandler replyHandler = context.mock(StreamingReplyHandler.class);
+		final MessageContentHandler contentHandler = context.mock(MessageContentHandler.class);
+		final Message message = new MessageStub();
+		final Message header = new MessageStub();
+		final DeferringFilter filter = new DeferringFilter();
+		
+		// define expectations
+		context.checking(new Expectations() {{
+			one(streamingHandler).channelOpened(with(any(Channel.class))); inSequence(sequence);
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(1)), with(same(message)), with(any(ReplyHandler.class)));
+			inSequence(sequence);
+			one(replyHandler).replyStarted(header); will(returnValue(contentHandler)); inSequence(sequence);
+			one(contentHandler).contentCompleted(); inSequence(sequence);
+		}});
+		
+		// test
+		InternalChannel channel = new ChannelImpl(session, PROFILE, CHANNEL, new ChannelFilterChainBuilder() {
+			public void buildFilterChain(ChannelFilterChain chain) {
+				chain.addLast(filter);
+			}
+		}, null);
+		channel.channelOpened(streamingHandler);
+		
+		channel.sendMessage(message, replyHandler);
+		filter.next.filterSendMessage(message, new NullReplyHandler());
+		channel.receiveRPYStart(1, header).contentCompleted();
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * Filter that keeps sent messages instead of passing them on.
+	 */
+	private static class DeferringFilter extends ChannelFilterAdapter {
+		private NextFilter next;
+		@Override
+		public void filterSendMessage(NextFilter next, Message message, ReplyHandler replyHandler) {
+			this.next = next;
+		}
+	}
+	
+	/*
+	 * - application sends a message and receives the reply
+	 * - application sends a second message, its reply goes to the second handler
+	 * - the record of the first message is reused for the second message
+	 */
+	public void testReplyHandlerRecordIsReused() throws Exception {
+		final ReplyHandler firstHandler = context.mock(ReplyHandler.class, "firstHandler");
+		final ReplyHandler secondHandler = context.mock(ReplyHandler.class, "secondHandler");
+		final Message m1 = new MessageStub();
+		final Message m2 = new MessageStub();
+		final Message r1 = new MessageStub();
+		final Message r2 = new MessageStub();
+
+		final ParameterCaptureAction<ReplyHandler> firstCapture =
+			new ParameterCaptureAction<ReplyHandler>(3, ReplyHandler.class, null);
+		final ParameterCaptureAction<ReplyHandler> secondCapture =
+			new ParameterCaptureAction<ReplyHandler>(3, ReplyHandler.class, null);
+
+		// define expectations
+		context.checking(new Expectations() {{
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(1)), with(same(m1)), with(any(ReplyHandler.class)));
+			will(firstCapture); inSequence(sequence);
+			one(firstHandler).receivedRPY(r1); inSequence(sequence);
+
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(2)), with(same(m2)), with(any(ReplyHandler.class)));
+			will(secondCapture); inSequence(sequence);
+			one(secondHandler).receivedRPY(r2); inSequence(sequence);
+		}});
+
+		// test
+		channel.sendMessage(m1, firstHandler);
+		channel.receiveRPY(1, r1);
+		channel.sendMessage(m2, secondHandler);
+		channel.receiveRPY(2, r2);
+		assertSame(firstCapture.getParameter(), secondCapture.getParameter());
+
+		// verify
+		assertIsSatisfied();
+	}
+
+	/*
+	 * - application sends two messages
+	 * - a reply to the second message before the first one violates the protocol
+	 * - a reply without outstanding message violates the protocol
+	 */
+	public void testRepliesMustBeReceivedInOrder() throws Exception {
+		final Message m1 = new MessageStub();
+		final Message m2 = new MessageStub();
+
+		// define expectations
+		context.checking(new Expectations() {{
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(1)), with(same(m1)), with(any(ReplyHandler.class)));
+			inSequence(sequence);
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(2)), with(same(m2)), with(any(ReplyHandler.class)));
+			inSequence(sequence);
+		}});
+
+		// test
+		channel.sendMessage(m1, new NullReplyHandler());
+		channel.sendMessage(m2, new NullReplyHandler());
+		try {
+			channel.receiveRPY(2, new MessageStub());
+			fail("the reply to message 1 must be received first");
+		} catch (ProtocolException e) {
+			// expected
+		}
+		channel.receiveRPY(1, new MessageStub());
+		channel.receiveNUL(2);
+		try {
+			channel.receiveNUL(3);
+			fail("there is no outstanding message");
+		} catch (ProtocolException e) {
+			// expected
+		}
+
+		// verify
+		assertIsSatisfied();
+	}
+
+	/*
+	 * - application receives a message and sends two answers
+	 * - the answers are numbered consecutively
+	 * - no further replies can be sent after the NUL reply
+	 */
+	public void testCompletedReplyRejectsFurtherReplies() throws Exception {
+		final Message message = new MessageStub();
+		final Message a1 = new MessageStub();
+		final Message a2 = new MessageStub();
+
+		final ParameterCaptureAction<Reply> capture =
+			new ParameterCaptureAction<Reply>(1, Reply.class, null);
+
+		// define expectations
+		context.checking(new Expectations() {{
+			one(channelHandler).messageReceived(with(same(message)), with(any(Reply.class)));
+			will(capture); inSequence(sequence);
+			one(session).sendANS(CHANNEL, 1, 0, a1); inSequence(sequence);
+			one(session).sendANS(CHANNEL, 1, 1, a2); inSequence(sequence);
+			one(session).sendNUL(CHANNEL, 1); inSequence(sequence);
+		}});
+
+		// test
+		channel.receiveMSG(1, message);
+		Reply reply = capture.getParameter();
+		reply.sendANS(a1);
+		reply.sendANS(a2);
+		reply.sendNUL();
+		try {
+			reply.sendNUL();
+			fail("a completed reply must not be sent again");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * - channel is confined to an event loop
+	 * - application completes a reply from another thread
+	 * - a second RPY is rejected on the calling thread
+	 */
+	public void testForeignThreadRejectsSecondReply() throws Exception {
+		final Message message = new MessageStub();
+		final Message rpy = new MessageStub();
+		final QueuedEventLoop eventLoop = new QueuedEventLoop();
+
+		final ParameterCaptureAction<Reply> capture =
+			new ParameterCaptureAction<Reply>(1, Reply.class, null);
+
+		// define expectations
+		context.checking(new Expectations() {{
+			one(channelHandler).channelOpened(with(any(Channel.class)));
+			one(channelHandler).messageReceived(with(same(message)), with(any(Reply.class)));
+			will(capture);
+			one(session).sendRPY(CHANNEL, 1, rpy);
+		}});
+
+		// test
+		channel = createConfinedChannel(eventLoop);
+		channel.receiveMSG(1, message);
+		eventLoop.leave();
+		Reply reply = capture.getParameter();
+		reply.sendRPY(rpy);
+		try {
+			reply.sendRPY(rpy);
+			fail("a completed reply must not be sent again");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		eventLoop.run();
+
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * - channel is confined to an event loop
+	 * - application sends a message from another thread
+	 * - sending fails on the event loop
+	 * - the failure is passed to the FailureAwareReplyHandler
+	 */
+	public void testForeignThreadSendFailureIsPassedToReplyHandler() throws Exception {
+		final Message message = new MessageStub();
+		final FailureAwareReplyHandler replyHandler = context.mock(FailureAwareReplyHandler.class);
+		final IllegalStateException cause = new IllegalStateException("session is dead");
+		final QueuedEventLoop eventLoop = new QueuedEventLoop();
+
+		// define expectations
+		context.checking(new Expectations() {{
+			one(channelHandler).channelOpened(with(any(Channel.class)));
+			one(session).sendMSG(with(equal(CHANNEL)), with(equal(1)), with(same(message)), with(any(ReplyHandler.class)));
+			will(throwException(cause));
+			one(replyHandler).sendFailed(cause);
+		}});
+
+		// test
+		channel = createConfinedChannel(eventLoop);
+		eventLoop.leave();
+		channel.sendMessage(message, replyHandler);
+		eventLoop.run();
+
+		// verify
+		assertIsSatisfied();
+	}
+	
+	private InternalChannel createConfinedChannel(QueuedEventLoop eventLoop) {
+		ChannelImpl result = new ChannelImpl(session, PROFILE, CHANNEL, 
+				new NullChannelFilterChainBuilder(), null, null);
+		result.setEventLoop(eventLoop);
+		eventLoop.enter();
+		result.channelOpened(channelHandler);
+		return result;
+	}
+	
+	/*
+	 * EventLoop that queues the tasks until they are run by the test.
+	 * The test thread is in the event loop between enter and leave
+	 * and after run.
+	 */
+	private static class QueuedEventLoop implements EventLoop {
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+		private boolean inEventLoop;
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+		public boolean inEventLoop() {
+			return inEventLoop;
+		}
+		private void enter() {
+			inEventLoop = true;
+		}
+		private void leave() {
+			inEventLoop = false;
+		}
+		private void run() {
+			enter();
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+	
 	private static Action acceptCloseChannel(int index) {
 		return new CloseAcceptingAction(index);
 	}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.NullReplyHandler;
+import net.sf.beep4j.ProfileInfo;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ext.ChannelHandlerAdapter;
+import net.sf.beep4j.ext.SessionHandlerAdapter;
+import net.sf.beep4j.internal.management.ManagementMessageBuilder;
+import net.sf.beep4j.internal.management.SaxMessageBuilder;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+import net.sf.beep4j.internal.stream.BeepStream;
+
+/**
+ * Measures how the throughput of a single session scales with the number
+ * of channels that are used concurrently. Each thread sends messages on
+ * its own channel and then sends the replies to messages received on that
+ * channel. The BeepStream only encodes the messages, so the numbers 
+ * reflect the locking inside the session and its channels.
+ * 
+ * <p>Run with: java -cp ... net.sf.beep4j.internal.session.ChannelLockingBenchmark [messages]</p>
+ * 
+ * @author Simon Raess
+ */
+public class ChannelLockingBenchmark {
+	
+	private static final String PROFILE = "http://www.example.com/profiles/benchmark";
+	
+	private static final int[] CHANNELS = new int[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+	
+	private static final int ROUNDS = 3;
+	
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		System.out.println("channels\tMSG/s\tRPY/s");
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int count : CHANNELS) {
+				run(count, messages, round == ROUNDS - 1);
+			}
+		}
+	}
+	
+	private static void run(int count, final int messages, boolean print) throws Exception {
+		SessionImpl session = new SessionImpl(true, new SessionHandlerAdapter() { }, new EncodingBeepStream());
+		session.connectionEstablished(null);
+		session.receiveRPY(0, 0, createGreetingMessage());
+		
+		final BenchmarkChannelHandler[] handlers = new BenchmarkChannelHandler[count];
+		for (int i = 0; i < count; i++) {
+			handlers[i] = new BenchmarkChannelHandler(messages);
+			session.startChannel(PROFILE, handlers[i]);
+			session.receiveRPY(0, i + 1, createProfileMessage());
+		}
+		
+		long sendTime = runConcurrently(count, new Task() {
+			public void run(int index) throws IOException {
+				Channel channel = handlers[index].channel;
+				Message message = createMessage();
+				for (int i = 0; i < messages; i++) {
+					channel.sendMessage(message, new NullReplyHandler());
+				}
+			}
+		});
+		
+		for (int i = 0; i < count; i++) {
+			int channelNumber = 2 * i + 1;
+			for (int messageNumber = 0; messageNumber < messages; messageNumber++) {
+				session.receiveMSG(channelNumber, messageNumber, createMessage());
+			}
+		}
+		
+		long replyTime = runConcurrently(count, new Task() {
+			public void run(int index) throws IOException {
+				Reply[] replies = handlers[index].replies;
+				Message message = createMessage();
+				for (int i = 0; i < messages; i++) {
+					replies[i].sendRPY(message);
+				}
+			}
+		});
+		
+		if (print) {
+			long total = (long) count * messages;
+			System.out.println(count + "\t\t" + (total * 1000000000L / sendTime) 
+					+ "\t" + (total * 1000000000L / replyTime));
+		}
+	}
+	
+	private static long runConcurrently(int count, final Task task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						task.run(index);
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		return Math.max(1, System.nanoTime() - startTime);
+	}
+	
+	static Message createMessage() throws IOException {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setCharsetName("UTF-8");
+		builder.setContentType("text", "plain");
+		Writer writer = builder.getWriter();
+		writer.write("the quick brown fox jumps over the lazy dog");
+		writer.close();
+		return builder.getMessage();
+	}
+	
+	static Message createGreetingMessage() {
+		ManagementMessageBuilder builder = new SaxMessageBuilder();
+		return builder.createGreeting(createManagementBuilder(), new String[] { PROFILE });
+	}
+	
+	static Message createProfileMessage() {
+		ManagementMessageBuilder builder = new SaxMessageBuilder();
+		return builder.createProfile(createManagementBuilder(), new ProfileInfo(PROFILE));
+	}
+	
+	private static MessageBuilder createManagementBuilder() {
+		MessageBuilder builder = new DefaultMessageBuilder();
+		builder.setCharsetName("UTF-8");
+		builder.setContentType("application", "beep+xml");
+		return builder;
+	}
+	
+	private static interface Task {
+		void run(int index) throws Exception;
+	}
+	
+	private static class BenchmarkChannelHandler extends ChannelHandlerAdapter {
+		private final Reply[] replies;
+		private int received;
+		private volatile Channel channel;
+		private BenchmarkChannelHandler(int messages) {
+			this.replies = new Reply[messages];
+		}
+		@Override
+		public void channelOpened(Channel channel) {
+			this.channel = channel;
+		}
+		@Override
+		public void messageReceived(Message message, Reply reply) {
+			replies[received++] = reply;
+		}
+	}
+	
+	/*
+	 * BeepStream that encodes the sent messages but does not write 
+	 * them anywhere.
+	 */
+	static class EncodingBeepStream implements BeepStream {
+		private void encode(Message message) {
+			ByteBuffer buffer = message.asByteBuffer();
+			buffer.position(buffer.limit());
+		}
+		public void sendMSG(int channel, int messageNumber, Message message) {
+			encode(message);
+		}
+		public void sendRPY(int channel, int messageNumber, Message message) {
+			encode(message);
+		}
+		public void sendERR(int channel, int messageNumber, Message message) {
+			encode(message);
+		}
+		public void sendANS(int channel, int messageNumber, int answerNumber, Message message) {
+			encode(message);
+		}
+		public void sendNUL(int channel, int messageNumber) {
+			// nothing to encode
+		}
+		public void sendMSGFragment(int channel, int messageNumber, ByteBuffer buffer, boolean last) {
+			buffer.position(buffer.limit());
+		}
+		public void awaitFramesSent(int channel) {
+			// nothing is buffered
+		}
+		public boolean isCompressionSupported() {
+			return false;
+		}
+		public void startCompression() {
+			throw new UnsupportedOperationException();
+		}
+		public void closeTransport() {
+			// nothing to close
+		}
+		public void channelStarted(int channelNumber) {
+			// no channel state
+		}
+		public void channelClosed(int channelNumber) {
+			// no channel state
+		}
+	}
+	
+}
@@ -17,6 +17,7 @@ package net.sf.beep4j.internal.session;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -44,6 +45,7 @@ import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.Sequence;
 import org.jmock.api.Action;
+import org.jmock.lib.action.CustomAction;
 
 public class FunctionalSessionTest extends TestCase {
 
@@ -407,6 +409,98 @@ public class FunctionalSessionTest extends TestCase {
 		assertIsSatisfied();
 	}
 	
+	/*
+	 * Test Scenario 12:
+	 * - open session (listener)
+	 * - remote peer starts a channel with a piggybacked request
+	 * - the request is answered with an ERR while it is processed
+	 * -> the ERR is sent after the response to the start channel request
+	 */
+	public void testErrorToPiggybackedRequestFollowsStartResponse() throws Exception {
+		SessionImpl session = openSession(false, new String[] { PROFILE }, new String[0]);
+		final Message error = createErrorMessage(550, "echo failed");
+		
+		Message start = expectPiggybackedRequest(1, 1, "Hello World", new ReplyAction() {
+			public void reply(Reply reply) {
+				reply.sendERR(error);
+			}
+		});
+		context.checking(new Expectations() {{
+			one(beepStream).sendERR(1, 0, error); inSequence(sequence);
+		}});
+		
+		session.receiveMSG(0, 1, start);
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * Test Scenario 13:
+	 * - open session (listener)
+	 * - remote peer starts a channel with a piggybacked request
+	 * - the request is answered with two ANS and a NUL while it is processed
+	 * -> the answers are sent in order after the response to the start 
+	 *    channel request
+	 */
+	public void testAnswersToPiggybackedRequestFollowStartResponse() throws Exception {
+		SessionImpl session = openSession(false, new String[] { PROFILE }, new String[0]);
+		final Message first = createEchoMessage("Hello");
+		final Message second = createEchoMessage("World");
+		
+		Message start = expectPiggybackedRequest(1, 1, "Hello World", new ReplyAction() {
+			public void reply(Reply reply) {
+				reply.sendANS(first);
+				reply.sendANS(second);
+				reply.sendNUL();
+			}
+		});
+		context.checking(new Expectations() {{
+			one(beepStream).sendANS(1, 0, 0, first); inSequence(sequence);
+			one(beepStream).sendANS(1, 0, 1, second); inSequence(sequence);
+			one(beepStream).sendNUL(1, 0); inSequence(sequence);
+		}});
+		
+		session.receiveMSG(0, 1, start);
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * Test Scenario 14:
+	 * - open session (listener)
+	 * - remote peer starts a channel with a piggybacked request
+	 * - the application selects the profile without processing the request
+	 * -> the request is not sent back in the response to the start channel
+	 *    request
+	 * -> the request is answered with an ERR after that response
+	 */
+	public void testSelectProfileDeclinesPiggybackedRequest() throws Exception {
+		SessionImpl session = openSession(false, new String[] { PROFILE }, new String[0]);
+		final ProfileInfo requested = new ProfileInfo(PROFILE, toByteArray(createEchoMessage("Hello World")));
+		final ChannelHandler channelHandler = context.mock(ChannelHandler.class);
+		
+		context.checking(new Expectations() {{
+			one(sessionHandler).channelStartRequested(with(any(StartChannelRequest.class)));
+			will(acceptStartChannel(requested, channelHandler)); inSequence(sequence);
+			
+			one(beepStream).channelStarted(1); inSequence(sequence);
+			
+			one(channelHandler).channelOpened(with(any(Channel.class))); inSequence(sequence);
+			
+			one(beepStream).sendRPY(0, 1, createProfileMessage(new ProfileInfo(PROFILE))); inSequence(sequence);
+			
+			one(beepStream).sendERR(1, 0, createErrorMessage(550, "piggybacked request has not been processed"));
+			inSequence(sequence);
+		}});
+		
+		session.receiveMSG(0, 1, createStartMessage(1, new ProfileInfo[] { requested }));
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
 	private SessionImpl openSession(boolean initiator, final String[] profiles, String[] remoteProfiles) {
 		context.checking(new Expectations() {{
 			one(beepStream).sendRPY(0, 0, createGreetingMessage(profiles)); inSequence(sequence);
@@ -482,6 +576,45 @@ public class FunctionalSessionTest extends TestCase {
 		return new ChannelStruct(channel, channelHandler);
 	}
 	
+	/*
+	 * Expects a start channel request for the given channel that carries
+	 * a request with the given content. The channel handler passes the 
+	 * Reply to the given action. Returns the start channel request.
+	 */
+	private Message expectPiggybackedRequest(
+			final int channelNumber,
+			final int messageNumber,
+			String content,
+			final ReplyAction action) throws IOException {
+		
+		final ChannelHandler channelHandler = context.mock(ChannelHandler.class);
+		final Message request = createEchoMessage(content);
+		final ProfileInfo requested = new ProfileInfo(PROFILE, toByteArray(request));
+		
+		context.checking(new Expectations() {{
+			one(sessionHandler).channelStartRequested(with(any(StartChannelRequest.class)));
+			will(acceptStartChannelWithRequest(requested, channelHandler)); inSequence(sequence);
+			
+			one(beepStream).channelStarted(channelNumber); inSequence(sequence);
+			
+			one(channelHandler).channelOpened(with(any(Channel.class))); inSequence(sequence);
+			
+			one(channelHandler).messageReceived(with(any(Message.class)), with(any(Reply.class)));
+			will(new CustomAction("replies to the request") {
+				public Object invoke(org.jmock.api.Invocation invocation) throws Throwable {
+					action.reply((Reply) invocation.getParameter(1));
+					return null;
+				}
+			}); 
+			inSequence(sequence);
+			
+			one(beepStream).sendRPY(0, messageNumber, createProfileMessage(new ProfileInfo(PROFILE))); 
+			inSequence(sequence);
+		}});
+		
+		return createStartMessage(channelNumber, new ProfileInfo[] { requested });
+	}
+	
 	private void startChannelRequestedReject(
 			SessionImpl session, 
 			int channelNumber, 
@@ -790,6 +923,13 @@ public class FunctionalSessionTest extends TestCase {
 		return messageBuilder.getMessage();
 	}
 	
+	private static byte[] toByteArray(Message message) {
+		ByteBuffer buffer = message.asByteBuffer();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
 	private static Message createErrorMessage(int code, String message) {
 		MessageBuilder messageBuilder = new DefaultMessageBuilder();
 		messageBuilder.setCharsetName("UTF-8");
@@ -904,6 +1044,31 @@ public class FunctionalSessionTest extends TestCase {
 		}
 	}
 	
+	private static Action acceptStartChannelWithRequest(ProfileInfo profile, ChannelHandler channelHandler) {
+		return new StartChannelWithRequestAcceptor(profile, channelHandler);
+	}
+	
+	private static class StartChannelWithRequestAcceptor implements Action {
+		private final ProfileInfo profile;
+		private final ChannelHandler channelHandler;
+		private StartChannelWithRequestAcceptor(ProfileInfo profile, ChannelHandler channelHandler) {
+			this.profile = profile;
+			this.channelHandler = channelHandler;
+		}
+		public void describeTo(Description description) {
+			description.appendText("accepts channel start with piggybacked request");
+		}
+		public Object invoke(org.jmock.api.Invocation invocation) throws Throwable {
+			StartChannelRequest request = (StartChannelRequest) invocation.getParameter(0);
+			request.selectProfileWithRequest(profile, channelHandler);
+			return null;
+		}
+	}
+	
+	private interface ReplyAction {
+		void reply(Reply reply);
+	}
+	
 	private static Action rejectStartChannel(int code, String message) {
 		return new StartChannelRequestRejector(code, message);
 	}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.NullReplyHandler;
+import net.sf.beep4j.Reply;
+import net.sf.beep4j.ReplyHandler;
+import net.sf.beep4j.ext.ChannelHandlerAdapter;
+import net.sf.beep4j.ext.SessionHandlerAdapter;
+import net.sf.beep4j.internal.util.ReferenceCounting;
+import net.sf.beep4j.internal.session.ChannelLockingBenchmark.EncodingBeepStream;
+
+/**
+ * Measures the bookkeeping of pending replies on a deeply pipelined
+ * channel. The benchmark sends a batch of messages on one channel
+ * before the replies to all of them are received in order. Then it
+ * receives a batch of messages before replying to all of them. The
+ * BeepStream only encodes the messages, so the numbers reflect the
+ * cost of tracking the outstanding replies inside the channel.
+ * 
+ * <p>Run with: java -cp ... net.sf.beep4j.internal.session.PipeliningBenchmark [depth] [batches]</p>
+ * 
+ * @author Simon Raess
+ */
+public class PipeliningBenchmark {
+	
+	private static final String PROFILE = "http://www.example.com/profiles/benchmark";
+	
+	private static final int CHANNEL = 1;
+	
+	private static final int ROUNDS = 5;
+	
+	public static void main(String[] args) throws Exception {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int batches = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		System.out.println("depth\tMSG sent/s\tRPY received/s\tMSG received/s\tRPY sent/s");
+		for (int round = 0; round < ROUNDS; round++) {
+			run(depth, batches, round == ROUNDS - 1);
+		}
+	}
+	
+	private static void run(int depth, int batches, boolean print) throws Exception {
+		SessionImpl session = new SessionImpl(true, new SessionHandlerAdapter() { }, new EncodingBeepStream());
+		session.connectionEstablished(null);
+		session.receiveRPY(0, 0, ChannelLockingBenchmark.createGreetingMessage());
+		
+		BenchmarkChannelHandler handler = new BenchmarkChannelHandler(depth);
+		session.startChannel(PROFILE, handler);
+		session.receiveRPY(0, 1, ChannelLockingBenchmark.createProfileMessage());
+		
+		Channel channel = handler.channel;
+		Message message = ChannelLockingBenchmark.createMessage();
+		
+		// received messages are released by the session
+		Message received = ChannelLockingBenchmark.createMessage();
+		ReplyHandler replyHandler = new NullReplyHandler();
+		long[] times = new long[4];
+		int outgoing = 1;
+		int incoming = 0;
+		
+		for (int batch = 0; batch < batches; batch++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < depth; i++) {
+				channel.sendMessage(message, replyHandler);
+			}
+			long sent = System.nanoTime();
+			for (int i = 0; i < depth; i++) {
+				ReferenceCounting.retain(received);
+				session.receiveRPY(CHANNEL, outgoing++, received);
+			}
+			long repliesReceived = System.nanoTime();
+			
+			handler.received = 0;
+			for (int i = 0; i < depth; i++) {
+				ReferenceCounting.retain(received);
+				session.receiveMSG(CHANNEL, incoming++, received);
+			}
+			long requestsReceived = System.nanoTime();
+			Reply[] replies = handler.replies;
+			for (int i = 0; i < depth; i++) {
+				replies[i].sendRPY(message);
+			}
+			long repliesSent = System.nanoTime();
+			
+			times[0] += sent - start;
+			times[1] += repliesReceived - sent;
+			times[2] += requestsReceived - repliesReceived;
+			times[3] += repliesSent - requestsReceived;
+		}
+		
+		if (print) {
+			long total = (long) depth * batches;
+			StringBuilder builder = new StringBuilder();
+			builder.append(depth);
+			for (long time : times) {
+				builder.append("\t").append(total * 1000000000L / Math.max(1, time));
+			}
+			System.out.println(builder);
+		}
+	}
+	
+	private static class BenchmarkChannelHandler extends ChannelHandlerAdapter {
+		private final Reply[] replies;
+		private int received;
+		private Channel channel;
+		private BenchmarkChannelHandler(int depth) {
+			this.replies = new Reply[depth];
+		}
+		@Override
+		public void channelOpened(Channel channel) {
+			this.channel = channel;
+		}
+		@Override
+		public void messageReceived(Message message, Reply reply) {
+			replies[received++] = reply;
+		}
+	}
+	
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.session;
+
+import junit.framework.TestCase;
+
+public class ReplyRingTest extends TestCase {
+	
+	public void testPutGetRemove() throws Exception {
+		ReplyRing<String> ring = new ReplyRing<String>();
+		assertTrue(ring.isEmpty());
+		assertNull(ring.put(1, "one"));
+		assertNull(ring.put(2, "two"));
+		assertEquals("two", ring.put(2, "zwei"));
+		assertEquals(2, ring.size());
+		assertEquals("one", ring.get(1));
+		assertEquals("zwei", ring.get(2));
+		assertTrue(ring.contains(1));
+		assertFalse(ring.contains(3));
+		
+		assertEquals("one", ring.remove(1));
+		assertNull(ring.remove(1));
+		assertEquals(1, ring.size());
+		assertNull(ring.get(1));
+	}
+	
+	public void testPipelinedMessageNumbers() throws Exception {
+		ReplyRing<Integer> ring = new ReplyRing<Integer>(4);
+		int next = 0;
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 1000; i++) {
+				ring.put(next + i, next + i);
+			}
+			assertEquals(1000, ring.size());
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(Integer.valueOf(next + i), ring.remove(next + i));
+			}
+			assertTrue(ring.isEmpty());
+			next += 1000;
+		}
+	}
+	
+	public void testCollidingMessageNumbers() throws Exception {
+		ReplyRing<Integer> ring = new ReplyRing<Integer>(16);
+		int[] numbers = new int[] { 3, 19, 35, 4, 51, 20 };
+		for (int number : numbers) {
+			ring.put(number, number);
+		}
+		assertEquals(Integer.valueOf(19), ring.remove(19));
+		assertEquals(Integer.valueOf(3), ring.remove(3));
+		for (int number : new int[] { 35, 4, 51, 20 }) {
+			assertEquals(Integer.valueOf(number), ring.get(number));
+		}
+		assertNull(ring.get(19));
+		assertNull(ring.get(3));
+		assertEquals(4, ring.size());
+	}
+	
+	public void testWrapAround() throws Exception {
+		ReplyRing<Integer> ring = new ReplyRing<Integer>();
+		ring.put(Integer.MAX_VALUE - 1, 1);
+		ring.put(Integer.MAX_VALUE, 2);
+		ring.put(0, 3);
+		ring.put(1, 4);
+		assertEquals(Integer.valueOf(1), ring.remove(Integer.MAX_VALUE - 1));
+		assertEquals(Integer.valueOf(2), ring.remove(Integer.MAX_VALUE));
+		assertEquals(Integer.valueOf(3), ring.get(0));
+		assertEquals(Integer.valueOf(4), ring.get(1));
+	}
+	
+}
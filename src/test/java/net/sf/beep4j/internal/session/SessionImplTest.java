@@ -15,6 +15,8 @@
  */
 package net.sf.beep4j.internal.session;
 
+import java.util.LinkedList;
+
 import junit.framework.TestCase;
 import net.sf.beep4j.Channel;
 import net.sf.beep4j.ChannelHandler;
@@ -33,6 +35,7 @@ import net.sf.beep4j.internal.management.Greeting;
 import net.sf.beep4j.internal.management.ManagementProfile;
 import net.sf.beep4j.internal.stream.BeepStream;
 import net.sf.beep4j.internal.stream.MessageHandler;
+import net.sf.beep4j.internal.util.EventLoop;
 
 import org.apache.mina.transport.vmpipe.VmPipeAddress;
 import org.jmock.Expectations;
@@ -391,6 +394,129 @@ public class SessionImplTest extends TestCase {
 		// TODO: method stub
 	}
 	
+	// --> test event loop confinement <--
+	
+	public void testCallFromForeignThreadIsCheckedOnCallingThread() throws Exception {
+		context.checking(new Expectations() {{
+			one(beepStream).channelStarted(0);
+		}});
+		
+		QueueingEventLoop eventLoop = new QueueingEventLoop();
+		SessionImpl session = new SessionImpl(true, sessionHandler, beepStream, eventLoop);
+		
+		try {
+			session.startCompression();
+			fail("compression cannot be started before the session is open");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			session.startChannel("http://www.example.com/profiles/echo", context.mock(ChannelHandler.class));
+			fail("channels cannot be started before the session is open");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			session.close();
+			fail("the session cannot be closed before it is open");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(eventLoop.tasks.isEmpty());
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	public void testCallFromForeignThreadIsPassedToEventLoop() throws Exception {
+		QueueingEventLoop eventLoop = new QueueingEventLoop();
+		SessionImpl session = openConfinedSession(eventLoop);
+		
+		context.checking(new Expectations() {{
+			allowing(beepStream).isCompressionSupported(); will(returnValue(false));
+		}});
+		
+		eventLoop.inEventLoop = false;
+		try {
+			session.startCompression();
+			fail("the transport does not support compression");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		session.close();
+		assertEquals(1, eventLoop.tasks.size());
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	/*
+	 * Opens a session confined to the given event loop. The greeting is
+	 * received on the event loop thread.
+	 */
+	private SessionImpl openConfinedSession(QueueingEventLoop eventLoop) {
+		final ManagementProfile profile = context.mock(ManagementProfile.class); 
+		final ChannelHandler channelHandler = context.mock(ChannelHandler.class);
+		final Message message = new MessageStub();
+		
+		context.checking(new Expectations() {{
+			one(profile).createChannelHandler(with(any(SessionManager.class)), with(any(InternalChannel.class)));
+			will(returnValue(channelHandler));
+			one(beepStream).channelStarted(0);
+			one(channelHandler).channelOpened(with(any(Channel.class)));
+			one(sessionHandler).connectionEstablished(with(any(StartSessionRequest.class)));
+			one(profile).createGreeting(with(any(String[].class)));
+			will(returnValue(new MessageStub()));
+			one(beepStream).sendRPY(with(equal(0)), with(equal(0)), with(any(Message.class)));
+			one(profile).receivedGreeting(with(same(message)));
+			will(returnValue(new Greeting(new String[0], new String[0], new String[] { "abc" })));
+			one(sessionHandler).sessionOpened(with(any(Session.class)));
+		}});
+		
+		eventLoop.inEventLoop = true;
+		SessionImpl session = new SessionImpl(false, sessionHandler, beepStream, eventLoop) {
+			@Override
+			protected ManagementProfile createManagementProfile(boolean initiator) {
+				return profile;
+			}
+		};
+		session.connectionEstablished(null);
+		session.receiveRPY(0, 0, message);
+		return session;
+	}
+	
+	public void testCallFromEventLoopIsProcessedDirectly() throws Exception {
+		context.checking(new Expectations() {{
+			one(beepStream).channelStarted(0);
+		}});
+		
+		QueueingEventLoop eventLoop = new QueueingEventLoop();
+		eventLoop.inEventLoop = true;
+		SessionImpl session = new SessionImpl(true, sessionHandler, beepStream, eventLoop);
+		
+		try {
+			session.startCompression();
+			fail("compression cannot be started before the session is open");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(eventLoop.tasks.isEmpty());
+		
+		// verify
+		assertIsSatisfied();
+	}
+	
+	private static class QueueingEventLoop implements EventLoop {
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		private boolean inEventLoop;
+		public boolean inEventLoop() {
+			return inEventLoop;
+		}
+		public void execute(Runnable task) {
+			tasks.addLast(task);
+		}
+	}
+	
 	// --> test InternalSession methods <--
 	
 	// TODO: reimplement this test
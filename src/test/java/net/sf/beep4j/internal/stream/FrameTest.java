@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import net.sf.beep4j.ReferenceCounted;
+import net.sf.beep4j.transport.GatheringTransport;
+import net.sf.beep4j.transport.Transport;
+
+public class FrameTest extends TestCase {
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private Frame createFrame(ByteBuffer payload) {
+		DataHeader header = new DataHeader(MessageType.MSG, 1, 2, false, 0, payload.remaining());
+		return new Frame(header, payload);
+	}
+	
+	public void testSendGathersWithoutCopying() throws Exception {
+		final ByteBuffer payload = ASCII.encode("hello");
+		final Frame frame = createFrame(payload);
+		final StringBuilder sent = new StringBuilder();
+		
+		frame.send(new GatheringTransport() {
+			public void sendBuffers(ByteBuffer header, ByteBuffer body, ByteBuffer trailer, 
+					ReferenceCounted owner) {
+				assertSame(frame, owner);
+				assertTrue(body.isReadOnly());
+				assertEquals(payload, body);
+				sent.append(ASCII.decode(header));
+				sent.append(ASCII.decode(body));
+				sent.append(ASCII.decode(trailer));
+			}
+			public void sendBytes(ByteBuffer buffer) {
+				fail("payload must not be copied");
+			}
+			public void closeTransport() {
+			}
+		});
+		
+		assertEquals("MSG 1 2 . 0 5\r\nhelloEND\r\n", sent.toString());
+		assertEquals(0, payload.position());
+	}
+	
+	public void testSendCopiesForPlainTransport() throws Exception {
+		ByteBuffer payload = ASCII.encode("hello");
+		Frame frame = createFrame(payload);
+		final StringBuilder sent = new StringBuilder();
+		
+		frame.send(new Transport() {
+			public void sendBytes(ByteBuffer buffer) {
+				sent.append(ASCII.decode(buffer));
+			}
+			public void closeTransport() {
+			}
+		});
+		
+		assertEquals("MSG 1 2 . 0 5\r\nhelloEND\r\n", sent.toString());
+		assertEquals(0, payload.position());
+	}
+	
+}
@@ -83,6 +83,39 @@ public class MessageAssemblerTest extends TestCase {
 		target.handleFrame(frame);
 	}
 	
+	public void testFramesReleased() throws Exception {
+		handler.receiveMSG(0, 0, null);
+		control.replay();
+		
+		// test
+		DataHeader header = new DataHeader(MessageType.MSG, 0, 0, true, 0, 10);
+		Frame first = new Frame(header, getByteBuffer(10));
+		target.handleFrame(first);
+		assertEquals(1, first.getReferenceCount());
+		
+		header = new DataHeader(MessageType.MSG, 0, 0, false, 10, 10);
+		Frame second = new Frame(header, getByteBuffer(10));
+		target.handleFrame(second);
+		
+		assertEquals(0, first.getReferenceCount());
+		assertEquals(0, second.getReferenceCount());
+	}
+	
+	public void testAbortReleasesFrames() throws Exception {
+		handler.receiveMSG(0, 1, null);
+		control.replay();
+		
+		// test
+		DataHeader header = new DataHeader(MessageType.MSG, 0, 0, true, 0, 10);
+		Frame frame = new Frame(header, getByteBuffer(10));
+		target.handleFrame(frame);
+		target.abort(new Exception("connection closed"));
+		assertEquals(0, frame.getReferenceCount());
+		
+		header = new DataHeader(MessageType.MSG, 0, 1, false, 10, 10);
+		target.handleFrame(new Frame(header, getByteBuffer(10)));
+	}
+	
 	public void testMSGMessageNumberMismatch() throws Exception {
 		control.replay();
 		
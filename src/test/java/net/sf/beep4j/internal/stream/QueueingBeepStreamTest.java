@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageStub;
+import net.sf.beep4j.internal.message.DefaultMessage;
+import net.sf.beep4j.internal.message.MessageHeader;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+
+public class QueueingBeepStreamTest extends TestCase {
+	
+	private Mockery context;
+	
+	private BeepStream target;
+	
+	private ManualExecutor executor;
+	
+	private QueueingBeepStream stream;
+	
+	@Override
+	protected void setUp() throws Exception {
+		context = new Mockery();
+		target = context.mock(BeepStream.class);
+		executor = new ManualExecutor();
+		stream = new QueueingBeepStream(target, executor);
+	}
+	
+	public void testSendsArePassedOnByWriterInOrder() throws Exception {
+		final Message message = new MessageStub();
+		final Sequence sequence = context.sequence("writes");
+		context.checking(new Expectations() {{
+			one(target).channelStarted(1); inSequence(sequence);
+			one(target).sendMSG(1, 1, message); inSequence(sequence);
+			one(target).sendRPY(1, 7, message); inSequence(sequence);
+			one(target).sendANS(1, 8, 0, message); inSequence(sequence);
+			one(target).sendNUL(1, 8); inSequence(sequence);
+			one(target).sendERR(1, 9, message); inSequence(sequence);
+			one(target).channelClosed(1); inSequence(sequence);
+			one(target).closeTransport(); inSequence(sequence);
+		}});
+		
+		stream.channelStarted(1);
+		stream.sendMSG(1, 1, message);
+		stream.sendRPY(1, 7, message);
+		stream.sendANS(1, 8, 0, message);
+		stream.sendNUL(1, 8);
+		stream.sendERR(1, 9, message);
+		stream.channelClosed(1);
+		stream.closeTransport();
+		
+		assertEquals(1, executor.size());
+		executor.runAll();
+		
+		context.assertIsSatisfied();
+	}
+	
+	public void testMessageIsRetainedUntilWritten() throws Exception {
+		final AtomicInteger freed = new AtomicInteger();
+		final Message message = new DefaultMessage(new MessageHeader(), ByteBuffer.allocate(0), 
+				null, new Runnable() {
+					public void run() {
+						freed.incrementAndGet();
+					}
+				});
+		context.checking(new Expectations() {{
+			one(target).sendMSG(1, 1, message);
+		}});
+		
+		stream.sendMSG(1, 1, message);
+		((DefaultMessage) message).release();
+		assertEquals(0, freed.get());
+		
+		executor.runAll();
+		assertEquals(1, freed.get());
+		context.assertIsSatisfied();
+	}
+	
+	public void testWriterFailureDoesNotStopLaterSends() throws Exception {
+		final ByteBuffer fragment = ByteBuffer.allocate(4);
+		context.checking(new Expectations() {{
+			one(target).sendNUL(1, 1); will(throwException(new IllegalStateException()));
+			one(target).sendMSGFragment(1, 2, fragment, true);
+		}});
+		
+		stream.sendNUL(1, 1);
+		stream.sendMSGFragment(1, 2, fragment, true);
+		executor.runAll();
+		
+		context.assertIsSatisfied();
+	}
+	
+	public void testAwaitFramesSentWaitsForQueuedSends() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch writing = new CountDownLatch(1);
+			final CountDownLatch proceed = new CountDownLatch(1);
+			final CountDownLatch awaited = new CountDownLatch(1);
+			final QueueingBeepStream stream = new QueueingBeepStream(new BeepStreamStub() {
+				@Override
+				public void sendNUL(int channel, int messageNumber) {
+					writing.countDown();
+					try {
+						proceed.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				@Override
+				public void awaitFramesSent(int channel) {
+					awaited.countDown();
+				}
+			}, pool);
+			
+			stream.sendNUL(1, 1);
+			assertTrue(writing.await(10, TimeUnit.SECONDS));
+			Thread waiter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						stream.awaitFramesSent(1);
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+			};
+			waiter.start();
+			assertFalse(awaited.await(100, TimeUnit.MILLISECONDS));
+			proceed.countDown();
+			assertTrue(awaited.await(10, TimeUnit.SECONDS));
+			waiter.join();
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+		int size() {
+			return tasks.size();
+		}
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.removeFirst().run();
+			}
+		}
+	}
+	
+	private static class BeepStreamStub implements BeepStream {
+		public void channelStarted(int channelNumber) { }
+		public void channelClosed(int channelNumber) { }
+		public void sendMSG(int channel, int messageNumber, Message message) { }
+		public void sendRPY(int channel, int messageNumber, Message message) { }
+		public void sendERR(int channel, int messageNumber, Message message) { }
+		public void sendANS(int channel, int messageNumber, int answerNumber, Message message) { }
+		public void sendNUL(int channel, int messageNumber) { }
+		public void sendMSGFragment(int channel, int messageNumber, ByteBuffer buffer, boolean last) { }
+		public void awaitFramesSent(int channel) { }
+		public boolean isCompressionSupported() { return false; }
+		public void startCompression() { }
+		public void closeTransport() { }
+	}
+	
+}
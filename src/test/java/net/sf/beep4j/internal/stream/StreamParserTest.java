@@ -15,6 +15,7 @@
  */
 package net.sf.beep4j.internal.stream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.nio.ByteBuffer;
@@ -23,6 +24,10 @@ import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
 
 import junit.framework.TestCase;
+import net.sf.beep4j.internal.ChannelSlot;
+import net.sf.beep4j.internal.ChannelSlots;
+import net.sf.beep4j.transport.DeflatingTransport;
+import net.sf.beep4j.transport.Transport;
 
 import org.easymock.MockControl;
 
@@ -35,6 +40,10 @@ public class StreamParserTest extends TestCase {
 	private MockControl mappingCtrl;
 	
 	private TransportMapping mapping;
+	
+	private ChannelSlots slots;
+	
+	private ChannelSlot slot;
 
 	private ByteBuffer getMessage(String name) throws Exception {
 		File file = new File("data/" + name);
@@ -48,6 +57,8 @@ public class StreamParserTest extends TestCase {
 		handler = (FrameHandler) handlerCtrl.getMock();
 		mappingCtrl = MockControl.createStrictControl(TransportMapping.class);
 		mapping = (TransportMapping) mappingCtrl.getMock();
+		slots = new ChannelSlots();
+		slot = slots.open(0);
 	}
 	
 	public void testOneFrame() throws Exception {
@@ -60,15 +71,15 @@ public class StreamParserTest extends TestCase {
 		
 		// define expectations
 		handler.handleFrame(frame);		
-		mapping.checkFrame(0, 0, 52);
-		mapping.frameReceived(0, 0, 52);
+		mapping.checkFrame(slot, 0, 52);
+		mapping.frameReceived(slot, 0, 52);
 		
 		// replay
 		mappingCtrl.replay();
 		handlerCtrl.replay();
 		
 		// test
-		StreamParser parser = new DefaultStreamParser(handler, mapping);
+		StreamParser parser = new DefaultStreamParser(handler, mapping, slots);
 		ByteBuffer buffer = getMessage("greeting/i_greeting.txt");		
 		parser.process(buffer);
 		
@@ -87,18 +98,18 @@ public class StreamParserTest extends TestCase {
 		
 		// define expectations
 		handler.handleFrame(frame);		
-		mapping.checkFrame(0, 0, 52);
-		mapping.frameReceived(0, 0, 52);
+		mapping.checkFrame(slot, 0, 52);
+		mapping.frameReceived(slot, 0, 52);
 		handler.handleFrame(frame);		
-		mapping.checkFrame(0, 0, 52);
-		mapping.frameReceived(0, 0, 52);
+		mapping.checkFrame(slot, 0, 52);
+		mapping.frameReceived(slot, 0, 52);
 
 		// replay
 		mappingCtrl.replay();
 		handlerCtrl.replay();
 
 		// test
-		StreamParser parser = new DefaultStreamParser(handler, mapping);
+		StreamParser parser = new DefaultStreamParser(handler, mapping, slots);
 		parser.process(getMessage("greeting/i_greeting.txt"));
 		parser.process(getMessage("greeting/i_greeting.txt"));
 		
@@ -107,6 +118,59 @@ public class StreamParserTest extends TestCase {
 		handlerCtrl.verify();
 	}
 	
+	public void testCompressedStream() throws Exception {
+		// setup
+		Charset charset = Charset.forName("UTF-8");
+		DataHeader header = new DataHeader(MessageType.RPY, 0, 0, false, 0, 52);
+		Frame frame = new Frame(
+				header,
+				charset.encode("Content-Type: application/beep+xml\r\n\r\n<greeting />\r\n"));
+		
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		DeflatingTransport transport = new DeflatingTransport(new Transport() {
+			public void sendBytes(ByteBuffer buffer) {
+				while (buffer.hasRemaining()) {
+					compressed.write(buffer.get());
+				}
+			}
+			public void closeTransport() {
+			}
+		});
+		transport.startCompression();
+		transport.sendBytes(getMessage("greeting/i_greeting.txt"));
+		transport.sendBytes(getMessage("greeting/i_greeting.txt"));
+		
+		// define expectations
+		for (int i = 0; i < 3; i++) {
+			handler.handleFrame(frame);		
+			mapping.checkFrame(slot, 0, 52);
+			mapping.frameReceived(slot, 0, 52);
+		}
+		
+		// replay
+		mappingCtrl.replay();
+		handlerCtrl.replay();
+		
+		// test
+		DefaultStreamParser parser = new DefaultStreamParser(handler, mapping, slots);
+		parser.setCompressionEnabled(true);
+		ByteBuffer plain = getMessage("greeting/i_greeting.txt");
+		byte[] bytes = compressed.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocate(plain.remaining() + bytes.length);
+		buffer.put(plain).put(bytes).flip();
+		
+		// the stream switches to compressed data in the middle of a buffer
+		int split = buffer.limit() - 7;
+		buffer.limit(split);
+		parser.process(buffer);
+		buffer.limit(buffer.capacity());
+		parser.process(buffer);
+		
+		// verify
+		mappingCtrl.verify();
+		handlerCtrl.verify();
+	}
+	
 	public void testMappingFrame() throws Exception {
 		// define expectations
 		mapping.processMappingFrame(new String[] { "SEQ", "0", "0", "4096" });
@@ -117,7 +181,7 @@ public class StreamParserTest extends TestCase {
 		handlerCtrl.replay();
 		
 		// test
-		StreamParser parser = new DefaultStreamParser(handler, mapping);
+		StreamParser parser = new DefaultStreamParser(handler, mapping, slots);
 		Charset charset = Charset.forName("US-ASCII");
 		ByteBuffer buffer = charset.encode("SEQ 0 0 4096\r\n");
 		parser.process(buffer);
@@ -139,15 +203,15 @@ public class StreamParserTest extends TestCase {
 		mapping.processMappingFrame(new String[] { "SEQ", "0", "0", "4096" });
 		mappingCtrl.setMatcher(MockControl.ARRAY_MATCHER);
 		handler.handleFrame(frame);		
-		mapping.checkFrame(0, 0, 52);
-		mapping.frameReceived(0, 0, 52);
+		mapping.checkFrame(slot, 0, 52);
+		mapping.frameReceived(slot, 0, 52);
 		
 		// replay
 		mappingCtrl.replay();
 		handlerCtrl.replay();
 		
 		// test
-		StreamParser parser = new DefaultStreamParser(handler, mapping);
+		StreamParser parser = new DefaultStreamParser(handler, mapping, slots);
 		ByteBuffer buffer = charset.encode("SEQ 0 0 4096\r\n");
 		parser.process(buffer);
 		parser.process(getMessage("greeting/i_greeting.txt"));
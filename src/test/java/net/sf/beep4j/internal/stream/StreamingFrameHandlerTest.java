@@ -0,0 +1,187 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageContentHandler;
+import net.sf.beep4j.internal.stream.DataHeader.ANSHeader;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+
+public class StreamingFrameHandlerTest extends TestCase {
+	
+	private static final Charset CHARSET = Charset.forName("US-ASCII");
+	
+	private Mockery context;
+	
+	private Sequence sequence;
+	
+	private StreamingMessageHandler handler;
+	
+	private MessageContentHandler contentHandler;
+	
+	private StreamingFrameHandler target;
+	
+	private long seqno;
+	
+	@Override
+	protected void setUp() throws Exception {
+		context = new Mockery();
+		sequence = context.sequence("main-sequence");
+		handler = context.mock(StreamingMessageHandler.class);
+		contentHandler = context.mock(MessageContentHandler.class);
+		target = new StreamingFrameHandler(handler);
+	}
+	
+	private static ByteBuffer buffer(String content) {
+		return CHARSET.encode(content);
+	}
+	
+	private Frame createFrame(MessageType type, boolean intermediate, String payload) {
+		ByteBuffer buffer = buffer(payload);
+		DataHeader header = new DataHeader(type, 1, 1, intermediate, seqno, buffer.remaining());
+		seqno += buffer.remaining();
+		return new Frame(header, buffer);
+	}
+	
+	public void testStreamMSG() throws Exception {
+		// define expectations
+		context.checking(new Expectations() {{
+			one(handler).receiveMSGStart(with(equal(1)), with(equal(1)), with(any(Message.class)));
+			will(returnValue(contentHandler)); inSequence(sequence);
+			one(contentHandler).contentReceived(buffer("ab")); inSequence(sequence);
+			one(contentHandler).contentReceived(buffer("cd")); inSequence(sequence);
+			one(contentHandler).contentCompleted(); inSequence(sequence);
+		}});
+		
+		// test
+		target.handleFrame(createFrame(MessageType.MSG, true, "Content-Type: text/plain\r\n\r\nab"));
+		target.handleFrame(createFrame(MessageType.MSG, false, "cd"));
+		
+		// verify
+		context.assertIsSatisfied();
+	}
+	
+	public void testStreamRPYWithHeaderSpanningFrames() throws Exception {
+		// define expectations
+		context.checking(new Expectations() {{
+			one(handler).receiveRPYStart(with(equal(1)), with(equal(1)), with(any(Message.class)));
+			will(returnValue(contentHandler)); inSequence(sequence);
+			one(contentHandler).contentReceived(buffer("ab")); inSequence(sequence);
+			one(contentHandler).contentCompleted(); inSequence(sequence);
+		}});
+		
+		// test
+		target.handleFrame(createFrame(MessageType.RPY, true, "Content-Type: te"));
+		target.handleFrame(createFrame(MessageType.RPY, false, "xt/plain\r\n\r\nab"));
+		
+		// verify
+		context.assertIsSatisfied();
+	}
+	
+	public void testAssembleMessageThatIsNotStreamed() throws Exception {
+		// define expectations
+		context.checking(new Expectations() {{
+			one(handler).receiveMSGStart(with(equal(1)), with(equal(1)), with(any(Message.class)));
+			will(returnValue(null)); inSequence(sequence);
+			one(handler).receiveMSG(with(equal(1)), with(equal(1)), with(any(Message.class))); 
+			inSequence(sequence);
+		}});
+		
+		// test
+		target.handleFrame(createFrame(MessageType.MSG, true, "\r\nab"));
+		target.handleFrame(createFrame(MessageType.MSG, false, "cd"));
+		
+		// verify
+		context.assertIsSatisfied();
+	}
+	
+	public void testAssembleANS() throws Exception {
+		// define expectations
+		context.checking(new Expectations() {{
+			one(handler).receiveANS(with(equal(1)), with(equal(1)), with(equal(0)), with(any(Message.class))); 
+			inSequence(sequence);
+			one(handler).receiveNUL(1, 1); inSequence(sequence);
+		}});
+		
+		// test
+		target.handleFrame(new Frame(new ANSHeader(1, 1, false, 0, 4, 0), buffer("\r\nab")));
+		target.handleFrame(new Frame(new DataHeader(MessageType.NUL, 1, 1, false, 4, 0), buffer("")));
+		
+		// verify
+		context.assertIsSatisfied();
+	}
+	
+	public void testAbortStreamedMessage() throws Exception {
+		final Exception cause = new Exception("connection closed");
+		
+		// define expectations
+		context.checking(new Expectations() {{
+			one(handler).receiveMSGStart(with(equal(1)), with(equal(1)), with(any(Message.class)));
+			will(returnValue(contentHandler)); inSequence(sequence);
+			one(contentHandler).contentReceived(buffer("ab")); inSequence(sequence);
+			one(contentHandler).contentAborted(cause); inSequence(sequence);
+		}});
+		
+		// test
+		target.handleFrame(createFrame(MessageType.MSG, true, "Content-Type: text/plain\r\n\r\nab"));
+		target.abort(cause);
+		target.abort(cause);
+		
+		// verify
+		context.assertIsSatisfied();
+	}
+	
+	public void testAbortReleasesHeaderFrames() throws Exception {
+		Frame frame = createFrame(MessageType.MSG, true, "Content-Type: te");
+		
+		// test
+		target.handleFrame(frame);
+		target.abort(new Exception("connection closed"));
+		
+		// verify
+		assertEquals(0, frame.getReferenceCount());
+		context.assertIsSatisfied();
+	}
+	
+	public void testMessageNumberMismatch() throws Exception {
+		// define expectations
+		context.checking(new Expectations() {{
+			one(handler).receiveMSGStart(with(equal(1)), with(equal(1)), with(any(Message.class)));
+			will(returnValue(contentHandler));
+			one(contentHandler).contentReceived(buffer("ab"));
+		}});
+		
+		// test
+		target.handleFrame(createFrame(MessageType.MSG, true, "\r\nab"));
+		try {
+			target.handleFrame(new Frame(new DataHeader(MessageType.MSG, 1, 2, false, seqno, 0), buffer("")));
+			fail("message numbers are not equal");
+		} catch (Exception e) {
+			// expected
+		}
+		
+		// verify
+		context.assertIsSatisfied();
+	}
+	
+}
@@ -15,16 +15,23 @@
  */
 package net.sf.beep4j.internal.tcp;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
 import junit.framework.TestCase;
 import net.sf.beep4j.Message;
 import net.sf.beep4j.internal.message.DefaultMessage;
+import net.sf.beep4j.internal.message.FileRegionMessage;
 import net.sf.beep4j.internal.message.MessageHeader;
+import net.sf.beep4j.internal.message.PreEncodedMessage;
 import net.sf.beep4j.internal.stream.Constants;
 import net.sf.beep4j.internal.stream.DataHeader;
 import net.sf.beep4j.internal.stream.MessageType;
+import net.sf.beep4j.transport.FileTransport;
 import net.sf.beep4j.transport.Transport;
 
 import org.easymock.MockControl;
@@ -180,6 +187,227 @@ public class DefaultChannelControllerTest extends TestCase {
 		transportCtrl.verify();
 	}
 	
+	/*
+	 * Tests that a reference counted message is retained until all its
+	 * frames have been sent.
+	 */
+	public void testMessageRetainedUntilSent() throws Exception {
+		ChannelController target = new DefaultChannelController(transport, 0, 88);
+		MessageHeader header = new MessageHeader();
+		header.addHeader("content-type", "application/beep+xml");
+		
+		// define expectations
+		transport.sendBytes(createFrame(0, true, 0, 0, 50, header));
+		transport.sendBytes(createFrame(0, true, 88, 50, 10));
+		transport.sendBytes(createFrame(0, false, 98, 60, 5));
+		
+		// replay
+		transportCtrl.replay();
+		
+		// test
+		DefaultMessage message = (DefaultMessage) createMessage(0, 65);
+		target.sendMSG(1, message);
+		message.release();
+		assertEquals(1, message.getReferenceCount());
+		
+		target.updateSendWindow(10, 88);
+		assertEquals(1, message.getReferenceCount());
+		
+		target.updateSendWindow(15, 88);
+		assertEquals(0, message.getReferenceCount());
+		
+		// verify
+		transportCtrl.verify();
+	}
+	
+	/*
+	 * Tests that a pre-encoded message can be sent several times and
+	 * that its shared buffer is not consumed by sending it.
+	 */
+	public void testSendPreEncodedMessageTwice() throws Exception {
+		ChannelController target = new DefaultChannelController(transport, 0, 4096);
+		MessageHeader header = new MessageHeader();
+		header.addHeader("content-type", "application/beep+xml");
+		
+		// define expectations
+		transport.sendBytes(createFrame(0, false, 0, 0, 50, header));
+		transport.sendBytes(createFrame(0, false, 88, 0, 50, header));
+		
+		// replay
+		transportCtrl.replay();
+		
+		// test
+		Message message = PreEncodedMessage.valueOf(createMessage(0, 50));
+		target.sendMSG(1, message);
+		target.sendMSG(1, message);
+		assertEquals(88, message.asByteBuffer().remaining());
+		
+		// verify
+		transportCtrl.verify();
+	}
+	
+	private FileChannel createFile(int size) throws IOException {
+		File file = File.createTempFile("beep4j", ".dat");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel channel = raf.getChannel();
+		channel.write(createPayload(0, size));
+		return channel;
+	}
+	
+	private ByteBuffer createFrame(boolean intermediate, long seqno, ByteBuffer payload) {
+		ByteBuffer header = new DataHeader(
+				MessageType.MSG, 0, 1, intermediate, 
+				seqno, payload.remaining()).asByteBuffer();
+		ByteBuffer buffer = ByteBuffer.allocate(header.remaining() + payload.remaining() + 5);
+		buffer.put(header);
+		buffer.put(payload);
+		buffer.put(Constants.TRAILER_BYTES);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/*
+	 * Tests that a message with content from a file is sent as a frame
+	 * with the MIME header followed by frames read from the file, which
+	 * are split according to the send window.
+	 */
+	public void testSendFileMessage() throws Exception {
+		FileChannel file = createFile(100);
+		MessageHeader header = new MessageHeader();
+		header.setContentType("text", "plain");
+		ByteBuffer headerBuffer = header.asByteBuffer();
+		int headerSize = headerBuffer.remaining();
+		
+		// define expectations
+		transport.sendBytes(createFrame(true, 0, headerBuffer));
+		transport.sendBytes(createFrame(true, headerSize, createPayload(10, 50)));
+		transport.sendBytes(createFrame(false, headerSize + 50, createPayload(60, 30)));
+		
+		// replay
+		transportCtrl.replay();
+		
+		// test
+		ChannelController target = new DefaultChannelController(transport, 0, headerSize + 50);
+		target.sendMSG(1, new FileRegionMessage(header, file, 10, 80));
+		target.updateSendWindow(headerSize + 50, headerSize + 50);
+		
+		// verify
+		transportCtrl.verify();
+		file.close();
+	}
+	
+	/*
+	 * Tests that frames from files are passed to transports that are able
+	 * to send files.
+	 */
+	public void testSendFileMessageToFileTransport() throws Exception {
+		MockControl fileTransportCtrl = MockControl.createStrictControl(FileTransport.class);
+		fileTransportCtrl.setDefaultMatcher(MockControl.ARRAY_MATCHER);
+		FileTransport fileTransport = (FileTransport) fileTransportCtrl.getMock();
+		
+		FileChannel file = createFile(100);
+		MessageHeader header = new MessageHeader();
+		ByteBuffer headerBuffer = header.asByteBuffer();
+		int headerSize = headerBuffer.remaining();
+		
+		// define expectations
+		fileTransport.sendBytes(createFrame(true, 0, headerBuffer));
+		fileTransport.sendFile(
+				new DataHeader(MessageType.MSG, 0, 1, false, headerSize, 100).asByteBuffer(), 
+				file, 0, 100, ByteBuffer.wrap(Constants.TRAILER_BYTES));
+		
+		// replay
+		fileTransportCtrl.replay();
+		
+		// test
+		ChannelController target = new DefaultChannelController(fileTransport, 0, 4096);
+		target.sendMSG(1, new FileRegionMessage(header, file, 0, 100));
+		
+		// verify
+		fileTransportCtrl.verify();
+		file.close();
+	}
+	
+	private ByteBuffer createFrame(DataHeader dataHeader, ByteBuffer payload) {
+		ByteBuffer header = dataHeader.asByteBuffer();
+		ByteBuffer buffer = ByteBuffer.allocate(header.remaining() + payload.remaining() + 5);
+		buffer.put(header);
+		buffer.put(payload);
+		buffer.put(Constants.TRAILER_BYTES);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/*
+	 * Tests that the fragments of a streamed message are sent as they
+	 * arrive and that other messages are held back until the streamed
+	 * message is complete.
+	 */
+	public void testSendStreamedMessage() throws Exception {
+		Message reply = createMessage(0, 5);
+		int replySize = reply.asByteBuffer().remaining();
+		
+		// define expectations
+		transport.sendBytes(createFrame(true, 0, createPayload(0, 10)));
+		transport.sendBytes(createFrame(false, 10, createPayload(10, 20)));
+		transport.sendBytes(createFrame(
+				new DataHeader(MessageType.RPY, 0, 7, false, 30, replySize), reply.asByteBuffer()));
+		
+		// replay
+		transportCtrl.replay();
+		
+		// test
+		ChannelController target = new DefaultChannelController(transport, 0, 4096);
+		target.sendMSGFragment(1, createPayload(0, 10), false);
+		target.sendRPY(7, reply);
+		target.sendMSGFragment(1, createPayload(10, 20), true);
+		
+		// verify
+		transportCtrl.verify();
+	}
+	
+	/*
+	 * Tests that a thread waiting for the frames to be sent is released
+	 * when the remote peer opens its window.
+	 */
+	public void testAwaitFramesSent() throws Exception {
+		// define expectations
+		transport.sendBytes(createFrame(true, 0, createPayload(0, 10)));
+		transport.sendBytes(createFrame(true, 10, createPayload(10, 5)));
+		
+		// replay
+		transportCtrl.replay();
+		
+		// test
+		final ChannelController target = new DefaultChannelController(transport, 0, 10);
+		target.sendMSGFragment(1, createPayload(0, 15), false);
+		
+		final boolean[] released = new boolean[1];
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					target.awaitFramesSent();
+					released[0] = true;
+				} catch (InterruptedException e) {
+					// test fails
+				}
+			}
+		};
+		waiter.start();
+		waiter.join(100);
+		assertTrue(waiter.isAlive());
+		
+		target.updateSendWindow(10, 10);
+		waiter.join(5000);
+		assertFalse(waiter.isAlive());
+		assertTrue(released[0]);
+		
+		// verify
+		transportCtrl.verify();
+	}
+	
 	public void testFrameReceived() throws Exception {
 		// define expectations
 		transportCtrl.replay();
@@ -18,6 +18,9 @@ package net.sf.beep4j.internal.tcp;
 import junit.framework.TestCase;
 import net.sf.beep4j.Message;
 import net.sf.beep4j.MessageStub;
+import net.sf.beep4j.ProtocolException;
+import net.sf.beep4j.internal.ChannelSlot;
+import net.sf.beep4j.internal.ChannelSlots;
 import net.sf.beep4j.transport.Transport;
 
 import org.easymock.MockControl;
@@ -62,7 +65,8 @@ public class TCPMappingTest extends TestCase {
 	}
 	
 	public void testReceiveFrame() throws Exception {
-		TCPMapping mapping = new TCPMapping(transport, factory);
+		ChannelSlots slots = new ChannelSlots();
+		TCPMapping mapping = new TCPMapping(transport, factory, 4096, slots);
 		
 		// define expectations
 		controller.checkFrame(0, 50);
@@ -71,8 +75,10 @@ public class TCPMappingTest extends TestCase {
 		replay();
 		
 		mapping.channelStarted(0);
-		mapping.checkFrame(0, 0, 50);
-		mapping.frameReceived(0, 0, 50);
+		ChannelSlot slot = slots.get(0);
+		assertSame(controller, slot.getController());
+		mapping.checkFrame(slot, 0, 50);
+		mapping.frameReceived(slot, 0, 50);
 		
 		verify();
 	}
@@ -92,7 +98,8 @@ public class TCPMappingTest extends TestCase {
 	}
 	
 	public void testStartCloseChannel() throws Exception {
-		TCPMapping mapping = new TCPMapping(transport, factory);
+		ChannelSlots slots = new ChannelSlots();
+		TCPMapping mapping = new TCPMapping(transport, factory, 4096, slots);
 		
 		// define expectations
 		factoryCtrl.expectAndReturn(factory.createChannelController(1, transport), null);
@@ -101,16 +108,20 @@ public class TCPMappingTest extends TestCase {
 		// test
 		mapping.channelStarted(0);	
 		mapping.channelStarted(1);
+		ChannelSlot slot = slots.get(1);
 		mapping.channelClosed(1);
+		assertNull(slots.get(1));
 		
 		try {
-			mapping.checkFrame(1, 0, 50);
+			mapping.checkFrame(slot, 0, 50);
 			fail("channel 1 is closed, does not have a controller");
-		} catch (Exception e) {
+		} catch (ProtocolException e) {
 			// expected
-			// TODO: catch proper exception
 		}
 		
+		// the frame of a channel closed while the frame was processed is ignored
+		mapping.frameReceived(slot, 0, 50);
+		
 		// verify
 		verify();
 	}
@@ -199,6 +210,7 @@ public class TCPMappingTest extends TestCase {
 		
 		// define expectations
 		transport.closeTransport();
+		controller.close();
 		replay();
 		
 		// test
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.ReferenceCounted;
+import net.sf.beep4j.internal.message.DefaultMessageBuilder;
+
+public class BufferAllocatorTest extends TestCase {
+	
+	public void testHeapMode() throws Exception {
+		BufferAllocator allocator = new BufferAllocator(false, 1024);
+		ByteBuffer buffer = allocator.allocate(100);
+		assertFalse(buffer.isDirect());
+		assertEquals(100, buffer.capacity());
+		assertNull(allocator.deallocator(buffer));
+		assertEquals(0, allocator.getDirectMemoryUsed());
+	}
+	
+	public void testDirectMode() throws Exception {
+		BufferAllocator allocator = new BufferAllocator(true, 1024);
+		ByteBuffer buffer = allocator.allocate(100);
+		assertTrue(buffer.isDirect());
+		assertEquals(100, allocator.getDirectMemoryUsed());
+		
+		ReferenceCounter counter = new ReferenceCounter(allocator.deallocator(buffer));
+		counter.release();
+		assertEquals(0, allocator.getDirectMemoryUsed());
+	}
+	
+	public void testLimit() throws Exception {
+		BufferAllocator allocator = new BufferAllocator(true, 150);
+		ByteBuffer first = allocator.allocate(100);
+		ByteBuffer second = allocator.allocate(100);
+		assertTrue(first.isDirect());
+		assertFalse(second.isDirect());
+		assertEquals(100, allocator.getDirectMemoryUsed());
+		
+		allocator.free(second);
+		allocator.free(first);
+		assertEquals(0, allocator.getDirectMemoryUsed());
+		assertTrue(allocator.allocate(150).isDirect());
+	}
+	
+	public void testDirectMessage() throws Exception {
+		BufferAllocator allocator = new BufferAllocator(true, 1024);
+		MessageBuilder builder = new DefaultMessageBuilder(allocator);
+		builder.setContentType("text", "plain");
+		builder.setCharsetName("US-ASCII");
+		Writer writer = builder.getWriter();
+		writer.write("abc");
+		writer.close();
+		Message message = builder.getMessage();
+		
+		assertTrue(message.getContentBuffer().isDirect());
+		assertEquals(3, allocator.getDirectMemoryUsed());
+		assertEquals(ByteBuffer.wrap("abc".getBytes("US-ASCII")), message.getContentBuffer());
+		
+		InputStream in = message.getInputStream();
+		assertEquals('a', in.read());
+		Reader reader = message.getReader();
+		assertEquals('a', reader.read());
+		ByteBuffer encoded = message.asByteBuffer();
+		assertEquals('c', encoded.get(encoded.limit() - 1));
+		
+		((ReferenceCounted) message).release();
+		assertEquals(0, allocator.getDirectMemoryUsed());
+	}
+	
+	public void testOutgoingMessagesAreAllocatedOnHeap() throws Exception {
+		BufferAllocator previous = BufferAllocator.getInstance();
+		BufferAllocator allocator = new BufferAllocator(true, 1024);
+		BufferAllocator.setInstance(allocator);
+		try {
+			MessageBuilder builder = new DefaultMessageBuilder();
+			builder.getOutputStream().write(new byte[] { 1, 2, 3 });
+			Message message = builder.getMessage();
+			
+			assertFalse(message.getContentBuffer().isDirect());
+			assertEquals(0, allocator.getDirectMemoryUsed());
+		} finally {
+			BufferAllocator.setInstance(previous);
+		}
+	}
+	
+	public void testPreEncodedMessageFreesIntermediateMessage() throws Exception {
+		BufferAllocator allocator = new BufferAllocator(true, 1024);
+		MessageBuilder builder = new DefaultMessageBuilder(allocator);
+		builder.getOutputStream().write(new byte[] { 1, 2, 3 });
+		Message message = builder.getPreEncodedMessage();
+		
+		assertEquals(0, allocator.getDirectMemoryUsed());
+		assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), message.getContentBuffer());
+	}
+	
+}
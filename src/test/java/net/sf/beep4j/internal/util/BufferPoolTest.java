@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class BufferPoolTest extends TestCase {
+	
+	public void testBufferIsReused() throws Exception {
+		BufferPool pool = new BufferPool(64, 2);
+		ByteBuffer buffer = pool.allocate(10);
+		assertEquals(0, buffer.position());
+		assertEquals(10, buffer.limit());
+		
+		buffer.put((byte) 1);
+		pool.deallocator(buffer).run();
+		assertEquals(1, pool.getPooledCount());
+		
+		ByteBuffer reused = pool.allocate(20);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(20, reused.limit());
+		assertEquals(0, pool.getPooledCount());
+	}
+	
+	public void testLargeBufferIsNotPooled() throws Exception {
+		BufferPool pool = new BufferPool(64, 2);
+		ByteBuffer buffer = pool.allocate(65);
+		assertEquals(65, buffer.capacity());
+		assertNull(pool.deallocator(buffer));
+		pool.free(buffer);
+		assertEquals(0, pool.getPooledCount());
+	}
+	
+	public void testPoolSizeIsLimited() throws Exception {
+		BufferPool pool = new BufferPool(64, 2);
+		ByteBuffer[] buffers = new ByteBuffer[3];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = pool.allocate(64);
+		}
+		for (int i = 0; i < buffers.length; i++) {
+			pool.free(buffers[i]);
+		}
+		assertEquals(2, pool.getPooledCount());
+	}
+	
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class ChannelTableTest extends TestCase {
+	
+	private ChannelTable<String> table;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		table = new ChannelTable<String>();
+	}
+	
+	public void testEmptyTable() throws Exception {
+		assertEquals(0, table.size());
+		assertNull(table.get(0));
+		assertNull(table.get(-1));
+		assertNull(table.get(ChannelTable.DENSE_LIMIT + 1));
+		assertFalse(table.containsKey(3));
+		assertTrue(table.values().isEmpty());
+	}
+	
+	public void testDenseChannels() throws Exception {
+		assertNull(table.put(0, "zero"));
+		assertNull(table.put(1, "one"));
+		assertNull(table.put(99, "ninety-nine"));
+		assertEquals("one", table.put(1, "uno"));
+		assertEquals(3, table.size());
+		assertEquals("zero", table.get(0));
+		assertEquals("uno", table.get(1));
+		assertEquals("ninety-nine", table.get(99));
+		assertNull(table.get(2));
+		
+		assertEquals("uno", table.remove(1));
+		assertNull(table.remove(1));
+		assertFalse(table.containsKey(1));
+		assertEquals(2, table.size());
+	}
+	
+	public void testSparseChannels() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			int channel = ChannelTable.DENSE_LIMIT + i * 1001;
+			assertNull(table.put(channel, "channel-" + channel));
+		}
+		table.put(Integer.MAX_VALUE, "max");
+		assertEquals(101, table.size());
+		for (int i = 0; i < 100; i++) {
+			int channel = ChannelTable.DENSE_LIMIT + i * 1001;
+			assertEquals("channel-" + channel, table.get(channel));
+		}
+		assertEquals("max", table.get(Integer.MAX_VALUE));
+		assertNull(table.get(ChannelTable.DENSE_LIMIT + 1));
+		
+		for (int i = 0; i < 100; i += 2) {
+			int channel = ChannelTable.DENSE_LIMIT + i * 1001;
+			assertEquals("channel-" + channel, table.remove(channel));
+		}
+		assertEquals(51, table.size());
+		for (int i = 0; i < 100; i++) {
+			int channel = ChannelTable.DENSE_LIMIT + i * 1001;
+			assertEquals(i % 2 == 0 ? null : "channel-" + channel, table.get(channel));
+		}
+	}
+	
+	public void testValues() throws Exception {
+		table.put(1, "one");
+		table.put(3, "three");
+		table.put(100001, "large");
+		Set<String> values = new HashSet<String>(table.values());
+		assertEquals(3, values.size());
+		assertTrue(values.contains("one"));
+		assertTrue(values.contains("three"));
+		assertTrue(values.contains("large"));
+	}
+	
+	public void testNegativeChannelNumber() throws Exception {
+		try {
+			table.put(-1, "negative");
+			fail("negative channel numbers are invalid");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import junit.framework.TestCase;
+
+public class ReferenceCounterTest extends TestCase {
+	
+	private int deallocations;
+	
+	private Runnable deallocator = new Runnable() {
+		public void run() {
+			deallocations++;
+		}
+	};
+	
+	public void testRetainRelease() throws Exception {
+		ReferenceCounter counter = new ReferenceCounter(deallocator);
+		assertEquals(1, counter.getReferenceCount());
+		
+		counter.retain();
+		assertEquals(2, counter.getReferenceCount());
+		
+		assertFalse(counter.release());
+		assertEquals(0, deallocations);
+		
+		assertTrue(counter.release());
+		assertEquals(0, counter.getReferenceCount());
+		assertEquals(1, deallocations);
+	}
+	
+	public void testUseAfterRelease() throws Exception {
+		ReferenceCounter counter = new ReferenceCounter(deallocator);
+		counter.release();
+		
+		try {
+			counter.release();
+			fail("released counter must not be released again");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		
+		try {
+			counter.retain();
+			fail("released counter must not be retained");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		
+		assertEquals(1, deallocations);
+	}
+	
+	public void testReportLeak() throws Exception {
+		LeakDetector detector = new LeakDetector(true);
+		new ReferenceCounter().track(new Object(), detector);
+		
+		ReferenceCounter released = new ReferenceCounter();
+		Object owner = new Object();
+		released.track(owner, detector);
+		released.release();
+		
+		int leaks = 0;
+		for (int i = 0; i < 50 && leaks == 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+			leaks = detector.reportLeaks();
+		}
+		
+		assertEquals(1, leaks);
+		assertEquals(0, detector.reportLeaks());
+		assertNotNull(owner);
+	}
+	
+	public void testDisabledDetector() throws Exception {
+		LeakDetector detector = new LeakDetector(false);
+		assertNull(detector.track(new Object()));
+	}
+	
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.internal.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class SerialExecutorTest extends TestCase {
+	
+	public void testTasksRunInOrder() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			SerialExecutor executor = new SerialExecutor(pool);
+			final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			final AtomicInteger running = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(100);
+			for (int i = 0; i < 100; i++) {
+				final int index = i;
+				executor.execute(new Runnable() {
+					public void run() {
+						assertEquals(1, running.incrementAndGet());
+						order.add(index);
+						running.decrementAndGet();
+						done.countDown();
+					}
+				});
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, order.get(i).intValue());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	public void testBatchIsResubmitted() throws Exception {
+		QueueExecutor queue = new QueueExecutor();
+		SerialExecutor executor = new SerialExecutor(queue);
+		final AtomicInteger count = new AtomicInteger();
+		for (int i = 0; i < SerialExecutor.BATCH_SIZE + 1; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					count.incrementAndGet();
+				}
+			});
+		}
+		assertEquals(1, queue.tasks.size());
+		
+		queue.runNext();
+		assertEquals(SerialExecutor.BATCH_SIZE, count.get());
+		assertEquals(1, queue.tasks.size());
+		
+		queue.runNext();
+		assertEquals(SerialExecutor.BATCH_SIZE + 1, count.get());
+		assertEquals(0, queue.tasks.size());
+	}
+	
+	public void testExceptionDoesNotStopExecution() throws Exception {
+		QueueExecutor queue = new QueueExecutor();
+		SerialExecutor executor = new SerialExecutor(queue);
+		final AtomicInteger count = new AtomicInteger();
+		executor.execute(new Runnable() {
+			public void run() {
+				throw new RuntimeException("expected");
+			}
+		});
+		executor.execute(new Runnable() {
+			public void run() {
+				count.incrementAndGet();
+			}
+		});
+		queue.runNext();
+		assertEquals(1, count.get());
+	}
+	
+	public void testExecuteAndWait() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			final SerialExecutor executor = new SerialExecutor(pool);
+			final AtomicInteger count = new AtomicInteger();
+			executor.execute(new Runnable() {
+				public void run() {
+					count.incrementAndGet();
+				}
+			});
+			executor.executeAndWait(new Runnable() {
+				public void run() {
+					assertTrue(executor.isExecutorThread());
+					count.incrementAndGet();
+				}
+			});
+			assertEquals(2, count.get());
+			assertFalse(executor.isExecutorThread());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	public void testExecuteAndWaitRethrowsException() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			SerialExecutor executor = new SerialExecutor(pool);
+			executor.executeAndWait(new Runnable() {
+				public void run() {
+					throw new IllegalStateException("expected");
+				}
+			});
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static class QueueExecutor implements Executor {
+		private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+		private void runNext() {
+			tasks.removeFirst().run();
+		}
+	}
+	
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DeflatingTransportTest extends TestCase {
+	
+	private File file;
+	
+	private FileChannel channel;
+	
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("beep4j", ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.write("0123456789".getBytes("US-ASCII"));
+		channel = raf.getChannel();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		channel.close();
+		file.delete();
+	}
+	
+	public void testUncompressedFileFrameIsSentAsOneBuffer() throws Exception {
+		RecordingTransport target = new RecordingTransport();
+		DeflatingTransport transport = new DeflatingTransport(target);
+		
+		transport.sendFile(ascii("MSG 1 0 . 0 4\r\n"), channel, 3, 4, ascii("END\r\n"));
+		
+		assertEquals(1, target.buffers.size());
+		assertEquals(ascii("MSG 1 0 . 0 4\r\n3456END\r\n"), target.buffers.get(0));
+	}
+	
+	private static ByteBuffer ascii(String value) throws Exception {
+		return ByteBuffer.wrap(value.getBytes("US-ASCII"));
+	}
+	
+	private static class RecordingTransport implements Transport {
+		private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		public void sendBytes(ByteBuffer buffer) {
+			buffers.add(buffer);
+		}
+		public void closeTransport() {
+			// ignored
+		}
+	}
+	
+}
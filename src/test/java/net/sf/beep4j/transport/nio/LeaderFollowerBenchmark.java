@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.beep4j.Channel;
+import net.sf.beep4j.Initiator;
+import net.sf.beep4j.Listener;
+import net.sf.beep4j.Message;
+import net.sf.beep4j.MessageBuilder;
+import net.sf.beep4j.NullReplyHandler;
+import net.sf.beep4j.Session;
+import net.sf.beep4j.SessionHandler;
+import net.sf.beep4j.SessionHandlerFactory;
+import net.sf.beep4j.StartChannelRequest;
+import net.sf.beep4j.StartSessionRequest;
+import net.sf.beep4j.ext.ChannelHandlerAdapter;
+import net.sf.beep4j.ext.SessionHandlerAdapter;
+import net.sf.beep4j.integration.EchoProfileHandler;
+import net.sf.beep4j.transport.mina.MinaInitiator;
+import net.sf.beep4j.transport.mina.MinaListener;
+
+import org.apache.mina.common.ThreadModel;
+import org.apache.mina.transport.socket.nio.SocketAcceptor;
+import org.apache.mina.transport.socket.nio.SocketConnector;
+
+/**
+ * Compares the throughput of the threading models of the transport
+ * layer over TCP connections on the loopback interface:
+ * 
+ * <ul>
+ *  <li>io-thread: MINA, all processing on the I/O threads</li>
+ *  <li>worker-pool: MINA, channel handlers dispatched onto a thread pool</li>
+ *  <li>leader-follower: the {@link LeaderFollowerPool}</li>
+ * </ul>
+ * 
+ * <p>Every session opens a number of echo channels, each of which sends
+ * its messages one after the other. The throughput is reported in
+ * round trips per second.</p>
+ * 
+ * <p>Run with: java -cp ... net.sf.beep4j.transport.nio.LeaderFollowerBenchmark [messages] [sessions] [channels] [threads]</p>
+ * 
+ * @author Simon Raess
+ */
+public class LeaderFollowerBenchmark {
+	
+	private static final int ROUNDS = 3;
+	
+	private static final int PORT = 18500;
+	
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int channels = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		
+		Model[] models = new Model[] {
+				new IoThreadModel(), new WorkerPoolModel(threads), new LeaderFollowerModel(threads)
+		};
+		
+		System.out.println("model\t\tround trips/s");
+		int port = PORT;
+		for (int round = 0; round < ROUNDS; round++) {
+			for (Model model : models) {
+				double rate = run(model, port++, messages, sessions, channels);
+				if (round == ROUNDS - 1) {
+					System.out.println(model.getName() + "\t" + (long) rate);
+				}
+			}
+		}
+	}
+	
+	private static double run(Model model, int port, int messages, int sessions, int channels) throws Exception {
+		SocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		CountDownLatch done = new CountDownLatch(sessions * channels);
+		
+		model.start();
+		try {
+			Listener listener = model.createListener();
+			listener.bind(address, new BenchmarkSessionHandlerFactory());
+			
+			Initiator initiator = model.createInitiator();
+			BenchmarkClientHandler[] clients = new BenchmarkClientHandler[sessions];
+			long start = System.nanoTime();
+			for (int i = 0; i < sessions; i++) {
+				clients[i] = new BenchmarkClientHandler(channels, messages, done);
+				initiator.connect(address, clients[i]);
+			}
+			done.await();
+			long time = System.nanoTime() - start;
+			
+			for (BenchmarkClientHandler client : clients) {
+				client.session.close();
+			}
+			model.unbind(address);
+			
+			return (double) messages * sessions * channels * 1000000000L / time;
+		} finally {
+			model.stop();
+		}
+	}
+	
+	private static interface Model {
+		String getName();
+		void start() throws Exception;
+		Listener createListener();
+		void unbind(SocketAddress address);
+		Initiator createInitiator();
+		void stop() throws Exception;
+	}
+	
+	private static class IoThreadModel implements Model {
+		public String getName() {
+			return "io-thread";
+		}
+		private MinaListener listener;
+		public void start() throws Exception { }
+		public Listener createListener() {
+			SocketAcceptor acceptor = new SocketAcceptor();
+			acceptor.getDefaultConfig().setThreadModel(ThreadModel.MANUAL);
+			listener = new MinaListener(acceptor);
+			return listener;
+		}
+		public void unbind(SocketAddress address) {
+			listener.unbind(address);
+		}
+		public Initiator createInitiator() {
+			SocketConnector connector = new SocketConnector();
+			connector.getDefaultConfig().setThreadModel(ThreadModel.MANUAL);
+			return new MinaInitiator(connector);
+		}
+		public void stop() throws Exception { }
+	}
+	
+	private static class WorkerPoolModel extends IoThreadModel {
+		private final int threads;
+		private ExecutorService executor;
+		private WorkerPoolModel(int threads) {
+			this.threads = threads;
+		}
+		@Override
+		public String getName() {
+			return "worker-pool";
+		}
+		@Override
+		public void start() {
+			executor = Executors.newFixedThreadPool(threads);
+		}
+		@Override
+		public Listener createListener() {
+			MinaListener listener = (MinaListener) super.createListener();
+			listener.setExecutor(executor);
+			return listener;
+		}
+		@Override
+		public Initiator createInitiator() {
+			MinaInitiator initiator = (MinaInitiator) super.createInitiator();
+			initiator.setExecutor(executor);
+			return initiator;
+		}
+		@Override
+		public void stop() throws Exception {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+	
+	private static class LeaderFollowerModel implements Model {
+		private final int threads;
+		private LeaderFollowerPool pool;
+		private LeaderFollowerModel(int threads) {
+			this.threads = threads;
+		}
+		public String getName() {
+			return "leader-follower";
+		}
+		public void start() throws Exception {
+			pool = new LeaderFollowerPool(threads);
+			pool.start();
+		}
+		private NioListener listener;
+		public Listener createListener() {
+			listener = new NioListener(pool);
+			return listener;
+		}
+		public void unbind(SocketAddress address) {
+			listener.unbind(address);
+		}
+		public Initiator createInitiator() {
+			return new NioInitiator(pool);
+		}
+		public void stop() {
+			pool.stop();
+		}
+	}
+	
+	private static class BenchmarkSessionHandlerFactory implements SessionHandlerFactory {
+		public SessionHandler createSessionHandler() {
+			return new SessionHandlerAdapter() {
+				@Override
+				public void connectionEstablished(StartSessionRequest s) {
+					s.registerProfile(EchoProfileHandler.PROFILE);
+				}
+				@Override
+				public void channelStartRequested(StartChannelRequest request) {
+					request.selectProfile(request.getProfile(EchoProfileHandler.PROFILE), new EchoProfileHandler());
+				}
+			};
+		}
+	}
+	
+	private static class BenchmarkClientHandler extends SessionHandlerAdapter {
+		private final int channels;
+		private final int messages;
+		private final CountDownLatch done;
+		private volatile Session session;
+		private BenchmarkClientHandler(int channels, int messages, CountDownLatch done) {
+			this.channels = channels;
+			this.messages = messages;
+			this.done = done;
+		}
+		@Override
+		public void sessionOpened(Session session) {
+			this.session = session;
+			for (int i = 0; i < channels; i++) {
+				session.startChannel(EchoProfileHandler.PROFILE, new PingChannelHandler(messages, done));
+			}
+		}
+	}
+	
+	private static class PingChannelHandler extends ChannelHandlerAdapter {
+		private final CountDownLatch done;
+		private int remaining;
+		private PingChannelHandler(int messages, CountDownLatch done) {
+			this.remaining = messages;
+			this.done = done;
+		}
+		@Override
+		public void channelOpened(Channel c) {
+			super.channelOpened(c);
+			send();
+		}
+		private void send() {
+			MessageBuilder builder = createMessageBuilder();
+			builder.setContentType("text", "plain");
+			builder.setCharsetName("UTF-8");
+			PrintWriter writer = new PrintWriter(builder.getWriter());
+			writer.print("ping");
+			writer.close();
+			getChannel().sendMessage(builder.getMessage(), new NullReplyHandler() {
+				@Override
+				public void receivedRPY(Message message) {
+					if (--remaining == 0) {
+						done.countDown();
+					} else {
+						send();
+					}
+				}
+			});
+		}
+	}
+	
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class NioEventLoopGroupTest extends TestCase {
+	
+	private NioEventLoopGroup group;
+	
+	private NioEventLoop first;
+	
+	private NioEventLoop second;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		group = new NioEventLoopGroup(2);
+		group.setRebalanceInterval(0, TimeUnit.MILLISECONDS);
+		group.start();
+		first = group.getLoops().get(0);
+		second = group.getLoops().get(1);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		group.stop();
+		super.tearDown();
+	}
+	
+	public void testSessionsAreAssignedToLeastLoadedLoop() throws Exception {
+		LoopBinding b1 = group.bind();
+		LoopBinding b2 = group.bind();
+		LoopBinding b3 = group.bind();
+		
+		assertSame(first, b1.getLoop());
+		assertSame(second, b2.getLoop());
+		assertSame(first, b3.getLoop());
+		assertEquals(2, first.getSessionCount());
+		assertEquals(1, second.getSessionCount());
+		
+		b1.release();
+		b1.release();
+		awaitSessionCount(first, 1);
+		assertSame(first, group.bind().getLoop());
+		assertSame(second, group.bind().getLoop());
+	}
+	
+	public void testMigrationKeepsTaskOrder() throws Exception {
+		final LoopBinding binding = group.bind();
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final CountDownLatch done = new CountDownLatch(1000);
+		for (int i = 0; i < 1000; i++) {
+			if (i == 500) {
+				binding.migrateTo(second);
+			}
+			final int index = i;
+			binding.execute(new Runnable() {
+				public void run() {
+					order.add(index);
+					threads.add(binding.inEventLoop() ? Thread.currentThread() : null);
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		
+		Thread firstThread = threads.get(0);
+		Thread secondThread = threads.get(999);
+		assertNotNull(firstThread);
+		assertNotNull(secondThread);
+		assertNotSame(firstThread, secondThread);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, order.get(i).intValue());
+			assertSame(i < 500 ? firstThread : secondThread, threads.get(i));
+		}
+		assertSame(second, binding.getLoop());
+		assertEquals(0, first.getSessionCount());
+		assertEquals(1, second.getSessionCount());
+	}
+	
+	public void testMigratedChannelIsServedByNewLoop() throws Exception {
+		final LoopBinding binding = group.bind();
+		final Pipe pipe = Pipe.open();
+		final Semaphore received = new Semaphore(0);
+		final List<NioEventLoop> servingLoops = Collections.synchronizedList(new ArrayList<NioEventLoop>());
+		try {
+			pipe.source().configureBlocking(false);
+			binding.register(pipe.source(), SelectionKey.OP_READ, new Reactor.EventHandler() {
+				public void handleEvent(SelectionKey key) {
+					try {
+						ByteBuffer buffer = ByteBuffer.allocate(16);
+						if (pipe.source().read(buffer) > 0) {
+							servingLoops.add(NioEventLoop.current());
+							received.release();
+						}
+					} catch (Exception e) {
+						fail(e.getMessage());
+					}
+				}
+			});
+			
+			pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+			assertTrue(received.tryAcquire(10, TimeUnit.SECONDS));
+			
+			binding.migrateTo(second);
+			awaitSessionCount(second, 1);
+			
+			pipe.sink().write(ByteBuffer.wrap(new byte[] { 2 }));
+			assertTrue(received.tryAcquire(10, TimeUnit.SECONDS));
+			
+			assertSame(first, servingLoops.get(0));
+			assertSame(second, servingLoops.get(1));
+			assertEquals(2, binding.sampleEvents());
+		} finally {
+			pipe.sink().close();
+			pipe.source().close();
+		}
+	}
+	
+	public void testRebalanceMovesSessionOffBusyLoop() throws Exception {
+		group.bind();
+		group.bind();
+		group.bind();
+		group.rebalance();
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		first.execute(new Runnable() {
+			public void run() {
+				long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+				while (System.nanoTime() < end);
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		Thread.sleep(20);
+		
+		group.rebalance();
+		assertTrue(first.getUtilization() > second.getUtilization());
+		awaitSessionCount(second, 2);
+		assertEquals(1, first.getSessionCount());
+	}
+	
+	public void testBalancedLoopsAreLeftAlone() throws Exception {
+		group.bind();
+		group.bind();
+		group.bind();
+		group.rebalance();
+		Thread.sleep(50);
+		group.rebalance();
+		Thread.sleep(50);
+		assertEquals(2, first.getSessionCount());
+		assertEquals(1, second.getSessionCount());
+	}
+	
+	private void awaitSessionCount(NioEventLoop loop, int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (loop.getSessionCount() != count && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, loop.getSessionCount());
+	}
+	
+}
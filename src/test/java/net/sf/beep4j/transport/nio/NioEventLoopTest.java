@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class NioEventLoopTest extends TestCase {
+	
+	private NioEventLoop eventLoop;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		eventLoop = new NioEventLoop("test-loop");
+		eventLoop.start();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		eventLoop.stop();
+		super.tearDown();
+	}
+	
+	public void testTasksRunOnLoopThreadInOrder() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Boolean> inLoop = Collections.synchronizedList(new ArrayList<Boolean>());
+		final CountDownLatch done = new CountDownLatch(1000);
+		for (int i = 0; i < 1000; i++) {
+			final int index = i;
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					order.add(index);
+					inLoop.add(eventLoop.inEventLoop());
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, order.get(i).intValue());
+			assertTrue(inLoop.get(i));
+		}
+		assertFalse(eventLoop.inEventLoop());
+	}
+	
+	public void testTaskSubmittedByTaskIsRun() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				eventLoop.execute(new Runnable() {
+					public void run() {
+						done.countDown();
+					}
+				});
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+	
+	public void testFailingTaskDoesNotStopLoop() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				throw new RuntimeException("expected");
+			}
+		});
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+	
+	public void testScheduledTasksRunInDeadlineOrder() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(3);
+		long start = System.nanoTime();
+		for (final int delay : new int[] { 60, 20, 40 }) {
+			eventLoop.schedule(new Runnable() {
+				public void run() {
+					order.add(eventLoop.inEventLoop() ? delay : -delay);
+					done.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+		assertEquals(20, order.get(0).intValue());
+		assertEquals(40, order.get(1).intValue());
+		assertEquals(60, order.get(2).intValue());
+	}
+	
+	public void testUtilizationReflectsBusyTime() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		eventLoop.sampleUtilization();
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+				while (System.nanoTime() < end);
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		Thread.sleep(20);
+		double utilization = eventLoop.sampleUtilization();
+		assertTrue("utilization " + utilization, utilization > 0.5);
+		assertEquals(utilization, eventLoop.getUtilization());
+		assertTrue(eventLoop.getTaskCount() >= 1);
+		
+		Thread.sleep(100);
+		assertTrue(eventLoop.sampleUtilization() < 0.5);
+	}
+	
+}
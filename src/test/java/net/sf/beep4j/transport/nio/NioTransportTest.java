@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2006 Simon Raess
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.beep4j.transport.nio;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.sf.beep4j.ext.SessionHandlerAdapter;
+
+public class NioTransportTest extends TestCase {
+	
+	private NioEventLoop eventLoop;
+	
+	private ServerSocketChannel server;
+	
+	private SocketChannel client;
+	
+	private SocketChannel peer;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		eventLoop = new NioEventLoop("test-loop");
+		eventLoop.start();
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		client = SocketChannel.open(server.socket().getLocalSocketAddress());
+		peer = server.accept();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		peer.close();
+		client.close();
+		server.close();
+		eventLoop.stop();
+		super.tearDown();
+	}
+	
+	public void testSendDoesNotBlockWhilePeerIsNotReading() throws Exception {
+		final byte[] data = new byte[8 * 1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i % 251);
+		}
+		
+		client.configureBlocking(false);
+		final NioTransport transport = new NioTransport(
+				client, true, new SessionHandlerAdapter() { }, null, false, null);
+		final CountDownLatch sent = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				transport.sendBytes(ByteBuffer.wrap(data));
+				sent.countDown();
+			}
+		}.start();
+		assertTrue("sender must not wait for the peer", sent.await(10, TimeUnit.SECONDS));
+		
+		// the queued bytes are written by the event loop
+		transport.start(eventLoop);
+		ByteBuffer received = ByteBuffer.allocate(data.length);
+		while (received.hasRemaining()) {
+			assertTrue(peer.read(received) >= 0);
+		}
+		received.flip();
+		assertEquals(ByteBuffer.wrap(data), received);
+	}
+	
+}